@@ -51,6 +51,7 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
     @Override
     public void close() {
         isOpen = false;
+        next = null;
     }
 
     /** Reads the next tuple from the underlying source.
@@ -5,9 +5,10 @@ import java.util.*;
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * single column; {@link MultiAggregate} computes several aggregates over
+ * several group by columns.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
 
@@ -17,8 +18,9 @@ public class Aggregate extends Operator {
     private Aggregator.Op op;
 
     private TupleDesc td;
-    private Aggregator aggregator;
+    private HashAggregator aggregator;
     private OpIterator aggregatorIter;
+    private transient TupleBatch batch;
 
     /**
      * Constructor.
@@ -106,9 +108,8 @@ public class Aggregate extends Operator {
 	    return aop.toString();
     }
 
-    public void open() throws NoSuchElementException, DbException,
+    protected void doOpen() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
-	    super.open();
 	    childIter.open();
     }
 
@@ -135,7 +136,31 @@ public class Aggregate extends Operator {
         return tuple;
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
+    /**
+     * Batch counterpart of {@link #fetchNext()}: aggregates the batches of the
+     * child, then returns the groups in batches.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        if (aggregatorIter == null) {
+            BatchOpIterator child = BatchingAdapter.of(childIter);
+            TupleBatch childBatch;
+            while ((childBatch = child.nextBatch()) != null) {
+                aggregator.mergeBatch(childBatch);
+            }
+            aggregatorIter = aggregator.iterator();
+            aggregatorIter.open();
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && aggregatorIter.hasNext()) {
+            batch.addTuple(aggregatorIter.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
 	    if (aggregatorIter != null) {
 	        aggregatorIter.rewind();
         }
@@ -170,11 +195,23 @@ public class Aggregate extends Operator {
 	    return td;
     }
 
+    /**
+     * Sets the maximum number of groups the aggregate keeps in memory; groups
+     * beyond that are spilled to disk. Must be called before the aggregate is
+     * opened.
+     */
+    public void setMaxGroups(int maxGroups) {
+        aggregator.setMaxGroups(maxGroups);
+    }
+
     public void close() {
         childIter.close();
         if (aggregatorIter != null) {
             aggregatorIter.close();
+            aggregatorIter = null;
         }
+        aggregator.clear();
+        batch = null;
         super.close();
     }
 
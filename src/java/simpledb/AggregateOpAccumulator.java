@@ -13,6 +13,11 @@ public abstract class AggregateOpAccumulator {
             count++;
         }
 
+        @Override
+        public void addInt(int value) {
+            count++;
+        }
+
         @Override
         public Field aggregate() {
             return new IntField(count);
@@ -20,15 +25,17 @@ public abstract class AggregateOpAccumulator {
     }
 
     public static class AggregateMaxAccumulator extends AggregateOpAccumulator {
-        private Integer maximum = null;
+        private int maximum = Integer.MIN_VALUE;
 
         @Override
         public void add(Field field) throws ClassCastException {
-            int value = IntField.class.cast(field).getValue();
-            if (maximum == null) {
+            addInt(((IntField) field).getValue());
+        }
+
+        @Override
+        public void addInt(int value) {
+            if (value > maximum) {
                 maximum = value;
-            } else {
-                maximum = Math.max(maximum, value);
             }
         }
 
@@ -39,15 +46,17 @@ public abstract class AggregateOpAccumulator {
     }
 
     public static class AggregateMinAccumulator extends AggregateOpAccumulator {
-        private Integer minimum = null;
+        private int minimum = Integer.MAX_VALUE;
 
         @Override
         public void add(Field field) throws ClassCastException {
-            int value = IntField.class.cast(field).getValue();
-            if (minimum == null) {
+            addInt(((IntField) field).getValue());
+        }
+
+        @Override
+        public void addInt(int value) {
+            if (value < minimum) {
                 minimum = value;
-            } else {
-                minimum = Math.min(minimum, value);
             }
         }
 
@@ -62,7 +71,11 @@ public abstract class AggregateOpAccumulator {
 
         @Override
         public void add(Field field) throws ClassCastException {
-            int value = IntField.class.cast(field).getValue();
+            addInt(((IntField) field).getValue());
+        }
+
+        @Override
+        public void addInt(int value) {
             sum += value;
         }
 
@@ -78,7 +91,11 @@ public abstract class AggregateOpAccumulator {
 
         @Override
         public void add(Field field) throws ClassCastException {
-            int value = IntField.class.cast(field).getValue();
+            addInt(((IntField) field).getValue());
+        }
+
+        @Override
+        public void addInt(int value) {
             sum += value;
             count++;
         }
@@ -90,6 +107,28 @@ public abstract class AggregateOpAccumulator {
         }
     }
 
+    public static class AggregateCountDistinctAccumulator extends AggregateOpAccumulator {
+        /** The precision of the sketches of COUNT_DISTINCT, see {@link HyperLogLog#HyperLogLog(int)} */
+        public static final int PRECISION = 10;
+
+        private final HyperLogLog sketch = new HyperLogLog(PRECISION);
+
+        @Override
+        public void add(Field field) {
+            sketch.add(field);
+        }
+
+        @Override
+        public void addInt(int value) {
+            sketch.add(value);
+        }
+
+        @Override
+        public Field aggregate() {
+            return new IntField(sketch.estimate());
+        }
+    }
+
     /**
      * Add a data point for aggregation.
      * @param field data to insert
@@ -97,6 +136,14 @@ public abstract class AggregateOpAccumulator {
      */
     public abstract void add(Field field) throws ClassCastException;
 
+    /**
+     * Add an int data point for aggregation, without boxing it into a Field.
+     * @param value data to insert
+     */
+    public void addInt(int value) {
+        add(new IntField(value));
+    }
+
     /**
      * Compute the aggregated result.
      */
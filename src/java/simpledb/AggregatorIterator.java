@@ -55,7 +55,7 @@ public class AggregatorIterator extends Operator {
     }
 
     @Override
-    public void rewind() throws DbException, TransactionAbortedException {
+    protected void doRewind() throws DbException, TransactionAbortedException {
         iter = aggregates.entrySet().iterator();
     }
 
@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the batch-at-a-time counterpart of {@link OpIterator}:
+ * instead of one {@link Tuple} per call, {@link #nextBatch()} returns a
+ * {@link TupleBatch} of up to {@link TupleBatch#DEFAULT_CAPACITY} rows, which
+ * saves the per-row virtual calls and Tuple allocations of each operator.
+ * <p>
+ * Operators that implement both interfaces share open, rewind and close
+ * between them, but a single open iteration must use either
+ * {@link OpIterator#next()} or {@link #nextBatch()}, not both. Operators that
+ * only implement OpIterator are used in batch mode through a
+ * {@link BatchingAdapter}, and batch iterators are used as OpIterators
+ * through an {@link UnbatchingAdapter}. A {@link Query} runs its plan in batch
+ * mode when {@link Query#setBatchMode} is set, which the parser does when
+ * started with -batch.
+ */
+public interface BatchOpIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. The batch is never empty. It stays valid
+     * until the next call to nextBatch, rewind or close, and the caller may
+     * modify it in the meantime (for example, filter rows out of it).
+     *
+     * @return the next batch, or null if the iteration is finished
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the returned batches
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,35 @@
+package simpledb;
+
+/**
+ * Abstract class for operators that can return their tuples a batch at a
+ * time as well, see {@link BatchOpIterator}. It handles
+ * <code>nextBatch</code>, which it counts and profiles as {@link Operator}
+ * does <code>next</code>. Subclasses implement <code>fetchNextBatch</code>
+ * in addition to what Operator requires.
+ */
+public abstract class BatchOperator extends Operator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        OperatorProfile profile = getProfile();
+        if (profile == null) {
+            return counted(fetchNextBatch());
+        }
+        profile.enter();
+        try {
+            return counted(fetchNextBatch());
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Returns the next batch of tuples, or null if the iteration is
+     * finished. BatchOperator uses this method to implement
+     * <code>nextBatch</code>.
+     */
+    protected abstract TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException;
+
+}
@@ -0,0 +1,57 @@
+package simpledb;
+
+/**
+ * Presents an {@link OpIterator} as a {@link BatchOpIterator}, by collecting
+ * the tuples it returns into batches.
+ */
+public class BatchingAdapter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private transient TupleBatch batch;
+
+    public BatchingAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it itself if it implements BatchOpIterator natively, otherwise
+     *         an adapter around it. Either way, opening, rewinding and closing
+     *         the result does the same to it.
+     */
+    public static BatchOpIterator of(OpIterator it) {
+        if (it instanceof BatchOpIterator) {
+            return (BatchOpIterator) it;
+        }
+        return new BatchingAdapter(it);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.util.Collection;
+
+/**
+ * A Bloom filter over field values. {@link HashEquiJoin} builds one over the
+ * join keys of each block of its build side and pushes it into the probe
+ * side's {@link SeqScan}, which can then drop most of the tuples that have no
+ * join partner before it decodes them.
+ * <p>
+ * The filter is sized for about one percent false positives. Values are
+ * hashed by their hashCode, so a filter must only be probed with fields of
+ * the type it was built from.
+ */
+public class BloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int NUM_HASHES = 7;
+
+    private final long[] bits;
+    private final int mask;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedEntries
+     *            the number of distinct values that will be added
+     */
+    public BloomFilter(int expectedEntries) {
+        long wanted = Math.max(64L, (long) expectedEntries * BITS_PER_ENTRY);
+        int numBits = Integer.highestOneBit((int) Math.min(wanted, 1 << 30) - 1) << 1;
+        bits = new long[numBits / 64];
+        mask = numBits - 1;
+    }
+
+    /**
+     * Creates a filter that contains the given values.
+     */
+    public static BloomFilter of(Collection<Field> values) {
+        BloomFilter f = new BloomFilter(values.size());
+        for (Field v : values) {
+            f.add(v);
+        }
+        return f;
+    }
+
+    /**
+     * @return the size of the filter in bits
+     */
+    public int numBits() {
+        return mask + 1;
+    }
+
+    public void add(Field f) {
+        addHash(f.hashCode());
+    }
+
+    void addHash(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if f was certainly not added, true if it may have been
+     */
+    public boolean mightContain(Field f) {
+        return mightContainHash(f.hashCode());
+    }
+
+    /**
+     * Like {@link #mightContain(Field)}, for the hashCode of a field.
+     */
+    boolean mightContainHash(int hash) {
+        int h1 = mix(hash);
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The finalizer of MurmurHash3; IntField hashes to its value */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -28,6 +28,7 @@ public class BufferPool {
 
     private final LockManager lockManager;
     private final PageCache pageCache;
+    private final int numPages;
 
     /**
      * Creates a BufferPool that caches up to numPages pageCache.
@@ -37,6 +38,14 @@ public class BufferPool {
     public BufferPool(int numPages) {
         this.lockManager = new LockManager();
         this.pageCache = new PageCache(numPages);
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the maximum number of pages this buffer pool caches
+     */
+    public int getNumPages() {
+        return numPages;
     }
 
     public static int getPageSize() {
@@ -75,6 +84,9 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         lockManager.addPage(pid);
+        // counted only while a query is profiled
+        OperatorProfile.Counters counters = OperatorProfile.counters();
+        long lockStart = counters == null ? 0 : System.nanoTime();
         // lock before fetching page
         try {
             lockManager.acquire(tid, pid, perm);
@@ -82,16 +94,37 @@ public class BufferPool {
         catch (DeadlockException e) {
             throw new TransactionAbortedException();
         }
-        // getting the page from file
-        if (!pageCache.contains(pid)) {
-            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = file.readPage(pid);
-            Page evictedPage = pageCache.put(page);
-            if (evictedPage != null) {
-                evictPage(evictedPage);
+        finally {
+            if (counters != null) {
+                counters.lockWaitNanos += System.nanoTime() - lockStart;
+            }
+        }
+        // getting the page from file; another thread may evict the page
+        // before it is returned, in which case the page read is returned
+        while (true) {
+            Page page = null;
+            if (!pageCache.contains(pid)) {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                page = file.readPage(pid);
+                if (counters != null) {
+                    counters.pageMisses++;
+                }
+                Page evictedPage = pageCache.put(page);
+                if (evictedPage != null) {
+                    evictPage(evictedPage);
+                }
+            }
+            Page cached = pageCache.get(pid);
+            if (cached != null) {
+                if (counters != null && page == null) {
+                    counters.pageHits++;
+                }
+                return cached;
+            }
+            if (page != null) {
+                return page;
             }
         }
-        return pageCache.get(pid);
     }
 
     /**
@@ -156,7 +189,8 @@ public class BufferPool {
      * Marks any pageCache that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pageCache that have
      * been dirtied to the cache (replacing any existing versions of those pageCache) so
-     * that future requests see up-to-date pageCache.
+     * that future requests see up-to-date pageCache. Updates the statistics
+     * of the table, if it has any.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -170,6 +204,7 @@ public class BufferPool {
             page.markDirty(true, tid);
             pageCache.put(page);
         }
+        TableStats.tupleInserted(tableId, t);
     }
 
     /**
@@ -180,7 +215,8 @@ public class BufferPool {
      * Marks any pageCache that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pageCache that have
      * been dirtied to the cache (replacing any existing versions of those pageCache) so
-     * that future requests see up-to-date pageCache.
+     * that future requests see up-to-date pageCache. Updates the statistics
+     * of the table, if it has any.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -194,6 +230,7 @@ public class BufferPool {
             page.markDirty(true, tid);
             pageCache.put(page);
         }
+        TableStats.tupleDeleted(tableId, t);
     }
 
     /**
@@ -255,8 +292,13 @@ public class BufferPool {
     /**
      * Called after a page is discarded from buffer pool.
      * Flushes the page to disk to ensure dirty pageCache are updated on disk.
+     * Clean pages are not written, so that reading a table leaves its file
+     * untouched.
      */
     private synchronized void evictPage(Page page) throws DbException {
+        if (page.isDirty() == null) {
+            return;
+        }
         try {
             flushPage(page, false);
         }
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CardinalityFeedback holds the estimated and the actual number of tuples of
+ * each operator of a physical plan that has run, and feeds what the scans
+ * observed back into the table statistics: the actual selectivity of the
+ * predicates of a scan that read its whole table replaces their estimate in
+ * the plans made afterwards.
+ */
+public class CardinalityFeedback {
+
+    /**
+     * The cardinalities of one operator of a plan.
+     */
+    public static class Node {
+        /** The operator */
+        public final OpIterator op;
+        /** The number of operators above this one in the plan */
+        public final int depth;
+        /** The estimated number of tuples, or -1 if unknown */
+        public final long estimated;
+        /** The number of tuples returned, or -1 if unknown */
+        public final long actual;
+
+        Node(OpIterator op, int depth, long estimated, long actual) {
+            this.op = op;
+            this.depth = depth;
+            this.estimated = estimated;
+            this.actual = actual;
+        }
+
+        /**
+         * @return The factor by which the estimate is off, either way, or
+         *         NaN if either cardinality is unknown
+         */
+        public double qError() {
+            if (estimated < 0 || actual < 0) {
+                return Double.NaN;
+            }
+            double e = Math.max(1, estimated);
+            double a = Math.max(1, actual);
+            return Math.max(e / a, a / e);
+        }
+    }
+
+    private final List<Node> nodes;
+
+    private CardinalityFeedback(List<Node> nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Collects the cardinalities of the operators of a plan, which must not
+     * have been opened again since it ran.
+     *
+     * @param root
+     *            The root of the plan
+     */
+    public static CardinalityFeedback collect(OpIterator root) {
+        List<Node> nodes = new ArrayList<Node>();
+        collect(root, 0, nodes);
+        return new CardinalityFeedback(nodes);
+    }
+
+    private static void collect(OpIterator op, int depth, List<Node> nodes) {
+        if (op instanceof Operator) {
+            Operator o = (Operator) op;
+            nodes.add(new Node(op, depth, o.getEstimatedCardinality(), o.getActualCardinality()));
+            for (OpIterator child : o.getChildren()) {
+                if (child != null) {
+                    collect(child, depth + 1, nodes);
+                }
+            }
+        } else if (op instanceof SeqScan) {
+            SeqScan s = (SeqScan) op;
+            nodes.add(new Node(op, depth, s.getEstimatedCardinality(), s.getActualCardinality()));
+        } else {
+            nodes.add(new Node(op, depth, -1, -1));
+        }
+    }
+
+    /**
+     * @return The operators of the plan, in preorder
+     */
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Records the selectivity of the predicates of each scan of the plan
+     * that read its whole table once in the statistics of the table, see
+     * {@link TableStats#recordSelectivity}.
+     */
+    public void apply() {
+        for (Node n : nodes) {
+            if (!(n.op instanceof SeqScan)) {
+                continue;
+            }
+            SeqScan s = (SeqScan) n.op;
+            TableStats stats = TableStats.getTableStats(s.getTableName());
+            if (s.getPredicates().isEmpty() || !s.readWholeTableOnce() || stats == null
+                    || stats.totalTuples() == 0) {
+                continue;
+            }
+            stats.recordSelectivity(s.getPredicates(),
+                    Math.min(1.0, (double) s.getActualCardinality() / stats.totalTuples()));
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -45,6 +46,9 @@ public class Catalog {
     private Map<Integer, TableInfo> tables;
     private Map<String, Integer> nameToId;
     private Map<Integer, Map<Integer, Integer>> foreignKeys; // table -> column -> referenced table
+    private Map<Integer, List<int[]>> columnGroups; // table -> groups of correlated columns
+    // incremented whenever tables are added or removed
+    private final AtomicLong version = new AtomicLong();
 
     /**
      * Constructor.
@@ -54,6 +58,7 @@ public class Catalog {
         tables = new HashMap<>();
         nameToId = new HashMap<>();
         foreignKeys = new HashMap<>();
+        columnGroups = new HashMap<>();
     }
 
     public void addForeignKey(int tableId, int col, int refTableId) {
@@ -71,6 +76,34 @@ public class Catalog {
         return foreignKeys.get(tableId);
     }
 
+    /**
+     * Declares that the values of some fields of a table are correlated, so
+     * that the statistics of the table also count the distinct combinations
+     * of their values. Statistics computed before the declaration do not
+     * have the group.
+     *
+     * @param tableId the table
+     * @param fieldNames the names of two or more fields of the table
+     * @throws NoSuchElementException if the table or a field does not exist
+     */
+    public void addColumnGroup(int tableId, String... fieldNames) {
+        TupleDesc td = getTupleDesc(tableId);
+        int[] group = new int[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            group[i] = td.fieldNameToIndex(fieldNames[i]);
+        }
+        Arrays.sort(group);
+        columnGroups.computeIfAbsent(tableId, k -> new ArrayList<>()).add(group);
+    }
+
+    /**
+     * @return the groups of correlated fields declared for a table, as
+     *         sorted field indices
+     */
+    public List<int[]> getColumnGroups(int tableId) {
+        return columnGroups.getOrDefault(tableId, Collections.emptyList());
+    }
+
     /**
      * Add a new table to the catalog. A hidden extra fields table will also be created.
      * This table's contents are stored in the specified DbFile.
@@ -84,7 +117,9 @@ public class Catalog {
         createTable(file, name, pkeyField);
 
         TupleDesc mainTableTd = file.getTupleDesc();
-        Type pkeyType = mainTableTd.getFieldType(mainTableTd.fieldNameToIndex(pkeyField));
+        // the extra fields of a table without a primary key are keyed by int
+        Type pkeyType = pkeyField.isEmpty()
+                ? Type.INT_TYPE : mainTableTd.getFieldType(mainTableTd.fieldNameToIndex(pkeyField));
         TupleDesc extrasTd = pkeyType == Type.INT_TYPE ? extrasTd_INT : extrasTd_STR;
         try {
             createTable(
@@ -116,6 +151,7 @@ public class Catalog {
         TableInfo tableInfo = new TableInfo(file, name, pkeyField);
         tables.put(tableId, tableInfo);
         nameToId.put(name, tableId);
+        version.incrementAndGet();
     }
 
     public void addTable(DbFile file, String name) {
@@ -189,10 +225,20 @@ public class Catalog {
     public void clear() {
         tables.clear();
         nameToId.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever tables are added to or removed
+     *         from the catalog; used to invalidate cached query plans
+     */
+    public long getVersion() {
+        return version.get();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A line may end with groups of correlated fields, see {@link #addColumnGroup}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -236,6 +282,18 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                // the schema may be followed by groups of correlated fields,
+                // as in: name (a int, b int, c int) group (a, b)
+                java.util.regex.Matcher m = java.util.regex.Pattern
+                        .compile("group\\s*\\(([^)]*)\\)")
+                        .matcher(line.substring(line.indexOf(")") + 1));
+                while (m.find()) {
+                    String[] groupFields = m.group(1).split(",");
+                    for (int i = 0; i < groupFields.length; i++) {
+                        groupFields[i] = groupFields[i].trim();
+                    }
+                    addColumnGroup(tabHf.getId(), groupFields);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
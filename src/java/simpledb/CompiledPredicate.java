@@ -0,0 +1,457 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * A CompiledPredicate evaluates a {@link Predicate}, or a conjunction of
+ * predicates, on tuples. It gives the same answers as
+ * {@link Predicate#filter(Tuple)}, but the operator and the type of the
+ * operand are resolved once by {@link #compile}, which picks a class that
+ * does one fixed comparison, such as an int greater-than against a constant.
+ * No switch on the operator and no {@link Field#compare} call is left on the
+ * per-tuple path. Predicates can also be tested on tuples that are still
+ * encoded in a page, which is how {@link SeqScan} skips decoding the tuples
+ * that fail its pushed-down predicates.
+ */
+public abstract class CompiledPredicate {
+
+    /**
+     * @return true if the tuple satisfies the predicate
+     */
+    public abstract boolean test(Tuple t);
+
+    /**
+     * Tests a tuple that is still encoded in the bytes of a {@link HeapPage},
+     * without decoding the fields that the predicate does not look at.
+     *
+     * @param data
+     *            the page data
+     * @param offset
+     *            the offset of the tuple in data
+     * @param fieldOffsets
+     *            the offset of each field within the tuple
+     * @return true if the tuple satisfies the predicate
+     */
+    public abstract boolean test(byte[] data, int offset, int[] fieldOffsets);
+
+    /**
+     * Compiles a single predicate.
+     */
+    public static CompiledPredicate compile(Predicate p) {
+        int field = p.getField();
+        if (p.getOperand() instanceof IntField) {
+            int v = ((IntField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, v);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(field, v);
+            case LESS_THAN:
+                return new IntLessThan(field, v);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(field, v);
+            }
+        } else if (p.getOperand() instanceof StringField) {
+            String v = ((StringField) p.getOperand()).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+                return new StringEquals(field, v);
+            case NOT_EQUALS:
+                return new StringNotEquals(field, v);
+            case LIKE:
+                return new StringContains(field, v);
+            case GREATER_THAN:
+                return new StringGreaterThan(field, v);
+            case GREATER_THAN_OR_EQ:
+                return new StringGreaterThanOrEq(field, v);
+            case LESS_THAN:
+                return new StringLessThan(field, v);
+            case LESS_THAN_OR_EQ:
+                return new StringLessThanOrEq(field, v);
+            }
+        }
+        return new Generic(p);
+    }
+
+    /**
+     * Compiles the conjunction of predicates into one evaluator, which tests
+     * them in the order given and stops at the first one that fails.
+     */
+    public static CompiledPredicate compile(List<Predicate> preds) {
+        switch (preds.size()) {
+        case 0:
+            return new True();
+        case 1:
+            return compile(preds.get(0));
+        case 2:
+            return new And2(compile(preds.get(0)), compile(preds.get(1)));
+        default:
+            CompiledPredicate[] parts = new CompiledPredicate[preds.size()];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = compile(preds.get(i));
+            }
+            return new And(parts);
+        }
+    }
+
+    /**
+     * Compiles a test that a field may be in a Bloom filter.
+     *
+     * @param type
+     *            the type of the field
+     */
+    public static CompiledPredicate bloom(int field, Type type, BloomFilter filter) {
+        return new InBloomFilter(field, type, filter);
+    }
+
+    /**
+     * @return the conjunction of two compiled predicates
+     */
+    public static CompiledPredicate and(CompiledPredicate first, CompiledPredicate second) {
+        return new And2(first, second);
+    }
+
+    private static int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static String stringValue(Tuple t, int field) {
+        return ((StringField) t.getField(field)).getValue();
+    }
+
+    private static final class IntEquals extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intValue(t, field) == v;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readInt(data, offset + fieldOffsets[field]) == v;
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntNotEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intValue(t, field) != v;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readInt(data, offset + fieldOffsets[field]) != v;
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntGreaterThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intValue(t, field) > v;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readInt(data, offset + fieldOffsets[field]) > v;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntGreaterThanOrEq(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intValue(t, field) >= v;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readInt(data, offset + fieldOffsets[field]) >= v;
+        }
+    }
+
+    private static final class IntLessThan extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntLessThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intValue(t, field) < v;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readInt(data, offset + fieldOffsets[field]) < v;
+        }
+    }
+
+    private static final class IntLessThanOrEq extends CompiledPredicate {
+        private final int field;
+        private final int v;
+
+        IntLessThanOrEq(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intValue(t, field) <= v;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readInt(data, offset + fieldOffsets[field]) <= v;
+        }
+    }
+
+    private static final class StringEquals extends CompiledPredicate {
+        private final int field;
+        private final String v;
+
+        StringEquals(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringValue(t, field).equals(v);
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readString(data, offset + fieldOffsets[field]).equals(v);
+        }
+    }
+
+    private static final class StringNotEquals extends CompiledPredicate {
+        private final int field;
+        private final String v;
+
+        StringNotEquals(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return !stringValue(t, field).equals(v);
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return !HeapPage.readString(data, offset + fieldOffsets[field]).equals(v);
+        }
+    }
+
+    private static final class StringContains extends CompiledPredicate {
+        private final int field;
+        private final String v;
+
+        StringContains(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringValue(t, field).contains(v);
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readString(data, offset + fieldOffsets[field]).contains(v);
+        }
+    }
+
+    private static final class StringGreaterThan extends CompiledPredicate {
+        private final int field;
+        private final String v;
+
+        StringGreaterThan(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringValue(t, field).compareTo(v) > 0;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readString(data, offset + fieldOffsets[field]).compareTo(v) > 0;
+        }
+    }
+
+    private static final class StringGreaterThanOrEq extends CompiledPredicate {
+        private final int field;
+        private final String v;
+
+        StringGreaterThanOrEq(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringValue(t, field).compareTo(v) >= 0;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readString(data, offset + fieldOffsets[field]).compareTo(v) >= 0;
+        }
+    }
+
+    private static final class StringLessThan extends CompiledPredicate {
+        private final int field;
+        private final String v;
+
+        StringLessThan(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringValue(t, field).compareTo(v) < 0;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readString(data, offset + fieldOffsets[field]).compareTo(v) < 0;
+        }
+    }
+
+    private static final class StringLessThanOrEq extends CompiledPredicate {
+        private final int field;
+        private final String v;
+
+        StringLessThanOrEq(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringValue(t, field).compareTo(v) <= 0;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readString(data, offset + fieldOffsets[field]).compareTo(v) <= 0;
+        }
+    }
+
+    /** Falls back to Predicate.filter for operand types without a specialization */
+    private static final class Generic extends CompiledPredicate {
+        private final Predicate p;
+
+        Generic(Predicate p) {
+            this.p = p;
+        }
+
+        public boolean test(Tuple t) {
+            return p.filter(t);
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return HeapPage.readField(p.getOperand().getType(), data,
+                    offset + fieldOffsets[p.getField()]).compare(p.getOp(), p.getOperand());
+        }
+    }
+
+    private static final class InBloomFilter extends CompiledPredicate {
+        private final int field;
+        private final Type type;
+        private final BloomFilter filter;
+
+        InBloomFilter(int field, Type type, BloomFilter filter) {
+            this.field = field;
+            this.type = type;
+            this.filter = filter;
+        }
+
+        public boolean test(Tuple t) {
+            return filter.mightContain(t.getField(field));
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            int off = offset + fieldOffsets[field];
+            // the hashCodes of IntField and StringField
+            int hash = type == Type.INT_TYPE ? HeapPage.readInt(data, off)
+                    : HeapPage.readString(data, off).hashCode();
+            return filter.mightContainHash(hash);
+        }
+    }
+
+    private static final class True extends CompiledPredicate {
+        public boolean test(Tuple t) {
+            return true;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return true;
+        }
+    }
+
+    private static final class And2 extends CompiledPredicate {
+        private final CompiledPredicate first;
+        private final CompiledPredicate second;
+
+        And2(CompiledPredicate first, CompiledPredicate second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public boolean test(Tuple t) {
+            return first.test(t) && second.test(t);
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            return first.test(data, offset, fieldOffsets)
+                    && second.test(data, offset, fieldOffsets);
+        }
+    }
+
+    private static final class And extends CompiledPredicate {
+        private final CompiledPredicate[] parts;
+
+        And(CompiledPredicate[] parts) {
+            this.parts = parts;
+        }
+
+        public boolean test(Tuple t) {
+            for (CompiledPredicate part : parts) {
+                if (!part.test(t)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean test(byte[] data, int offset, int[] fieldOffsets) {
+            for (CompiledPredicate part : parts) {
+                if (!part.test(data, offset, fieldOffsets)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
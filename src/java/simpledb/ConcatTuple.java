@@ -0,0 +1,38 @@
+package simpledb;
+
+/**
+ * A view of the concatenation of two tuples, as returned by joins. The fields
+ * are read from the two tuples when they are asked for.
+ *
+ * @see Tuple#concat
+ */
+class ConcatTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple left;
+    private final Tuple right;
+    private final int numLeftFields;
+
+    ConcatTuple(Tuple left, Tuple right, TupleDesc td) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.numLeftFields = left.getTupleDesc().numFields();
+    }
+
+    @Override
+    public Field getField(int i) {
+        return i < numLeftFields ? left.getField(i) : right.getField(i - numLeftFields);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("tuple views cannot be modified");
+    }
+
+    @Override
+    public Tuple materialize() {
+        return Tuple.copyOf(this);
+    }
+}
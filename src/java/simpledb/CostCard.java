@@ -1,4 +1,6 @@
 package simpledb;
+import java.util.Collections;
+import java.util.Set;
 import java.util.Vector;
 
 /** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
@@ -11,6 +13,13 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public Vector<LogicalJoinNode> plan;
+    /** The (quantified) names of the fields the output of the subplan is
+     * sorted on */
+    public Set<String> orderedOn = Collections.emptySet();
+    /** The size in bytes of a tuple of the subplan */
+    public int width;
+    /** The cost of running the subplan again after it ran once */
+    public double rescanCost;
 
     public CostCard() {}
 
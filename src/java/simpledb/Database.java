@@ -5,8 +5,8 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Database is a class that initializes several static variables used by the
- * database system (the catalog, the buffer pool, and the log files, in
- * particular.)
+ * database system (the catalog, the buffer pool, the log files, and the
+ * query plan cache, in particular.)
  * <p>
  * Provides a set of methods that can be used to access these variables from
  * anywhere.
@@ -20,9 +20,11 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final QueryPlanCache _planCache;
 
     private Database() {
         _catalog = new Catalog();
+        _planCache = new QueryPlanCache();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
         LogFile tmp = null;
         try {
@@ -50,6 +52,11 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /** Return the query plan cache of the static Database instance */
+    public static QueryPlanCache getPlanCache() {
+        return _instance.get()._planCache;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
@@ -0,0 +1,645 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A histogram over a single field that is suited to skewed data. The most
+ * common values (MCVs) of the field are counted one by one; the other values
+ * are split into equi-depth buckets, which hold about the same number of
+ * values each, so that the buckets are narrow where the values are dense.
+ * Within a bucket, values are assumed to be spread evenly over its range,
+ * and to be equally common.
+ * <p>
+ * The histogram is built from a sample of the field with {@link #build}, or
+ * from the values added to it. It keeps a bounded reservoir sample of the
+ * values, so that it can be built again from the reservoir once the values
+ * added and removed since it was built pass {@link #REBUILD_FRACTION} of its
+ * values.
+ * <p>
+ * Subclasses define how values of the field are interpolated within a
+ * bucket, hashed, and saved.
+ *
+ * @param <T>
+ *            the type of the values of the field
+ */
+public abstract class EquiDepthHistogram<T extends Comparable<T>> implements Histogram<T> {
+
+    /** Fraction of the values that may change before the histogram is built again */
+    static final double REBUILD_FRACTION = 0.2;
+
+    /** Number of values kept in the reservoir sample per bucket */
+    static final int RESERVOIR_PER_BUCKET = 30;
+
+    /** A value must be this many times as common as the average to be an MCV */
+    private static final double MCV_MIN_RATIO = 1.25;
+
+    protected final int numBuckets;
+
+    // the most common values in increasing order, and their counts
+    private List<T> mcvs = new ArrayList<T>();
+    private double[] mcvCounts = new double[0];
+    // bucket i holds the values in [lower[i], upper[i]]; buckets are in
+    // increasing order and do not overlap
+    private List<T> lower = new ArrayList<T>();
+    private List<T> upper = new ArrayList<T>();
+    private double[] counts = new double[0];
+    private double ntup;
+
+    // counts distinct elements
+    private HyperLogLog distinct = new HyperLogLog();
+
+    private List<T> reservoir = new ArrayList<T>();
+    // the number of values that the reservoir was sampled from
+    private long seen;
+    // values added and removed since the histogram was built
+    private double changes;
+    private double ntupAtBuild;
+
+    /**
+     * Create an empty histogram.
+     *
+     * @param buckets
+     *            the number of buckets, which is also the largest number of
+     *            most common values that are kept
+     */
+    public EquiDepthHistogram(int buckets) {
+        this.numBuckets = buckets;
+    }
+
+    /**
+     * @return the fraction of the values in [lo, hi] that are less than v,
+     *         where lo <= v <= hi, assuming that they are spread evenly
+     */
+    protected abstract double fractionBelow(T v, T lo, T hi);
+
+    /** @return a hash of v for the sketch of distinct values */
+    protected abstract int hash(T v);
+
+    protected abstract void writeValue(DataOutputStream out, T v) throws IOException;
+
+    protected abstract T readValue(DataInputStream in) throws IOException;
+
+    /**
+     * Builds the histogram from a sample of the field.
+     *
+     * @param sample
+     *            the values of the sample; sorted in place
+     * @param distinctValues
+     *            a sketch of the distinct values of the whole field
+     */
+    synchronized void build(List<T> sample, HyperLogLog distinctValues) {
+        Collections.sort(sample);
+        buildSorted(sample, sample.size());
+        distinct = distinctValues.copy();
+
+        int reservoirSize = RESERVOIR_PER_BUCKET * numBuckets;
+        reservoir = new ArrayList<T>(sample);
+        if (reservoir.size() > reservoirSize) {
+            Collections.shuffle(reservoir, ThreadLocalRandom.current());
+            reservoir = new ArrayList<T>(reservoir.subList(0, reservoirSize));
+        }
+        seen = sample.size();
+    }
+
+    /**
+     * Replaces the MCVs and the buckets with those of sorted, scaled so that
+     * the histogram holds total values.
+     */
+    private void buildSorted(List<T> sorted, double total) {
+        int n = sorted.size();
+        double scale = n > 0 ? total / n : 0;
+
+        // count the runs of equal values
+        List<T> values = new ArrayList<T>();
+        List<Integer> runs = new ArrayList<Integer>();
+        boolean singletons = false;
+        for (int i = 0; i < n; ) {
+            int j = i + 1;
+            while (j < n && sorted.get(j).compareTo(sorted.get(i)) == 0) {
+                j++;
+            }
+            values.add(sorted.get(i));
+            runs.add(j - i);
+            singletons |= j - i == 1;
+            i = j;
+        }
+
+        // if the sample seems to hold every value, all values are MCVs;
+        // otherwise the values that are much more common than the average
+        List<Integer> mcvIndexes = new ArrayList<Integer>();
+        if (!singletons && values.size() <= numBuckets) {
+            for (int i = 0; i < values.size(); i++) {
+                mcvIndexes.add(i);
+            }
+        } else {
+            double threshold = Math.max(2, MCV_MIN_RATIO * n / Math.max(1, values.size()));
+            for (int i = 0; i < values.size(); i++) {
+                if (runs.get(i) >= threshold) {
+                    mcvIndexes.add(i);
+                }
+            }
+            if (mcvIndexes.size() > numBuckets) {
+                mcvIndexes.sort((a, b) -> runs.get(b) - runs.get(a));
+                mcvIndexes = new ArrayList<Integer>(mcvIndexes.subList(0, numBuckets));
+                Collections.sort(mcvIndexes);
+            }
+        }
+        mcvs = new ArrayList<T>();
+        mcvCounts = new double[mcvIndexes.size()];
+        boolean[] isMcv = new boolean[values.size()];
+        for (int k = 0; k < mcvIndexes.size(); k++) {
+            int i = mcvIndexes.get(k);
+            mcvs.add(values.get(i));
+            mcvCounts[k] = runs.get(i) * scale;
+            isMcv[i] = true;
+        }
+
+        // split the other values into buckets of equal depth, keeping equal
+        // values in the same bucket
+        List<T> rest = new ArrayList<T>();
+        for (int i = 0; i < values.size(); i++) {
+            if (!isMcv[i]) {
+                for (int r = 0; r < runs.get(i); r++) {
+                    rest.add(values.get(i));
+                }
+            }
+        }
+        int m = rest.size();
+        int buckets = Math.min(numBuckets, m);
+        lower = new ArrayList<T>();
+        upper = new ArrayList<T>();
+        List<Double> bucketCounts = new ArrayList<Double>();
+        int start = 0;
+        for (int b = 1; b <= buckets && start < m; b++) {
+            int end = (int) ((long) b * m / buckets);
+            end = Math.max(end, start + 1);
+            while (end < m && rest.get(end).compareTo(rest.get(end - 1)) == 0) {
+                end++;
+            }
+            lower.add(rest.get(start));
+            upper.add(rest.get(end - 1));
+            bucketCounts.add((end - start) * scale);
+            start = end;
+        }
+        counts = new double[bucketCounts.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = bucketCounts.get(i);
+        }
+
+        ntup = total;
+        ntupAtBuild = total;
+        changes = 0;
+    }
+
+    /**
+     * Widens the outermost buckets to the smallest and the largest values of
+     * the field, which a sample may have missed.
+     */
+    synchronized void extendRange(T min, T max) {
+        if (counts.length == 0) {
+            return;
+        }
+        if (min.compareTo(lower.get(0)) < 0 && Collections.binarySearch(mcvs, min) < 0) {
+            lower.set(0, min);
+        }
+        int last = counts.length - 1;
+        if (max.compareTo(upper.get(last)) > 0 && Collections.binarySearch(mcvs, max) < 0) {
+            upper.set(last, max);
+        }
+    }
+
+    /**
+     * Builds the histogram again from the reservoir sample.
+     */
+    private void rebuild() {
+        List<T> sorted = new ArrayList<T>(reservoir);
+        Collections.sort(sorted);
+        buildSorted(sorted, ntup);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public synchronized void addValue(T v) {
+        int k = Collections.binarySearch(mcvs, v);
+        if (k >= 0) {
+            mcvCounts[k]++;
+        } else if (counts.length == 0) {
+            lower.add(v);
+            upper.add(v);
+            counts = new double[] { 1 };
+        } else {
+            int b = bucketOf(v);
+            if (v.compareTo(lower.get(b)) < 0) {
+                lower.set(b, v);
+            } else if (v.compareTo(upper.get(b)) > 0) {
+                upper.set(b, v);
+            }
+            counts[b]++;
+        }
+        ntup++;
+        distinct.add(hash(v));
+
+        seen++;
+        int reservoirSize = RESERVOIR_PER_BUCKET * numBuckets;
+        if (reservoir.size() < reservoirSize) {
+            reservoir.add(v);
+        } else {
+            long r = ThreadLocalRandom.current().nextLong(seen);
+            if (r < reservoirSize) {
+                reservoir.set((int) r, v);
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Remove a value that was added to the histogram. The estimate of the
+     * number of distinct values is not lowered.
+     * @param v Value to remove from the histogram
+     */
+    public synchronized void removeValue(T v) {
+        int k = Collections.binarySearch(mcvs, v);
+        if (k >= 0) {
+            if (mcvCounts[k] < 1) {
+                return;
+            }
+            mcvCounts[k]--;
+        } else {
+            // a bucket built from a sample may hold fewer copies of v than
+            // were added; the rest are taken from the nearest bucket
+            int b = counts.length > 0 ? nearestNonEmpty(bucketOf(v)) : -1;
+            if (b < 0) {
+                return;
+            }
+            counts[b]--;
+        }
+        ntup--;
+        if (reservoir.remove(v)) {
+            seen--;
+        }
+        changed();
+    }
+
+    private void changed() {
+        changes++;
+        if (changes > REBUILD_FRACTION * Math.max(ntupAtBuild, 1.0 / REBUILD_FRACTION)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return the index of the bucket closest to b that holds at least one
+     *         value, or -1 if all buckets are empty
+     */
+    private int nearestNonEmpty(int b) {
+        for (int d = 0; d < counts.length; d++) {
+            if (b - d >= 0 && counts[b - d] >= 1) {
+                return b - d;
+            }
+            if (b + d < counts.length && counts[b + d] >= 1) {
+                return b + d;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the last bucket that starts at or below v, or 0
+     *         if v is below all buckets
+     */
+    private int bucketOf(T v) {
+        int b = Collections.binarySearch(lower, v);
+        if (b < 0) {
+            b = -b - 2;
+        }
+        return Math.max(b, 0);
+    }
+
+    /**
+     * Estimate the number of values less than v.
+     */
+    private double countLessThan(T v) {
+        double less = 0;
+        for (int k = 0; k < mcvs.size() && mcvs.get(k).compareTo(v) < 0; k++) {
+            less += mcvCounts[k];
+        }
+        for (int b = 0; b < counts.length && lower.get(b).compareTo(v) < 0; b++) {
+            if (upper.get(b).compareTo(v) < 0) {
+                less += counts[b];
+            } else {
+                less += counts[b] * fractionBelow(v, lower.get(b), upper.get(b));
+            }
+        }
+        return less;
+    }
+
+    /**
+     * Estimate the number of values equal to v.
+     */
+    private double countEqual(T v) {
+        return countEqual(v, perValue());
+    }
+
+    /**
+     * @return the number of times each value that is not an MCV is
+     *         estimated to occur, as the values that are not MCVs are
+     *         taken to be equally common
+     */
+    private double perValue() {
+        return bucketTotal() / distinctNonMcvs();
+    }
+
+    /**
+     * Estimate the number of values equal to v, given {@link #perValue}.
+     */
+    private double countEqual(T v, double perValue) {
+        int k = Collections.binarySearch(mcvs, v);
+        if (k >= 0) {
+            return mcvCounts[k];
+        }
+        if (counts.length == 0) {
+            return 0;
+        }
+        int b = bucketOf(v);
+        if (v.compareTo(lower.get(b)) < 0 || v.compareTo(upper.get(b)) > 0) {
+            return 0;
+        }
+        return Math.min(counts[b], perValue);
+    }
+
+    /**
+     * @return An estimate of the number of distinct values that are not MCVs.
+     */
+    private int distinctNonMcvs() {
+        return Math.max(1, distinct.estimate() - mcvs.size());
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
+     * return your estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public synchronized double estimateSelectivity(Predicate.Op op, T v) {
+        if (ntup <= 0) {
+            return op == Predicate.Op.NOT_EQUALS ? 1 : 0;
+        }
+        double less = countLessThan(v);
+        double equal = countEqual(v);
+        double sel;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                sel = equal / ntup;
+                break;
+            case NOT_EQUALS:
+                sel = 1 - equal / ntup;
+                break;
+            case GREATER_THAN:
+                sel = (ntup - less - equal) / ntup;
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = (ntup - less) / ntup;
+                break;
+            case LESS_THAN:
+                sel = less / ntup;
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = (less + equal) / ntup;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown op");
+        }
+        return Math.min(1, Math.max(0, sel));
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate with a value
+     *         of the field that is not known
+     */
+    public synchronized double avgSelectivity() {
+        return 1.0 / distinctCount();
+    }
+
+    /**
+     * @return A copy of the sketch of the distinct values
+     */
+    synchronized HyperLogLog distinctSketch() {
+        return distinct.copy();
+    }
+
+    /**
+     * @return The relative standard error of the number of distinct values
+     */
+    synchronized double distinctError() {
+        return distinct.relativeError();
+    }
+
+    /**
+     * @return An estimate of the number of distinct values, at least 1.
+     */
+    synchronized int distinctCount() {
+        return Math.max(1, Math.max(distinct.estimate(), mcvs.size()));
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public synchronized String toString() {
+        return String.format("%s(mcvs=%s, buckets=%s, ntup=%.0f)",
+                getClass().getSimpleName(), mcvs.size(), counts.length, ntup);
+    }
+
+    /**
+     * Estimate the selectivity of a join between two histograms of fields
+     * of the same type. Equality is estimated from the MCVs that the fields
+     * share or that fall in the other field's buckets, and from the distinct
+     * counts of the other values where the buckets of the fields overlap.
+     * Other predicates are averaged over the MCVs and the bucket bounds of
+     * the second field.
+     */
+    public static <T extends Comparable<T>> double estimateJoinSelectivity(
+            EquiDepthHistogram<T> h1, EquiDepthHistogram<T> h2, Predicate.Op op) {
+        // estimate over copies, which other threads do not change meanwhile
+        EquiDepthHistogram<T> c1 = h1.copy();
+        EquiDepthHistogram<T> c2 = h2.copy();
+        if (c1.ntup <= 0 || c2.ntup <= 0) {
+            return op == Predicate.Op.NOT_EQUALS ? 1 : 0;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equiJoinSelectivity(c1, c2);
+            case NOT_EQUALS:
+                return 1 - equiJoinSelectivity(c1, c2);
+            default:
+                double sel = 0;
+                for (int k = 0; k < c2.mcvs.size(); k++) {
+                    sel += c2.mcvCounts[k] / c2.ntup * c1.estimateSelectivity(op, c2.mcvs.get(k));
+                }
+                for (int b = 0; b < c2.counts.length; b++) {
+                    double atBounds = (c1.estimateSelectivity(op, c2.lower.get(b))
+                            + c1.estimateSelectivity(op, c2.upper.get(b))) / 2;
+                    sel += c2.counts[b] / c2.ntup * atBounds;
+                }
+                return sel;
+        }
+    }
+
+    private static <T extends Comparable<T>> double equiJoinSelectivity(
+            EquiDepthHistogram<T> h1, EquiDepthHistogram<T> h2) {
+        double sel = 0;
+        // pairs with an MCV of either field
+        Map<T, Double> mcvs2 = new HashMap<T, Double>();
+        for (int k = 0; k < h2.mcvs.size(); k++) {
+            mcvs2.put(h2.mcvs.get(k), h2.mcvCounts[k] / h2.ntup);
+        }
+        double perValue1 = h1.perValue();
+        double perValue2 = h2.perValue();
+        for (int k = 0; k < h1.mcvs.size(); k++) {
+            T v = h1.mcvs.get(k);
+            sel += h1.mcvCounts[k] / h1.ntup * h2.countEqual(v, perValue2) / h2.ntup;
+            mcvs2.remove(v);
+        }
+        for (Map.Entry<T, Double> e : mcvs2.entrySet()) {
+            sel += e.getValue() * h1.countEqual(e.getKey(), perValue1) / h1.ntup;
+        }
+
+        // pairs of other values, where the buckets overlap: each distinct
+        // value of the field with fewer of them matches a value of the other
+        double overlap1 = h1.bucketFractionWithin(h2);
+        double overlap2 = h2.bucketFractionWithin(h1);
+        double rest1 = h1.bucketTotal() / h1.ntup * overlap1;
+        double rest2 = h2.bucketTotal() / h2.ntup * overlap2;
+        double distinct1 = h1.distinctNonMcvs() * overlap1;
+        double distinct2 = h2.distinctNonMcvs() * overlap2;
+        if (rest1 > 0 && rest2 > 0) {
+            sel += rest1 * rest2 / Math.max(1, Math.max(distinct1, distinct2));
+        }
+        return Math.min(1, sel);
+    }
+
+    private double bucketTotal() {
+        double total = 0;
+        for (double c : counts) {
+            total += c;
+        }
+        return total;
+    }
+
+    /**
+     * @return the fraction of the values in the buckets of this histogram
+     *         that lie within the range of the buckets of other
+     */
+    private double bucketFractionWithin(EquiDepthHistogram<T> other) {
+        double total = bucketTotal();
+        if (total <= 0 || other.counts.length == 0) {
+            return 0;
+        }
+        T lo = other.lower.get(0);
+        T hi = other.upper.get(other.counts.length - 1);
+        double within = 0;
+        for (int b = 0; b < counts.length; b++) {
+            T l = lower.get(b);
+            T u = upper.get(b);
+            if (u.compareTo(lo) < 0 || l.compareTo(hi) > 0) {
+                continue;
+            }
+            double from = l.compareTo(lo) >= 0 ? 0 : fractionBelow(lo, l, u);
+            double to = u.compareTo(hi) <= 0 ? 1 : fractionBelow(hi, l, u);
+            within += counts[b] * Math.max(0, to - from);
+        }
+        return within / total;
+    }
+
+    /**
+     * @return a copy of this histogram without its reservoir; the copy
+     *         shares the sketch of distinct values
+     */
+    private synchronized EquiDepthHistogram<T> copy() {
+        EquiDepthHistogram<T> h = emptyCopy();
+        h.mcvs = new ArrayList<T>(mcvs);
+        h.mcvCounts = mcvCounts.clone();
+        h.lower = new ArrayList<T>(lower);
+        h.upper = new ArrayList<T>(upper);
+        h.counts = counts.clone();
+        h.ntup = ntup;
+        h.distinct = distinct;
+        return h;
+    }
+
+    /**
+     * @return an empty histogram of the same class with as many buckets
+     */
+    protected abstract EquiDepthHistogram<T> emptyCopy();
+
+    /**
+     * Writes this histogram, with its sketch of distinct values and its
+     * reservoir; {@link #read} reads it back into an empty histogram.
+     */
+    synchronized void write(DataOutputStream out) throws IOException {
+        out.writeDouble(ntup);
+        out.writeDouble(ntupAtBuild);
+        out.writeDouble(changes);
+        out.writeInt(mcvs.size());
+        for (int k = 0; k < mcvs.size(); k++) {
+            writeValue(out, mcvs.get(k));
+            out.writeDouble(mcvCounts[k]);
+        }
+        out.writeInt(counts.length);
+        for (int b = 0; b < counts.length; b++) {
+            writeValue(out, lower.get(b));
+            writeValue(out, upper.get(b));
+            out.writeDouble(counts[b]);
+        }
+        distinct.write(out);
+        out.writeLong(seen);
+        out.writeInt(reservoir.size());
+        for (T v : reservoir) {
+            writeValue(out, v);
+        }
+    }
+
+    synchronized void read(DataInputStream in) throws IOException {
+        ntup = in.readDouble();
+        ntupAtBuild = in.readDouble();
+        changes = in.readDouble();
+        int numMcvs = in.readInt();
+        mcvs = new ArrayList<T>(numMcvs);
+        mcvCounts = new double[numMcvs];
+        for (int k = 0; k < numMcvs; k++) {
+            mcvs.add(readValue(in));
+            mcvCounts[k] = in.readDouble();
+        }
+        int buckets = in.readInt();
+        lower = new ArrayList<T>(buckets);
+        upper = new ArrayList<T>(buckets);
+        counts = new double[buckets];
+        for (int b = 0; b < buckets; b++) {
+            lower.add(readValue(in));
+            upper.add(readValue(in));
+            counts[b] = in.readDouble();
+        }
+        distinct = HyperLogLog.read(in);
+        seen = in.readLong();
+        int size = in.readInt();
+        reservoir = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            reservoir.add(readValue(in));
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exchange moves tuples between threads of a parallel plan. It runs each of
+ * its input plans on a thread of its own and routes the tuples of every input
+ * to one or more outputs:
+ * <ul>
+ * <li>{@link Mode#HASH} sends each tuple to the output chosen by the hash of
+ * one of its fields, so that equal values always end up in the same output;
+ * <li>{@link Mode#BROADCAST} sends every tuple to every output;
+ * <li>{@link Mode#GATHER} merges all inputs into a single output.
+ * </ul>
+ * Each output is an operator, {@link #getOutput(int)}, that is typically the
+ * child of a plan fragment running on another thread. Tuples are passed
+ * through one bounded {@link ExchangeQueue} per output. The inputs are
+ * started when the first output is opened, and every output must then be
+ * opened and closed once; each output should be read by its own thread, since
+ * a producer waits while any output's queue is full. Closing an output early
+ * only drops that output's tuples; closing the last one stops the producers
+ * and waits for them, so that the inputs are closed and no longer lock pages
+ * when it returns.
+ * <p>
+ * By default outputs stream their tuples and cannot be rewound. A
+ * materializing exchange instead drains its whole partition into a
+ * {@link SpillFile} when an output is opened. Its outputs can be rewound, and
+ * consumers can read several exchanges in any order without blocking each
+ * other's producers.
+ * <p>
+ * {@link #partitionedHashJoin} and {@link #partitionedAggregate} build the
+ * common parallel plans: N independent copies of an operator, each reading
+ * one hash partition of its inputs, whose results are gathered.
+ */
+public class Exchange {
+
+    /** How tuples are routed from the inputs to the outputs */
+    public enum Mode {
+        HASH, BROADCAST, GATHER
+    }
+
+    // number of chunks that fit in each output's queue
+    private static final int QUEUE_CHUNKS = 8;
+
+    private final OpIterator[] inputs;
+    private final Mode mode;
+    private final int field;
+    private final boolean materialize;
+    private final TupleDesc td;
+    private final Output[] outputs;
+
+    private ExchangeQueue[] queues;
+    private Thread[] producers;
+    private int closedOutputs;
+
+    /**
+     * Creates an exchange.
+     *
+     * @param inputs
+     *            the plans to run, each on its own thread; all must have the
+     *            same TupleDesc
+     * @param mode
+     *            how tuples are routed to the outputs
+     * @param field
+     *            the field whose hash picks the output, for {@link Mode#HASH}
+     * @param numOutputs
+     *            the number of outputs; must be 1 for {@link Mode#GATHER}
+     * @param materialize
+     *            whether outputs drain their whole partition when opened
+     */
+    public Exchange(OpIterator[] inputs, Mode mode, int field, int numOutputs,
+                    boolean materialize) {
+        if (inputs.length == 0) {
+            throw new IllegalArgumentException("an exchange needs at least one input");
+        }
+        if (numOutputs < 1 || (mode == Mode.GATHER && numOutputs != 1)) {
+            throw new IllegalArgumentException("invalid number of outputs " + numOutputs
+                    + " for " + mode);
+        }
+        this.inputs = inputs;
+        this.mode = mode;
+        this.field = field;
+        this.materialize = materialize;
+        this.td = inputs[0].getTupleDesc();
+        this.outputs = new Output[numOutputs];
+        for (int i = 0; i < numOutputs; i++) {
+            outputs[i] = new Output(i);
+        }
+    }
+
+    /**
+     * Creates a streaming exchange that gathers the tuples of all inputs.
+     */
+    public static Exchange gather(OpIterator... inputs) {
+        return new Exchange(inputs, Mode.GATHER, -1, 1, false);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int numOutputs() {
+        return outputs.length;
+    }
+
+    /**
+     * @return the operator that returns the tuples routed to the i-th output
+     */
+    public Output getOutput(int i) {
+        return outputs[i];
+    }
+
+    /**
+     * Maps a field to one of n partitions. The hash code is mixed first, since
+     * IntField hashes to its value and low bits are often skewed.
+     */
+    static int partitionOf(Field f, int n) {
+        int h = f.hashCode() * 0x9E3779B9;
+        h ^= h >>> 16;
+        return Math.floorMod(h, n);
+    }
+
+    private synchronized ExchangeQueue outputOpened(int index) {
+        if (queues == null) {
+            start();
+        }
+        return queues[index];
+    }
+
+    private synchronized void outputClosed() {
+        if (++closedOutputs == outputs.length) {
+            for (ExchangeQueue q : queues) {
+                q.cancel();
+            }
+            queues = null;
+            try {
+                for (Thread producer : producers) {
+                    producer.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            producers = null;
+        }
+    }
+
+    private void start() {
+        closedOutputs = 0;
+        queues = new ExchangeQueue[outputs.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ExchangeQueue(QUEUE_CHUNKS, inputs.length);
+        }
+        producers = new Thread[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            producers[i] = new Thread(new Producer(inputs[i], queues),
+                    "exchange-" + mode.name().toLowerCase() + "-" + i);
+            producers[i].setDaemon(true);
+            producers[i].start();
+        }
+    }
+
+    /**
+     * Runs one input and routes its tuples to the queues of the outputs.
+     */
+    private class Producer implements Runnable {
+        private final OpIterator input;
+        private final ExchangeQueue[] queues;
+        private final ArrayList<ArrayList<Tuple>> chunks = new ArrayList<ArrayList<Tuple>>();
+        // outputs that have been closed and no longer take tuples
+        private final boolean[] closed;
+        private int numClosed;
+
+        Producer(OpIterator input, ExchangeQueue[] queues) {
+            this.input = input;
+            this.queues = queues;
+            this.closed = new boolean[queues.length];
+            for (int i = 0; i < queues.length; i++) {
+                chunks.add(new ArrayList<Tuple>(ExchangeQueue.CHUNK_SIZE));
+            }
+        }
+
+        @Override
+        public void run() {
+            Throwable error = null;
+            try {
+                input.open();
+                while (!allClosed() && input.hasNext()) {
+                    Tuple t = input.next();
+                    if (mode == Mode.BROADCAST) {
+                        for (int i = 0; i < queues.length; i++) {
+                            add(i, t);
+                        }
+                    } else if (mode == Mode.HASH) {
+                        add(partitionOf(t.getField(field), queues.length), t);
+                    } else {
+                        add(0, t);
+                    }
+                }
+                for (int i = 0; i < queues.length; i++) {
+                    flush(i);
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                input.close();
+            }
+            for (ExchangeQueue q : queues) {
+                q.finish(error);
+            }
+        }
+
+        /**
+         * @return true once every output has been closed, checking the
+         *         queues so that the input is not read any further
+         */
+        private boolean allClosed() {
+            for (int i = 0; i < queues.length; i++) {
+                if (!closed[i] && queues[i].isCancelled()) {
+                    closed[i] = true;
+                    numClosed++;
+                }
+            }
+            return numClosed == queues.length;
+        }
+
+        private void add(int i, Tuple t) {
+            if (closed[i]) {
+                return;
+            }
+            ArrayList<Tuple> chunk = chunks.get(i);
+            chunk.add(t);
+            if (chunk.size() == ExchangeQueue.CHUNK_SIZE) {
+                flush(i);
+            }
+        }
+
+        private void flush(int i) {
+            if (closed[i] || chunks.get(i).isEmpty()) {
+                return;
+            }
+            if (queues[i].put(chunks.get(i))) {
+                chunks.set(i, new ArrayList<Tuple>(ExchangeQueue.CHUNK_SIZE));
+            } else {
+                closed[i] = true;
+                numClosed++;
+            }
+        }
+    }
+
+    /**
+     * One output of the exchange.
+     */
+    public class Output extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private transient ExchangeQueue queue;
+        private transient java.util.Iterator<Tuple> chunk;
+        private transient SpillFile buffer;
+        private transient DbFileIterator bufferIt;
+
+        Output(int index) {
+            this.index = index;
+        }
+
+        /**
+         * @return the exchange this output belongs to
+         */
+        public Exchange getExchange() {
+            return Exchange.this;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        protected void doOpen() throws DbException, TransactionAbortedException {
+            queue = outputOpened(index);
+            chunk = null;
+            if (materialize) {
+                buffer = new SpillFile(td);
+                List<Tuple> tuples;
+                while ((tuples = queue.take()) != null) {
+                    for (Tuple t : tuples) {
+                        buffer.add(t);
+                    }
+                }
+                buffer.finish();
+                bufferIt = buffer.iterator();
+                bufferIt.open();
+            }
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (bufferIt != null) {
+                return bufferIt.hasNext() ? bufferIt.next() : null;
+            }
+            while (chunk == null || !chunk.hasNext()) {
+                List<Tuple> tuples = queue.take();
+                if (tuples == null) {
+                    return null;
+                }
+                chunk = tuples.iterator();
+            }
+            return chunk.next();
+        }
+
+        /**
+         * Restarts a materializing output.
+         *
+         * @throws DbException
+         *             if the exchange streams its tuples
+         */
+        protected void doRewind() throws DbException, TransactionAbortedException {
+            if (bufferIt == null) {
+                throw new DbException("only a materializing exchange can be rewound");
+            }
+            bufferIt.rewind();
+        }
+
+        public void close() {
+            super.close();
+            if (queue == null) {
+                return;
+            }
+            // let the producers skip this output
+            queue.cancel();
+            queue = null;
+            chunk = null;
+            if (bufferIt != null) {
+                bufferIt.close();
+                bufferIt = null;
+            }
+            if (buffer != null) {
+                buffer.delete();
+                buffer = null;
+            }
+            outputClosed();
+        }
+
+        /**
+         * @return the inputs of the exchange
+         */
+        @Override
+        public OpIterator[] getChildren() {
+            return inputs.clone();
+        }
+
+        /**
+         * Replaces the inputs of the exchange, which must not have been
+         * started.
+         */
+        @Override
+        public void setChildren(OpIterator[] children) {
+            System.arraycopy(children, 0, inputs, 0, inputs.length);
+        }
+    }
+
+    /**
+     * Builds a parallel equi-join: both children are hash partitioned on
+     * their join fields into n partitions, each partition is joined by its own
+     * {@link HashEquiJoin} on its own thread, and the results are gathered.
+     * Each partition builds a private hash table, so the partitions share no
+     * state.
+     *
+     * @param p
+     *            the join predicate; must be {@link Predicate.Op#EQUALS}
+     * @param child1
+     *            the build side
+     * @param child2
+     *            the probe side
+     * @param n
+     *            the number of partitions
+     * @return the gathered join, with the TupleDesc of a HashEquiJoin
+     */
+    public static OpIterator partitionedHashJoin(JoinPredicate p, OpIterator child1,
+                                                 OpIterator child2, int n) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("only equi-joins can be partitioned");
+        }
+        // HashEquiJoin rewinds its probe side when the build side does not
+        // fit in one block, so both sides are materialized
+        Exchange build = new Exchange(new OpIterator[] { child1 }, Mode.HASH,
+                p.getField1(), n, true);
+        Exchange probe = new Exchange(new OpIterator[] { child2 }, Mode.HASH,
+                p.getField2(), n, true);
+        OpIterator[] joins = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            joins[i] = new HashEquiJoin(p, build.getOutput(i), probe.getOutput(i));
+        }
+        return gather(joins).getOutput(0);
+    }
+
+    /**
+     * Builds a parallel grouped aggregate: the child is hash partitioned on the
+     * group-by field into n partitions, each aggregated by its own
+     * {@link Aggregate} on its own thread, and the results are gathered.
+     * Without grouping there is nothing to partition on, and a plain Aggregate
+     * is returned.
+     *
+     * @return the gathered aggregate, with the TupleDesc of an Aggregate
+     */
+    public static OpIterator partitionedAggregate(OpIterator child, int afield, int gfield,
+                                                  Aggregator.Op aop, int n) {
+        if (gfield == Aggregator.NO_GROUPING) {
+            return new Aggregate(child, afield, gfield, aop);
+        }
+        Exchange partitions = new Exchange(new OpIterator[] { child }, Mode.HASH,
+                gfield, n, false);
+        OpIterator[] aggs = new OpIterator[n];
+        for (int i = 0; i < n; i++) {
+            aggs[i] = new Aggregate(partitions.getOutput(i), afield, gfield, aop);
+        }
+        return gather(aggs).getOutput(0);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue that moves chunks of tuples from producer threads to a
+ * consuming operator. Each producer calls {@link #finish(Throwable)} once when
+ * it is done; the consumer sees the end of the stream after every producer has
+ * finished and the queue is drained. An error raised by a producer is rethrown
+ * to the consumer by {@link #take()}.
+ * <p>
+ * Producers block in {@link #put(List)} while the queue is full, so a slow
+ * consumer bounds the number of tuples in flight. {@link #cancel()} releases
+ * blocked producers, which then stop producing.
+ */
+public class ExchangeQueue {
+
+    /** Default number of tuples per chunk */
+    public static final int CHUNK_SIZE = 256;
+
+    // a chunk marking that one producer has finished
+    private static final List<Tuple> END = new ArrayList<Tuple>(0);
+    private static final long POLL_MS = 50;
+
+    private final ArrayBlockingQueue<List<Tuple>> queue;
+    private int runningProducers;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+
+    /**
+     * @param capacity
+     *            the maximum number of chunks in the queue
+     * @param numProducers
+     *            the number of producers that will call finish
+     */
+    public ExchangeQueue(int capacity, int numProducers) {
+        this.queue = new ArrayBlockingQueue<List<Tuple>>(capacity);
+        this.runningProducers = numProducers;
+    }
+
+    /**
+     * Adds a chunk of tuples, blocking while the queue is full.
+     *
+     * @return false if the queue was cancelled, in which case the producer
+     *         should stop
+     */
+    public boolean put(List<Tuple> chunk) {
+        if (chunk.isEmpty()) {
+            return !cancelled;
+        }
+        return offer(chunk);
+    }
+
+    private boolean offer(List<Tuple> chunk) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(chunk, POLL_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Called by each producer once it has put all of its chunks.
+     *
+     * @param e
+     *            the error that stopped the producer, or null
+     */
+    public void finish(Throwable e) {
+        if (e != null && error == null) {
+            error = e;
+        }
+        offer(END);
+    }
+
+    /**
+     * @return true if the consumer has cancelled the queue
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the next chunk, blocking until one is available.
+     *
+     * @return the next chunk, or null once every producer has finished
+     * @throws DbException
+     *             if a producer failed
+     * @throws TransactionAbortedException
+     *             if a producer was aborted
+     */
+    public List<Tuple> take() throws DbException, TransactionAbortedException {
+        while (runningProducers > 0 && !cancelled) {
+            List<Tuple> chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for tuples");
+            }
+            if (chunk == END) {
+                runningProducers--;
+                checkError();
+                continue;
+            }
+            return chunk;
+        }
+        checkError();
+        return null;
+    }
+
+    private void checkError() throws DbException, TransactionAbortedException {
+        Throwable e = error;
+        if (e == null) {
+            return;
+        }
+        cancel();
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        DbException wrapped = new DbException("producer failed: " + e);
+        wrapped.initCause(e);
+        throw wrapped;
+    }
+
+    /**
+     * Stops the producers and drops the queued chunks. Blocked producers
+     * return from {@link #put(List)} with false.
+     */
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+}
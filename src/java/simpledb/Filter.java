@@ -3,14 +3,20 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It returns the
+ * child tuples that satisfy a conjunction of one or more predicates, which
+ * are compiled into a single {@link CompiledPredicate} each time the operator
+ * is opened, so that it sees the operands bound by a {@link PreparedStatement}.
  */
-public class Filter extends Operator {
+public class Filter extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
 
-    private Predicate pred;
+    private ArrayList<Predicate> preds;
+    private transient CompiledPredicate test;
     private OpIterator childIter;
+    private transient BatchOpIterator batchChild;
+    private transient int[] selected;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -22,22 +28,49 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, OpIterator child) {
-        this.pred = p;
+        this(Arrays.asList(p), child);
+    }
+
+    /**
+     * Constructor accepts the predicates of a conjunction and a child
+     * operator. The predicates are tested in the order given.
+     *
+     * @param preds
+     *            The predicates that the returned tuples all satisfy
+     * @param child
+     *            The child operator
+     */
+    public Filter(List<Predicate> preds, OpIterator child) {
+        if (preds.isEmpty()) {
+            throw new IllegalArgumentException("a filter needs at least one predicate");
+        }
+        this.preds = new ArrayList<Predicate>(preds);
         this.childIter = child;
     }
 
+    /**
+     * @return the first predicate of the conjunction
+     */
     public Predicate getPredicate() {
-        return pred;
+        return preds.get(0);
+    }
+
+    /**
+     * @return all predicates of the conjunction
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(preds);
     }
 
     public TupleDesc getTupleDesc() {
         return childIter.getTupleDesc();
     }
 
-    public void open() throws DbException, NoSuchElementException,
+    protected void doOpen() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        super.open();
+        test = CompiledPredicate.compile(preds);
         childIter.open();
+        batchChild = BatchingAdapter.of(childIter);
     }
 
     public void close() {
@@ -45,30 +78,54 @@ public class Filter extends Operator {
         super.close();
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
+    protected void doRewind() throws DbException, TransactionAbortedException {
         childIter.rewind();
     }
 
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
-     * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * child operator, applying the compiled predicates to them and returning
+     * those that pass all of them.
      *
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
-     * @see Predicate#filter
+     * @see CompiledPredicate#test
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         while (childIter.hasNext()) {
             Tuple next = childIter.next();
-            if (pred.filter(next)) {
+            if (test.test(next)) {
                 return next;
             }
         }
         return null;
     }
 
+    /**
+     * Returns the next batch of child rows that pass the predicates. The rows
+     * are filtered in place, in the child's batch, one predicate at a time.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = batchChild.nextBatch()) != null) {
+            if (selected == null || selected.length < batch.size()) {
+                selected = new int[batch.capacity()];
+            }
+            for (Predicate pred : preds) {
+                int n = pred.filter(batch, selected);
+                batch.compact(selected, n);
+                if (n == 0) {
+                    break;
+                }
+            }
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{childIter};
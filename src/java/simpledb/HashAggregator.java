@@ -0,0 +1,333 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Hash aggregation shared by {@link IntegerAggregator} and
+ * {@link StringAggregator}.
+ * <p>
+ * Every tuple costs a single hash table lookup, which finds or creates the
+ * accumulator of its group. At most {@link #setMaxGroups maxGroups} groups are
+ * kept in memory. Once the table is full, tuples of groups that are already
+ * in memory are still aggregated in place, while tuples of new groups are
+ * written (as (group, aggregate field) pairs) to one of
+ * {@link #NUM_PARTITIONS} spill partitions, chosen by hashing the group value.
+ * Since all tuples of a group end up in the same partition, the partitions
+ * are aggregated independently afterwards, one at a time, each by a new
+ * aggregator that hashes with a different seed and may spill again.
+ */
+public abstract class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private static final Field NO_GROUPING_FIELD = null;
+
+    /** Default maximum number of groups held in memory */
+    public static final int DEFAULT_MAX_GROUPS = 100000;
+    /** Number of partitions groups are spilled to */
+    public static final int NUM_PARTITIONS = 16;
+    // beyond this depth partitions are aggregated in memory regardless of size
+    private static final int MAX_SPILL_LEVEL = 8;
+
+    protected final int gbField;
+    protected final Type gbFieldType;
+    protected final int aField;
+    protected final Op op;
+    private final int level;
+    private int maxGroups = DEFAULT_MAX_GROUPS;
+
+    private final HashMap<Field, AggregateOpAccumulator> groups = new HashMap<>();
+    private transient TupleDesc spillTd;
+    // one list of spill files per partition; a new file is started if more
+    // tuples spill after the previous one was read
+    private transient ArrayList<ArrayList<SpillFile>> partitions;
+
+    /**
+     * Constructor.
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     * @param level
+     *            0 for a top-level aggregator, the spill depth for one that
+     *            aggregates a spilled partition
+     */
+    protected HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int level) {
+        this.gbField = gbfield;
+        this.gbFieldType = gbfieldtype;
+        this.aField = afield;
+        this.op = what;
+        this.level = level;
+    }
+
+    /**
+     * @return a new accumulator for the aggregation operator of this aggregator
+     */
+    protected abstract AggregateOpAccumulator newAccumulator();
+
+    /**
+     * @return an empty aggregator of the same kind, for tuples of the form
+     *         (group, aggregate field)
+     */
+    protected abstract HashAggregator newPartitionAggregator(int level);
+
+    /**
+     * Sets the maximum number of groups that are held in memory before
+     * further groups are spilled to disk.
+     */
+    public void setMaxGroups(int maxGroups) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("need room for at least one group");
+        }
+        this.maxGroups = maxGroups;
+    }
+
+    /**
+     * @return the number of partitions that tuples were spilled to
+     */
+    public int numSpilledPartitions() {
+        if (partitions == null) {
+            return 0;
+        }
+        int n = 0;
+        for (ArrayList<SpillFile> partition : partitions) {
+            if (!partition.isEmpty()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field key = (gbField == Aggregator.NO_GROUPING ?
+                     NO_GROUPING_FIELD :
+                     tup.getField(gbField));
+        AggregateOpAccumulator accumulator = groups.computeIfAbsent(key, k ->
+                groups.size() < maxGroups || level >= MAX_SPILL_LEVEL ? newAccumulator() : null);
+        if (accumulator != null) {
+            accumulator.add(tup.getField(aField));
+        } else {
+            spill(key, tup);
+        }
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate. Int aggregate values are
+     * passed to the accumulators without boxing them.
+     *
+     * @param batch
+     *            rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int[] values = batch.getTupleDesc().getFieldType(aField) == Type.INT_TYPE
+                ? batch.getIntColumn(aField) : null;
+        for (int row = 0; row < batch.size(); row++) {
+            Field key = (gbField == Aggregator.NO_GROUPING ?
+                         NO_GROUPING_FIELD :
+                         batch.getField(gbField, row));
+            AggregateOpAccumulator accumulator = groups.computeIfAbsent(key, k ->
+                    groups.size() < maxGroups || level >= MAX_SPILL_LEVEL ? newAccumulator() : null);
+            if (accumulator == null) {
+                spill(key, batch.getTuple(row));
+            } else if (values != null) {
+                accumulator.addInt(values[row]);
+            } else {
+                accumulator.add(batch.getField(aField, row));
+            }
+        }
+    }
+
+    private void spill(Field key, Tuple tup) {
+        try {
+            if (partitions == null) {
+                spillTd = new TupleDesc(new Type[]{gbFieldType,
+                        tup.getTupleDesc().getFieldType(aField)});
+                partitions = new ArrayList<>();
+                for (int i = 0; i < NUM_PARTITIONS; i++) {
+                    partitions.add(new ArrayList<SpillFile>());
+                }
+            }
+            ArrayList<SpillFile> partition = partitions.get(partitionOf(key));
+            SpillFile file = partition.isEmpty() ? null : partition.get(partition.size() - 1);
+            if (file == null || file.isFinished()) {
+                file = new SpillFile(spillTd);
+                partition.add(file);
+            }
+            Tuple t = new Tuple(spillTd);
+            t.setField(0, key);
+            t.setField(1, tup.getField(aField));
+            file.add(t);
+        } catch (DbException e) {
+            throw new RuntimeException("unable to spill aggregate groups", e);
+        }
+    }
+
+    /**
+     * Chooses the partition of a group. The hash is seeded with the spill
+     * level so that a partition is split up differently when it spills again.
+     */
+    private int partitionOf(Field key) {
+        int h = key.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % NUM_PARTITIONS;
+    }
+
+    /**
+     * Drops all groups and deletes any spilled data.
+     */
+    public void clear() {
+        groups.clear();
+        if (partitions != null) {
+            for (ArrayList<SpillFile> partition : partitions) {
+                for (SpillFile file : partition) {
+                    file.delete();
+                }
+            }
+            partitions = null;
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results. Groups held in memory
+     * are returned first, followed by the groups of each spilled partition.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        return new HashAggregateIterator();
+    }
+
+    private class HashAggregateIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td = gbFieldType == null
+                ? new TupleDesc(new Type[]{Type.INT_TYPE})
+                : new TupleDesc(new Type[]{gbFieldType, Type.INT_TYPE});
+        private Iterator<Map.Entry<Field, AggregateOpAccumulator>> resident;
+        private int nextPartition;
+        private HashAggregator partitionAggregator;
+        private OpIterator partitionIter;
+
+        @Override
+        protected void doOpen() throws DbException, TransactionAbortedException {
+            if (partitions != null) {
+                for (ArrayList<SpillFile> partition : partitions) {
+                    for (SpillFile file : partition) {
+                        file.finish();
+                    }
+                }
+            }
+            resident = groups.entrySet().iterator();
+            nextPartition = 0;
+        }
+
+        @Override
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (resident.hasNext()) {
+                Map.Entry<Field, AggregateOpAccumulator> entry = resident.next();
+                Tuple tuple = new Tuple(td);
+                if (gbFieldType == null) {
+                    tuple.setField(0, entry.getValue().aggregate());
+                } else {
+                    tuple.setField(0, entry.getKey());
+                    tuple.setField(1, entry.getValue().aggregate());
+                }
+                return tuple;
+            }
+            while (true) {
+                if (partitionIter != null) {
+                    if (partitionIter.hasNext()) {
+                        Tuple tuple = partitionIter.next();
+                        tuple.resetTupleDesc(td);
+                        return tuple;
+                    }
+                    closePartition();
+                }
+                if (partitions == null || nextPartition == NUM_PARTITIONS) {
+                    return null;
+                }
+                openPartition(partitions.get(nextPartition++));
+            }
+        }
+
+        /**
+         * Aggregates all tuples spilled to one partition.
+         */
+        private void openPartition(ArrayList<SpillFile> partition)
+                throws DbException, TransactionAbortedException {
+            if (partition.isEmpty()) {
+                return;
+            }
+            partitionAggregator = newPartitionAggregator(level + 1);
+            partitionAggregator.setMaxGroups(maxGroups);
+            for (SpillFile file : partition) {
+                DbFileIterator it = file.iterator();
+                it.open();
+                while (it.hasNext()) {
+                    partitionAggregator.mergeTupleIntoGroup(it.next());
+                }
+                it.close();
+            }
+            partitionIter = partitionAggregator.iterator();
+            partitionIter.open();
+        }
+
+        private void closePartition() {
+            if (partitionIter != null) {
+                partitionIter.close();
+                partitionIter = null;
+            }
+            if (partitionAggregator != null) {
+                partitionAggregator.clear();
+                partitionAggregator = null;
+            }
+        }
+
+        @Override
+        protected void doRewind() throws DbException, TransactionAbortedException {
+            closePartition();
+            resident = groups.entrySet().iterator();
+            nextPartition = 0;
+        }
+
+        @Override
+        public void close() {
+            closePartition();
+            super.close();
+        }
+
+        @Override
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        @Override
+        public void setChildren(OpIterator[] children) {
+            // no children
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+    }
+}
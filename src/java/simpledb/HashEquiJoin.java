@@ -4,8 +4,19 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin builds hash tables on blocks of child1 and probes them with
+ * child2. If child2 is a {@link SeqScan}, possibly under {@link Filter}s, the
+ * join keys of each block are also passed to the scan as a
+ * {@link BloomFilter}, so the scan drops most tuples without a join partner
+ * before they are decoded and probed.
+ * <p>
+ * If child1 turns out not to fit in one block, the join checks whether all
+ * of child2 does, and if so swaps the sides while it runs: it builds the hash
+ * table on child2 and probes it with child1, so that each side is read only
+ * once instead of child2 once per block of child1.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -26,7 +37,26 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor for a join that builds hash tables on blocks of the given
+     * number of tuples of child1, and scans child2 once for each block.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join, the build side
+     * @param child2
+     *            Iterator for the right(inner) relation to join, the probe side
+     * @param blockSize
+     *            The number of tuples of child1 held in a hash table at once
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int blockSize) {
         this.pred = p;
+        this.blockSize = Math.max(1, blockSize);
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
@@ -52,31 +82,203 @@ public class HashEquiJoin extends Operator {
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
+    private final int blockSize;
+    private boolean runtimeFilterEnabled = true;
+    private boolean buildSideSwapEnabled = true;
+    // whether the sides may still be swapped, which is only tried on the
+    // first block; whether the hash table holds child2; and the first block
+    // of child1, which probes it before the rest of child1
+    transient private boolean swapTried = false;
+    transient private boolean swapped = false;
+    transient private Iterator<Tuple> heldIt = null;
+    // the first block of child1 is loaded by the first fetchNext or nextBatch
+    transient private boolean mapLoaded = false;
+
+    // batch mode state
+    transient private BatchOpIterator batchChild1, batchChild2;
+    transient private TupleBatch probeBatch, outBatch;
+    transient private int probeRow;
+    transient private ArrayList<Tuple> matches;
+    transient private int matchIdx;
+    transient private boolean child1Exhausted;
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
-            t1 = child1.next();
+            // the tuples are kept until the next block is loaded
+            t1 = child1.next().materialize();
             ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
             if (list == null) {
                 list = new ArrayList<Tuple>();
                 map.put(t1.getField(pred.getField1()), list);
             }
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (++cnt >= blockSize) {
+                if (!swapTried && swapBuildSide(false)) {
+                    return true;
+                }
+                pushRuntimeFilter();
                 return true;
+            }
+        }
+        if (cnt > 0) {
+            pushRuntimeFilter();
         }
         return cnt > 0;
 
     }
 
-    public void open() throws DbException, NoSuchElementException,
+    /**
+     * Loads all of child2 into a hash table in place of the block of child1
+     * in it, if child2 has no more than blockSize tuples; otherwise rewinds
+     * child2 and leaves the hash table as it is.
+     *
+     * @param batches
+     *            whether to read child2 a batch at a time
+     * @return true if the sides were swapped
+     */
+    private boolean swapBuildSide(boolean batches)
+            throws DbException, TransactionAbortedException {
+        swapTried = true;
+        if (!buildSideSwapEnabled) {
+            return false;
+        }
+        HashMap<Object, ArrayList<Tuple>> map2 = new HashMap<Object, ArrayList<Tuple>>();
+        int cnt = 0;
+        if (batches) {
+            TupleBatch batch;
+            while (cnt <= blockSize && (batch = batchChild2.nextBatch()) != null) {
+                for (int row = 0; row < batch.size(); row++) {
+                    Tuple t = batch.getTuple(row);
+                    map2.computeIfAbsent(t.getField(pred.getField2()), k -> new ArrayList<Tuple>()).add(t);
+                }
+                cnt += batch.size();
+            }
+        } else {
+            while (cnt <= blockSize && child2.hasNext()) {
+                Tuple t = child2.next().materialize();
+                map2.computeIfAbsent(t.getField(pred.getField2()), k -> new ArrayList<Tuple>()).add(t);
+                cnt++;
+            }
+        }
+        if (cnt > blockSize) {
+            child2.rewind();
+            return false;
+        }
+        ArrayList<Tuple> held = new ArrayList<Tuple>();
+        for (ArrayList<Tuple> list : map.values()) {
+            held.addAll(list);
+        }
+        heldIt = held.iterator();
+        map = map2;
+        swapped = true;
+        return true;
+    }
+
+    /**
+     * @return The next tuple of child1 to probe the hash table of child2
+     *         with, or null if there are no more
+     */
+    private Tuple nextProbeTuple(boolean batches)
+            throws DbException, TransactionAbortedException {
+        if (heldIt.hasNext()) {
+            return heldIt.next();
+        }
+        if (!batches) {
+            return child1.hasNext() ? child1.next() : null;
+        }
+        if (probeBatch == null || probeRow == probeBatch.size()) {
+            probeBatch = batchChild1.nextBatch();
+            probeRow = 0;
+            if (probeBatch == null) {
+                return null;
+            }
+        }
+        return probeBatch.getTuple(probeRow++);
+    }
+
+    /**
+     * Returns the next tuple of the join once the sides are swapped.
+     */
+    private Tuple fetchSwapped(boolean batches)
+            throws DbException, TransactionAbortedException {
+        while (listIt == null || !listIt.hasNext()) {
+            t1 = nextProbeTuple(batches);
+            if (t1 == null) {
+                return null;
+            }
+            ArrayList<Tuple> l = map.get(t1.getField(pred.getField1()));
+            listIt = l == null ? null : l.iterator();
+        }
+        return Tuple.concat(t1, listIt.next(), comboTD);
+    }
+
+    /**
+     * Enables or disables swapping the build side of the join at runtime
+     * when child2 fits in the hash table and child1 does not; it is enabled
+     * by default.
+     */
+    public void setBuildSideSwapEnabled(boolean enabled) {
+        buildSideSwapEnabled = enabled;
+    }
+
+    /**
+     * @return true if the join swapped its build side since it was last
+     *         opened or rewound
+     */
+    public boolean isBuildSideSwapped() {
+        return swapped;
+    }
+
+    /**
+     * Enables or disables passing the join keys to the probe-side scan; they
+     * are passed by default.
+     */
+    public void setRuntimeFilterEnabled(boolean enabled) {
+        runtimeFilterEnabled = enabled;
+    }
+
+    /**
+     * @return the scan that child2 reads, if it is a SeqScan under zero or
+     *         more Filters, which keep the TupleDesc of the scan; otherwise null
+     */
+    private SeqScan probeScan() {
+        OpIterator c = child2;
+        while (c instanceof Filter) {
+            c = ((Filter) c).getChildren()[0];
+        }
+        return c instanceof SeqScan ? (SeqScan) c : null;
+    }
+
+    /**
+     * Passes a Bloom filter of the keys of the block in the hash table to the
+     * probe-side scan, and restarts child2 so that the filter is applied.
+     */
+    private void pushRuntimeFilter() throws DbException, TransactionAbortedException {
+        SeqScan scan = probeScan();
+        if (!runtimeFilterEnabled || scan == null) {
+            return;
+        }
+        BloomFilter filter = new BloomFilter(map.size());
+        for (Object key : map.keySet()) {
+            filter.add((Field) key);
+        }
+        scan.setRuntimeFilter(pred.getField2(), filter);
+        child2.rewind();
+    }
+
+    protected void doOpen() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        clearRuntimeFilter();
         child1.open();
         child2.open();
-        loadMap();
-        super.open();
+        batchChild1 = BatchingAdapter.of(child1);
+        batchChild2 = BatchingAdapter.of(child2);
+        mapLoaded = false;
+        swapTried = false;
+        swapped = false;
+        heldIt = null;
     }
 
     public void close() {
@@ -87,11 +289,38 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        resetBatchState();
+        outBatch = null;
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
+    /**
+     * Drops the filter of the last block of the previous pass from the probe
+     * scan, so that the next pass, and the build side swap at its start,
+     * read all of child2.
+     */
+    private void clearRuntimeFilter() throws DbException, TransactionAbortedException {
+        SeqScan scan = probeScan();
+        if (scan != null) {
+            scan.setRuntimeFilter(pred.getField2(), null);
+        }
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        clearRuntimeFilter();
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        mapLoaded = false;
+        swapTried = false;
+        swapped = false;
+        heldIt = null;
+        resetBatchState();
+    }
+
+    private void resetBatchState() {
+        probeBatch = null;
+        matches = null;
+        child1Exhausted = false;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -116,21 +345,18 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        return Tuple.concat(t1, t2, comboTD);
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!mapLoaded) {
+            mapLoaded = true;
+            loadMap();
+        }
+        if (swapped) {
+            return fetchSwapped(false);
+        }
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
@@ -159,6 +385,87 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * Loads the next block of at least blockSize rows of child1 (or all that
+     * are left) into the hash table, a whole batch at a time.
+     */
+    private boolean loadMapBatches() throws DbException, TransactionAbortedException {
+        int cnt = 0;
+        map.clear();
+        TupleBatch batch;
+        while (cnt < blockSize && (batch = batchChild1.nextBatch()) != null) {
+            for (int row = 0; row < batch.size(); row++) {
+                Tuple t = batch.getTuple(row);
+                map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<Tuple>()).add(t);
+            }
+            cnt += batch.size();
+        }
+        if (cnt >= blockSize && !swapTried && swapBuildSide(true)) {
+            return true;
+        }
+        if (cnt > 0) {
+            pushRuntimeFilter();
+        }
+        return cnt > 0;
+    }
+
+    /**
+     * Batch counterpart of {@link #fetchNext()}: probes the hash table with
+     * a batch of child2 rows at a time, and writes the joined rows into an
+     * output batch.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        if (!mapLoaded) {
+            mapLoaded = true;
+            child1Exhausted = !loadMapBatches();
+        }
+        if (child1Exhausted) {
+            return null;
+        }
+        if (outBatch == null) {
+            outBatch = new TupleBatch(comboTD);
+        }
+        outBatch.clear();
+        if (swapped) {
+            Tuple t;
+            while (!outBatch.isFull() && (t = fetchSwapped(true)) != null) {
+                outBatch.addTuple(t);
+            }
+            return outBatch.size() > 0 ? outBatch : null;
+        }
+        int td1n = child1.getTupleDesc().numFields();
+        int td2n = child2.getTupleDesc().numFields();
+        int field2 = pred.getField2();
+        while (!outBatch.isFull()) {
+            if (matches != null && matchIdx < matches.size()) {
+                Tuple left = matches.get(matchIdx++);
+                int row = outBatch.addRow();
+                for (int i = 0; i < td1n; i++)
+                    outBatch.setField(i, row, left.getField(i));
+                for (int i = 0; i < td2n; i++)
+                    outBatch.copyField(td1n + i, row, probeBatch, i, probeRow - 1);
+                continue;
+            }
+            if (probeBatch == null || probeRow == probeBatch.size()) {
+                probeBatch = batchChild2.nextBatch();
+                probeRow = 0;
+                matches = null;
+                if (probeBatch == null) {
+                    // child2 is done: advance child1
+                    child2.rewind();
+                    if (!loadMapBatches()) {
+                        child1Exhausted = true;
+                        break;
+                    }
+                    continue;
+                }
+            }
+            matches = map.get(probeBatch.getField(field2, probeRow++));
+            matchIdx = 0;
+        }
+        return outBatch.size() > 0 ? outBatch : null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
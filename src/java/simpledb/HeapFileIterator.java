@@ -17,6 +17,13 @@ public class HeapFileIterator extends AbstractDbFileIterator {
         this.pageNumber = -1;
     }
 
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        pageNumber = -1;
+        currIterator = null;
+    }
+
     @Override
     protected Tuple readNext() throws DbException, TransactionAbortedException {
         while (true) {
@@ -8,6 +8,12 @@ import java.util.stream.IntStream;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily: a page keeps the bytes it was read from and
+ * only builds its Tuple objects when they are first needed. A scan with
+ * pushed-down predicates and columns ({@link #scan}) reads the fields it
+ * needs directly from the bytes, so a page that is only scanned this way is
+ * never decoded.
  *
  * @see HeapFile
  * @see BufferPool
@@ -21,6 +27,13 @@ public class HeapPage implements Page {
     final Tuple tuples[];
     final int numSlots;
 
+    // the bytes the page was created from, and the layout of a tuple in them
+    private final byte[] data;
+    private final int[] fieldOffsets;
+    private final int tupleSize;
+    // whether tuples[] holds every tuple; set before the page is modified
+    private volatile boolean decoded;
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -46,26 +59,55 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        this.data = data.clone();
+        this.fieldOffsets = fieldOffsets(td);
+        this.tupleSize = td.getSize();
 
+        // allocate and read the header slots of this page; the records are
+        // read when they are first needed
+        header = Arrays.copyOf(this.data, getHeaderSize());
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * @return the offset of each field of td within an encoded tuple
+     */
+    static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields()];
+        int offset = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset;
+            offset += td.getFieldType(i).getLen();
+        }
+        return offsets;
+    }
+
+    /**
+     * Reads the tuples of all used slots from the page data into tuples[].
+     */
+    private void decode() {
+        if (decoded) {
+            return;
+        }
+        synchronized (tuples) {
+            if (decoded) {
+                return;
+            }
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            try {
+                dis.skipBytes(header.length);
+                for (int i=0; i<tuples.length; i++)
+                    tuples[i] = readNextTuple(dis,i);
+                dis.close();
+            } catch (NoSuchElementException | IOException e) {
+                e.printStackTrace();
+            }
+            decoded = true;
+        }
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -163,6 +205,10 @@ public class HeapPage implements Page {
      */
     @Override
     public byte[] getPageData() {
+        if (!decoded) {
+            // not modified since it was read
+            return data.clone();
+        }
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -245,6 +291,7 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
+        decode();
         RecordId rid = t.getRecordId();
         if (!pid.equals(rid.getPageId())) {
             throw new DbException("The tuple is not on this page");
@@ -266,12 +313,16 @@ public class HeapPage implements Page {
         if (!td.equals(t.getTupleDesc())) {
             throw new DbException("Tuple description does not match");
         }
+        decode();
         int firstEmptySlot = firstEmptySlot();
         if (firstEmptySlot == -1) {
             throw new DbException("This page is full");
         }
-        tuples[firstEmptySlot] = t;
+        // the page outlives the operators that produced a tuple view
+        Tuple stored = t.materialize();
+        tuples[firstEmptySlot] = stored;
         t.setRecordId(new RecordId(pid, firstEmptySlot));
+        stored.setRecordId(t.getRecordId());
         markSlotUsed(firstEmptySlot, true);
     }
 
@@ -287,7 +338,9 @@ public class HeapPage implements Page {
             for (int bitOffset = 0; bitOffset < 8; bitOffset++) {
                 int bitMask = 1 << bitOffset;
                 if ((bInt & bitMask) == 0) {
-                    return arrOffset * 8 +bitOffset;
+                    int slot = arrOffset * 8 + bitOffset;
+                    // the last header byte may have bits past the last slot
+                    return slot < numSlots ? slot : -1;
                 }
             }
         }
@@ -316,16 +369,10 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         int emptySlotsCount = 0;
-        int idx = 0;
-        for (byte b: header) {
-            int bInt = Byte.toUnsignedInt(b);
-            for (int i = 0; i < 8; i++) {
-                if ((bInt & 1) == 0) {
-                    emptySlotsCount++;
-                }
-                bInt >>= 1;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                emptySlotsCount++;
             }
-            idx++;
         }
         return emptySlotsCount;
     }
@@ -360,11 +407,125 @@ public class HeapPage implements Page {
         header[arrOffset] = (byte) headerByte;
     }
 
+    /**
+     * Appends the tuples in used slots of this page to a batch, starting at
+     * the given slot, until the batch is full or the page is done.
+     *
+     * @return the slot to continue from, or -1 if the page is done
+     */
+    int addTuplesTo(TupleBatch batch, int fromSlot) {
+        decode();
+        int slot = fromSlot;
+        while (slot < numSlots && !batch.isFull()) {
+            if (isSlotUsed(slot)) {
+                batch.addTuple(tuples[slot]);
+            }
+            slot++;
+        }
+        return slot < numSlots ? slot : -1;
+    }
+
+    /**
+     * Appends the tuples of this page that satisfy a predicate to a list,
+     * keeping only some of their fields. Until the page is decoded, the
+     * predicate is tested on the encoded tuples and only the kept fields of
+     * the tuples that pass are read.
+     *
+     * @param columns
+     *            the fields to keep, in the order of outTd
+     * @param outTd
+     *            the TupleDesc of the returned tuples
+     * @param test
+     *            the predicate; field numbers refer to the page's TupleDesc
+     * @param out
+     *            receives the tuples, with their RecordIds set
+     */
+    void scan(int[] columns, TupleDesc outTd, CompiledPredicate test, List<Tuple> out) {
+        int tupleSize = td.getSize();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            Tuple t;
+            if (decoded) {
+                Tuple full = tuples[slot];
+                if (!test.test(full)) {
+                    continue;
+                }
+                t = new Tuple(outTd);
+                for (int i = 0; i < columns.length; i++) {
+                    t.setField(i, full.getField(columns[i]));
+                }
+            } else {
+                int offset = header.length + slot * tupleSize;
+                if (!test.test(data, offset, fieldOffsets)) {
+                    continue;
+                }
+                t = new Tuple(outTd);
+                for (int i = 0; i < columns.length; i++) {
+                    t.setField(i, readField(td.getFieldType(columns[i]), data,
+                            offset + fieldOffsets[columns[i]]));
+                }
+            }
+            t.setRecordId(new RecordId(pid, slot));
+            out.add(t);
+        }
+    }
+
+    /**
+     * Reads an int field of the tuple in a used slot. Until the page is
+     * decoded, it is read from the encoded tuple.
+     */
+    int getInt(int slot, int field) {
+        if (decoded) {
+            return ((IntField) tuples[slot].getField(field)).getValue();
+        }
+        return readInt(data, header.length + slot * tupleSize + fieldOffsets[field]);
+    }
+
+    /**
+     * Reads a field of the tuple in a used slot. Until the page is decoded,
+     * it is read from the encoded tuple.
+     */
+    Field getField(int slot, int field) {
+        if (decoded) {
+            return tuples[slot].getField(field);
+        }
+        return readField(td.getFieldType(field), data,
+                header.length + slot * tupleSize + fieldOffsets[field]);
+    }
+
+    /**
+     * @return the int encoded at an offset of page data
+     */
+    static int readInt(byte[] data, int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    /**
+     * @return the string encoded at an offset of page data
+     */
+    static String readString(byte[] data, int offset) {
+        return new String(data, offset + 4, readInt(data, offset));
+    }
+
+    /**
+     * @return the field of the given type encoded at an offset of page data
+     */
+    static Field readField(Type type, byte[] data, int offset) {
+        if (type == Type.INT_TYPE) {
+            return new IntField(readInt(data, offset));
+        }
+        return new StringField(readString(data, offset), Type.STRING_LEN);
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
+        decode();
         return IntStream.range(0, numSlots)
                         .filter(this::isSlotUsed)
                         .mapToObj(index -> tuples[index])
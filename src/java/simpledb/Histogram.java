@@ -4,6 +4,8 @@ public interface Histogram<T> {
 
     void addValue(T v);
 
+    void removeValue(T v);
+
     double estimateSelectivity(Predicate.Op op, T v);
 
     double avgSelectivity();
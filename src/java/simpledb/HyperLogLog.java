@@ -0,0 +1,192 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog (HLL) sketch, which estimates the number of distinct values
+ * added to it in constant space. Sketches of different parts of a column can
+ * be merged into a sketch of the whole column.
+ * https://static.googleusercontent.com/media/research.google.com/en//pubs/archive/40671.pdf
+ * <p>
+ * A sketch of precision p has 2^p registers of a byte each, and its
+ * estimates have a standard error of about 1.04 / sqrt(2^p).
+ */
+public class HyperLogLog {
+
+    private static final int HASH_BUCKET_BITS = 8;
+    /** Number of buckets of a sketch of the default precision */
+    public static final int HASH_BUCKET_COUNT = 1 << HASH_BUCKET_BITS;
+    /** The default precision, in bits of the hash that choose a register */
+    public static final int DEFAULT_PRECISION = HASH_BUCKET_BITS;
+    /** The smallest and the largest precision of a sketch */
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] hllBuckets;
+    // the last estimate, or -1 if the registers changed since
+    private int estimate = -1;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision
+     *            the number of bits of the hash of a value that choose its
+     *            register, between {@link #MIN_PRECISION} and
+     *            {@link #MAX_PRECISION}
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION
+                    + " and " + MAX_PRECISION + ": " + precision);
+        }
+        this.precision = precision;
+        this.hllBuckets = new byte[1 << precision];
+    }
+
+    public void add(int v) {
+        int hv = hashInt(v);
+        int hashBucketIndex = hv >>> (32 - precision);
+        int remainder = (hv << precision) >>> precision;
+        int n = 32 - precision - highestOneBitLocation(remainder);
+        if (n > hllBuckets[hashBucketIndex]) {
+            hllBuckets[hashBucketIndex] = (byte) n;
+            estimate = -1;
+        }
+    }
+
+    /**
+     * Adds a value of any type; strings are added by their hash code.
+     */
+    public void add(Field f) {
+        add(f.getType() == Type.INT_TYPE
+                ? ((IntField) f).getValue() : ((StringField) f).getValue().hashCode());
+    }
+
+    /**
+     * Adds the values added to another sketch of the same precision to this
+     * one.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("cannot merge a sketch of precision "
+                    + other.precision + " into one of precision " + precision);
+        }
+        for (int i = 0; i < hllBuckets.length; i++) {
+            hllBuckets[i] = (byte) Math.max(hllBuckets[i], other.hllBuckets[i]);
+        }
+        estimate = -1;
+    }
+
+    /**
+     * @return A new sketch of the values added to this one.
+     */
+    public HyperLogLog copy() {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        sketch.merge(this);
+        return sketch;
+    }
+
+    /**
+     * @return The precision of the sketch, see {@link #HyperLogLog(int)}
+     */
+    public int precision() {
+        return precision;
+    }
+
+    /**
+     * @return The standard error of the estimates of the sketch, relative to
+     *         the number of distinct values
+     */
+    public double relativeError() {
+        return 1.04 / Math.sqrt(hllBuckets.length);
+    }
+
+    /**
+     * @return An estimate of the number of distinct values added.
+     */
+    public int estimate() {
+        int e = estimate;
+        if (e < 0) {
+            e = computeEstimate();
+            estimate = e;
+        }
+        return e;
+    }
+
+    private int computeEstimate() {
+        int m = hllBuckets.length;
+        double sum = 0;
+        int zeroHashBuckets = 0;
+        for (byte n : hllBuckets) {
+            sum += Math.scalb(1.0, -n);
+            if (n == 0) {
+                zeroHashBuckets++;
+            }
+        }
+        double rawEstimate = alpha(m) * m * m / sum;
+        if (rawEstimate <= m / 2 * 5) {
+            // linear counting over the empty buckets
+            if (zeroHashBuckets != 0) {
+                return (int) Math.round(m * Math.log((double) m / zeroHashBuckets));
+            }
+            else {
+                return (int) rawEstimate;
+            }
+        }
+        else if (rawEstimate <= (1L << 32) / 30) {
+            return (int) rawEstimate;
+        }
+        else {
+            return (int) (-Math.log(1 - rawEstimate / (1L << 32)) * (1L << 32));
+        }
+    }
+
+    // bias correction for m registers
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    /**
+     * Writes the precision and the registers of this sketch; {@link #read}
+     * reads them back.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeByte(precision);
+        out.write(hllBuckets);
+    }
+
+    static HyperLogLog read(DataInputStream in) throws IOException {
+        HyperLogLog sketch = new HyperLogLog(in.readUnsignedByte());
+        in.readFully(sketch.hllBuckets);
+        return sketch;
+    }
+
+    // hash function to randomize the input values
+    // https://stackoverflow.com/a/12996028
+    private static int hashInt(int n) {
+        n = ((n >>> 16) ^ n) * 0x45d9f3b;
+        n = ((n >>> 16) ^ n) * 0x45d9f3b;
+        n = (n >>> 16) ^ n;
+        return n;
+    }
+
+    // compute the location of highest one bit; -1 if n = 0
+    // e.g. 1 = 0b1 -> 0, 13 = 0b1101 -> 3
+    private static int highestOneBitLocation(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+}
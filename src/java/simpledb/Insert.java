@@ -37,13 +37,21 @@ public class Insert extends Operator {
         this.childIter = child;
     }
 
+    /**
+     * Makes the operator run as part of another transaction. The operator
+     * must be closed.
+     */
+    void setTransactionId(TransactionId t) {
+        this.tid = t;
+    }
+
     public TupleDesc getTupleDesc() {
         return tupleDesc;
     }
 
-    public void open() throws DbException, TransactionAbortedException {
-        super.open();
+    protected void doOpen() throws DbException, TransactionAbortedException {
         childIter.open();
+        finished = false;
     }
 
     public void close() {
@@ -51,7 +59,7 @@ public class Insert extends Operator {
         super.close();
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
+    protected void doRewind() throws DbException, TransactionAbortedException {
         // we don't need to rewind childIter since we don't want to re-insert
     }
 
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * An {@link EquiDepthHistogram} over a single integer-based field.
+ */
+public class IntEquiDepthHistogram extends EquiDepthHistogram<Integer> {
+
+    /**
+     * Create an empty IntEquiDepthHistogram.
+     *
+     * @param buckets
+     *            the number of buckets, which is also the largest number of
+     *            most common values that are kept
+     */
+    public IntEquiDepthHistogram(int buckets) {
+        super(buckets);
+    }
+
+    @Override
+    protected double fractionBelow(Integer v, Integer lo, Integer hi) {
+        return (double) ((long) v - lo) / ((long) hi - lo + 1);
+    }
+
+    @Override
+    protected int hash(Integer v) {
+        return v;
+    }
+
+    @Override
+    protected void writeValue(DataOutputStream out, Integer v) throws IOException {
+        out.writeInt(v);
+    }
+
+    @Override
+    protected Integer readValue(DataInputStream in) throws IOException {
+        return in.readInt();
+    }
+
+    @Override
+    protected EquiDepthHistogram<Integer> emptyCopy() {
+        return new IntEquiDepthHistogram(numBuckets);
+    }
+}
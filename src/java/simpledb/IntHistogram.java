@@ -1,7 +1,5 @@
 package simpledb;
 
-import java.util.Arrays;
-
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
 public class IntHistogram implements Histogram<Integer> {
@@ -13,12 +11,8 @@ public class IntHistogram implements Histogram<Integer> {
     private final int firstBucketEnd;
     private int ntup;
 
-    // variables related to counting distinct elements; we use HyperLogLog (HLL)
-    // https://static.googleusercontent.com/media/research.google.com/en//pubs/archive/40671.pdf
-    private static final int HASH_BUCKET_BITS = 8;
-    private static final int HASH_BUCKET_COUNT = 1 << HASH_BUCKET_BITS;
-    private static final double HLL_CORRECTION_CONST = 0.7213 / (1 + 1.079 / HASH_BUCKET_COUNT);
-    private final int[] hllBuckets;
+    // counts distinct elements
+    private HyperLogLog distinct;
 
     /**
      * Create a new IntHistogram.
@@ -49,7 +43,7 @@ public class IntHistogram implements Histogram<Integer> {
         this.range = (max - min + 1) / buckets;
         this.firstBucketEnd = max + 1 - (buckets - 1) * range;
         this.ntup = 0;
-        this.hllBuckets = new int[HASH_BUCKET_COUNT];
+        this.distinct = new HyperLogLog();
     }
 
     /**
@@ -60,14 +54,20 @@ public class IntHistogram implements Histogram<Integer> {
         int index = bucketIndex(v);
         buckets[index] = buckets[index] + 1;
         ntup++;
-        // HLL update
-        int hv = hashInt(v);
-        int hashBucketIndex = hv >>> (32 - HASH_BUCKET_BITS);
-        int remainder = (hv << HASH_BUCKET_BITS) >>> HASH_BUCKET_BITS;
-        hllBuckets[hashBucketIndex] = Math.max(
-                hllBuckets[hashBucketIndex],
-                32 - HASH_BUCKET_BITS - highestOneBitLocation(remainder)
-        );
+        distinct.add(v);
+    }
+
+    /**
+     * Remove a value that was added to the histogram. The estimate of the
+     * number of distinct values is not lowered.
+     * @param v Value to remove from the histogram
+     */
+    public void removeValue(int v) {
+        int index = bucketIndex(v);
+        if (buckets[index] > 0) {
+            buckets[index]--;
+            ntup--;
+        }
     }
 
     /**
@@ -80,6 +80,10 @@ public class IntHistogram implements Histogram<Integer> {
         addValue((int) v);
     }
 
+    public void removeValue(Integer v) {
+        removeValue((int) v);
+    }
+
     /**
      * Compute the index of the bucket that v should be in.
      */
@@ -202,8 +206,8 @@ public class IntHistogram implements Histogram<Integer> {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        int distinct = estimateDistinctElements();
+        return distinct > 0 ? 1.0 / distinct : 1.0;
     }
 
     /**
@@ -285,7 +289,7 @@ public class IntHistogram implements Histogram<Integer> {
         // in the case where we have few data points in the histogram, just return the
         // sum of expected number of distinct elements in each bucket
         // https://math.stackexchange.com/a/72351
-        if (ntup < HASH_BUCKET_COUNT * 5) {
+        if (ntup < HyperLogLog.HASH_BUCKET_COUNT * 5) {
             double expected = 0;
             for (int i = 0; i < buckets.length; i++) {
                 int n = bucketStart(i) - bucketEnd(i);
@@ -294,48 +298,7 @@ public class IntHistogram implements Histogram<Integer> {
             return (int) expected;
         }
         // use HLL algorithm if we have enough data points
-        double sum = Arrays.stream(hllBuckets).mapToDouble(n -> Math.pow(2.0, -n)).sum();
-        double rawEstimate = HLL_CORRECTION_CONST * Math.pow(HASH_BUCKET_COUNT, 2) / sum;
-        if (rawEstimate <= HASH_BUCKET_COUNT / 2 * 5) {
-            int zeroHashBuckets = (int) Arrays.stream(hllBuckets).filter(n -> n != 0).count();
-            if (zeroHashBuckets != 0) {
-                return (int) (HASH_BUCKET_COUNT * Math.log(HASH_BUCKET_COUNT / rawEstimate));
-            }
-            else {
-                return (int) rawEstimate;
-            }
-        }
-        else if (rawEstimate <= (1L << 32) / 30) {
-            return (int) rawEstimate;
-        }
-        else {
-            return (int) (-Math.log(1 - rawEstimate / (1L << 32)) * (1L << 32));
-        }
-    }
-
-    // ====== Helper methods for HLL ======
-
-    // hash function to randomize the input values
-    // https://stackoverflow.com/a/12996028
-    private int hashInt(int n) {
-        n = ((n >>> 16) ^ n) * 0x45d9f3b;
-        n = ((n >>> 16) ^ n) * 0x45d9f3b;
-        n = (n >>> 16) ^ n;
-        return n;
-    }
-
-    // compute the location of highest one bit; -1 if n = 0
-    // e.g. 1 = 0b1 -> 0, 13 = 0b1101 -> 3
-    private int highestOneBitLocation(int n) {
-        if (n == 0) {
-            return -1;
-        }
-        int hob = Integer.highestOneBit(n);
-        int location = 0;
-        while (hob != (1 << location)) {
-            location++;
-        }
-        return location;
+        return distinct.estimate();
     }
 
 }
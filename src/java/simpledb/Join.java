@@ -11,12 +11,14 @@ public class Join extends Operator {
     private static final int OUTER_BATCH_SIZE = 100;
 
     private JoinPredicate pred;
+    private final int outerBlockSize;
     private OpIterator childIter1;
     private OpIterator childIter2;
 
     private ArrayList<Tuple> outerTuples;
     private Iterator<Tuple> outerTuplesIter;
     private Tuple innerTuple;
+    private transient TupleDesc comboTD;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -30,7 +32,27 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, OUTER_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor for a join that reads blocks of the given number of
+     * tuples of child1 into memory, and scans child2 once for each block.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param outerBlockSize
+     *            The number of tuples of child1 joined with each scan of
+     *            child2; 1 gives a tuple-at-a-time nested-loops join
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int outerBlockSize) {
         this.pred = p;
+        this.outerBlockSize = Math.max(1, outerBlockSize);
         this.childIter1 = child1;
         this.childIter2 = child2;
         this.outerTuples = new ArrayList<>();
@@ -67,11 +89,11 @@ public class Join extends Operator {
                 childIter2.getTupleDesc());
     }
 
-    public void open() throws DbException, NoSuchElementException,
+    protected void doOpen() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        super.open();
         childIter1.open();
         childIter2.open();
+        comboTD = getTupleDesc();
         refillOuterTuples();
     }
 
@@ -81,7 +103,7 @@ public class Join extends Operator {
         super.close();
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
+    protected void doRewind() throws DbException, TransactionAbortedException {
         childIter1.rewind();
         childIter2.rewind();
         refillOuterTuples();
@@ -89,7 +111,7 @@ public class Join extends Operator {
 
     private void refillOuterTuples() throws TransactionAbortedException, DbException {
         outerTuples.clear();
-        for (int i = 0; i < OUTER_BATCH_SIZE; i++) {
+        for (int i = 0; i < outerBlockSize; i++) {
             if (!childIter1.hasNext()) {
                 break;
             }
@@ -117,7 +139,7 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // block-nested loops that reads 100 outer tuples at a time
+        // block-nested loops that reads outerBlockSize outer tuples at a time
         while (true) {
             // degenerate case: childIter1 is empty
             if (outerTuples.isEmpty() && !childIter1.hasNext()) {
@@ -147,7 +169,7 @@ public class Join extends Operator {
             while (outerTuplesIter.hasNext()) {
                 Tuple outerTuple = outerTuplesIter.next();
                 if (pred.filter(outerTuple, innerTuple)) {
-                    return Tuple.merge(outerTuple, innerTuple);
+                    return Tuple.concat(outerTuple, innerTuple, comboTD);
                 }
             }
             outerTuplesIter = outerTuples.iterator();
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * JoinFilter is an operator that returns the child tuples whose two fields
+ * satisfy a {@link JoinPredicate}. It evaluates the joins of a query whose
+ * tables an earlier join has already combined into one subplan, such as the
+ * last join of a cycle in the join graph, or a second join between the same
+ * two tables.
+ */
+public class JoinFilter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private OpIterator child;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate; both of its fields are fields of the child
+     * @param child
+     *            The child operator
+     */
+    public JoinFilter(JoinPredicate p, OpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    protected void doOpen() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Returns the next child tuple that satisfies the predicate, or null if
+     * there are no more.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (p.filter(t, t)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+}
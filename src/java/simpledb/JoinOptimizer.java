@@ -13,8 +13,57 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    // estimated selectivities of the joins, see estimateJoinCardinality
+    private final Map<String, Double> joinSelectivities = new HashMap<>();
 
-    private static final int MAX_RIGHT_TREE_DEPTH = 3;
+    /**
+     * The physical join algorithms the optimizer chooses between. The
+     * left-hand (outer) input of a join is the one held in memory: the blocks
+     * of a block nested-loops join and the build side of a hash join.
+     */
+    public enum JoinAlgorithm {
+        /** Nested loops, one outer tuple at a time, see {@link Join} */
+        NESTED_LOOP,
+        /** Nested loops over blocks of outer tuples that fit in memory, see
+         * {@link Join} */
+        BLOCK_NESTED_LOOP,
+        /** Hash tables built on blocks of outer tuples that fit in memory
+         * and probed with the inner tuples, see {@link HashEquiJoin} */
+        HASH,
+        /** Sort both inputs and merge them, see {@link SortMergeJoin} */
+        SORT_MERGE;
+
+        /**
+         * @return true if this algorithm can evaluate the given join operator
+         */
+        public boolean supports(Predicate.Op op) {
+            switch (this) {
+                case HASH:
+                    return op == Predicate.Op.EQUALS;
+                case SORT_MERGE:
+                    return SortMergeJoin.supports(op);
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /** Default number of pages of memory a join may hold its outer input in */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+
+    private static int memoryPages = DEFAULT_MEMORY_PAGES;
+
+    /**
+     * Sets the number of pages of memory each join may hold its outer input
+     * in, both in the costs of plans and in the joins that are instantiated.
+     */
+    public static void setMemoryPages(int pages) {
+        memoryPages = pages;
+    }
+
+    public static int getMemoryPages() {
+        return memoryPages;
+    }
 
     /**
      * Constructor
@@ -37,6 +86,9 @@ public class JoinOptimizer {
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
      *
+     * The join is evaluated with the algorithm stored in
+     * {@link LogicalJoinNode#algorithm}, holding plan1 in memory.
+     *
      * @param lj
      *            The join being considered
      * @param plan1
@@ -70,12 +122,68 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        switch (lj.algorithm) {
+            case BLOCK_NESTED_LOOP:
+                j = new Join(p, plan1, plan2,
+                        memoryPages * SpillFile.getNumTuples(plan1.getTupleDesc()));
+                break;
+            case HASH:
+                j = new HashEquiJoin(p, plan1, plan2,
+                        memoryPages * SpillFile.getNumTuples(plan1.getTupleDesc()));
+                break;
+            case SORT_MERGE:
+                j = new SortMergeJoin(p, plan1, plan2,
+                        isSortedOn(plan1, lj.f1QuantifiedName),
+                        isSortedOn(plan2, lj.f2QuantifiedName));
+                break;
+            default:
+                j = new Join(p, plan1, plan2, 1);
+        }
 
         return j;
 
     }
 
+    /**
+     * Return an iterator that applies a logical join to a subplan that
+     * already contains both of its tables, as a {@link JoinFilter}. The
+     * optimizer places such joins after the join that connects their tables
+     * when the join graph has a cycle or joins two tables more than once.
+     *
+     * @param lj
+     *            The join being applied
+     * @param plan
+     *            The subplan containing both tables of the join
+     */
+    public static OpIterator instantiateFilter(LogicalJoinNode lj, OpIterator plan)
+            throws ParsingException {
+        TupleDesc td = plan.getTupleDesc();
+        int f1, f2;
+        try {
+            f1 = td.fieldNameToIndex(lj.f1QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+        }
+        try {
+            f2 = td.fieldNameToIndex(lj.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f2QuantifiedName);
+        }
+        return new JoinFilter(new JoinPredicate(f1, lj.p, f2), plan);
+    }
+
+    /**
+     * Return true if the given subplan is known to produce its tuples in
+     * ascending order of the specified field.
+     */
+    private static boolean isSortedOn(OpIterator plan, String fieldName) {
+        if (plan instanceof JoinFilter) {
+            return isSortedOn(((JoinFilter) plan).getChildren()[0], fieldName);
+        }
+        return plan instanceof SortMergeJoin
+                && ((SortMergeJoin) plan).isSortedOn(fieldName);
+    }
+
     /**
      * Estimate the cost of a join.
      *
@@ -104,18 +212,100 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of a join evaluated with the algorithm stored in
+     * {@link LogicalJoinNode#algorithm}.
+     *
+     * A nested-loops join rescans the right-hand side for every left-hand
+     * tuple and evaluates the predicate on every pair. A sort-merge join scans
+     * each side once, sorts each side that is not already ordered on its join
+     * field (roughly n log n comparisons), and then merges the two in linear
+     * time.
+     *
+     * @param sorted1
+     *            Whether the left-hand side is already sorted on its join field
+     * @param sorted2
+     *            Whether the right-hand side is already sorted on its join
+     *            field
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, sorted1, sorted2,
+                Type.INT_TYPE.getLen(), cost2);
+    }
+
+    /**
+     * Estimate the cost of a join evaluated with the algorithm stored in
+     * {@link LogicalJoinNode#algorithm}, given how much memory a join may use
+     * and how cheaply its right-hand side can be scanned again.
+     *
+     * Block nested-loops and hash joins read as many left-hand tuples as fit
+     * in {@link #getMemoryPages()} pages at a time, and scan the right-hand
+     * side once for each such block. A block nested-loops join evaluates the
+     * predicate on every pair; a hash join inserts each left-hand tuple into
+     * a hash table and probes it with every right-hand tuple of every scan.
+     * Only the first scan of the right-hand side costs cost2; the others cost
+     * rescanCost2, which is lower when the right-hand side is a table that
+     * stays in the buffer pool.
+     *
+     * @param width1
+     *            The size in bytes of a left-hand tuple
+     * @param rescanCost2
+     *            Estimated cost of scanning the right-hand side again
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double,
+     *      boolean, boolean)
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2,
+            int width1, double rescanCost2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
-        } else {
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
+        }
+        double blocks;
+        switch (j.algorithm) {
+            case SORT_MERGE:
+                // summed by side, so that swapping the sides gives exactly
+                // the same cost
+                return (cost1 + (sorted1 ? 0 : estimateSortCost(card1)) + card1)
+                        + (cost2 + (sorted2 ? 0 : estimateSortCost(card2)) + card2);
+            case HASH:
+                blocks = Math.max(1, Math.ceil((double) card1 / blockSize(width1)));
+                return cost1 + card1 + cost2 + (blocks - 1) * rescanCost2
+                        + blocks * card2;
+            case BLOCK_NESTED_LOOP:
+                blocks = Math.max(1, Math.ceil((double) card1 / blockSize(width1)));
+                return cost1 + cost2 + (blocks - 1) * rescanCost2
+                        + (double) card1 * card2;
+            default:
+                if (card1 == 0) {
+                    return cost1 + cost2;
+                }
+                return cost1 + cost2 + (card1 - 1) * rescanCost2
+                        + (double) card1 * card2;
         }
     }
 
+    /**
+     * Return the number of tuples of the given size that fit in the memory
+     * of a join; instantiateJoin sizes the blocks of its joins the same way.
+     */
+    private static int blockSize(int width) {
+        return Math.max(1, memoryPages * ((BufferPool.getPageSize() * 8) / (width * 8 + 1)));
+    }
+
+    /**
+     * Estimate the number of comparisons needed to sort card tuples.
+     */
+    private static double estimateSortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -141,6 +331,20 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1;
+        } else if (stats.containsKey(j.t1Alias) && stats.containsKey(j.t2Alias)) {
+            // the selectivity of a join does not depend on the subplans it
+            // joins, so it is estimated once for all of them
+            String key = j.f1QuantifiedName + " " + j.p + " " + j.f2QuantifiedName;
+            Double selectivity = joinSelectivities.get(key);
+            if (selectivity == null) {
+                selectivity = TableStats.estimateJoinSelectivity(stats.get(j.t1Alias),
+                        j.f1PureName, stats.get(j.t2Alias), j.f2PureName, j.p);
+                joinSelectivities.put(key, selectivity);
+            }
+            // a field whose values the sketch finds distinct is a key too
+            t1pkey |= isUnique(stats.get(j.t1Alias), j.t1Alias, j.f1PureName);
+            t2pkey |= isUnique(stats.get(j.t2Alias), j.t2Alias, j.f2PureName);
+            return joinCardinality(j.p, card1, card2, t1pkey, t2pkey, selectivity);
         } else {
             return estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
                     j.f1PureName, j.f2PureName, card1, card2, t1pkey, t2pkey,
@@ -156,22 +360,8 @@ public class JoinOptimizer {
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        // if we have stats, probe into IntHistogram for a more accurate estimate
+        // if we have stats, probe into the histograms for a more accurate estimate
         if (stats.containsKey(table1Alias) && stats.containsKey(table2Alias)) {
-            int baseCard;
-            if (joinOp == Predicate.Op.EQUALS) {
-                if (t1pkey) {
-                    baseCard = card2;
-                }
-                else if (t2pkey) {
-                    baseCard = card1;
-                }
-                else {
-                    baseCard = card1 * card2;
-                }
-            } else {
-                baseCard = card1 * card2;
-            }
             double selectivity = TableStats.estimateJoinSelectivity(
                     stats.get(table1Alias),
                     field1PureName,
@@ -179,7 +369,7 @@ public class JoinOptimizer {
                     field2PureName,
                     joinOp
             );
-            return (int) (selectivity * baseCard);
+            return joinCardinality(joinOp, card1, card2, t1pkey, t2pkey, selectivity);
         }
         // estimateJoinCardinality test in JoinOptimizerTest doesn't come with
         // stats so we have to keep the simple solution
@@ -197,10 +387,33 @@ public class JoinOptimizer {
         return (int) (0.7 * card1 * card2);
     }
 
+    /**
+     * Estimate the cardinality of a join with the given selectivity. An
+     * equality join on a primary key of one side yields at most a tuple for
+     * each tuple of the other side.
+     */
+    private static int joinCardinality(Predicate.Op joinOp, int card1, int card2,
+            boolean t1pkey, boolean t2pkey, double selectivity) {
+        double card = selectivity * card1 * card2;
+        if (joinOp == Predicate.Op.EQUALS && t1pkey) {
+            card = Math.min(card, card2);
+        }
+        if (joinOp == Predicate.Op.EQUALS && t2pkey) {
+            card = Math.min(card, card1);
+        }
+        // saturates at Integer.MAX_VALUE
+        return (int) card;
+    }
+
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
      *
+     * Plans may be bushy: both sides of a join may be joins. The cheapest
+     * plan without cross products is found by dynamic programming over the
+     * pairs of connected subplans, unless there are more than
+     * {@link #MAX_DP_PAIRS} of them, in which case the plan is built greedily.
+     *
      * @param stats
      *            Statistics for each table involved in the join, referenced by
      *            base table names, not alias
@@ -211,8 +424,9 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in an order in
+     *         which they can be executed: the joins within each side of a
+     *         join come before it.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -221,56 +435,51 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        // build a bidirectional mapping between tables and bits
-        Map<String, Integer> tablesToBits = new HashMap<>();
-        Map<Integer, String> bitsToTables = new HashMap<>();
-        for (LogicalJoinNode j: joins) {
-            for (String alias: new String[]{j.t1Alias, j.t2Alias}) {
-                if (alias != null && !tablesToBits.containsKey(alias)) {
-                    int bit = tablesToBits.size();
-                    tablesToBits.put(alias, bit);
-                    bitsToTables.put(bit, alias);
-                }
-            }
+        if (joins.isEmpty()) {
+            // single table query, nothing to order
+            return joins;
         }
+        JoinGraph graph = new JoinGraph(joins);
         // base case: 1 table
         Map<Long, CostCard> planCache = new HashMap<>();
-        for (int i = 0; i < tablesToBits.size(); i++) {
-            String table = bitsToTables.get(i);
+        for (int i = 0; i < graph.aliases.size(); i++) {
+            String table = graph.aliases.get(i);
             double cost = stats.get(table).estimateScanCost();
             int card = stats.get(table).estimateTableCardinality(filterSelectivities.get(table));
             CostCard cc = new CostCard(cost, card, new Vector<>());
+            cc.width = Database.getCatalog().getTupleDesc(p.getTableId(table)).getSize();
+            // a table that fits in the buffer pool is read from disk once;
+            // scanning it again only costs going over its pages
+            int pages = stats.get(table).numPages();
+            cc.rescanCost = pages <= Database.getBufferPool().getNumPages() ? pages : cost;
             planCache.put(1L << i, cc);
         }
-        // use dynamic programming to compute joins with more tables
-        final int TABLE_COUNT = tablesToBits.size();
-        for (int k = 2; k <= TABLE_COUNT; k++) {
-            Iterator<Long> keys = kOneBitNumbers(decomposeToBits((1L << TABLE_COUNT) - 1), k);
-            while (keys.hasNext()) {
-                long key = keys.next();
-                int[] keyDecomposition = decomposeToBits(key);
-                CostCard cc = CostCard.IMPOSSIBLE;
-                for (int depth = 1; depth <= Math.min(keyDecomposition.length , MAX_RIGHT_TREE_DEPTH); depth++) {
-                    Iterator<Long> subsetKeyIter = kOneBitNumbers(keyDecomposition, depth);
-                    while (subsetKeyIter.hasNext()) {
-                        long subsetKey2 = subsetKeyIter.next();
-                        long subsetKey1 = key ^ subsetKey2;
-                        if (planCache.containsKey(subsetKey1) && planCache.containsKey(subsetKey2)) {
-                            // planCache contains subsetKeyX - possible to join the subset together
-                            cc = findBestPlan(
-                                    subsetKey1, subsetKey2, tablesToBits,
-                                    bitsToTables, planCache, stats, cc);
-                        }
+        // use dynamic programming over the pairs of connected subplans that
+        // some join connects, unless there are too many of them
+        CsgCmpPairs pairs = new CsgCmpPairs(graph);
+        if (pairs.enumerate()) {
+            for (List<long[]> pairsOfSize : pairs.bySize) {
+                for (long[] pair : pairsOfSize) {
+                    long key = pair[0] | pair[1];
+                    CostCard cc = findBestJoin(pair[0], pair[1], graph, planCache, stats,
+                            planCache.getOrDefault(key, CostCard.IMPOSSIBLE));
+                    if (cc != CostCard.IMPOSSIBLE) {
+                        planCache.put(key, cc);
                     }
                 }
-                if (cc != CostCard.IMPOSSIBLE) {
-                    planCache.put(key, cc);
-                }
             }
+        } else {
+            orderJoinsGreedily(graph, planCache, stats);
         }
-        Vector<LogicalJoinNode> plan = planCache.get((1L << TABLE_COUNT) - 1).plan;
+        long allTables = -1L >>> (Long.SIZE - graph.aliases.size());
+        if (!planCache.containsKey(allTables)) {
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
+        }
+        Vector<LogicalJoinNode> plan = new Vector<>(planCache.get(allTables).plan);
+        // the outer side of a join with a subquery is the plan of all tables
+        plan.addAll(graph.subplanJoins);
         if (explain) {
-            printJoins(plan, planCache, tablesToBits, stats, filterSelectivities);
+            printJoins(plan, planCache, graph.bitOf, stats, filterSelectivities);
         }
         return plan;
     }
@@ -278,144 +487,378 @@ public class JoinOptimizer {
     // ====== Helper methods for orderJoins ======
 
     /**
-     * Decompose a number n into a list of numbers e_i such that n = sum(2 ** e_i)
-     * The array elements are sorted in increasing order.
+     * Queries whose join graphs have more pairs of connected subplans than
+     * this are ordered by {@link #orderJoinsGreedily} rather than by dynamic
+     * programming. A chain of 49 tables has 19,600 pairs, a star of 12
+     * tables 11,264 and a star of 20 tables about 5,000,000.
+     */
+    static final int MAX_DP_PAIRS = 20000;
+
+    /**
+     * The tables of a query, numbered by the order in which they first
+     * appear in its joins, with the joins between them.
      */
-    private int[] decomposeToBits(long n) {
-        // first deconstruct the number into bits with value 1
-        int i = 0;
-        List<Integer> oneBitsList = new ArrayList<>();
-        while (n != 0) {
-            if ((n & 1) == 1) {
-                oneBitsList.add(i);
+    private static class JoinGraph {
+        final List<String> aliases = new ArrayList<>();
+        final Map<String, Integer> bitOf = new HashMap<>();
+        // the tables joined with each table
+        final long[] neighbours;
+        // the joins of each table, with that table on their left-hand side,
+        // once for each algorithm that can evaluate them
+        final List<List<LogicalJoinNode>> edges = new ArrayList<>();
+        // the join of the query each edge evaluates
+        final Map<LogicalJoinNode, LogicalJoinNode> joinOf = new IdentityHashMap<>();
+        // the joins between two tables of the query
+        final List<LogicalJoinNode> tableJoins = new ArrayList<>();
+        final List<LogicalJoinNode> subplanJoins = new ArrayList<>();
+
+        JoinGraph(List<LogicalJoinNode> joins) throws ParsingException {
+            for (LogicalJoinNode j : joins) {
+                for (String alias : new String[]{j.t1Alias, j.t2Alias}) {
+                    if (alias != null && !bitOf.containsKey(alias)) {
+                        bitOf.put(alias, aliases.size());
+                        aliases.add(alias);
+                        edges.add(new ArrayList<>());
+                    }
+                }
+            }
+            if (aliases.size() > Long.SIZE) {
+                throw new ParsingException("Cannot join more than " + Long.SIZE + " tables");
+            }
+            neighbours = new long[aliases.size()];
+            for (LogicalJoinNode j : joins) {
+                if (j instanceof LogicalSubplanJoinNode) {
+                    // joined with blocks of the plan of all tables
+                    j.algorithm = JoinAlgorithm.BLOCK_NESTED_LOOP;
+                    subplanJoins.add(j);
+                    continue;
+                }
+                int b1 = bitOf.get(j.t1Alias);
+                int b2 = bitOf.get(j.t2Alias);
+                if (b1 != b2) {
+                    neighbours[b1] |= 1L << b2;
+                    neighbours[b2] |= 1L << b1;
+                    tableJoins.add(j);
+                    LogicalJoinNode swapped = j.swapInnerOuter();
+                    for (JoinAlgorithm algorithm : JoinAlgorithm.values()) {
+                        if (algorithm.supports(j.p)) {
+                            addEdge(b1, j.withAlgorithm(algorithm), j);
+                            addEdge(b2, swapped.withAlgorithm(algorithm), j);
+                        }
+                    }
+                }
             }
-            n >>>= 1;
-            i += 1;
         }
-        int[] oneBitsArray = new int[oneBitsList.size()];
-        for (int j = 0; j < oneBitsList.size(); j++) {
-            oneBitsArray[j] = oneBitsList.get(j);
+
+        private void addEdge(int table, LogicalJoinNode edge, LogicalJoinNode join) {
+            edges.get(table).add(edge);
+            joinOf.put(edge, join);
+        }
+
+        /**
+         * @return the joins between a table of tables1 and a table of
+         *         tables2
+         */
+        List<LogicalJoinNode> joinsBetween(long tables1, long tables2) {
+            List<LogicalJoinNode> between = new ArrayList<>();
+            for (LogicalJoinNode j : tableJoins) {
+                long t1 = 1L << bitOf.get(j.t1Alias);
+                long t2 = 1L << bitOf.get(j.t2Alias);
+                if (((tables1 & t1) != 0 && (tables2 & t2) != 0)
+                        || ((tables1 & t2) != 0 && (tables2 & t1) != 0)) {
+                    between.add(j);
+                }
+            }
+            return between;
+        }
+
+        /**
+         * @return the tables outside of tables that are joined with one of
+         *         them
+         */
+        long neighbourhood(long tables) {
+            long n = 0;
+            for (long rest = tables; rest != 0; rest &= rest - 1) {
+                n |= neighbours[Long.numberOfTrailingZeros(rest)];
+            }
+            return n & ~tables;
         }
-        return oneBitsArray;
     }
 
     /**
-     * Returns an iterator of numbers with k bits equal to 1 based on the
-     * bit decomposition of a number.
+     * The pairs of disjoint, connected sets of tables that are connected to
+     * each other (csg-cmp-pairs), enumerated without generating any other
+     * sets as in DPccp (Moerkotte and Neumann, "Analysis of Two Existing and
+     * One New Dynamic Programming Algorithm for the Generation of Optimal
+     * Bushy Join Trees without Cross Products", VLDB 2006). Each pair is
+     * listed once, in one order.
      */
-    private Iterator<Long> kOneBitNumbers(int[] decomposition, int k) {
-        if (decomposition.length < k) {
-            throw new IllegalArgumentException("k is too large");
-        }
-        // use an array to represent combinations of bits
-        int[] oneIndices = new int[k];
-        for (int i = 0; i < k; i++) {
-            oneIndices[i] = decomposition.length - k + i;
-        }
-        // compute the last number that we should ever return
-        // used as an easy check for stopping
-        final long lastNumToReturn = Arrays.stream(decomposition)
-                                           .limit(k)
-                                           .mapToLong(n -> 1L << n)
-                                           .sum();
-
-        return new Iterator<Long>() {
-            long lastReturned = 0;
-
-            @Override
-            public boolean hasNext() {
-                return lastReturned != lastNumToReturn;
+    private static class CsgCmpPairs {
+        private final JoinGraph graph;
+        /** The pairs, as {set1, set2}, by the number of tables in their union */
+        final List<List<long[]>> bySize = new ArrayList<>();
+        private int count;
+
+        CsgCmpPairs(JoinGraph graph) {
+            this.graph = graph;
+            for (int size = 0; size <= graph.aliases.size(); size++) {
+                bySize.add(new ArrayList<>());
             }
+        }
 
-            @Override
-            public Long next() {
-                if (!hasNext()) {
-                    throw new NoSuchElementException();
+        /**
+         * Enumerate the pairs.
+         * @return false if there are more than {@link #MAX_DP_PAIRS} of them
+         */
+        boolean enumerate() {
+            for (int i = graph.aliases.size() - 1; i >= 0; i--) {
+                long table = 1L << i;
+                // the tables numbered up to i
+                long below = table | (table - 1);
+                if (!emitSubgraph(table) || !enumerateSubgraphs(table, below)) {
+                    return false;
                 }
-                if (lastReturned != 0) {
-                    // find the right bit to decrement
-                    int decrBit = -1;
-                    for (int i = 0; i < k; i++) {
-                        if (oneIndices[i] != i) {
-                            decrBit = i;
-                            break;
-                        }
+            }
+            return true;
+        }
+
+        // extends the connected set tables by neighbours not in excluded
+        private boolean enumerateSubgraphs(long tables, long excluded) {
+            long n = graph.neighbourhood(tables) & ~excluded;
+            for (long s = n; s != 0; s = (s - 1) & n) {
+                if (!emitSubgraph(tables | s)) {
+                    return false;
+                }
+            }
+            for (long s = n; s != 0; s = (s - 1) & n) {
+                if (!enumerateSubgraphs(tables | s, excluded | n)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // pairs the connected set tables with each connected complement
+        // whose lowest table is numbered above the lowest table of tables
+        private boolean emitSubgraph(long tables) {
+            long lowest = Long.lowestOneBit(tables);
+            long excluded = tables | (lowest - 1);
+            long n = graph.neighbourhood(tables) & ~excluded;
+            for (long rest = n; rest != 0; ) {
+                long table = Long.highestOneBit(rest);
+                rest &= ~table;
+                if (!emit(tables, table)
+                        || !enumerateComplements(tables, table, excluded | (n & (table | (table - 1))))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // extends the complement of tables1 by neighbours not in excluded
+        private boolean enumerateComplements(long tables1, long tables2, long excluded) {
+            long n = graph.neighbourhood(tables2) & ~excluded;
+            for (long s = n; s != 0; s = (s - 1) & n) {
+                if (!emit(tables1, tables2 | s)) {
+                    return false;
+                }
+            }
+            for (long s = n; s != 0; s = (s - 1) & n) {
+                if (!enumerateComplements(tables1, tables2 | s, excluded | n)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean emit(long tables1, long tables2) {
+            if (++count > MAX_DP_PAIRS) {
+                return false;
+            }
+            bySize.get(Long.bitCount(tables1 | tables2)).add(new long[]{tables1, tables2});
+            return true;
+        }
+    }
+
+    /**
+     * Order the joins by Greedy Operator Ordering (Fegaras, "A New Heuristic
+     * for Optimizing Large Queries", DEXA 1998): starting from the single
+     * tables, repeatedly join the two connected subplans whose join has the
+     * fewest tuples, until one plan is left or no subplans are connected.
+     *
+     * @param cache
+     *            the plans of the single tables; the plans of the joined
+     *            subplans are added
+     */
+    private void orderJoinsGreedily(JoinGraph graph, Map<Long, CostCard> cache,
+            HashMap<String, TableStats> stats) {
+        List<Long> subplans = new ArrayList<>();
+        for (int i = 0; i < graph.aliases.size(); i++) {
+            subplans.add(1L << i);
+        }
+        while (subplans.size() > 1) {
+            CostCard best = CostCard.IMPOSSIBLE;
+            int best1 = -1;
+            int best2 = -1;
+            for (int i = 0; i < subplans.size(); i++) {
+                long tables1 = subplans.get(i);
+                long n = graph.neighbourhood(tables1);
+                for (int k = i + 1; k < subplans.size(); k++) {
+                    long tables2 = subplans.get(k);
+                    if ((n & tables2) == 0) {
+                        continue;
                     }
-                    // decrement all lower bits
-                    oneIndices[decrBit]--;
-                    for (int j = 0; j < decrBit; j++) {
-                        oneIndices[j] = oneIndices[decrBit] - (decrBit - j);
+                    CostCard cc = findBestJoin(tables1, tables2, graph, cache, stats,
+                            CostCard.IMPOSSIBLE);
+                    if (cc != CostCard.IMPOSSIBLE && (best == CostCard.IMPOSSIBLE
+                            || cc.card < best.card || (cc.card == best.card && cc.cost < best.cost))) {
+                        best = cc;
+                        best1 = i;
+                        best2 = k;
                     }
                 }
-                // construct the number from the bits
-                long next = 0;
-                for (int i: oneIndices) {
-                    next |= (1 << decomposition[i]);
-                }
-                lastReturned = next;
-                return next;
             }
-        };
+            if (best == CostCard.IMPOSSIBLE) {
+                return;
+            }
+            long joined = subplans.get(best1) | subplans.get(best2);
+            cache.put(joined, best);
+            subplans.remove(best2);
+            subplans.set(best1, joined);
+        }
     }
 
     /**
-     * Find the optimal way to join newTableBit to subplan
+     * Find the optimal way to join two subplans, with either one on the
+     * outer side. Of plans that cost the same, the one with more tables on
+     * the outer side is chosen, so that plans stay left-deep where that costs
+     * nothing, and then the one with fewer tuples on the outer side.
+     */
+    private CostCard findBestJoin(
+            long tables1,
+            long tables2,
+            JoinGraph graph,
+            Map<Long, CostCard> cache,
+            HashMap<String, TableStats> stats,
+            CostCard currentBestPlan
+    ) {
+        int size1 = Long.bitCount(tables1);
+        int size2 = Long.bitCount(tables2);
+        if (size1 < size2 || (size1 == size2 && cache.get(tables1).card > cache.get(tables2).card)) {
+            long t = tables1;
+            tables1 = tables2;
+            tables2 = t;
+        }
+        CostCard cc = findBestPlan(tables1, tables2, graph, cache, stats, currentBestPlan);
+        return findBestPlan(tables2, tables1, graph, cache, stats, cc);
+    }
+
+    /**
+     * Find the optimal way to join two subplans with one of the joins
+     * between them. The other joins between them, which a join graph with a
+     * cycle has, follow it in the plan and are applied to its output by
+     * {@link #instantiateFilter}.
      * @param outerTables [long] key corresponding to tables to go to outer loop
      * @param innerTables [long] key corresponding to tables to go to inner loop
-     * @param tablesToBits [map] mapping from table names to bits
-     * @param bitsToTables [ma[] mapping from bits to table names
+     * @param graph [JoinGraph] the tables and joins of the query
      * @param cache [map] previously-computed best subplans
      * @param stats [map] table stats
-     * @param currentBestPlan [CostCard] lowest-cost plan for joining outerTables and newTableBit so far
+     * @param currentBestPlan [CostCard] lowest-cost plan for joining outerTables and innerTables so far
      * @return CostCard instance corresponding to lowest-cost plan (can be the current plan)
      */
     // include currentBestPlan so we don't have to unnecessarily construct the plan vector
     private CostCard findBestPlan(
             long outerTables,
             long innerTables,
-            Map<String, Integer> tablesToBits,
-            Map<Integer, String> bitsToTables,
+            JoinGraph graph,
             Map<Long, CostCard> cache,
             HashMap<String, TableStats> stats,
             CostCard currentBestPlan
     ) {
         CostCard bestPlan = currentBestPlan;
-        for (LogicalJoinNode j: joins) {
-            if (j.t1Alias != null && j.t2Alias != null) {
-                int b1 = tablesToBits.get(j.t1Alias);
-                int b2 = tablesToBits.get(j.t2Alias);
-                boolean b1InOldTables = ((outerTables | (1L << b1)) == outerTables);
-                boolean b2InOldTables = ((outerTables | (1L << b2)) == outerTables);
-                boolean b1InNewTables = ((innerTables | (1L << b1)) == innerTables);
-                boolean b2InNewTables = ((innerTables | (1L << b2)) == innerTables);
-
-                // canonical case: b1 in outerTables, b2 in innerTables
-                if (b1InNewTables && b2InOldTables) {
-                    j = j.swapInnerOuter();
+        CostCard cc1 = cache.get(outerTables);
+        CostCard cc2 = cache.get(innerTables);
+        List<LogicalJoinNode> between = graph.joinsBetween(outerTables, innerTables);
+        // only the joins of the outer tables can connect the subplans
+        for (long rest = outerTables; rest != 0; rest &= rest - 1) {
+            for (LogicalJoinNode j : graph.edges.get(Long.numberOfTrailingZeros(rest))) {
+                if ((innerTables & (1L << graph.bitOf.get(j.t2Alias))) == 0) {
+                    continue;
                 }
-                // outerTables and innerTables are disjoint, so at most one clause holds
-                if ((b1InNewTables && b2InOldTables) || (b2InNewTables && b1InOldTables)) {
-                    CostCard cc1 = cache.get(outerTables);
-                    CostCard cc2 = cache.get(innerTables);
-                    double cost = estimateJoinCost(j, cc1.card, cc2.card, cc1.cost, cc2.cost);
-                    if (cost < bestPlan.cost) {
-                        int card = estimateJoinCardinality(
-                                j, cc1.card, cc2.card,
-                                isPkey(bitsToTables.get(b1), j.f1PureName),
-                                isPkey(bitsToTables.get(b2), j.f2PureName),
-                                stats
-                        );
-                        Vector<LogicalJoinNode> plan = new Vector<>(cc1.plan);
-                        plan.addAll(cc2.plan);
-                        plan.add(j);
-                        bestPlan = new CostCard(cost, card, plan);
+                boolean sorted1 = cc1.orderedOn.contains(j.f1QuantifiedName);
+                boolean sorted2 = cc2.orderedOn.contains(j.f2QuantifiedName);
+                double cost = estimateJoinCost(j, cc1.card, cc2.card,
+                        cc1.cost, cc2.cost, sorted1, sorted2, cc1.width, cc2.rescanCost);
+                if (cost < bestPlan.cost) {
+                    int card = estimateJoinCardinality(
+                            j, cc1.card, cc2.card,
+                            isPkey(j.t1Alias, j.f1PureName),
+                            isPkey(j.t2Alias, j.f2PureName),
+                            stats
+                    );
+                    Vector<LogicalJoinNode> plan = new Vector<>(cc1.plan);
+                    plan.addAll(cc2.plan);
+                    plan.add(j);
+                    for (LogicalJoinNode other : between) {
+                        if (other != graph.joinOf.get(j)) {
+                            plan.add(other);
+                            card = (int) (card * selectivity(other, outerTables, graph, cc1, cc2, stats));
+                        }
                     }
+                    bestPlan = new CostCard(cost, card, plan);
+                    bestPlan.orderedOn = outputOrdering(j);
+                    bestPlan.width = cc1.width + cc2.width;
+                    bestPlan.rescanCost = cost;
                 }
             }
         }
         return bestPlan;
     }
 
+    /**
+     * Return the estimated fraction of the pairs of tuples of two subplans
+     * that satisfy a join between them
+     */
+    private double selectivity(LogicalJoinNode j, long outerTables, JoinGraph graph,
+            CostCard cc1, CostCard cc2, HashMap<String, TableStats> stats) {
+        if ((outerTables & (1L << graph.bitOf.get(j.t1Alias))) == 0) {
+            j = j.swapInnerOuter();
+        }
+        if (cc1.card == 0 || cc2.card == 0) {
+            return 1.0;
+        }
+        int card = estimateJoinCardinality(j, cc1.card, cc2.card,
+                isPkey(j.t1Alias, j.f1PureName), isPkey(j.t2Alias, j.f2PureName), stats);
+        return Math.min(1.0, card / ((double) cc1.card * cc2.card));
+    }
+
+    /**
+     * Return the (quantified) names of the fields the output of a join is
+     * sorted on. Only sort-merge joins produce ordered output: it is sorted on
+     * the left-hand join field, and for equality joins on the right-hand join
+     * field as well.
+     */
+    private Set<String> outputOrdering(LogicalJoinNode j) {
+        if (j.algorithm != JoinAlgorithm.SORT_MERGE) {
+            return Collections.emptySet();
+        }
+        Set<String> ordering = new HashSet<>();
+        ordering.add(j.f1QuantifiedName);
+        if (j.p == Predicate.Op.EQUALS) {
+            ordering.add(j.f2QuantifiedName);
+        }
+        return ordering;
+    }
+
+    /**
+     * Return true if the values of a field of a table are distinct according
+     * to its statistics, see {@link TableStats#isUnique}
+     */
+    private boolean isUnique(TableStats s, String tableAlias, String field) {
+        int tid = p.getTableId(tableAlias);
+        return s.isUnique(Database.getCatalog().getTupleDesc(tid).fieldNameToIndex(field));
+    }
+
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -473,15 +916,16 @@ public class JoinOptimizer {
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
         HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        long pathSoFarKey = 0;
-        boolean neither;
+        // the tables of the subplan each table is in so far
+        HashMap<String, Long> subplanKeys = new HashMap<String, Long>();
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
             pathSoFar.add(j);
+            long subplanKey = 0;
             for (String alias: new String[]{j.t1Alias, j.t2Alias}) {
                 if (alias != null) {
-                    pathSoFarKey |= (1 << tablesToBits.get(alias));
+                    subplanKey |= subplanKeys.getOrDefault(alias, 1L << tablesToBits.get(alias));
                 }
             }
             System.out.println("PATH SO FAR = " + pathSoFar);
@@ -491,11 +935,9 @@ public class JoinOptimizer {
             String table2Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t2Alias));
 
-            neither = true;
-
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.get(pathSoFarKey).cost + ", card = "
-                    + pc.get(pathSoFarKey).card + ")");
+                    + pc.get(subplanKey).cost + ", card = "
+                    + pc.get(subplanKey).card + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
@@ -508,9 +950,7 @@ public class JoinOptimizer {
             } else {
                 // make left child root n
                 root.add(n);
-                neither = false;
             }
-            m.put(j.t1Alias, root);
 
             n = m.get(j.t2Alias);
             if (n == null) { // never seen this table before
@@ -530,15 +970,13 @@ public class JoinOptimizer {
             } else {
                 // make right child root n
                 root.add(n);
-                neither = false;
             }
-            m.put(j.t2Alias, root);
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
+            // the tables of both sides are accessed from root
+            for (Map.Entry<String, Integer> e : tablesToBits.entrySet()) {
+                if ((subplanKey & (1L << e.getValue())) != 0) {
+                    m.put(e.getKey(), root);
+                    subplanKeys.put(e.getKey(), subplanKey);
                 }
             }
 
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that returns at most a fixed number of tuples from its
+ * child, for SELECT ... LIMIT n. Once the limit is reached it stops pulling
+ * tuples and closes the child, so the scans, exchanges and worker threads
+ * below it are released without reading the rest of their input.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int limit;
+    private int returned;
+    // whether the child is open; it is closed as soon as the limit is reached
+    private boolean childOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The child operator
+     * @param limit
+     *            The maximum number of tuples to return; must not be negative
+     */
+    public Limit(OpIterator child, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("invalid limit " + limit);
+        }
+        this.child = child;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the maximum number of tuples returned
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    protected void doOpen() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        returned = 0;
+        if (limit > 0) {
+            child.open();
+            childOpen = true;
+        }
+    }
+
+    public void close() {
+        super.close();
+        closeChild();
+    }
+
+    private void closeChild() {
+        if (childOpen) {
+            child.close();
+            childOpen = false;
+        }
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        returned = 0;
+        if (limit == 0) {
+            return;
+        }
+        if (!childOpen) {
+            child.open();
+            childOpen = true;
+        }
+        child.rewind();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the tuples of the child
+     * until the limit is reached.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit || !childOpen) {
+            return null;
+        }
+        if (!child.hasNext()) {
+            return null;
+        }
+        Tuple t = child.next();
+        returned++;
+        if (returned == limit) {
+            closeChild();
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -5,6 +5,10 @@ import java.util.Map;
 
 /**
  * LockManager coordinates the locks on pages.
+ * <p>
+ * The bookkeeping maps are guarded by the LockManager's monitor, so that the
+ * threads of a parallel scan can acquire locks for the same transaction
+ * concurrently. Waiting for a page lock happens outside of the monitor.
  */
 public class LockManager {
 
@@ -18,7 +22,7 @@ public class LockManager {
         this.pGraph = new PrecedenceGraph();
     }
 
-    private void assertTransactionInManager(TransactionId tid) {
+    private synchronized void assertTransactionInManager(TransactionId tid) {
         if (!holdings.containsKey(tid)) {
             holdings.put(tid, new HashMap<>());
             // throw new IllegalArgumentException("Transaction not found");
@@ -28,7 +32,7 @@ public class LockManager {
     /**
      * Add a new transaction to the manager.
      */
-    public void addTransaction(TransactionId tid) {
+    public synchronized void addTransaction(TransactionId tid) {
         if (holdings.containsKey(tid)) {
             throw new IllegalArgumentException("This transaction is already added");
         }
@@ -39,7 +43,7 @@ public class LockManager {
     /**
      * Remove a transaction from the manager after it is finished.
      */
-    public void completeTransaction(TransactionId tid) {
+    public synchronized void completeTransaction(TransactionId tid) {
         assertTransactionInManager(tid);
         if (!holdings.get(tid).isEmpty()) {
             throw new IllegalStateException("This transaction still holds some locks");
@@ -48,7 +52,7 @@ public class LockManager {
         pGraph.removeTransaction(tid);
     }
 
-    private void assertPageInManager(PageId pid) {
+    private synchronized void assertPageInManager(PageId pid) {
         if (!pageLocks.containsKey(pid)) {
             pageLocks.put(pid, new UpgradeableLock());
             // throw new IllegalArgumentException("Page not found");
@@ -58,14 +62,14 @@ public class LockManager {
     /**
      * Add a page to the manager.
      */
-    public void addPage(PageId pid) {
+    public synchronized void addPage(PageId pid) {
         pageLocks.putIfAbsent(pid, new UpgradeableLock());
     }
 
     /**
      * Remove a page from the manager after it is removed from cache.
      */
-    public void removePage(PageId pid) {
+    public synchronized void removePage(PageId pid) {
         assertPageInManager(pid);
         if (pageLocks.get(pid).isHeld()) {
             throw new IllegalArgumentException("Page is in use");
@@ -73,15 +77,15 @@ public class LockManager {
         pageLocks.remove(pid);
     }
 
-    public boolean holdsLock(TransactionId tid, PageId pid) {
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
         return (holdings.containsKey(tid) && holdings.get(tid).containsKey(pid));
     }
 
-    public boolean pageIsLocked(PageId pid) {
+    public synchronized boolean pageIsLocked(PageId pid) {
         return pageLocks.get(pid).isHeld();
     }
 
-    public boolean pageIsLockedByWriter(PageId pid) {
+    public synchronized boolean pageIsLockedByWriter(PageId pid) {
         return pageLocks.get(pid).isHeldByWriter();
     }
 
@@ -89,9 +93,11 @@ public class LockManager {
      * Acquire a lock for a certain page on behalf of a transaction.
      */
     public void acquire(TransactionId tid, PageId pid, Permissions perm) throws DeadlockException {
-        assertTransactionInManager(tid);
-        assertPageInManager(pid);
+        UpgradeableLock lock;
         synchronized (this) {
+            assertTransactionInManager(tid);
+            assertPageInManager(pid);
+            lock = pageLocks.get(pid);
             if (perm == Permissions.READ_ONLY) {
                 TransactionId writerTid = pageLocks.get(pid).getWriter();
                 // System.out.println("RO acquire called; writer=" + writerTid);
@@ -116,21 +122,25 @@ public class LockManager {
                 throw new IllegalArgumentException("Unknown permission level");
             }
         }
+        // wait for the lock outside of the monitor, so that it can be released
         if (perm == Permissions.READ_ONLY) {
-            pageLocks.get(pid).readLock(tid);
+            lock.readLock(tid);
         }
         else if (perm == Permissions.READ_WRITE) {
-            pageLocks.get(pid).writeLock(tid);
+            lock.writeLock(tid);
         }
-        if (!holdings.get(tid).containsKey(pid) || perm.compareTo(holdings.get(tid).get(pid)) > 0) {
-            holdings.get(tid).put(pid, perm);
+        synchronized (this) {
+            assertTransactionInManager(tid);
+            if (!holdings.get(tid).containsKey(pid) || perm.compareTo(holdings.get(tid).get(pid)) > 0) {
+                holdings.get(tid).put(pid, perm);
+            }
         }
     }
 
     /**
      * Release the lock on a page that is held by some transaction.
      */
-    public void release(TransactionId tid, PageId pid) {
+    public synchronized void release(TransactionId tid, PageId pid) {
         assertTransactionInManager(tid);
         assertPageInManager(pid);
         Permissions perm = holdings.get(tid).get(pid);
@@ -149,7 +159,7 @@ public class LockManager {
     /**
      * Release all locks on a page. UNSAFE.
      */
-    public void releasePage(PageId pid) {
+    public synchronized void releasePage(PageId pid) {
         assertPageInManager(pid);
         UpgradeableLock lock = pageLocks.get(pid);
         lock.forceRelease((tid, isReader) -> release(tid, pid));
@@ -158,7 +168,7 @@ public class LockManager {
     /**
      * Release all locks on a transaction.
      */
-    public void releaseTransaction(TransactionId tid) {
+    public synchronized void releaseTransaction(TransactionId tid) {
         assertTransactionInManager(tid);
         holdings.get(tid).forEach((pid, perm) -> {
             if (perm == Permissions.READ_ONLY) {
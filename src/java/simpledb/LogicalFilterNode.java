@@ -20,6 +20,9 @@ public class LogicalFilterNode {
     public String fieldPureName;
     
     public String fieldQuantifiedName;
+
+    /** The index of the statement parameter that takes the place of c, or -1 if c is a constant */
+    public int param = -1;
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
         tableAlias = table;
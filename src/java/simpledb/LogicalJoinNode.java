@@ -23,6 +23,9 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The physical join algorithm chosen by the optimizer */
+    public JoinOptimizer.JoinAlgorithm algorithm = JoinOptimizer.JoinAlgorithm.NESTED_LOOP;
+
     public LogicalJoinNode() {
     }
 
@@ -60,6 +63,15 @@ public class LogicalJoinNode {
             newp = p;
         
         LogicalJoinNode j2 = new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
+        j2.algorithm = algorithm;
+        return j2;
+    }
+
+    /** Return a new LogicalJoinNode for the same join, evaluated with the
+     * given join algorithm. */
+    public LogicalJoinNode withAlgorithm(JoinOptimizer.JoinAlgorithm algorithm) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.algorithm = algorithm;
         return j2;
     }
     
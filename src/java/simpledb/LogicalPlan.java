@@ -12,9 +12,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * LogicalPlans can represent queries with several aggregates and
+ * several group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -27,17 +27,25 @@ public class LogicalPlan {
     private Vector<LogicalFilterNode> filters;
     private HashMap<String, OpIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
+    private HashMap<Integer, Predicate> parameterPreds = new HashMap<Integer, Predicate>();
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private ArrayList<String> groupByFields = new ArrayList<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private ArrayList<String> aggOps = new ArrayList<String>();
+    private ArrayList<String> aggFields = new ArrayList<String>();
+    private boolean hasOrderBy = false;
+    private ArrayList<String> oByFields = new ArrayList<String>();
+    private ArrayList<Boolean> oByAsc = new ArrayList<Boolean>();
     private String query;
+    private int dop = 1;
+    private int limit = OrderBy.NO_LIMIT;
 //    private Query owner;
 
+    /** Tables with at least this many pages are scanned with a {@link ParallelSeqScan}
+        when the degree of parallelism is greater than one */
+    public static final int PARALLEL_SCAN_MIN_PAGES = 64;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
@@ -66,6 +74,24 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Set the number of threads used to scan large tables.  With the default
+        of one, every table is read by a single {@link SeqScan}.
+
+        @param dop the degree of parallelism of the plan
+    */
+    public void setDegreeOfParallelism(int dop) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        this.dop = dop;
+    }
+
+    /** Get the degree of parallelism set via {@link #setDegreeOfParallelism}.
+     */
+    public int getDegreeOfParallelism() {
+        return dop;
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -105,6 +131,28 @@ public class LogicalPlan {
         filters.addElement(lf);
     }
 
+    /** Add a new filter that compares a field with a parameter of a
+     *   {@link PreparedStatement}, instead of with a constant.
+     *   @param field The name of the field, as for {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @param param The index of the parameter
+     *   @throws ParsingException if field is unknown or ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p, int param)
+            throws ParsingException {
+        addFilter(field, p, null);
+        filters.lastElement().param = param;
+    }
+
+    /** Get the predicate that the most recent physical plan built by
+     *  {@link #physicalPlan} compares with a parameter.
+     *  @param param The index of the parameter
+     *  @return the predicate, or null if no filter of the plan uses the parameter
+     */
+    Predicate getParameterPredicate(int param) {
+        return parameterPreds.get(param);
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -186,36 +234,60 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Calling this several times computes several aggregates,
+        output in the order they were added.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        if (gfield != null)
+            addGroupByField(gfield);
+        aggOps.add(op);
+        aggFields.add(disambiguateName(afield));
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query.  Calling this several times
+        groups by several fields, output in the order they were added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield = disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this
+        several times orders by several fields, the first one being the most significant.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAsc.add(asc);
         hasOrderBy = true;
     }
 
+    /** Limit the number of tuples the query returns (LIMIT n).
+        @param limit the maximum number of tuples, or {@link OrderBy#NO_LIMIT}
+    */
+    public void setLimit(int limit) {
+        if (limit < 0 && limit != OrderBy.NO_LIMIT) {
+            throw new IllegalArgumentException("invalid limit " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /** @return the maximum number of tuples the query returns, or {@link OrderBy#NO_LIMIT} */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -268,9 +340,82 @@ public class LogicalPlan {
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
+        if (s.equals("COUNT_DISTINCT")) return Aggregator.Op.COUNT_DISTINCT;
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Compute the columns of a table that the rest of the plan reads: the
+        fields in the select list, the aggregates, the GROUP BY and ORDER BY
+        lists and the join predicates.  Filter fields are not included, since
+        filters are evaluated by the scan.
+
+        @param alias the alias of the table
+        @return the indices of the columns in table order, or null if every
+          column is needed
+     */
+    private int[] requiredColumns(String alias) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*") || si.fname.equals(alias + ".*")) {
+                return null;
+            }
+            names.add(si.fname);
+        }
+        names.addAll(groupByFields);
+        names.addAll(aggFields);
+        names.addAll(oByFields);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                names.add(lj.f2QuantifiedName);
+            }
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(getTableId(alias));
+        java.util.TreeSet<Integer> columns = new java.util.TreeSet<Integer>();
+        for (String name : names) {
+            String[] parts = name.split("[.]", 2);
+            if (parts.length == 2 && parts[0].equals(alias)) {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (parts[1].equals(td.getFieldName(i))) {
+                        columns.add(i);
+                    }
+                }
+            }
+        }
+        if (columns.size() == td.numFields()) {
+            return null;
+        }
+        if (columns.isEmpty()) {
+            // a tuple needs at least one field, e.g. for COUNT over a join
+            columns.add(0);
+        }
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Replace a scan of a large HeapFile, and the filters above it, with a
+        {@link ParallelSeqScan} that applies the filters' predicates in its workers.
+        Other plans are returned unchanged.
+     */
+    private OpIterator parallelize(TransactionId t, OpIterator plan) {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        OpIterator node = plan;
+        while (node instanceof Filter) {
+            preds.addAll(0, ((Filter) node).getPredicates());
+            node = ((Filter) node).getChildren()[0];
+        }
+        if (!(node instanceof SeqScan)) {
+            return plan;
+        }
+        SeqScan scan = (SeqScan) node;
+        preds.addAll(0, scan.getPredicates());
+        int tableId = getTableId(scan.getAlias());
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile) || ((HeapFile) file).numPages() < PARALLEL_SCAN_MIN_PAGES) {
+            return plan;
+        }
+        return new ParallelSeqScan(t, tableId, scan.getAlias(), dop, preds);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -289,6 +434,7 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        parameterPreds.clear();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -306,6 +452,10 @@ public class LogicalPlan {
 
         }
 
+        // the filters of each table are pushed into its scan as one
+        // conjunction, with the most selective predicates tested first
+        HashMap<String, ArrayList<Predicate>> tablePreds = new HashMap<String, ArrayList<Predicate>>();
+        HashMap<Predicate, Double> predSelectivities = new HashMap<Predicate, Double>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,7 +473,9 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
+            if (lf.param >= 0) // the value is bound before each execution
+                f = (ftyp == Type.INT_TYPE ? new IntField(0) : new StringField("", Type.STRING_LEN));
+            else if (ftyp == Type.INT_TYPE)
                 f = new IntField(new Integer(lf.c).intValue());
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
@@ -334,19 +486,82 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            tablePreds.computeIfAbsent(lf.tableAlias, k -> new ArrayList<Predicate>()).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+            double sel;
+            if (lf.param >= 0) {
+                parameterPreds.put(lf.param, p);
+                sel = s.avgSelectivity(p.getField(), lf.p);
+            } else {
+                sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            }
+            predSelectivities.put(p, sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // the filters of a table are independent, except on the column
+        // groups of its statistics
+        for (Map.Entry<String, ArrayList<Predicate>> e : tablePreds.entrySet()) {
+            ArrayList<Predicate> preds = e.getValue();
+            int[] fields = new int[preds.size()];
+            Predicate.Op[] ops = new Predicate.Op[preds.size()];
+            double[] sels = new double[preds.size()];
+            for (int i = 0; i < preds.size(); i++) {
+                fields[i] = preds.get(i).getField();
+                ops[i] = preds.get(i).getOp();
+                sels[i] = predSelectivities.get(preds.get(i));
+            }
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(e.getKey())));
+            // what an earlier scan with the same constants returned, if any
+            Double observed = parameterPreds.values().stream().anyMatch(preds::contains)
+                    ? null : s.observedSelectivity(preds);
+            filterSelectivities.put(e.getKey(), observed != null ? observed
+                    : s.estimateConjunctionSelectivity(fields, ops, sels));
+        }
+
+        for (LogicalScanNode table : tables) {
+            ArrayList<Predicate> preds = tablePreds.getOrDefault(table.alias, new ArrayList<Predicate>());
+            preds.sort((p1, p2) -> Double.compare(predSelectivities.get(p1), predSelectivities.get(p2)));
+            int[] columns = requiredColumns(table.alias);
+            if (columns != null || !preds.isEmpty()) {
+                subplanMap.put(table.alias, new SeqScan(t, table.t, table.alias, columns, preds));
+            }
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (s != null) {
+                ((SeqScan) subplanMap.get(table.alias)).setEstimatedCardinality(
+                        s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+            }
+        }
+
+        if (dop > 1) {
+            for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+                e.setValue(parallelize(t, e.getValue()));
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        // reuse the join order of an earlier run of the same query; explain
+        // prints the search, and subplans cannot be shared between queries
+        String cacheKey = null;
+        if (!explain && !query.isEmpty()
+                && joins.stream().noneMatch(j -> j instanceof LogicalSubplanJoinNode)) {
+            cacheKey = QueryPlanCache.normalize(query);
+        }
+        Vector<LogicalJoinNode> cachedJoins = cacheKey == null ? null
+                : Database.getPlanCache().getJoinOrder(cacheKey);
+        if (cachedJoins != null) {
+            joins = cachedJoins;
+        } else {
+            long start = System.nanoTime();
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            if (cacheKey != null) {
+                Database.getPlanCache().putJoinOrder(cacheKey, joins, System.nanoTime() - start);
+            }
+        }
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -382,6 +597,11 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             OpIterator j;
+            if (!isSubqueryJoin && t1name.equals(t2name)) {
+                // an earlier join already combined the two tables
+                subplanMap.put(t1name, JoinOptimizer.instantiateFilter(lj, plan1));
+                continue;
+            }
             j = jo.instantiateJoin(lj,plan1,plan2);
             subplanMap.put(t1name, j);
 
@@ -414,7 +634,15 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int aggIndex = 0;
+                while (aggIndex < aggOps.size() && !(aggOps.get(aggIndex).equals(si.aggOp)
+                        && aggFields.get(aggIndex).equals(si.fname))) {
+                    aggIndex++;
+                }
+                if (aggIndex == aggOps.size()) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+                }
+                outFields.add(groupByFields.size() + aggIndex);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -426,16 +654,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int groupIndex = groupByFields.indexOf(si.fname);
+                    if (groupIndex < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(groupIndex);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,12 +689,27 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                if (aggOps.size() == 1 && groupByFields.size() <= 1) {
+                    aggNode = new Aggregate(node,
+                                            td.fieldNameToIndex(aggFields.get(0)),
+                                            groupByFields.isEmpty()?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByFields.get(0)),
+                                    getAggOp(aggOps.get(0)));
+                } else {
+                    // several aggregates or group by fields, computed in one pass
+                    int[] aggIndices = new int[aggOps.size()];
+                    Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                    for (int i = 0; i < aggIndices.length; i++) {
+                        aggIndices[i] = td.fieldNameToIndex(aggFields.get(i));
+                        ops[i] = getAggOp(aggOps.get(i));
+                    }
+                    int[] groupIndices = new int[groupByFields.size()];
+                    for (int i = 0; i < groupIndices.length; i++) {
+                        groupIndices[i] = td.fieldNameToIndex(groupByFields.get(i));
+                    }
+                    aggNode = new MultiAggregate(node, aggIndices, ops, groupIndices);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,10 +719,21 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndices = new int[oByFields.size()];
+            boolean[] oByAscending = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndices.length; i++) {
+                oByIndices[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                oByAscending[i] = oByAsc.get(i);
+            }
+            // with a LIMIT, the sort only keeps the first tuples of the order
+            node = new OrderBy(oByIndices, oByAscending, node, limit);
         }
 
-        return new Project(outFields, outTypes, node);
+        Project project = new Project(outFields, outTypes, node);
+        if (limit != OrderBy.NO_LIMIT && !hasOrderBy) {
+            return new Limit(project, limit);
+        }
+        return project;
     }
 
     public static void main(String argv[]) {
@@ -0,0 +1,309 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The MultiAggregate operator computes any number of aggregates, grouped by
+ * any number of columns, in a single pass over its child. Output tuples
+ * contain the group by fields, in the order given to the constructor,
+ * followed by one field per aggregate.
+ * <p>
+ * Each group is looked up once per tuple. The state of all aggregates is kept
+ * in primitive arrays indexed by group number, rather than in one accumulator
+ * object per group and aggregate: {@code values[group * numAggregates + a]}
+ * holds the running sum, minimum or maximum of aggregate {@code a}, and
+ * {@code counts[group]} the number of tuples in the group, which serves every
+ * COUNT and AVG of the group. COUNT_DISTINCT keeps a {@link HyperLogLog}
+ * sketch per group in {@code sketches}, indexed the same way as
+ * {@code values}.
+ * <p>
+ * As with {@link Aggregate}, only COUNT and COUNT_DISTINCT are supported over
+ * string fields.
+ */
+public class MultiAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final int[] gFields;
+    private final int[] aFields;
+    private final Aggregator.Op[] ops;
+    private TupleDesc td;
+
+    private HashMap<GroupKey, Integer> groupIds;
+    private ArrayList<Field[]> groupValues;
+    private long[] values;
+    private long[] counts;
+    // null unless some aggregate is a COUNT_DISTINCT
+    private HyperLogLog[] sketches;
+    private int nextGroup;
+
+    /**
+     * A composite group key.
+     */
+    private static final class GroupKey {
+        private final Field[] fields;
+        private final int hash;
+
+        GroupKey(Field[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof GroupKey && Arrays.equals(fields, ((GroupKey) o).fields);
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param aFields
+     *            The columns over which we are computing aggregates.
+     * @param ops
+     *            The aggregation operator for each column in aFields.
+     * @param gFields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping.
+     * @throws IllegalArgumentException
+     *             if an operator is not supported for the type of its column
+     */
+    public MultiAggregate(OpIterator child, int[] aFields, Aggregator.Op[] ops, int[] gFields) {
+        if (aFields.length == 0 || aFields.length != ops.length) {
+            throw new IllegalArgumentException(
+                    "need one operator for each of at least one aggregate field");
+        }
+        this.child = child;
+        this.aFields = aFields.clone();
+        this.ops = ops.clone();
+        this.gFields = gFields.clone();
+        TupleDesc childTd = child.getTupleDesc();
+        for (int a = 0; a < aFields.length; a++) {
+            Aggregator.Op op = ops[a];
+            if (op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG) {
+                throw new IllegalArgumentException("Unsupported operator " + op);
+            }
+            if (op != Aggregator.Op.COUNT && op != Aggregator.Op.COUNT_DISTINCT
+                    && childTd.getFieldType(aFields[a]) != Type.INT_TYPE) {
+                throw new IllegalArgumentException("Only COUNT and COUNT_DISTINCT operators are supported on "
+                        + childTd.getFieldName(aFields[a]));
+            }
+        }
+    }
+
+    /**
+     * @return the group by field indices in the <b>INPUT</b> tuples
+     */
+    public int[] groupFields() {
+        return gFields.clone();
+    }
+
+    /**
+     * @return the names of the group by fields in the <b>OUTPUT</b> tuples
+     */
+    public String[] groupFieldNames() {
+        String[] names = new String[gFields.length];
+        for (int g = 0; g < gFields.length; g++) {
+            names[g] = child.getTupleDesc().getFieldName(gFields[g]);
+        }
+        return names;
+    }
+
+    /**
+     * @return the aggregate field indices in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return aFields.clone();
+    }
+
+    /**
+     * @return the names of the aggregate fields in the <b>OUTPUT</b> tuples
+     */
+    public String[] aggregateFieldNames() {
+        String[] names = new String[aFields.length];
+        for (int a = 0; a < aFields.length; a++) {
+            String aFieldNameRaw = child.getTupleDesc().getFieldName(aFields[a]);
+            names[a] = String.format("%s(%s)", ops[a].name(),
+                    aFieldNameRaw == null ? "null" : aFieldNameRaw);
+        }
+        return names;
+    }
+
+    /**
+     * @return the aggregate operators
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return ops.clone();
+    }
+
+    protected void doOpen() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        child.open();
+    }
+
+    /**
+     * Consumes the child, updating the state of every aggregate of the
+     * tuple's group.
+     */
+    private void aggregate() throws DbException, TransactionAbortedException {
+        groupIds = new HashMap<>();
+        groupValues = new ArrayList<>();
+        values = new long[16 * aFields.length];
+        counts = new long[16];
+        sketches = Arrays.asList(ops).contains(Aggregator.Op.COUNT_DISTINCT)
+                ? new HyperLogLog[16 * aFields.length] : null;
+        int nAggs = aFields.length;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            Field[] key = new Field[gFields.length];
+            for (int g = 0; g < gFields.length; g++) {
+                key[g] = t.getField(gFields[g]);
+            }
+            int group = groupIds.computeIfAbsent(new GroupKey(key), k -> newGroup(k.fields));
+            counts[group]++;
+            int base = group * nAggs;
+            for (int a = 0; a < nAggs; a++) {
+                switch (ops[a]) {
+                case COUNT:
+                    break;
+                case COUNT_DISTINCT:
+                    sketches[base + a].add(t.getField(aFields[a]));
+                    break;
+                case MIN: {
+                    int v = ((IntField) t.getField(aFields[a])).getValue();
+                    if (v < values[base + a]) {
+                        values[base + a] = v;
+                    }
+                    break;
+                }
+                case MAX: {
+                    int v = ((IntField) t.getField(aFields[a])).getValue();
+                    if (v > values[base + a]) {
+                        values[base + a] = v;
+                    }
+                    break;
+                }
+                default:
+                    // SUM and AVG
+                    values[base + a] += ((IntField) t.getField(aFields[a])).getValue();
+                }
+            }
+        }
+        nextGroup = 0;
+    }
+
+    private int newGroup(Field[] key) {
+        int group = groupValues.size();
+        groupValues.add(key);
+        int nAggs = aFields.length;
+        if (group == counts.length) {
+            counts = Arrays.copyOf(counts, 2 * group);
+            values = Arrays.copyOf(values, 2 * group * nAggs);
+            if (sketches != null) {
+                sketches = Arrays.copyOf(sketches, 2 * group * nAggs);
+            }
+        }
+        for (int a = 0; a < nAggs; a++) {
+            if (ops[a] == Aggregator.Op.MIN) {
+                values[group * nAggs + a] = Long.MAX_VALUE;
+            } else if (ops[a] == Aggregator.Op.MAX) {
+                values[group * nAggs + a] = Long.MIN_VALUE;
+            } else if (ops[a] == Aggregator.Op.COUNT_DISTINCT) {
+                sketches[group * nAggs + a] = new HyperLogLog(
+                        AggregateOpAccumulator.AggregateCountDistinctAccumulator.PRECISION);
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Returns the next tuple: the group by fields, followed by the value of
+     * each aggregate. Returns null if there are no more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (groupIds == null) {
+            aggregate();
+        }
+        if (nextGroup == groupValues.size()) {
+            return null;
+        }
+        int group = nextGroup++;
+        Tuple tuple = new Tuple(getTupleDesc());
+        Field[] key = groupValues.get(group);
+        for (int g = 0; g < key.length; g++) {
+            tuple.setField(g, key[g]);
+        }
+        int nAggs = aFields.length;
+        for (int a = 0; a < nAggs; a++) {
+            long v;
+            if (ops[a] == Aggregator.Op.COUNT) {
+                v = counts[group];
+            } else if (ops[a] == Aggregator.Op.COUNT_DISTINCT) {
+                v = sketches[group * nAggs + a].estimate();
+            } else if (ops[a] == Aggregator.Op.AVG) {
+                v = values[group * nAggs + a] / counts[group];
+            } else {
+                v = values[group * nAggs + a];
+            }
+            tuple.setField(key.length + a, new IntField((int) v));
+        }
+        return tuple;
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+    }
+
+    /**
+     * Returns the TupleDesc of this MultiAggregate: the group by fields,
+     * named as in the child, followed by the aggregates, named
+     * "aggName(aop) (child_td.getFieldName(afield))" as in {@link Aggregate}.
+     */
+    public TupleDesc getTupleDesc() {
+        if (td == null) {
+            TupleDesc childTd = child.getTupleDesc();
+            Type[] types = new Type[gFields.length + aFields.length];
+            String[] names = new String[types.length];
+            for (int g = 0; g < gFields.length; g++) {
+                types[g] = childTd.getFieldType(gFields[g]);
+                names[g] = childTd.getFieldName(gFields[g]);
+            }
+            String[] aggNames = aggregateFieldNames();
+            for (int a = 0; a < aFields.length; a++) {
+                types[gFields.length + a] = Type.INT_TYPE;
+                names[gFields.length + a] = aggNames[a];
+            }
+            td = new TupleDesc(types, names);
+        }
+        return td;
+    }
+
+    public void close() {
+        child.close();
+        groupIds = null;
+        groupValues = null;
+        values = null;
+        counts = null;
+        sketches = null;
+        super.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+}
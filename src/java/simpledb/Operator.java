@@ -3,9 +3,10 @@ package simpledb;
 import java.util.NoSuchElementException;
 
 /**
- * Abstract class for implementing operators. It handles <code>close</code>,
- * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
- * <code>open</code> and <code>readNext</code>.
+ * Abstract class for implementing operators. It handles <code>open</code>,
+ * <code>rewind</code>, <code>close</code>, <code>next</code> and
+ * <code>hasNext</code>. Subclasses only need to implement
+ * <code>doOpen</code>, <code>doRewind</code> and <code>fetchNext</code>.
  */
 public abstract class Operator implements OpIterator {
 
@@ -16,7 +17,7 @@ public abstract class Operator implements OpIterator {
             throw new IllegalStateException("Operator not yet open");
 
         if (next == null)
-            next = fetchNext();
+            next = counted(profiledFetchNext());
         return next != null;
     }
 
@@ -25,7 +26,7 @@ public abstract class Operator implements OpIterator {
         if (!this.open)
             throw new IllegalStateException("Operator not open");
         if (next == null) {
-            next = fetchNext();
+            next = counted(profiledFetchNext());
             if (next == null)
                 throw new NoSuchElementException();
         }
@@ -46,6 +47,18 @@ public abstract class Operator implements OpIterator {
     protected abstract Tuple fetchNext() throws DbException,
             TransactionAbortedException;
 
+    private Tuple profiledFetchNext() throws DbException, TransactionAbortedException {
+        if (profile == null) {
+            return fetchNext();
+        }
+        profile.enter();
+        try {
+            return fetchNext();
+        } finally {
+            profile.exit();
+        }
+    }
+
     /**
      * Closes this iterator. If overridden by a subclass, they should call
      * super.close() in order for Operator's internal state to be consistent.
@@ -59,11 +72,83 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private long actualCardinality = 0;
+    private boolean exhausted = false;
+    private OperatorProfile profile = null;
 
-    public void open() throws DbException, TransactionAbortedException {
+    /**
+     * Opens the operator. The work done in <code>doOpen</code>, such as
+     * sorting or building a hash table, is measured by the operator's profile.
+     */
+    public final void open() throws DbException, TransactionAbortedException {
+        this.actualCardinality = 0;
+        this.exhausted = false;
+        if (profile == null) {
+            doOpen();
+        } else {
+            profile.enter();
+            try {
+                doOpen();
+            } finally {
+                profile.exit();
+            }
+        }
         this.open = true;
     }
 
+    /**
+     * Opens the children of the operator and prepares it to return its
+     * first tuple. Operator uses this method to implement <code>open</code>.
+     */
+    protected void doOpen() throws DbException, TransactionAbortedException {
+    }
+
+    /**
+     * Resets the operator to its first tuple, measured by the operator's
+     * profile like <code>open</code>.
+     */
+    public final void rewind() throws DbException, TransactionAbortedException {
+        if (profile == null) {
+            doRewind();
+            return;
+        }
+        profile.enter();
+        try {
+            doRewind();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    /**
+     * Resets the operator to its first tuple. Operator uses this method to
+     * implement <code>rewind</code>.
+     */
+    protected abstract void doRewind() throws DbException,
+            TransactionAbortedException;
+
+    private Tuple counted(Tuple t) {
+        if (t == null) {
+            exhausted = true;
+        } else {
+            actualCardinality++;
+        }
+        return t;
+    }
+
+    /**
+     * Counts the rows of a batch returned by the operator, as
+     * <code>next</code> counts its tuples; see {@link BatchOperator}.
+     */
+    TupleBatch counted(TupleBatch batch) {
+        if (batch == null) {
+            exhausted = true;
+        } else {
+            actualCardinality += batch.size();
+        }
+        return batch;
+    }
+
     /**
      * @return return the children DbIterators of this operator. If there is
      *         only one child, return an array of only one element. For join
@@ -106,4 +191,35 @@ public abstract class Operator implements OpIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return The number of tuples this operator returned since it was
+     *         opened, over all its rewinds
+     */
+    public long getActualCardinality() {
+        return this.actualCardinality;
+    }
+
+    /**
+     * Attaches a profile that measures the time spent in the operator, or
+     * detaches it if null; see {@link OperatorProfile#attach}.
+     */
+    public void setProfile(OperatorProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * @return The profile attached to the operator, or null if it has none
+     */
+    public OperatorProfile getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * @return true if this operator has run out of tuples at least once
+     *         since it was opened
+     */
+    public boolean isExhausted() {
+        return this.exhausted;
+    }
+
 }
@@ -24,14 +24,27 @@ public class OperatorCardinality {
         if (o instanceof Filter) {
             return updateFilterCardinality((Filter) o, tableAliasToId,
                     tableStats);
+        } else if (o instanceof ParallelSeqScan) {
+            return updateParallelScanCardinality((ParallelSeqScan) o,
+                    tableStats);
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            return updateSortMergeJoinCardinality((SortMergeJoin) o,
+                    tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
-            return updateAggregateCardinality((Aggregate) o, tableAliasToId,
-                    tableStats);
+            Aggregate a = (Aggregate) o;
+            return updateAggregateCardinality(a,
+                    a.groupField() == Aggregator.NO_GROUPING ? new String[0]
+                            : new String[] { a.groupFieldName() },
+                    tableAliasToId, tableStats);
+        } else if (o instanceof MultiAggregate) {
+            MultiAggregate a = (MultiAggregate) o;
+            return updateAggregateCardinality(a, a.groupFieldNames(),
+                    tableAliasToId, tableStats);
         } else {
             OpIterator[] children = o.getChildren();
             int childC = 1;
@@ -42,11 +55,15 @@ public class OperatorCardinality {
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
                 } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                    childC = scanCardinality((SeqScan) children[0], tableStats);
                 }
             }
+            if (o instanceof Limit) {
+                childC = Math.min(childC, ((Limit) o).getLimit());
+            } else if (o instanceof OrderBy
+                    && ((OrderBy) o).getLimit() != OrderBy.NO_LIMIT) {
+                childC = Math.min(childC, ((OrderBy) o).getLimit());
+            }
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -56,20 +73,26 @@ public class OperatorCardinality {
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        // the predicates of a filter are treated as independent
+        Integer tableId = null;
         double selectivity = 1.0;
-        if (tableId != null) {
-            selectivity = tableStats.get(
+        for (Predicate pred : f.getPredicates()) {
+            String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
+                    .split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                break;
+            }
+            selectivity *= tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .estimateSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             pred.getOp(), pred.getOperand());
+        }
+        if (tableId != null) {
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -78,9 +101,8 @@ public class OperatorCardinality {
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
             } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+                f.setEstimatedCardinality((int) (scanCardinality(
+                        (SeqScan) child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -88,65 +110,72 @@ public class OperatorCardinality {
         return false;
     }
 
-    private static boolean updateJoinCardinality(Join j,
-            Map<String, Integer> tableAliasToId,
+    private static boolean updateParallelScanCardinality(ParallelSeqScan s,
             Map<String, TableStats> tableStats) {
-
-        OpIterator[] children = j.getChildren();
-        OpIterator child1 = children[0];
-        OpIterator child2 = children[1];
-        int child1Card = 1;
-        int child2Card = 1;
-
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
-        String tableAlias1 = tmp1[0];
-        String pureFieldName1 = tmp1[1];
-
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
-        String tableAlias2 = tmp2[0];
-        String pureFieldName2 = tmp2[1];
-
-        boolean child1HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias1))
-                .equals(pureFieldName1);
-        boolean child2HasJoinPK = Database.getCatalog()
-                .getPrimaryKey(tableAliasToId.get(tableAlias2))
-                .equals(pureFieldName2);
-
-        if (child1 instanceof Operator) {
-            Operator child1O = (Operator) child1;
-            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
-                    tableStats);
-            child1HasJoinPK = pk || child1HasJoinPK;
-            child1Card = child1O.getEstimatedCardinality();
-            child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        if (tableStats.get(s.getTableName()) == null) {
+            s.setEstimatedCardinality(1);
+            return false;
         }
+        s.setEstimatedCardinality(scanCardinality(s.getTableName(),
+                s.getPredicates(), tableStats));
+        return false;
+    }
 
-        if (child2 instanceof Operator) {
-            Operator child2O = (Operator) child2;
-            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
-                    tableStats);
-            child2HasJoinPK = pk || child2HasJoinPK;
-            child2Card = child2O.getEstimatedCardinality();
-            child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+    private static int scanCardinality(SeqScan s,
+            Map<String, TableStats> tableStats) {
+        int card = scanCardinality(s.getTableName(), s.getPredicates(),
+                tableStats);
+        s.setEstimatedCardinality(card);
+        return card;
+    }
+
+    /**
+     * The cardinality of a scan that applies a conjunction of predicates,
+     * see {@link TableStats#estimateSelectivity(java.util.List)}.
+     */
+    private static int scanCardinality(String tableName,
+            java.util.List<Predicate> preds,
+            Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(tableName);
+        if (preds.isEmpty()) {
+            return stats.estimateTableCardinality(1.0);
         }
+        double selectivity = stats.estimateSelectivity(preds);
+        return (int) (stats.estimateTableCardinality(1.0) * selectivity) + 1;
+    }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
-                pureFieldName1, pureFieldName2, child1Card, child2Card,
-                child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
-        return child1HasJoinPK || child2HasJoinPK;
+    private static boolean updateJoinCardinality(Join j,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        return updateJoinCardinality(j, j.getJoinPredicate(),
+                j.getJoinField1Name(), j.getJoinField2Name(), tableAliasToId,
+                tableStats);
     }
 
     private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
+        return updateJoinCardinality(j, j.getJoinPredicate(),
+                j.getJoinField1Name(), j.getJoinField2Name(), tableAliasToId,
+                tableStats);
+    }
+
+    private static boolean updateSortMergeJoinCardinality(SortMergeJoin j,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        return updateJoinCardinality(j, j.getJoinPredicate(),
+                j.getJoinField1Name(), j.getJoinField2Name(), tableAliasToId,
+                tableStats);
+    }
+
+    /**
+     * Shared by all join operators: the estimate only depends on the join
+     * predicate, the join fields and the cardinalities of the two children.
+     */
+    private static boolean updateJoinCardinality(Operator j,
+            JoinPredicate pred, String joinField1Name, String joinField2Name,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
 
         OpIterator[] children = j.getChildren();
         OpIterator child1 = children[0];
@@ -154,21 +183,20 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
         boolean child1HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias1))
                 .equals(pureFieldName1);
-        ;
         boolean child2HasJoinPK = Database.getCatalog()
                 .getPrimaryKey(tableAliasToId.get(tableAlias2))
                 .equals(pureFieldName2);
-        ;
 
         if (child1 instanceof Operator) {
             Operator child1O = (Operator) child1;
@@ -178,8 +206,7 @@ public class OperatorCardinality {
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
         } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child1Card = scanCardinality((SeqScan) child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -190,19 +217,23 @@ public class OperatorCardinality {
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
         } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+            child2Card = scanCardinality((SeqScan) child2, tableStats);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(
+                pred.getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateAggregateCardinality(Aggregate a,
-            Map<String, Integer> tableAliasToId,
+    /**
+     * Estimates the number of groups of an aggregate as the product of the
+     * number of distinct values of its group by fields, capped by the
+     * cardinality of its child.
+     */
+    private static boolean updateAggregateCardinality(Operator a,
+            String[] groupFieldNames, Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = a.getChildren()[0];
         int childCard = 1;
@@ -214,34 +245,34 @@ public class OperatorCardinality {
             childCard = oChild.getEstimatedCardinality();
         }
 
-        if (a.groupField() == Aggregator.NO_GROUPING) {
+        if (groupFieldNames.length == 0) {
             a.setEstimatedCardinality(1);
             return hasJoinPK;
         }
 
         if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+            childCard = scanCardinality((SeqScan) child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        double numGroups = 1.0;
+        for (String groupFieldName : groupFieldNames) {
+            String[] tmp = groupFieldName.split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            numGroups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, numGroups)));
         return hasJoinPK;
     }
 }
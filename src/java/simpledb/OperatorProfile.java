@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OperatorProfile measures where a query spends its time, for EXPLAIN
+ * ANALYZE. A profile attached to an operator (see {@link #attach}) records
+ * the time spent in the operator's open, rewind, fetchNext and
+ * fetchNextBatch, so that the work a blocking operator such as a sort does
+ * when it is opened is charged to it, and the buffer pool hits, misses and
+ * lock waits during that time, both inclusive and exclusive of the calls it
+ * makes to its children.
+ * <p>
+ * Operators without a profile only pay for a null check, and the buffer
+ * pool only counts pages and lock waits while some query is profiled.
+ */
+public class OperatorProfile {
+
+    /**
+     * The page and lock counters of a thread.
+     */
+    static class Counters {
+        long pageHits;
+        long pageMisses;
+        long lockWaitNanos;
+    }
+
+    private static final ThreadLocal<Counters> COUNTERS = ThreadLocal.withInitial(Counters::new);
+    // the profile of the innermost call in progress on each thread
+    private static final ThreadLocal<OperatorProfile> CURRENT = new ThreadLocal<OperatorProfile>();
+    // the number of queries being profiled
+    private static final AtomicInteger active = new AtomicInteger();
+
+    private long nanos;
+    private long pageHits;
+    private long pageMisses;
+    private long lockWaitNanos;
+    // the part of each of the above spent in calls to children
+    private long childNanos;
+    private long childPageHits;
+    private long childPageMisses;
+    private long childLockWaitNanos;
+
+    // the state at the start of the call in progress
+    private OperatorProfile caller;
+    private Counters counters;
+    private long startNanos;
+    private long startPageHits;
+    private long startPageMisses;
+    private long startLockWaitNanos;
+
+    /**
+     * @return The counters of the current thread, or null if no query is
+     *         being profiled
+     */
+    static Counters counters() {
+        return active.get() == 0 ? null : COUNTERS.get();
+    }
+
+    /**
+     * Attaches a new profile to each operator of a plan, and starts counting
+     * buffer pool pages and lock waits until {@link #finish} is called.
+     *
+     * @param root
+     *            The root of the plan
+     */
+    public static void attach(OpIterator root) {
+        active.incrementAndGet();
+        attachAll(root);
+    }
+
+    private static void attachAll(OpIterator op) {
+        if (op instanceof Operator) {
+            Operator o = (Operator) op;
+            o.setProfile(new OperatorProfile());
+            for (OpIterator child : o.getChildren()) {
+                if (child != null) {
+                    attachAll(child);
+                }
+            }
+        } else if (op instanceof SeqScan) {
+            ((SeqScan) op).setProfile(new OperatorProfile());
+        }
+    }
+
+    /**
+     * Stops counting buffer pool pages and lock waits for a plan that
+     * {@link #attach} was called on. The profiles stay attached.
+     */
+    public static void finish() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * @return The profile attached to an operator, or null if it has none
+     */
+    public static OperatorProfile of(OpIterator op) {
+        if (op instanceof Operator) {
+            return ((Operator) op).getProfile();
+        } else if (op instanceof SeqScan) {
+            return ((SeqScan) op).getProfile();
+        }
+        return null;
+    }
+
+    void enter() {
+        caller = CURRENT.get();
+        CURRENT.set(this);
+        counters = COUNTERS.get();
+        startPageHits = counters.pageHits;
+        startPageMisses = counters.pageMisses;
+        startLockWaitNanos = counters.lockWaitNanos;
+        startNanos = System.nanoTime();
+    }
+
+    void exit() {
+        long dNanos = System.nanoTime() - startNanos;
+        long dHits = counters.pageHits - startPageHits;
+        long dMisses = counters.pageMisses - startPageMisses;
+        long dLockWait = counters.lockWaitNanos - startLockWaitNanos;
+        nanos += dNanos;
+        pageHits += dHits;
+        pageMisses += dMisses;
+        lockWaitNanos += dLockWait;
+        if (caller != null) {
+            caller.childNanos += dNanos;
+            caller.childPageHits += dHits;
+            caller.childPageMisses += dMisses;
+            caller.childLockWaitNanos += dLockWait;
+        }
+        CURRENT.set(caller);
+        caller = null;
+    }
+
+    /** @return The time spent in the operator, in nanoseconds */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return The time spent in the operator but not in calls to its
+     *         children, in nanoseconds
+     */
+    public long getExclusiveNanos() {
+        return nanos - childNanos;
+    }
+
+    /** @return The number of pages found in the buffer pool */
+    public long getPageHits() {
+        return pageHits;
+    }
+
+    /** @return The number of pages found in the buffer pool by the operator itself */
+    public long getExclusivePageHits() {
+        return pageHits - childPageHits;
+    }
+
+    /** @return The number of pages read from disk */
+    public long getPageMisses() {
+        return pageMisses;
+    }
+
+    /** @return The number of pages read from disk by the operator itself */
+    public long getExclusivePageMisses() {
+        return pageMisses - childPageMisses;
+    }
+
+    /** @return The time spent acquiring page locks, in nanoseconds */
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    /**
+     * @return The time spent acquiring page locks by the operator itself, in
+     *         nanoseconds
+     */
+    public long getExclusiveLockWaitNanos() {
+        return lockWaitNanos - childLockWaitNanos;
+    }
+}
@@ -3,18 +3,44 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or
+ * more fields. Tuples are sorted with a {@link TupleSorter}.
+ * <p>
+ * The sort works within a memory budget, counted in pages of tuple data (see
+ * {@link #setMemoryBudget(int)}). If the child fits into the budget it is
+ * sorted in memory; otherwise sorted runs of at most one budget's worth of
+ * tuples are written to {@link SpillFile}s and merged with a k-way merge,
+ * using one page of memory per run. If there are more runs than can be merged
+ * at once, they are merged in several passes.
+ * <p>
+ * If the number of output tuples is limited (for ORDER BY ... LIMIT), only the
+ * best tuples seen so far are kept in a bounded heap, so a top-N sort never
+ * spills unless N itself exceeds the memory budget.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget of a sort, in pages of tuple data */
+    public static final int DEFAULT_MEMORY_PAGES = 256;
+    /** Indicates that the number of tuples returned is not limited */
+    public static final int NO_LIMIT = -1;
+
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
-    private Iterator<Tuple> it;
-    private boolean asc;
+    private int[] orderByFields;
+    private boolean[] asc;
+    private final int limit;
+    private int memoryPages = DEFAULT_MEMORY_PAGES;
+    private TupleSorter sorter;
+    private Comparator<Tuple> comparator;
+
+    // sorted runs, only used if the input does not fit into memory
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private MergeIterator merge;
+    private int pos;
+    private int returned;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,50 +53,271 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that only returns the first limit tuples of
+     * the ordering (top-N).
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the maximum number of tuples to return, or {@link #NO_LIMIT}
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int limit) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, limit);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields and only returns
+     * the first limit tuples of the ordering (top-N).
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the maximum number of tuples to return, or {@link #NO_LIMIT}
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int limit) {
+        if (limit < 0 && limit != NO_LIMIT) {
+            throw new IllegalArgumentException("invalid limit " + limit);
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
+        this.sorter = new TupleSorter(td, orderbyFields, asc);
+        this.comparator = sorter.comparator();
     }
     
+    /**
+     * @return true if the most significant sort field is sorted in ascending
+     *         order
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /**
+     * @return the most significant sort field
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
+    /**
+     * @return the name of the most significant sort field
+     */
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /**
+     * @return all sort fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for every sort field, true if it is sorted in ascending order
+     */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /**
+     * @return the maximum number of tuples returned, or {@link #NO_LIMIT}
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Sets the memory budget of the sort. Takes effect the next time the
+     * operator is opened.
+     *
+     * @param numPages
+     *            the number of pages of tuple data the sort may hold in
+     *            memory; must be at least 3 (two input runs and one output
+     *            run for a merge)
+     */
+    public void setMemoryBudget(int numPages) {
+        if (numPages < 3) {
+            throw new IllegalArgumentException("a sort needs at least 3 pages of memory");
+        }
+        this.memoryPages = numPages;
+    }
+
+    /**
+     * @return the number of sorted runs that were spilled to disk the last
+     *         time the operator was opened (0 for an in-memory sort)
+     */
+    public int numSpilledRuns() {
+        return runs.size();
     }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
-    public void open() throws DbException, NoSuchElementException,
+    protected void doOpen() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
-        super.open();
+        clearSortState();
+        int maxInMemory = memoryPages * SpillFile.getNumTuples(td);
+        if (limit != NO_LIMIT && limit <= maxInMemory) {
+            sortTopN();
+        } else {
+            // load tuples into memory, spilling a sorted run whenever the
+            // memory budget is exhausted
+            while (child.hasNext()) {
+                childTups.add(child.next().materialize());
+                if (childTups.size() >= maxInMemory) {
+                    spillRun();
+                }
+            }
+            if (runs.isEmpty()) {
+                sorter.sort(childTups);
+            } else {
+                if (!childTups.isEmpty()) {
+                    spillRun();
+                }
+                mergeRuns();
+            }
+        }
+    }
+
+    /**
+     * Keeps the best limit tuples in a heap whose root is the worst of them.
+     */
+    private void sortTopN() throws DbException, TransactionAbortedException {
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(
+                Math.max(1, limit), comparator.reversed());
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(t.materialize());
+            } else if (limit > 0 && comparator.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t.materialize());
+            }
+        }
+        childTups.addAll(heap);
+        sorter.sort(childTups);
+    }
+
+    /**
+     * Sorts the tuples in memory and writes them out as a new run.
+     */
+    private void spillRun() throws DbException {
+        sorter.sort(childTups);
+        SpillFile run = new SpillFile(td);
+        // no run needs to hold more tuples than can ever be returned
+        int n = limit == NO_LIMIT ? childTups.size() : Math.min(limit, childTups.size());
+        for (int i = 0; i < n; i++) {
+            run.add(childTups.get(i));
+        }
+        run.finish();
+        runs.add(run);
+        childTups.clear();
+    }
+
+    /**
+     * Merges runs until there are few enough of them to be merged with one
+     * page of memory each, and sets up the final merge. Each pass merges
+     * groups of consecutive runs, so that equal tuples keep their input order.
+     */
+    private void mergeRuns() throws DbException, TransactionAbortedException {
+        int fanIn = memoryPages - 1;
+        while (runs.size() > memoryPages) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                merged.add(mergeGroup(group));
+            }
+            runs = merged;
+        }
+        merge = new MergeIterator(runs, comparator);
+        merge.open();
+    }
+
+    /**
+     * Merges a group of runs into a single new run, deleting the old ones.
+     */
+    private SpillFile mergeGroup(List<SpillFile> group)
+            throws DbException, TransactionAbortedException {
+        if (group.size() == 1) {
+            return group.get(0);
+        }
+        SpillFile merged = new SpillFile(td);
+        MergeIterator it = new MergeIterator(group, comparator);
+        it.open();
+        while (it.hasNext() && (limit == NO_LIMIT || merged.numTuples() < limit)) {
+            merged.add(it.next());
+        }
+        it.close();
+        merged.finish();
+        for (SpillFile run : group) {
+            run.delete();
+        }
+        return merged;
+    }
+
+    private void clearSortState() {
+        childTups.clear();
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        for (SpillFile run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        pos = 0;
+        returned = 0;
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        clearSortState();
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+        returned = 0;
+        if (merge != null) {
+            merge.rewind();
+        }
     }
 
     /**
@@ -82,10 +329,21 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
+        if (limit != NO_LIMIT && returned >= limit) {
             return null;
+        }
+        Tuple next = null;
+        if (merge != null) {
+            if (merge.hasNext()) {
+                next = merge.next();
+            }
+        } else if (pos < childTups.size()) {
+            next = childTups.get(pos++);
+        }
+        if (next != null) {
+            returned++;
+        }
+        return next;
     }
 
     @Override
@@ -98,26 +356,77 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * Merges sorted runs. The current tuple of every run is kept in a heap;
+     * ties are broken by run number so that the merge is stable.
+     */
+    private static class MergeIterator extends AbstractDbFileIterator {
+
+        private final List<DbFileIterator> inputs = new ArrayList<DbFileIterator>();
+        private final PriorityQueue<RunCursor> heap;
+
+        MergeIterator(List<SpillFile> runs, Comparator<Tuple> comparator) {
+            for (SpillFile run : runs) {
+                inputs.add(run.iterator());
+            }
+            heap = new PriorityQueue<RunCursor>(Math.max(1, runs.size()), (c1, c2) -> {
+                int cmp = comparator.compare(c1.head, c2.head);
+                return cmp != 0 ? cmp : Integer.compare(c1.run, c2.run);
+            });
+        }
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            heap.clear();
+            for (int i = 0; i < inputs.size(); i++) {
+                DbFileIterator input = inputs.get(i);
+                input.open();
+                if (input.hasNext()) {
+                    heap.add(new RunCursor(i, input.next()));
+                }
+            }
+            super.open();
+        }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            RunCursor cursor = heap.poll();
+            if (cursor == null) {
+                return null;
+            }
+            Tuple t = cursor.head;
+            DbFileIterator input = inputs.get(cursor.run);
+            if (input.hasNext()) {
+                cursor.head = input.next();
+                heap.add(cursor);
+            }
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            for (DbFileIterator input : inputs) {
+                input.close();
+            }
+            heap.clear();
+        }
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    private static class RunCursor {
+        final int run;
+        Tuple head;
+
+        RunCursor(int run, Tuple head) {
+            this.run = run;
+            this.head = head;
+        }
     }
-    
+
 }
@@ -11,7 +11,7 @@ public class PageCache {
     private final Map<PageId, Page> pages;
     private final ExposedLinkedList<PageId> accessOrder;
     private final Map<PageId, ExposedLinkedList<PageId>.Node> orderNodes;
-    private final Map<PageId, Page> pagesToEvict;  // pages that were locked when they should be evicted
+    private final Map<PageId, Page> pagesToEvict;  // pages that were write-locked when they should be evicted
 
     public PageCache(int size) {
         this.maxSize = size;
@@ -22,15 +22,18 @@ public class PageCache {
     }
 
     /**
-     * An immutable view of the pages.
+     * An immutable copy of the pages, including the pages that wait to be
+     * evicted; other threads may add and evict pages while it is iterated
+     * over.
      */
     public synchronized Collection<Page> pages() {
-        // Note: if this is too slow, cache the immutable collection
-        return Collections.unmodifiableCollection(pages.values());
+        ArrayList<Page> all = new ArrayList<>(pages.values());
+        all.addAll(pagesToEvict.values());
+        return Collections.unmodifiableList(all);
     }
 
     /**
-     * Evict a page that should have been evicted but was locked.
+     * Evict a page that should have been evicted but was write-locked.
      * Returns the page.
      */
     public synchronized Page evictIfNotUsed(PageId pid) {
@@ -42,7 +45,7 @@ public class PageCache {
      * Checks if the pages contains a page.
      */
     public synchronized boolean contains(PageId pid) {
-        return pages.containsKey(pid);
+        return pages.containsKey(pid) || pagesToEvict.containsKey(pid);
     }
 
     /**
@@ -70,6 +73,11 @@ public class PageCache {
      */
     public synchronized Page put(Page page) throws DbException {
         PageId pid = page.getId();
+        // page waits to be evicted: update to latest version
+        if (pagesToEvict.containsKey(pid)) {
+            pagesToEvict.put(pid, page);
+            return null;
+        }
         // page is already in cache: update to latest version
         if (pages.containsKey(pid)) {
             ExposedLinkedList<PageId>.Node node = orderNodes.get(pid);
@@ -77,12 +85,18 @@ public class PageCache {
             pages.put(pid, page);
             return null;
         }
+        // drop the clean pages that waited to be evicted and are no
+        // longer write-locked; read-locked pages may still be evicted
+        if (pages.size() + pagesToEvict.size() >= maxSize) {
+            pagesToEvict.values().removeIf(p -> p.isDirty() == null
+                    && !Database.getBufferPool().getLockManager().pageIsLockedByWriter(p.getId()));
+        }
         // cache not full yet
         if (pages.size() + pagesToEvict.size() < maxSize) {
             putWithoutEvict(page);
             return null;
         }
-        // evict the first least-recently-used page that is not locked
+        // evict the first least-recently-used page that is not write-locked
         while (accessOrder.head() != null) {
             PageId headPid = accessOrder.head().val();
             Page headPage = pages.get(headPid);
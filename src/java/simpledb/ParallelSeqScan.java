@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+/**
+ * ParallelSeqScan scans a HeapFile with several worker threads and applies a
+ * conjunction of predicates to the tuples as they are read. The page range of
+ * the file is split recursively on a {@link ForkJoinPool}, so idle workers
+ * steal the remaining halves of busy workers' ranges. Workers hand the tuples
+ * that pass to this operator through a bounded {@link ExchangeQueue}.
+ * <p>
+ * The tuples come out in no particular order. All pages are read with
+ * READ_ONLY permission on behalf of the scan's transaction. Closing or
+ * rewinding the scan waits for the workers to stop, so that no page is
+ * locked on behalf of the transaction afterwards.
+ */
+public class ParallelSeqScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of pages that a worker scans without splitting the range further */
+    public static final int PAGES_PER_TASK = 8;
+
+    private TransactionId tid;
+    private final int tableId;
+    private final String alias;
+    private final int dop;
+    private final List<Predicate> predicates;
+
+    private transient CompiledPredicate test;
+    private transient ForkJoinPool pool;
+    private transient ForkJoinTask<?> root;
+    private transient ExchangeQueue queue;
+    private transient Iterator<Tuple> chunk;
+
+    /**
+     * Creates a parallel scan over the specified table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan; must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used as in {@link SeqScan}
+     * @param dop
+     *            the number of worker threads
+     * @param predicates
+     *            predicates that every returned tuple satisfies; field
+     *            numbers refer to the table's TupleDesc
+     */
+    public ParallelSeqScan(TransactionId tid, int tableId, String tableAlias, int dop,
+                           List<Predicate> predicates) {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("parallel scans need a HeapFile");
+        }
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive");
+        }
+        this.tid = tid;
+        this.tableId = tableId;
+        this.alias = (tableAlias == null ? "null" : tableAlias);
+        this.dop = dop;
+        this.predicates = new ArrayList<Predicate>(predicates);
+    }
+
+    /**
+     * Makes the scan run as part of another transaction. The scan must be
+     * closed.
+     */
+    void setTransactionId(TransactionId tid) {
+        this.tid = tid;
+    }
+
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getDegreeOfParallelism() {
+        return dop;
+    }
+
+    /**
+     * @return the predicates applied by the workers
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with the
+     * table alias as in {@link SeqScan#getTupleDesc()}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc oldDesc = Database.getCatalog().getTupleDesc(tableId);
+        Type[] types = IntStream.range(0, oldDesc.numFields())
+                                .mapToObj(oldDesc::getFieldType)
+                                .toArray(Type[]::new);
+        String[] names = IntStream.range(0, oldDesc.numFields())
+                                  .mapToObj(oldDesc::getFieldName)
+                                  .map(s -> s == null ? "null" : s)
+                                  .map(s -> String.format("%s.%s", alias, s))
+                                  .toArray(String[]::new);
+        return new TupleDesc(types, names);
+    }
+
+    protected void doOpen() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+    }
+
+    private void start() {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        int numPages = file.numPages();
+        test = CompiledPredicate.compile(predicates);
+        pool = new ForkJoinPool(dop);
+        queue = new ExchangeQueue(4 * dop, 1);
+        chunk = null;
+        ExchangeQueue q = queue;
+        root = pool.submit(() -> {
+            Throwable error = null;
+            try {
+                new ScanTask(q, 0, numPages).invoke();
+            } catch (ScanFailure e) {
+                error = e.getCause();
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            q.finish(error);
+        });
+    }
+
+    private void stop() {
+        if (queue != null) {
+            queue.cancel();
+            queue = null;
+        }
+        if (root != null) {
+            // cancelled workers stop before their next page
+            root.quietlyJoin();
+            root = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        chunk = null;
+    }
+
+    public void close() {
+        stop();
+        super.close();
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || !chunk.hasNext()) {
+            List<Tuple> tuples = queue.take();
+            if (tuples == null) {
+                return null;
+            }
+            chunk = tuples.iterator();
+        }
+        return chunk.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        // no children
+    }
+
+    /**
+     * Carries a checked exception out of a worker.
+     */
+    private static class ScanFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ScanFailure(Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Scans the pages [from, to) of the file, splitting the range in two until
+     * it is at most {@link #PAGES_PER_TASK} pages long.
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ExchangeQueue q;
+        private final int from;
+        private final int to;
+
+        ScanTask(ExchangeQueue q, int from, int to) {
+            this.q = q;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (q.isCancelled()) {
+                return;
+            }
+            if (to - from > PAGES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScanTask(q, from, mid), new ScanTask(q, mid, to));
+                return;
+            }
+            ArrayList<Tuple> out = new ArrayList<Tuple>(ExchangeQueue.CHUNK_SIZE);
+            try {
+                for (int pgNo = from; pgNo < to; pgNo++) {
+                    if (q.isCancelled()) {
+                        return;
+                    }
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(tableId, pgNo), Permissions.READ_ONLY);
+                    Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext()) {
+                        Tuple t = it.next();
+                        if (test.test(t)) {
+                            out.add(t);
+                        }
+                        if (out.size() == ExchangeQueue.CHUNK_SIZE) {
+                            if (!q.put(out)) {
+                                return;
+                            }
+                            out = new ArrayList<Tuple>(ExchangeQueue.CHUNK_SIZE);
+                        }
+                    }
+                }
+            } catch (DbException | TransactionAbortedException e) {
+                throw new ScanFailure(e);
+            }
+            q.put(out);
+        }
+    }
+}
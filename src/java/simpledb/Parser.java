@@ -4,6 +4,9 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -11,6 +14,7 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static boolean batch = false;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -125,7 +129,12 @@ public class Parser {
                     compValue = new String(op1.getValue());
                 }
 
-                lp.addFilter(column, op, compValue);
+                ZConstant value = (op1.getType() == ZConstant.COLUMNNAME ? op2 : op1);
+                if (isParameter(value)) {
+                    lp.addParameterFilter(column, op, parameterIndex(value));
+                } else {
+                    lp.addFilter(column, op, compValue);
+                }
 
             }
         }
@@ -182,23 +191,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        ArrayList<String> groupByFields = new ArrayList<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -207,8 +212,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +222,27 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
+                // Zql keeps the DISTINCT of COUNT(DISTINCT f) in the operand
+                if (aggField.toLowerCase().startsWith("distinct ")) {
+                    if (!aggFun.equalsIgnoreCase("COUNT")) {
+                        throw new simpledb.ParsingException(
+                                "DISTINCT is only supported in COUNT.");
+                    }
+                    aggField = aggField.substring("distinct ".length()).trim();
+                    aggFun = "COUNT_DISTINCT";
+                }
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,30 +252,27 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupByField(groupByField);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -273,16 +281,101 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /** A LIMIT clause at the end of a statement */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+limit\\s+(\\d+)\\s*(;|$)", Pattern.CASE_INSENSITIVE);
+    // the LIMIT of the statement being processed
+    private int limit = OrderBy.NO_LIMIT;
+
+    /** An EXPLAIN ANALYZE prefix of a query */
+    private static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "^\\s*explain\\s+analyze\\s+", Pattern.CASE_INSENSITIVE);
+    // whether the statement being processed is run with EXPLAIN ANALYZE
+    private boolean analyze = false;
+
+    /**
+     * Removes an EXPLAIN ANALYZE prefix, which Zql does not know either, and
+     * remembers whether the statement had it.
+     *
+     * @return the statement without the prefix
+     */
+    private String stripExplainAnalyze(String s) {
+        Matcher m = EXPLAIN_ANALYZE.matcher(s);
+        analyze = m.find();
+        return analyze ? s.substring(m.end()) : s;
+    }
+
+    /**
+     * Zql does not know LIMIT, so a LIMIT clause at the end of the statement
+     * is removed before the statement is parsed. Its value is kept until the
+     * logical plan of the query is built.
+     *
+     * @return the statement without the LIMIT clause
+     */
+    private String stripLimit(String s) throws simpledb.ParsingException {
+        limit = OrderBy.NO_LIMIT;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find()) {
+            return s;
+        }
+        try {
+            limit = Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT " + m.group(1));
+        }
+        return s.substring(0, m.start()) + m.group(2) + s.substring(m.end());
+    }
+
+    // while a statement is prepared, the string constant that its
+    // parameters were replaced with, followed by the parameter's index
+    private String paramMarker = null;
+
+    private boolean isParameter(ZConstant c) {
+        return paramMarker != null && c.getType() == ZConstant.STRING
+                && c.getValue().startsWith(paramMarker);
+    }
+
+    private int parameterIndex(ZConstant c) {
+        return Integer.parseInt(c.getValue().substring(paramMarker.length()));
+    }
+
+    /**
+     * Converts a value of an INSERT statement to a field of the given type.
+     */
+    private static Field insertValue(ZConstant zc, Type type)
+            throws simpledb.ParsingException {
+        if (zc.getType() == ZConstant.NUMBER) {
+            if (type != Type.INT_TYPE) {
+                throw new simpledb.ParsingException("Value "
+                        + zc.getValue()
+                        + " is not an integer, expected a string.");
+            }
+            return new IntField(new Integer(zc.getValue()));
+        } else if (zc.getType() == ZConstant.STRING) {
+            if (type != Type.STRING_TYPE) {
+                throw new simpledb.ParsingException("Value "
+                        + zc.getValue()
+                        + " is a string, expected an integer.");
+            }
+            return new StringField(zc.getValue(), Type.STRING_LEN);
+        } else {
+            throw new simpledb.ParsingException(
+                    "Only string or int fields are supported.");
+        }
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        lp.setLimit(limit);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
+        query.setBatchMode(batch);
 
         if (physicalPlan != null) {
             Class<?> c;
@@ -295,9 +388,13 @@ public class Parser {
                 java.lang.reflect.Method m = c.getMethod(
                         "updateOperatorCardinality", p, h, h);
 
-                System.out.println("The query plan is:");
                 m.invoke(null, (Operator) physicalPlan,
                         lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+                if (analyze) {
+                    // printed with what it measured once it has run
+                    return query;
+                }
+                System.out.println("The query plan is:");
                 c = Class.forName("simpledb.QueryPlanVisualizer");
                 m = c.getMethod(
                         "printQueryPlanTree", OpIterator.class, System.out.getClass());
@@ -355,28 +452,7 @@ public class Parser {
                 if (!(e instanceof ZConstant))
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
-                ZConstant zc = (ZConstant) e;
-                if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
-                        throw new simpledb.ParsingException("Value "
-                                + zc.getValue()
-                                + " is not an integer, expected a string.");
-                    }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
-                } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
-                        throw new simpledb.ParsingException("Value "
-                                + zc.getValue()
-                                + " is a string, expected an integer.");
-                    }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
-                } else {
-                    throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
-                }
+                t.setField(i, insertValue((ZConstant) e, td.getFieldType(i)));
 
                 i++;
             }
@@ -422,6 +498,7 @@ public class Parser {
         OpIterator op = new Delete(tid, lp.physicalPlan(tid,
                 TableStats.getStatsMap(), false));
         sdbq.setPhysicalPlan(op);
+        sdbq.setLogicalPlan(lp);
 
         return sdbq;
 
@@ -465,12 +542,13 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -484,6 +562,141 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * Prepares a SELECT, INSERT or DELETE statement to be run many times; see
+     * {@link PreparedStatement}. The statement may contain parameters, written
+     * '?', in place of the constants that WHERE clause filters compare with
+     * and of the values of an INSERT. It is parsed and planned once, as a
+     * part of transaction tid.
+     *
+     * @throws simpledb.ParsingException
+     *             if the statement is invalid, or has a parameter anywhere
+     *             else
+     */
+    public PreparedStatement prepare(TransactionId tid, String s)
+            throws simpledb.ParsingException {
+        // Zql does not know parameters, so they are replaced by string
+        // constants that do not occur in the statement
+        String marker = "$p";
+        while (s.contains(marker)) {
+            marker += "$";
+        }
+        StringBuilder sql = new StringBuilder();
+        int numParams = 0;
+        boolean quoted = false;
+        for (char c : s.toCharArray()) {
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            if (c == '?' && !quoted) {
+                sql.append('\'').append(marker).append(numParams++).append('\'');
+            } else {
+                sql.append(c);
+            }
+        }
+
+        paramMarker = marker;
+        try {
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stripLimit(sql.toString()).getBytes("UTF-8")));
+            ZStatement stmt = p.readStatement();
+            Type[] types = new Type[numParams];
+            LogicalPlan lp = null;
+            OpIterator plan;
+            Consumer<Field[]> binder = null;
+
+            if (stmt instanceof ZQuery) {
+                lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                lp.setLimit(limit);
+                plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            } else if (stmt instanceof ZDelete) {
+                Query q = handleDeleteStatement((ZDelete) stmt, tid);
+                lp = q.getLogicalPlan();
+                plan = q.getPhysicalPlan();
+            } else if (stmt instanceof ZInsert && ((ZInsert) stmt).getValues() == null) {
+                ZInsert ins = (ZInsert) stmt;
+                lp = parseQueryLogicalPlan(tid, ins.getQuery());
+                plan = new Insert(tid, lp.physicalPlan(tid, TableStats.getStatsMap(), false),
+                        insertTableId(ins));
+            } else if (stmt instanceof ZInsert) {
+                // the buffer pool keeps the tuples it inserts, so every
+                // execution inserts a new tuple
+                ZInsert ins = (ZInsert) stmt;
+                int tableId = insertTableId(ins);
+                TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+                @SuppressWarnings("unchecked")
+                Vector<ZExp> values = (Vector<ZExp>) ins.getValues();
+                if (td.numFields() != values.size()) {
+                    throw new simpledb.ParsingException(
+                            "INSERT statement does not contain same number of fields as table "
+                                    + ins.getTable());
+                }
+                // the constant of each field, or null for the index of its parameter
+                Field[] constants = new Field[values.size()];
+                int[] params = new int[values.size()];
+                for (int i = 0; i < values.size(); i++) {
+                    if (!(values.get(i) instanceof ZConstant))
+                        throw new simpledb.ParsingException(
+                                "Complex expressions not allowed in INSERT statements.");
+                    ZConstant zc = (ZConstant) values.get(i);
+                    if (isParameter(zc)) {
+                        params[i] = parameterIndex(zc);
+                        types[params[i]] = td.getFieldType(i);
+                    } else {
+                        constants[i] = insertValue(zc, td.getFieldType(i));
+                    }
+                }
+                ArrayList<Tuple> tups = new ArrayList<Tuple>();
+                binder = vals -> {
+                    Tuple t = new Tuple(td);
+                    for (int i = 0; i < constants.length; i++) {
+                        t.setField(i, constants[i] != null ? constants[i] : vals[params[i]]);
+                    }
+                    tups.clear();
+                    tups.add(t);
+                };
+                plan = new Insert(tid, new TupleArrayIterator(tups), tableId);
+            } else {
+                throw new simpledb.ParsingException(
+                        "Only SELECT, INSERT and DELETE statements can be prepared");
+            }
+
+            if (lp != null) {
+                Predicate[] preds = new Predicate[numParams];
+                for (int i = 0; i < numParams; i++) {
+                    preds[i] = lp.getParameterPredicate(i);
+                    if (preds[i] == null) {
+                        throw new simpledb.ParsingException("Parameter " + (i + 1)
+                                + " is not compared with a field of the statement's tables");
+                    }
+                    types[i] = preds[i].getOperand().getType();
+                }
+                binder = vals -> {
+                    for (int i = 0; i < preds.length; i++) {
+                        preds[i].setOperand(vals[i]);
+                    }
+                };
+            }
+            return new PreparedStatement(s, lp, plan, types, binder);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException(
+                    "Invalid SQL expression: \n \t " + e);
+        } catch (IOException | DbException | TransactionAbortedException e) {
+            throw new simpledb.ParsingException(e);
+        } finally {
+            paramMarker = null;
+        }
+    }
+
+    private static int insertTableId(ZInsert s) throws simpledb.ParsingException {
+        try {
+            return Database.getCatalog().getTableId(s.getTable());
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : "
+                    + s.getTable());
+        }
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -503,7 +716,13 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) != -1;) {
+                statement.write(buf, 0, n);
+            }
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    stripLimit(stripExplainAnalyze(statement.toString("UTF-8"))).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -532,7 +751,9 @@ public class Parser {
                                         + s
                                         + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
                     }
-                    if (query != null)
+                    if (query != null && analyze && s instanceof ZQuery)
+                        query.explainAnalyze();
+                    else if (query != null)
                         query.execute();
 
                     if (!inUserTrans && curtrans != null) {
@@ -581,11 +802,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 5) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,7 +816,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-batch] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -616,6 +837,9 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-batch")) {
+                    batch = true;
+                    System.out.println("Batch mode enabled.");
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -88,6 +88,16 @@ public class Predicate implements Serializable {
         return operand;
     }
 
+    /**
+     * Replaces the operand, to bind a parameter of a
+     * {@link PreparedStatement}. Operators that compile their predicates
+     * see the new operand when they are next opened.
+     */
+    void setOperand(Field operand)
+    {
+        this.operand = operand;
+    }
+
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
@@ -103,6 +113,66 @@ public class Predicate implements Serializable {
         return field.compare(op, operand);
     }
 
+    /**
+     * Applies the predicate to every row of a batch. Int comparisons are done
+     * on the int column directly, in one loop per operator.
+     *
+     * @param batch
+     *            the rows to compare
+     * @param selected
+     *            receives the indices of the rows that pass, in increasing
+     *            order; must have room for batch.size() entries
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] selected) {
+        int size = batch.size();
+        int n = 0;
+        if (!(operand instanceof IntField)) {
+            for (int row = 0; row < size; row++) {
+                if (batch.getField(fieldNo, row).compare(op, operand)) {
+                    selected[n++] = row;
+                }
+            }
+            return n;
+        }
+        int[] values = batch.getIntColumn(fieldNo);
+        int v = ((IntField) operand).getValue();
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int row = 0; row < size; row++) {
+                if (values[row] == v) selected[n++] = row;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int row = 0; row < size; row++) {
+                if (values[row] != v) selected[n++] = row;
+            }
+            break;
+        case GREATER_THAN:
+            for (int row = 0; row < size; row++) {
+                if (values[row] > v) selected[n++] = row;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int row = 0; row < size; row++) {
+                if (values[row] >= v) selected[n++] = row;
+            }
+            break;
+        case LESS_THAN:
+            for (int row = 0; row < size; row++) {
+                if (values[row] < v) selected[n++] = row;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int row = 0; row < size; row++) {
+                if (values[row] <= v) selected[n++] = row;
+            }
+            break;
+        }
+        return n;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
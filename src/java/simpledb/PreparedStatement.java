@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A PreparedStatement is a SELECT, INSERT or DELETE statement that
+ * {@link Parser#prepare} has parsed and planned once, so that it can be run
+ * many times with different values for its parameters. Executions reuse the
+ * logical plan, the operator tree and its TupleDescs: the values are bound
+ * into the predicates of the plan's scans (or into the inserted tuple), the
+ * operators are moved to the executing transaction, and the tree is opened
+ * again instead of being rebuilt.
+ * <p>
+ * The plan is chosen without knowing the values of the parameters, from the
+ * average selectivity of the filters that use them. A statement runs one
+ * execution at a time; executing it again closes the previous execution.
+ */
+public class PreparedStatement {
+
+    private final String sql;
+    private final LogicalPlan logicalPlan;
+    private final OpIterator plan;
+    private final TupleDesc td;
+    private final Type[] paramTypes;
+    private final Consumer<Field[]> binder;
+    private Query current;
+
+    /**
+     * @param sql
+     *            the text of the statement
+     * @param lp
+     *            the logical plan of the statement, or null if it has none
+     * @param plan
+     *            the operator tree that runs the statement
+     * @param paramTypes
+     *            the type of each parameter
+     * @param binder
+     *            binds the values of the parameters into plan; null if the
+     *            statement has no parameters
+     */
+    PreparedStatement(String sql, LogicalPlan lp, OpIterator plan, Type[] paramTypes,
+                      Consumer<Field[]> binder) {
+        this.sql = sql;
+        this.logicalPlan = lp;
+        this.plan = plan;
+        this.td = plan.getTupleDesc();
+        this.paramTypes = paramTypes;
+        this.binder = binder;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public int getParameterCount() {
+        return paramTypes.length;
+    }
+
+    /**
+     * @return the type of the i-th parameter, counting from 0
+     */
+    public Type getParameterType(int i) {
+        return paramTypes[i];
+    }
+
+    /**
+     * @return the TupleDesc of the statement's results
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Runs the statement as a part of a transaction. The returned query is
+     * started; its results are read with {@link Query#hasNext} and
+     * {@link Query#next}, and it should be closed when done.
+     *
+     * @param tid
+     *            the transaction to run the statement in
+     * @param values
+     *            the values of the parameters, in the order that they
+     *            appear in the statement
+     * @throws IllegalArgumentException
+     *             if the number or the types of the values do not match
+     *             the parameters
+     */
+    public Query execute(TransactionId tid, Field... values)
+            throws IOException, DbException, TransactionAbortedException {
+        if (values.length != paramTypes.length) {
+            throw new IllegalArgumentException("statement has " + paramTypes.length
+                    + " parameters, got " + values.length + " values");
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].getType() != paramTypes[i]) {
+                throw new IllegalArgumentException("parameter " + (i + 1) + " must be of type "
+                        + paramTypes[i]);
+            }
+        }
+        if (current != null) {
+            plan.close();
+            current = null;
+        }
+        if (binder != null) {
+            binder.accept(values);
+        }
+        setTransactionId(plan, tid);
+
+        Query q = new Query(plan, tid);
+        q.setLogicalPlan(logicalPlan);
+        q.start();
+        current = q;
+        return q;
+    }
+
+    private static void setTransactionId(OpIterator op, TransactionId tid) {
+        if (op instanceof SeqScan) {
+            ((SeqScan) op).setTransactionId(tid);
+        } else if (op instanceof ParallelSeqScan) {
+            ((ParallelSeqScan) op).setTransactionId(tid);
+        } else if (op instanceof Insert) {
+            ((Insert) op).setTransactionId(tid);
+        } else if (op instanceof Delete) {
+            ((Delete) op).setTransactionId(tid);
+        }
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                setTransactionId(child, tid);
+            }
+        }
+    }
+}
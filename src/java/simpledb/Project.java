@@ -3,14 +3,17 @@ package simpledb;
 import java.util.*;
 
 /**
- * Project is an operator that implements a relational projection.
+ * Project is an operator that implements a relational projection. The output
+ * tuples are views of the child's tuples (see {@link Tuple#project}).
  */
-public class Project extends Operator {
+public class Project extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private transient BatchOpIterator batchChild;
+    private transient int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -45,10 +48,10 @@ public class Project extends Operator {
         return td;
     }
 
-    public void open() throws DbException, NoSuchElementException,
+    protected void doOpen() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        super.open();
+        batchChild = BatchingAdapter.of(child);
     }
 
     public void close() {
@@ -56,7 +59,7 @@ public class Project extends Operator {
         child.close();
     }
 
-    public void rewind() throws DbException, TransactionAbortedException {
+    protected void doRewind() throws DbException, TransactionAbortedException {
         child.rewind();
     }
 
@@ -68,18 +71,31 @@ public class Project extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
+        if (child.hasNext()) {
+            return Tuple.project(child.next(), outFields(), td);
         }
         return null;
     }
 
+    private int[] outFields() {
+        if (outFields == null) {
+            outFields = new int[outFieldIds.size()];
+            for (int i = 0; i < outFields.length; i++) {
+                outFields[i] = outFieldIds.get(i);
+            }
+        }
+        return outFields;
+    }
+
+    /**
+     * Returns the next batch of the child, projected without copying the
+     * column values.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = batchChild.nextBatch();
+        return batch == null ? null : batch.project(outFields(), td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -0,0 +1,36 @@
+package simpledb;
+
+/**
+ * A view of some of the fields of a tuple, as returned by projections. The
+ * fields are read from the tuple when they are asked for.
+ *
+ * @see Tuple#project
+ */
+class ProjectedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple source;
+    private final int[] fields;
+
+    ProjectedTuple(Tuple source, int[] fields, TupleDesc td) {
+        super(td, source.getRecordId());
+        this.source = source;
+        this.fields = fields;
+    }
+
+    @Override
+    public Field getField(int i) {
+        return source.getField(fields[i]);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("tuple views cannot be modified");
+    }
+
+    @Override
+    public Tuple materialize() {
+        return Tuple.copyOf(this);
+    }
+}
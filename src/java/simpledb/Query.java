@@ -20,6 +20,10 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
+    transient private CardinalityFeedback feedback;
+    transient private boolean batchMode = false;
+    // what hasNext and next read: the plan, or an adapter over its batches
+    transient private OpIterator out;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -50,9 +54,27 @@ public class Query implements Serializable {
         tid = t;
     }
 
+    /**
+     * Sets whether the query runs in batch mode. In batch mode, a plan whose
+     * root implements {@link BatchOpIterator} is read a batch at a time, and
+     * so, in turn, are the children of each batch operator below it, down to
+     * the operators without a batch mode, which run a tuple at a time. The
+     * tuples returned are the same either way. Takes effect at the next
+     * {@link #start()}.
+     */
+    public void setBatchMode(boolean batchMode) {
+        this.batchMode = batchMode;
+    }
+
+    public boolean isBatchMode() {
+        return this.batchMode;
+    }
+
     public void start() throws IOException, DbException,
             TransactionAbortedException {
-        op.open();
+        out = batchMode && op instanceof BatchOpIterator
+                ? new UnbatchingAdapter((BatchOpIterator) op) : op;
+        out.open();
 
         started = true;
     }
@@ -63,7 +85,7 @@ public class Query implements Serializable {
 
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        return (out != null ? out : op).hasNext();
     }
 
     /**
@@ -83,12 +105,29 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        return out.next();
+    }
+
+    /**
+     * @return The estimated and actual cardinalities of the operators of the
+     *         plan when the query was last closed, or null if it has not been
+     */
+    public CardinalityFeedback getCardinalityFeedback() {
+        return this.feedback;
     }
 
-    /** Close the iterator */
+    /**
+     * Close the iterator, and feed the cardinalities the plan observed back
+     * into the table statistics. Those of inserts and deletes are not, as
+     * they changed the tables they read.
+     */
     public void close() throws IOException {
-        op.close();
+        feedback = CardinalityFeedback.collect(op);
+        (out != null ? out : op).close();
+        out = null;
+        if (started && !(op instanceof Insert) && !(op instanceof Delete)) {
+            feedback.apply();
+        }
         started = false;
     }
 
@@ -115,4 +154,30 @@ public class Query implements Serializable {
         System.out.println("\n " + cnt + " rows.");
         this.close();
     }
+
+    /**
+     * Runs the query without printing its tuples, then prints its plan with
+     * the rows, time, buffer pool pages and lock waits of each operator.
+     *
+     * @see OperatorProfile
+     */
+    public void explainAnalyze() throws IOException, DbException, TransactionAbortedException {
+        OperatorProfile.attach(op);
+        int cnt = 0;
+        long start = System.nanoTime();
+        try {
+            this.start();
+            while (this.hasNext()) {
+                this.next();
+                cnt++;
+            }
+            this.close();
+        } finally {
+            OperatorProfile.finish();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println("The query plan is:");
+        new QueryPlanVisualizer().printQueryPlanTree(op, System.out);
+        System.out.printf("%n %d rows in %.2f ms.%n", cnt, nanos / 1e6);
+    }
 }
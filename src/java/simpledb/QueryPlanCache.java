@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+/**
+ * QueryPlanCache remembers the join order that {@link JoinOptimizer#orderJoins}
+ * chose for a query, so that running the same query again skips the
+ * exponential search. Queries are identified by their normalized text, in
+ * which constants are replaced by '?', so the cached order is also reused for
+ * the same query with other constants.
+ * <p>
+ * A cached order records the join algorithm of every join as well. It is
+ * dropped when a table is added to the catalog or the statistics of a table
+ * change. The least recently used entries are evicted once the cache is full.
+ *
+ * @Threadsafe
+ */
+public class QueryPlanCache {
+
+    /** Default maximum number of cached plans */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Pattern STRING_CONSTANT = Pattern.compile("'[^']*'");
+    private static final Pattern NUMERIC_CONSTANT = Pattern.compile("\\b\\d+(\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static class CachedPlan {
+        final Vector<LogicalJoinNode> joins;
+        final long catalogVersion;
+        final long statsVersion;
+        final long planningNanos;
+
+        CachedPlan(Vector<LogicalJoinNode> joins, long catalogVersion, long statsVersion,
+              long planningNanos) {
+            this.joins = joins;
+            this.catalogVersion = catalogVersion;
+            this.statsVersion = statsVersion;
+            this.planningNanos = planningNanos;
+        }
+    }
+
+    private final LinkedHashMap<String, CachedPlan> entries;
+    private int hits;
+    private int misses;
+    private long planningNanosSaved;
+
+    public QueryPlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            the maximum number of cached plans
+     */
+    public QueryPlanCache(int capacity) {
+        entries = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPlan> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Normalizes the text of a query: constants become '?', runs of
+     * whitespace become one space, and a trailing ';' is dropped.
+     */
+    public static String normalize(String query) {
+        String s = STRING_CONSTANT.matcher(query).replaceAll("?");
+        s = NUMERIC_CONSTANT.matcher(s).replaceAll("?");
+        s = WHITESPACE.matcher(s).replaceAll(" ").trim();
+        if (s.endsWith(";")) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        return s;
+    }
+
+    /**
+     * @return the join order cached for the normalized query, or null if
+     *         there is none or it is out of date
+     */
+    public synchronized Vector<LogicalJoinNode> getJoinOrder(String key) {
+        CachedPlan e = entries.get(key);
+        if (e != null && (e.catalogVersion != Database.getCatalog().getVersion()
+                || e.statsVersion != TableStats.getStatsVersion())) {
+            entries.remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        planningNanosSaved += e.planningNanos;
+        return new Vector<LogicalJoinNode>(e.joins);
+    }
+
+    /**
+     * Caches the join order chosen for a normalized query.
+     *
+     * @param planningNanos
+     *            how long it took to choose the order
+     */
+    public synchronized void putJoinOrder(String key, Vector<LogicalJoinNode> joins,
+                                          long planningNanos) {
+        entries.put(key, new CachedPlan(new Vector<LogicalJoinNode>(joins),
+                Database.getCatalog().getVersion(), TableStats.getStatsVersion(),
+                planningNanos));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the time that the join orders taken from the cache originally
+     *         took to compute, in nanoseconds
+     */
+    public synchronized long getPlanningNanosSaved() {
+        return planningNanosSaved;
+    }
+}
@@ -9,11 +9,14 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String PARALLEL_SCAN = "scan(parallel)";
     static final String ORDERBY = "o";
+    static final String LIMIT = "limit";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
@@ -26,19 +29,54 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin
+                || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
         }
         else
         {
-            if (children!=null && children[0]!=null)
+            if (children!=null && children.length > 0 && children[0]!=null)
                 return this.calculateQueryPlanTreeDepth(children[0])+2;
         }
         return 2;
     }
 
+    /**
+     * Formats the predicates applied by a scan, whose field numbers refer to
+     * the table's TupleDesc.
+     */
+    private static String scanPredicates(String alias, TupleDesc td,
+            java.util.List<Predicate> preds) {
+        StringBuilder sb = new StringBuilder();
+        for (Predicate p : preds) {
+            sb.append(",").append(SELECT).append("(").append(alias).append(".")
+                    .append(td.getFieldName(p.getField()))
+                    .append(p.getOp()).append(p.getOperand()).append(")");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats the estimated cardinality of an operator, followed by what
+     * EXPLAIN ANALYZE measured if the operator was profiled: the rows it
+     * returned, its time with and without its children, and the pages it
+     * found in and read into the buffer pool and its lock waits, with its
+     * children.
+     */
+    private static String card(OpIterator op, int estimatedCardinality) {
+        String card = "card:" + estimatedCardinality;
+        OperatorProfile p = OperatorProfile.of(op);
+        if (p == null)
+            return card;
+        long rows = op instanceof Operator ? ((Operator) op).getActualCardinality()
+                : ((SeqScan) op).getActualCardinality();
+        return String.format("%1$s,rows:%2$d,time:%3$.2f/%4$.2fms,hit:%5$d,read:%6$d,lock:%7$.2fms",
+                card, rows, p.getNanos() / 1e6, p.getExclusiveNanos() / 1e6,
+                p.getPageHits(), p.getPageMisses(), p.getLockWaitNanos() / 1e6);
+    }
+
     private static class SubTreeDescriptor {
         int width;
         int upBarPosition;
@@ -65,24 +103,52 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
-//            TupleDesc td = s.getTupleDesc();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof ParallelSeqScan) {
+            String scan;
+            String tableName;
+            String alias;
+            String extra = "";
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                scan = SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                if (!s.getPredicates().isEmpty()) {
+                    TupleDesc td = Database.getCatalog().getTupleDesc(
+                            Database.getCatalog().getTableId(tableName));
+                    extra = scanPredicates(alias, td, s.getPredicates()) + ")";
+                }
+                if (OperatorProfile.of(s) != null)
+                    extra = (extra.isEmpty() ? ")" : extra) + ","
+                            + card(s, s.getEstimatedCardinality());
+            } else {
+                ParallelSeqScan s = (ParallelSeqScan) queryPlan;
+                scan = PARALLEL_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+                extra = String.format(",dop:%1$d%2$s),%3$s",
+                        s.getDegreeOfParallelism(),
+                        scanPredicates(alias, td, s.getPredicates()),
+                        card(s, s.getEstimatedCardinality()));
+            }
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+            if (extra.isEmpty())
+                thisNode.text = String
+                        .format("%1$s(%2$s)", scan, tableName + alias);
+            else
+                thisNode.text = String
+                        .format("%1$s(%2$s%3$s", scan, tableName + alias, extra);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -109,78 +175,54 @@ public class QueryPlanVisualizer {
 
             if (plan instanceof Join) {
                 Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
-
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + adjustDepth + 3, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
+                this.buildJoinNode(thisNode, JOIN, j.getJoinPredicate(),
+                        card(j, j.getEstimatedCardinality()), children, queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
             } else if (plan instanceof HashEquiJoin) {
                 HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
+                this.buildJoinNode(thisNode, HASH_JOIN, j.getJoinPredicate(),
+                        card(j, j.getEstimatedCardinality()), children, queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
+            } else if (plan instanceof SortMergeJoin) {
+                SortMergeJoin j = (SortMergeJoin) plan;
+                this.buildJoinNode(thisNode, MERGE_JOIN, j.getJoinPredicate(),
+                        card(j, j.getEstimatedCardinality()), children, queryPlanDepth,
+                        currentDepth, adjustDepth, currentStartPosition,
+                        parentUpperBarStartShift);
             }
-            else if (plan instanceof Aggregate) {
-                Aggregate a = (Aggregate) plan;
+            else if (plan instanceof Aggregate || plan instanceof MultiAggregate) {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
-                TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                if (plan instanceof Aggregate) {
+                    Aggregate a = (Aggregate) plan;
+                    TupleDesc td = a.getTupleDesc();
+                    int gfield = a.groupField();
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = td.getFieldName(00);
+                    if (gfield == Aggregator.NO_GROUPING) {
+                        thisNode.text = String.format("%1$s(%2$s),%3$s",
+                                a.aggregateOp(), a.aggregateFieldName(),card(a, a.getEstimatedCardinality()));
+                        alignTxt = td.getFieldName(00);
+                    } else {
+                        thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),%5$s",
+                                GROUPBY, a.groupFieldName(), a.aggregateOp(),
+                                a.aggregateFieldName(),card(a, a.getEstimatedCardinality()));
+                        alignTxt = GROUPBY;
+                    }
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = GROUPBY;
+                    MultiAggregate a = (MultiAggregate) plan;
+                    String aggs = String.join(", ", a.aggregateFieldNames());
+                    if (a.groupFields().length == 0) {
+                        thisNode.text = String.format("%1$s,%2$s",
+                                aggs, card(a, a.getEstimatedCardinality()));
+                        alignTxt = a.aggregateFieldNames()[0];
+                    } else {
+                        thisNode.text = String.format("%1$s(%2$s), %3$s,%4$s",
+                                GROUPBY, String.join(",", a.groupFieldNames()),
+                                aggs, card(a, a.getEstimatedCardinality()));
+                        alignTxt = GROUPBY;
+                    }
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
@@ -196,13 +238,24 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof Filter) {
-                Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+            } else if (plan instanceof Filter || plan instanceof JoinFilter) {
+                StringBuilder preds = new StringBuilder();
+                TupleDesc td = children[0].getTupleDesc();
+                if (plan instanceof Filter) {
+                    for (Predicate p : ((Filter) plan).getPredicates()) {
+                        if (preds.length() > 0)
+                            preds.append(" AND ");
+                        preds.append(td.getFieldName(p.getField()))
+                                .append(p.getOp()).append(p.getOperand());
+                    }
+                } else {
+                    JoinPredicate p = ((JoinFilter) plan).getJoinPredicate();
+                    preds.append(td.getFieldName(p.getField1()))
+                            .append(p.getOperator())
+                            .append(td.getFieldName(p.getField2()));
+                }
+                thisNode.text = String.format("%1$s(%2$s),%3$s", SELECT,
+                        preds, card(plan, plan.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -219,11 +272,20 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
+                StringBuilder orderFields = new StringBuilder();
+                int[] oFields = o.getOrderByFields();
+                for (int i = 0; i < oFields.length; i++) {
+                    if (i > 0)
+                        orderFields.append(",");
+                    orderFields.append(children[0].getTupleDesc().getFieldName(oFields[i]));
+                }
+                if (o.getLimit() != OrderBy.NO_LIMIT)
+                    orderFields.append(",").append(LIMIT).append(":")
+                            .append(o.getLimit());
                 thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
+                        "%1$s(%2$s),%3$s",
                         ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                        orderFields,card(o, o.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -238,6 +300,24 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d),%3$s", LIMIT,
+                        l.getLimit(), card(l, l.getEstimatedCardinality()));
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -245,7 +325,7 @@ public class QueryPlanVisualizer {
                 while (it.hasNext())
                     fields += it.next().fieldName + ",";
                 fields = fields.substring(0, fields.length() - 1);
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields,p.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),%3$s", PROJECT, fields,card(p, p.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (PROJECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = PROJECT.length() / 2;
@@ -271,7 +351,7 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
 
-                thisNode.text = String.format("%1$s,card:%2$d", name,card);
+                thisNode.text = String.format("%1$s,%2$s", name,card(plan, card));
                 int upBarShift = parentUpperBarStartShift;
                 if (name.length() / 2 > parentUpperBarStartShift)
                     upBarShift = name.length() / 2;
@@ -306,7 +386,7 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
                 String oldName = plan.getChildren()[0].getTupleDesc().getFieldName(fieldIdx);
-                thisNode.text = String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s,%2$s->%3$s,%4$s", RENAME,oldName,newName,card(plan, plan.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (RENAME.length() / 2 > parentUpperBarStartShift)
                     upBarShift = RENAME.length() / 2;
@@ -334,6 +414,42 @@ public class QueryPlanVisualizer {
         return thisNode;
     }
 
+    /**
+     * Fills in the descriptor of a join node (of any join algorithm) and
+     * builds the subtrees of its two children.
+     */
+    private void buildJoinNode(SubTreeDescriptor thisNode, String symbol,
+                               JoinPredicate jp, String card,
+                               OpIterator[] children, int queryPlanDepth,
+                               int currentDepth, int adjustDepth,
+                               int currentStartPosition,
+                               int parentUpperBarStartShift) {
+        String field1 = children[0].getTupleDesc().getFieldName(jp.getField1());
+        String field2 = children[1].getTupleDesc().getFieldName(jp.getField2());
+        thisNode.text = String.format("%1$s(%2$s),%3$s", symbol,
+                field1 + jp.getOperator() + field2, card);
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+
+        SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                currentDepth + adjustDepth + 3, children[0],
+                currentStartPosition, upBarShift);
+        SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                currentDepth + adjustDepth + 3, children[1],
+                currentStartPosition + left.width + SPACE.length(), 0);
+        thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(
+                left.width + right.width + SPACE.length(),
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = left;
+        thisNode.rightChild = right;
+        thisNode.height = currentDepth;
+    }
+
     private void printTree(SubTreeDescriptor root, char[] buffer, int width) {
         if (root == null)
             return;
@@ -7,15 +7,42 @@ import java.util.stream.IntStream;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * A scan can be given a subset of the table's columns and a conjunction of
+ * predicates. It then returns only those columns of the tuples that satisfy
+ * the predicates. On a HeapFile the predicates are tested on the encoded
+ * tuples, so tuples that fail them are never decoded, and only the returned
+ * columns of the others are.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements OpIterator, BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
     private TransactionId transactionId;
     private int tableId;
     private String alias;
+    // pushed-down projection and selection; null columns means all columns
+    private int[] columns;
+    private ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+    // a filter on the join keys of a hash join that this scan is the probe
+    // side of; runtimeField is a field of the table
+    private transient BloomFilter runtimeFilter;
+    private transient int runtimeField;
+    private transient boolean open;
     private DbFileIterator iterator;
+    private transient TupleBatch batch;
+    // position of nextBatch in a HeapFile
+    private transient int batchPage;
+    private transient int batchSlot;
+    // the estimated number of tuples; the number returned since the scan
+    // was opened, whether it went over the table only once and to its end,
+    // and whether a runtime filter dropped tuples
+    private int estimatedCardinality;
+    private transient long actualCardinality;
+    private transient boolean singlePass;
+    private transient boolean exhausted;
+    private transient boolean runtimeFiltered;
+    private OperatorProfile profile;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -40,6 +67,79 @@ public class SeqScan implements OpIterator {
         this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan that returns some of the columns of the
+     * tuples that satisfy a conjunction of predicates.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the indices of the table's fields to return, in order, or
+     *            null for all fields
+     * @param predicates
+     *            predicates that every returned tuple satisfies; field
+     *            numbers refer to the table's TupleDesc
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+                   List<Predicate> predicates) {
+        this.transactionId = tid;
+        this.tableId = tableid;
+        this.alias = (tableAlias == null ? "null" : tableAlias);
+        this.columns = (columns == null ? null : columns.clone());
+        this.predicates = new ArrayList<Predicate>(predicates);
+        this.iterator = isPushdown() ? new PushdownIterator()
+                : Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+    }
+
+    private boolean isPushdown() {
+        return columns != null || !predicates.isEmpty() || runtimeFilter != null;
+    }
+
+    /**
+     * Restricts the scan to tuples whose value of a field may be in a Bloom
+     * filter. Unlike pushed-down predicates, this filter is only an
+     * optimization: tuples that are not in it may still be returned.
+     * It takes effect when the scan is next opened or rewound.
+     *
+     * @param field
+     *            the field, numbered as in {@link #getTupleDesc()}
+     * @param filter
+     *            the filter, or null to remove the filter
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter)
+            throws DbException, TransactionAbortedException {
+        runtimeFilter = filter;
+        runtimeField = (columns != null ? columns[field] : field);
+        runtimeFiltered |= filter != null;
+        if (filter != null && !(iterator instanceof PushdownIterator)) {
+            iterator.close();
+            iterator = new PushdownIterator();
+            if (open) {
+                iterator.open();
+            }
+        }
+    }
+
+    /**
+     * @return the indices of the table's fields that this scan returns, or
+     *         null if it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the predicates that the returned tuples satisfy
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -57,6 +157,50 @@ public class SeqScan implements OpIterator {
         return alias;
     }
 
+    /**
+     * @return The estimated number of tuples the scan returns, or 0 if it
+     *         was not estimated
+     */
+    public int getEstimatedCardinality() {
+        return estimatedCardinality;
+    }
+
+    void setEstimatedCardinality(int card) {
+        estimatedCardinality = card;
+    }
+
+    /**
+     * @return The number of tuples the scan returned since it was opened,
+     *         over all its rewinds
+     */
+    public long getActualCardinality() {
+        return actualCardinality;
+    }
+
+    /**
+     * Attaches a profile that measures the time spent in the scan, or
+     * detaches it if null; see {@link OperatorProfile#attach}.
+     */
+    public void setProfile(OperatorProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * @return The profile attached to the scan, or null if it has none
+     */
+    public OperatorProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return true if, since it was opened, the scan went over the table once
+     *         and to its end without a runtime filter, so that its actual
+     *         cardinality is the number of tuples that satisfy its predicates
+     */
+    public boolean readWholeTableOnce() {
+        return singlePass && exhausted && !runtimeFiltered;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -68,11 +212,27 @@ public class SeqScan implements OpIterator {
      *            tableAlias or fieldName are null. It shouldn't crash if they
      *            are, but the resulting name can be null.fieldName,
      *            tableAlias.null, or null.null).
+     * The scan returns all columns of the new table, unfiltered.
      */
     public void reset(int tableid, String tableAlias) {
         tableId = tableid;
         alias = (tableAlias == null ? "null" : tableAlias);
+        columns = null;
+        predicates.clear();
+        runtimeFilter = null;
         iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(transactionId);
+        batch = null;
+    }
+
+    /**
+     * Makes the scan run as part of another transaction. The scan must be
+     * closed.
+     */
+    void setTransactionId(TransactionId tid) {
+        transactionId = tid;
+        if (!(iterator instanceof PushdownIterator)) {
+            iterator = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        }
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -81,7 +241,27 @@ public class SeqScan implements OpIterator {
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
+        if (profile == null) {
+            openScan();
+            return;
+        }
+        profile.enter();
+        try {
+            openScan();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    private void openScan() throws DbException, TransactionAbortedException {
         iterator.open();
+        open = true;
+        batchPage = 0;
+        batchSlot = 0;
+        actualCardinality = 0;
+        singlePass = true;
+        exhausted = false;
+        runtimeFiltered = runtimeFilter != null;
     }
 
     /**
@@ -93,14 +273,17 @@ public class SeqScan implements OpIterator {
      *
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
+     *         Only the returned columns are included.
      */
     @Override
     public TupleDesc getTupleDesc() {
         TupleDesc oldDesc = Database.getCatalog().getTupleDesc(tableId);
-        Type[] types = IntStream.range(0, oldDesc.numFields())
+        int[] cols = (columns != null ? columns
+                : IntStream.range(0, oldDesc.numFields()).toArray());
+        Type[] types = Arrays.stream(cols)
                                 .mapToObj(oldDesc::getFieldType)
                                 .toArray(Type[]::new);
-        String[] names = IntStream.range(0, oldDesc.numFields())
+        String[] names = Arrays.stream(cols)
                                   .mapToObj(oldDesc::getFieldName)
                                   .map(s -> s == null ? "null" : s)
                                   .map(s -> String.format("%s.%s", alias, s))
@@ -110,23 +293,203 @@ public class SeqScan implements OpIterator {
 
     @Override
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return iterator.hasNext();
+        if (profile == null) {
+            return hasNextTuple();
+        }
+        profile.enter();
+        try {
+            return hasNextTuple();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    private boolean hasNextTuple() throws TransactionAbortedException, DbException {
+        if (!iterator.hasNext()) {
+            exhausted = true;
+            return false;
+        }
+        return true;
     }
 
     @Override
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return iterator.next();
+        if (profile == null) {
+            return nextTuple();
+        }
+        profile.enter();
+        try {
+            return nextTuple();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    private Tuple nextTuple() throws TransactionAbortedException, DbException {
+        Tuple t = iterator.next();
+        actualCardinality++;
+        return t;
+    }
+
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (profile == null) {
+            return fetchNextBatch();
+        }
+        profile.enter();
+        try {
+            return fetchNextBatch();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    private TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof HeapFile && !isPushdown()) {
+            // copy whole pages at a time, instead of going through the iterator
+            int numPages = ((HeapFile) file).numPages();
+            while (!batch.isFull() && batchPage < numPages) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(transactionId,
+                        new HeapPageId(tableId, batchPage), Permissions.READ_ONLY);
+                batchSlot = page.addTuplesTo(batch, batchSlot);
+                if (batchSlot < 0) {
+                    batchPage++;
+                    batchSlot = 0;
+                }
+            }
+        } else {
+            while (!batch.isFull() && iterator.hasNext()) {
+                batch.addTuple(iterator.next());
+            }
+        }
+        if (batch.size() == 0) {
+            exhausted = true;
+            return null;
+        }
+        actualCardinality += batch.size();
+        return batch;
     }
 
     @Override
     public void close() {
         iterator.close();
+        open = false;
+        batch = null;
     }
 
     @Override
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        if (profile == null) {
+            rewindScan();
+            return;
+        }
+        profile.enter();
+        try {
+            rewindScan();
+        } finally {
+            profile.exit();
+        }
+    }
+
+    private void rewindScan() throws DbException, TransactionAbortedException {
         iterator.rewind();
+        batchPage = 0;
+        batchSlot = 0;
+        singlePass = false;
+        exhausted = false;
+    }
+
+    /**
+     * Iterates over the tuples that pass the pushed-down predicates, with only
+     * the pushed-down columns. HeapFiles are read a page at a time through
+     * {@link HeapPage#scan}; other files go through their own iterator.
+     */
+    private class PushdownIterator extends AbstractDbFileIterator {
+
+        private TupleDesc outTd;
+        private int[] cols;
+        private CompiledPredicate test;
+        private DbFileIterator fileIt;
+        private int numPages;
+        private int pageNo;
+        private ArrayList<Tuple> pageTuples = new ArrayList<Tuple>();
+        private int pos;
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            TupleDesc tableTd = file.getTupleDesc();
+            outTd = getTupleDesc();
+            cols = (columns != null ? columns
+                    : IntStream.range(0, tableTd.numFields()).toArray());
+            test = CompiledPredicate.compile(predicates);
+            if (runtimeFilter != null) {
+                test = CompiledPredicate.and(test, CompiledPredicate.bloom(runtimeField,
+                        tableTd.getFieldType(runtimeField), runtimeFilter));
+            }
+            if (file instanceof HeapFile) {
+                numPages = ((HeapFile) file).numPages();
+                fileIt = null;
+            } else {
+                fileIt = file.iterator(transactionId);
+                fileIt.open();
+            }
+            pageNo = 0;
+            pageTuples.clear();
+            pos = 0;
+            super.open();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (fileIt != null) {
+                while (fileIt.hasNext()) {
+                    Tuple full = fileIt.next();
+                    if (test.test(full)) {
+                        Tuple t = new Tuple(outTd);
+                        for (int i = 0; i < cols.length; i++) {
+                            t.setField(i, full.getField(cols[i]));
+                        }
+                        t.setRecordId(full.getRecordId());
+                        return t;
+                    }
+                }
+                return null;
+            }
+            while (pos == pageTuples.size()) {
+                if (pageNo == numPages) {
+                    return null;
+                }
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(transactionId,
+                        new HeapPageId(tableId, pageNo++), Permissions.READ_ONLY);
+                pageTuples.clear();
+                pos = 0;
+                page.scan(cols, outTd, test, pageTuples);
+            }
+            return pageTuples.get(pos++);
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (fileIt != null) {
+                fileIt.close();
+                fileIt = null;
+            }
+            pageTuples.clear();
+        }
     }
 }
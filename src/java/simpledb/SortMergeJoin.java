@@ -0,0 +1,285 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements the relational join operation by
+ * sorting both inputs on their join fields and merging them. It supports
+ * equality and range predicates (=, &lt;, &lt;=, &gt;, &gt;=).
+ * <p>
+ * The inner (right) relation is materialized and sorted once. The outer (left)
+ * relation is streamed when it is known to be sorted on its join field
+ * already, and materialized and sorted otherwise. For every outer tuple the
+ * matching inner tuples form a contiguous range of the sorted inner relation,
+ * and the bounds of that range only ever move forward as the outer key grows,
+ * so each input is traversed once regardless of the predicate.
+ * <p>
+ * The output is ordered by the outer join field (and, for equality joins, by
+ * the inner join field as well).
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final boolean child1Sorted;
+    private final boolean child2Sorted;
+    private TupleDesc comboTD;
+
+    // outer tuples, only used when child1 has to be sorted here
+    private ArrayList<Tuple> outerTuples;
+    private int outerPos;
+    private ArrayList<Tuple> innerTuples;
+
+    private Tuple outerTuple;
+    // innerTuples[lowerBound] is the first inner tuple whose key is >= the
+    // current outer key, innerTuples[upperBound] the first one whose key is >
+    private int lowerBound;
+    private int upperBound;
+    // range of inner tuples that still have to be paired with outerTuple
+    private int matchPos;
+    private int matchEnd;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on. Both children are sorted by the operator.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality or range predicate
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, false, false);
+    }
+
+    /**
+     * Constructor for inputs that may already be ordered on their join
+     * fields, in which case the corresponding sort is skipped.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param child1Sorted
+     *            true if child1 returns its tuples in ascending order of the
+     *            join field
+     * @param child2Sorted
+     *            true if child2 returns its tuples in ascending order of the
+     *            join field
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality or range predicate
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         boolean child1Sorted, boolean child2Sorted) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException(
+                    "sort-merge join does not support predicate " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.child1Sorted = child1Sorted;
+        this.child2Sorted = child2Sorted;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate the given join operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /**
+     * @return true if the output of this join is in ascending order of the
+     *         given (quantified) field name
+     */
+    public boolean isSortedOn(String fieldName) {
+        if (fieldName.equals(getJoinField1Name())) {
+            return true;
+        }
+        return pred.getOperator() == Predicate.Op.EQUALS
+                && fieldName.equals(getJoinField2Name());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    protected void doOpen() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        innerTuples = materialize(child2, pred.getField2(), child2Sorted);
+        if (!child1Sorted) {
+            outerTuples = materialize(child1, pred.getField1(), false);
+        }
+        resetMerge();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        outerTuples = null;
+        innerTuples = null;
+        outerTuple = null;
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        if (child1Sorted) {
+            child1.rewind();
+        }
+        resetMerge();
+    }
+
+    private void resetMerge() {
+        outerPos = 0;
+        outerTuple = null;
+        lowerBound = 0;
+        upperBound = 0;
+        matchPos = 0;
+        matchEnd = 0;
+    }
+
+    /**
+     * Reads all tuples of a child into a list, sorting them on the given field
+     * unless they are already sorted.
+     */
+    private static ArrayList<Tuple> materialize(OpIterator child, int field,
+                                                boolean sorted)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        while (child.hasNext()) {
+            tuples.add(child.next().materialize());
+        }
+        if (!sorted) {
+            tuples.sort((t1, t2) -> compareFields(t1.getField(field), t2.getField(field)));
+        }
+        return tuples;
+    }
+
+    private static int compareFields(Field f1, Field f2) {
+        if (f1.compare(Predicate.Op.EQUALS, f2)) {
+            return 0;
+        }
+        return f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+    }
+
+    private Tuple nextOuter() throws DbException, TransactionAbortedException {
+        if (outerTuples != null) {
+            return outerPos < outerTuples.size() ? outerTuples.get(outerPos++) : null;
+        }
+        return child1.hasNext() ? child1.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. For every outer tuple, the bounds of the equal-key range in
+     * the sorted inner relation are advanced, and the inner tuples satisfying
+     * the predicate are the range itself (=), everything before it (&gt;,
+     * &gt;=) or everything after it (&lt;, &lt;=).
+     * <p>
+     * As with {@link Join}, the returned tuples are the concatenation of the
+     * joining tuples from the left and right relation.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matchPos >= matchEnd) {
+            outerTuple = nextOuter();
+            if (outerTuple == null) {
+                return null;
+            }
+            Field key = outerTuple.getField(pred.getField1());
+            int field2 = pred.getField2();
+            int n = innerTuples.size();
+            while (lowerBound < n
+                    && compareFields(innerTuples.get(lowerBound).getField(field2), key) < 0) {
+                lowerBound++;
+            }
+            upperBound = Math.max(upperBound, lowerBound);
+            while (upperBound < n
+                    && compareFields(innerTuples.get(upperBound).getField(field2), key) <= 0) {
+                upperBound++;
+            }
+            switch (pred.getOperator()) {
+                case EQUALS:
+                    matchPos = lowerBound;
+                    matchEnd = upperBound;
+                    break;
+                case GREATER_THAN:
+                    matchPos = 0;
+                    matchEnd = lowerBound;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    matchPos = 0;
+                    matchEnd = upperBound;
+                    break;
+                case LESS_THAN:
+                    matchPos = upperBound;
+                    matchEnd = n;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    matchPos = lowerBound;
+                    matchEnd = n;
+                    break;
+                default:
+                    throw new DbException("unsupported join predicate " + pred.getOperator());
+            }
+        }
+        return Tuple.concat(outerTuple, innerTuples.get(matchPos++), comboTD);
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
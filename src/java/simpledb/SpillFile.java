@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A SpillFile is a temporary, append-only file of tuples used by operators
+ * that run out of memory and have to write intermediate results (such as the
+ * sorted runs of {@link OrderBy}) to disk.
+ * <p>
+ * Tuples are stored in the same page format as a {@link HeapPage}: each page
+ * of {@link BufferPool#getPageSize()} bytes starts with a bitmap header of
+ * used slots, followed by fixed-size tuple slots. Pages are written
+ * sequentially and are read back one page at a time, bypassing the buffer
+ * pool, since spilled data is private to the operator that wrote it.
+ * <p>
+ * A SpillFile is written completely before it is read. The file is deleted
+ * by {@link #delete()}, or when the JVM exits.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final int pageSize;
+    private final int numSlots;
+    private final int headerSize;
+
+    private DataOutputStream out;
+    private ByteArrayOutputStream pageBuffer;
+    private DataOutputStream pageOut;
+    private int slotsInPage;
+    private int numTuples;
+    private int numPages;
+
+    /**
+     * Creates a new, empty spill file for tuples of the given TupleDesc.
+     *
+     * @param td
+     *            the TupleDesc of the tuples that will be written
+     * @throws DbException
+     *             if the temporary file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        this.pageSize = BufferPool.getPageSize();
+        this.numSlots = getNumTuples(td);
+        this.headerSize = numSlots / 8 + (numSlots % 8 == 0 ? 0 : 1);
+        try {
+            this.file = File.createTempFile("simpledb", ".spill");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("unable to create spill file: " + e.getMessage());
+        }
+        this.pageBuffer = new ByteArrayOutputStream(pageSize);
+        this.pageOut = new DataOutputStream(pageBuffer);
+    }
+
+    /**
+     * @return the number of tuples of the given TupleDesc that fit on a page
+     */
+    public static int getNumTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the number of tuples written to this file
+     */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * @return the number of pages written to this file
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return true if {@link #finish()} has been called
+     */
+    public boolean isFinished() {
+        return out == null;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws DbException
+     *             if the file was already finished, or on an I/O error
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new DbException("spill file already finished");
+        }
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(pageOut);
+            }
+        } catch (IOException e) {
+            throw new DbException("unable to write spill file: " + e.getMessage());
+        }
+        numTuples++;
+        if (++slotsInPage == numSlots) {
+            flushPage();
+        }
+    }
+
+    /**
+     * Writes out the last, partially filled page. No more tuples can be added
+     * afterwards.
+     */
+    public void finish() throws DbException {
+        if (out == null) {
+            return;
+        }
+        if (slotsInPage > 0) {
+            flushPage();
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("unable to write spill file: " + e.getMessage());
+        }
+        out = null;
+        pageBuffer = null;
+        pageOut = null;
+    }
+
+    private void flushPage() throws DbException {
+        byte[] header = new byte[headerSize];
+        for (int i = 0; i < slotsInPage; i++) {
+            header[i / 8] |= (byte) (1 << (i % 8));
+        }
+        try {
+            out.write(header);
+            pageBuffer.writeTo(out);
+            // empty slots and padding
+            out.write(new byte[pageSize - headerSize - pageBuffer.size()]);
+        } catch (IOException e) {
+            throw new DbException("unable to write spill file: " + e.getMessage());
+        }
+        pageBuffer.reset();
+        slotsInPage = 0;
+        numPages++;
+    }
+
+    /**
+     * Deletes the file. The SpillFile cannot be used afterwards.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * @return an iterator over the tuples of this file, in the order they were
+     *         added. The file must be finished before the iterator is opened.
+     */
+    public DbFileIterator iterator() {
+        return new SpillFileIterator();
+    }
+
+    private class SpillFileIterator extends AbstractDbFileIterator {
+
+        private DataInputStream in;
+        private byte[] page;
+        private DataInputStream pageIn;
+        private int pageNo;
+        private int slot;
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            if (out != null) {
+                throw new DbException("spill file is still being written");
+            }
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), pageSize));
+            } catch (FileNotFoundException e) {
+                throw new DbException("unable to read spill file: " + e.getMessage());
+            }
+            page = new byte[pageSize];
+            pageIn = null;
+            pageNo = 0;
+            slot = numSlots;
+            super.open();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            try {
+                while (true) {
+                    if (slot == numSlots) {
+                        if (pageNo == numPages) {
+                            return null;
+                        }
+                        in.readFully(page);
+                        pageIn = new DataInputStream(new ByteArrayInputStream(
+                                page, headerSize, pageSize - headerSize));
+                        pageNo++;
+                        slot = 0;
+                    }
+                    int i = slot++;
+                    if ((page[i / 8] & (1 << (i % 8))) == 0) {
+                        // slots are filled in order, so the rest of the page is empty
+                        slot = numSlots;
+                        continue;
+                    }
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < td.numFields(); j++) {
+                        t.setField(j, td.getFieldType(j).parse(pageIn));
+                    }
+                    return t;
+                }
+            } catch (IOException | java.text.ParseException e) {
+                throw new DbException("unable to read spill file: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to do, we are done reading
+                }
+                in = null;
+            }
+            page = null;
+            pageIn = null;
+        }
+    }
+}
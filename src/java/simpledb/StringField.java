@@ -77,26 +77,25 @@ public class StringField implements Field {
 	public boolean compare(Predicate.Op op, Field val) {
 
 		StringField iVal = (StringField) val;
-		int cmpVal = value.compareTo(iVal.value);
 
 		switch (op) {
 		case EQUALS:
-			return cmpVal == 0;
+			return value.equals(iVal.value);
 
 		case NOT_EQUALS:
-			return cmpVal != 0;
+			return !value.equals(iVal.value);
 
 		case GREATER_THAN:
-			return cmpVal > 0;
+			return value.compareTo(iVal.value) > 0;
 
 		case GREATER_THAN_OR_EQ:
-			return cmpVal >= 0;
+			return value.compareTo(iVal.value) >= 0;
 
 		case LESS_THAN:
-			return cmpVal < 0;
+			return value.compareTo(iVal.value) < 0;
 
 		case LESS_THAN_OR_EQ:
-			return cmpVal <= 0;
+			return value.compareTo(iVal.value) <= 0;
 
 		case LIKE:
 			return value.indexOf(iVal.value) >= 0;
@@ -1,96 +1,82 @@
 package simpledb;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
- * A class to represent a fixed-width histogram over a single String-based
- * field.
+ * An {@link EquiDepthHistogram} over a single String-based field. Strings
+ * are compared as a whole; within a bucket, a string is placed by the
+ * characters that follow the prefix that the bounds of the bucket share.
  */
-public class StringHistogram implements Histogram<String> {
-    final IntHistogram hist;
+public class StringHistogram extends EquiDepthHistogram<String> {
+
+    // number of characters after the shared prefix that place a string
+    private static final int SCALAR_CHARS = 6;
 
     /**
      * Create a new StringHistogram with a specified number of buckets.
-     * <p>
-     * Our implementation is written in terms of an IntHistogram by converting
-     * each String to an integer.
      *
      * @param buckets
-     *            the number of buckets
+     *            the number of buckets, which is also the largest number of
+     *            most common values that are kept
      */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        super(buckets);
     }
 
-    /**
-     * Convert a string to an integer, with the property that if the return
-     * value(s1) < return value(s2), then s1 < s2
-     */
-    private int stringToInt(String s) {
-        int i;
-        int v = 0;
-        for (i = 3; i >= 0; i--) {
-            if (s.length() > 3 - i) {
-                int ci = (int) s.charAt(3 - i);
-                v += (ci) << (i * 8);
-            }
+    @Override
+    protected double fractionBelow(String v, String lo, String hi) {
+        int prefix = 0;
+        while (prefix < lo.length() && prefix < hi.length()
+                && lo.charAt(prefix) == hi.charAt(prefix)) {
+            prefix++;
         }
+        double low = scalar(lo, prefix);
+        double high = scalar(hi, prefix);
+        if (high <= low) {
+            return 0;
+        }
+        return Math.min(1, Math.max(0, (scalar(v, prefix) - low) / (high - low)));
+    }
 
-        // XXX: hack to avoid getting wrong results for
-        // strings which don't output in the range min to max
-        if (!(s.equals("") || s.equals("zzzz"))) {
-            if (v < minVal()) {
-                v = minVal();
-            }
-
-            if (v > maxVal()) {
-                v = maxVal();
+    /**
+     * Convert the characters of s after a prefix to a number in [0, 1), with
+     * the property that if s1 < s2 then scalar(s1) <= scalar(s2)
+     */
+    private static double scalar(String s, int prefix) {
+        double v = 0;
+        double unit = 1;
+        for (int i = prefix; i < prefix + SCALAR_CHARS; i++) {
+            unit /= 256;
+            if (i < s.length()) {
+                v += Math.min(s.charAt(i), 255) * unit;
             }
         }
-
         return v;
     }
 
-    /** @return the maximum value indexed by the histogram */
-    int maxVal() {
-        return stringToInt("zzzz");
+    @Override
+    protected int hash(String v) {
+        return v.hashCode();
     }
 
-    /** @return the minimum value indexed by the histogram */
-    int minVal() {
-        return stringToInt("");
+    @Override
+    protected void writeValue(DataOutputStream out, String v) throws IOException {
+        out.writeUTF(v);
     }
 
-    /** Add a new value to thte histogram */
-    public void addValue(String s) {
-        int val = stringToInt(s);
-        hist.addValue(val);
+    @Override
+    protected String readValue(DataInputStream in) throws IOException {
+        return in.readUTF();
     }
 
-    /**
-     * Estimate the selectivity (as a double between 0 and 1) of the specified
-     * predicate over the specified string
-     *
-     * @param op
-     *            The operation being applied
-     * @param s
-     *            The string to apply op to
-     */
-    public double estimateSelectivity(Predicate.Op op, String s) {
-        int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
-    }
-
-    /**
-     * @return the average selectivity of this histogram.
-     *
-     *         This is not an indispensable method to implement the basic join
-     *         optimization. It may be needed if you want to implement a more
-     *         efficient optimization
-     * */
-    public double avgSelectivity() {
-        return hist.avgSelectivity();
+    @Override
+    protected EquiDepthHistogram<String> emptyCopy() {
+        return new StringHistogram(numBuckets);
     }
 
     public static double estimateJoinSelectivity(StringHistogram h1, StringHistogram h2, Predicate.Op op) {
-        return IntHistogram.estimateJoinSelectivity(h1.hist, h2.hist, op);
+        return EquiDepthHistogram.estimateJoinSelectivity(h1, h2, op);
     }
 }
@@ -1,19 +1,41 @@
 package simpledb;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query.
+ * <p>
+ * The statistics of a table are kept up to date as tuples are inserted into
+ * and deleted from it through the BufferPool, including tuples of
+ * transactions that later abort.
  *
  * This class is not needed in implementing lab1 and lab2.
  */
 public class TableStats {
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
+    // incremented whenever the statistics of a table are replaced
+    private static final AtomicLong statsVersion = new AtomicLong();
 
     static final int IOCOSTPERPAGE = 1000;
 
@@ -23,6 +45,15 @@ public class TableStats {
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        statsVersion.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever the statistics of a table are
+     *         set; used to invalidate cached query plans
+     */
+    public static long getStatsVersion() {
+        return statsVersion.get();
     }
 
     public static void setStatsMap(HashMap<String,TableStats> s)
@@ -31,6 +62,7 @@ public class TableStats {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
             statsMapF.set(null, s);
+            statsVersion.incrementAndGet();
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -46,16 +78,60 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Updates the statistics of a table, if it has any, for a tuple that was
+     * inserted into it.
+     */
+    static void tupleInserted(int tableid, Tuple t) {
+        TableStats s = statsOf(tableid);
+        if (s != null) {
+            s.addTuple(t);
+        }
+    }
+
+    /**
+     * Updates the statistics of a table, if it has any, for a tuple that was
+     * deleted from it.
+     */
+    static void tupleDeleted(int tableid, Tuple t) {
+        TableStats s = statsOf(tableid);
+        if (s != null) {
+            s.removeTuple(t);
+        }
+    }
+
+    private static TableStats statsOf(int tableid) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        return s != null && s.tableId == tableid ? s : null;
+    }
+
+    /**
+     * Sets the statistics of every table in the catalog. Statistics that
+     * were saved next to a table by an earlier run are used if the table has
+     * not changed since; the statistics of the other tables are computed,
+     * several tables at a time, and saved.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        ArrayList<Integer> tableIds = new ArrayList<Integer>();
+        while (tableIt.hasNext()) {
+            tableIds.add(tableIt.next());
+        }
 
         System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
+        AtomicLong loaded = new AtomicLong();
+        tableIds.parallelStream().forEach(tableid -> {
+            TableStats s = load(tableid, IOCOSTPERPAGE);
+            if (s != null) {
+                loaded.incrementAndGet();
+            } else {
+                s = new TableStats(tableid, IOCOSTPERPAGE);
+                s.save();
+            }
             setTableStats(Database.getCatalog().getTableName(tableid), s);
-        }
-        System.out.println("Done.");
+        });
+        System.out.println("Done (" + loaded.get() + " of " + tableIds.size()
+                + " tables loaded from saved statistics).");
     }
 
     /**
@@ -65,11 +141,65 @@ public class TableStats {
      */
     private static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Tables that may hold more tuples than this have their histograms built
+     * from a sample of about this many tuples. Their tuple counts, the
+     * ranges of their int fields and the numbers of distinct values of all
+     * their fields are counted over all tuples.
+     */
+    public static final int SAMPLE_SIZE = 100000;
+
+    // identifies the format of saved statistics files
+    private static final int STATS_FILE_VERSION = 5;
+
+    /**
+     * The precision of the sketches of the distinct values of each field and
+     * column group, see {@link HyperLogLog#HyperLogLog(int)}.
+     */
+    static final int DISTINCT_PRECISION = 11;
+
+    /**
+     * Once the number of tuples of a table has changed by more than this
+     * fraction since plans were made with its statistics, the plans are
+     * made again.
+     */
+    static final double DRIFT_FRACTION = 0.1;
+
+    /**
+     * Once the observed selectivity of the predicates of a scan is off from
+     * its estimate by more than this factor, either way, the plans are made
+     * again; see {@link #recordSelectivity}.
+     */
+    static final double FEEDBACK_Q_ERROR = 2.0;
+
+    // the number of observed selectivities kept per table
+    private static final int MAX_OBSERVED = 1000;
+
     private final int tableId;
     private final int ioCostPerPage;
-    private final Histogram[] histograms;
+    // null until first used if the statistics were loaded from statsFile
+    private EquiDepthHistogram<?>[] histograms;
+    private final File statsFile;
+    // the column groups declared for the table, and the distinct
+    // combinations of the values of each group
+    private final int[][] groups;
+    private final HyperLogLog[] groupDistinct;
+    // the selectivities of conjunctions of predicates observed by scans of
+    // the whole table, by observedKey; dropped when the table drifts
+    private final Map<String, Double> observed = new ConcurrentHashMap<String, Double>();
 
-    private int tupleCount;
+    private volatile int tupleCount;
+    // the number of tuples when the statistics version was last changed
+    private int plannedTupleCount;
+    // the fraction of the tuples that the histograms were built from;
+    // inserted and deleted tuples are added to and removed from the
+    // histograms at the same rate
+    private final double sampleRate;
+    // the number of pages and the modification time of the table's file
+    // when the statistics were computed; saved statistics are used only
+    // if the file still has them
+    private final int stampPages;
+    private final long stampModified;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -83,82 +213,482 @@ public class TableStats {
      */
     @SuppressWarnings("unchecked")
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
         this.tableId = tableid;
         this.ioCostPerPage = ioCostPerPage;
+        this.statsFile = null;
 
-        // build up machinary for tracking min/max values, used in constructing IntHistogram
-        // does using equi-depth histograms avoid the need for 2 passes?
-        Map<Integer, AggregateOpAccumulator.AggregateMinAccumulator> minVals = new HashMap<>();
-        Map<Integer, AggregateOpAccumulator.AggregateMaxAccumulator> maxVals = new HashMap<>();
-        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
-        for (int i = 0; i < td.numFields(); i++) {
-            if (td.getFieldType(i) == Type.INT_TYPE) {
-                minVals.put(i, new AggregateOpAccumulator.AggregateMinAccumulator());
-                maxVals.put(i, new AggregateOpAccumulator.AggregateMaxAccumulator());
-            }
+        // one pass over the table, reading its pages in parallel
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        int[][] groups = Database.getCatalog().getColumnGroups(tableid).toArray(new int[0][]);
+        this.groups = groups;
+        if (file instanceof HeapFile) {
+            stampPages = ((HeapFile) file).numPages();
+            stampModified = ((HeapFile) file).getFile().lastModified();
+        } else {
+            stampPages = -1;
+            stampModified = 0;
         }
-        // first pass: find min/max values for integer fields, calculate number of tuples
-        SeqScan scanner = new SeqScan(null, tableid);
+        TransactionId tid = new TransactionId();
+        Collector c;
         try {
-            scanner.open();
-            while (scanner.hasNext()) {
-                Tuple tup = scanner.next();
-                for (int i: minVals.keySet()) {
-                    Field field = tup.getField(i);
-                    minVals.get(i).add(field);
-                    maxVals.get(i).add(field);
+            if (file instanceof HeapFile) {
+                int numPages = ((HeapFile) file).numPages();
+                long maxTuples = (long) numPages
+                        * ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+                double sampleRate = Math.min(1.0, (double) SAMPLE_SIZE / maxTuples);
+                c = IntStream.range(0, numPages).parallel().collect(
+                        () -> new Collector(td, sampleRate, groups),
+                        (acc, pageNo) -> acc.add(readPage(tid, new HeapPageId(tableid, pageNo))),
+                        Collector::merge);
+            } else {
+                c = new Collector(td, 1.0, groups);
+                DbFileIterator it = file.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    c.add(it.next());
                 }
-                tupleCount++;
+                it.close();
             }
-        } catch (DbException | TransactionAbortedException e) {
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException | TransactionAbortedException | IOException e) {
             e.printStackTrace();
             throw new RuntimeException("Encountered exception while building table stats");
         }
-        // create appropriate histogram instances
-        this.histograms = new Histogram[td.numFields()];
+        tupleCount = c.count;
+        plannedTupleCount = c.count;
+        sampleRate = c.count > 0 ? (double) c.sample.size() / c.count : 1.0;
+        groupDistinct = c.groupDistinct;
+
+        // equi-depth histograms of the sample, with the range of each int
+        // field and the distinct count of each field over the whole table
+        this.histograms = new EquiDepthHistogram<?>[td.numFields()];
         for (int i = 0; i < td.numFields(); i++) {
             switch (td.getFieldType(i)) {
                 case INT_TYPE:
-                    this.histograms[i] = new IntHistogram(
-                            NUM_HIST_BINS,
-                            ((IntField) minVals.get(i).aggregate()).getValue(),
-                            ((IntField) maxVals.get(i).aggregate()).getValue()
-                    );
+                    List<Integer> ints = new ArrayList<Integer>(c.sample.size());
+                    for (Tuple t : c.sample) {
+                        ints.add(((IntField) t.getField(i)).getValue());
+                    }
+                    IntEquiDepthHistogram h = new IntEquiDepthHistogram(NUM_HIST_BINS);
+                    h.build(ints, c.distinct[i]);
+                    if (c.count > 0) {
+                        h.extendRange(c.min[i], c.max[i]);
+                    }
+                    this.histograms[i] = h;
                     break;
                 case STRING_TYPE:
-                    this.histograms[i] = new StringHistogram(NUM_HIST_BINS);
+                    List<String> strings = new ArrayList<String>(c.sample.size());
+                    for (Tuple t : c.sample) {
+                        strings.add(((StringField) t.getField(i)).getValue());
+                    }
+                    StringHistogram sh = new StringHistogram(NUM_HIST_BINS);
+                    sh.build(strings, c.distinct[i]);
+                    this.histograms[i] = sh;
                     break;
             }
         }
-        // second pass: fill the histograms
+    }
+
+    private TableStats(int tableId, int ioCostPerPage, File statsFile, int tupleCount,
+                       double sampleRate, int stampPages, long stampModified,
+                       int[][] groups, HyperLogLog[] groupDistinct) {
+        this.tableId = tableId;
+        this.ioCostPerPage = ioCostPerPage;
+        this.statsFile = statsFile;
+        this.groups = groups;
+        this.groupDistinct = groupDistinct;
+        this.tupleCount = tupleCount;
+        this.plannedTupleCount = tupleCount;
+        this.sampleRate = sampleRate;
+        this.stampPages = stampPages;
+        this.stampModified = stampModified;
+    }
+
+    /**
+     * @return the file that the statistics of a table are saved in, next to
+     *         the table's own file; null if the statistics of the table
+     *         cannot be saved
+     */
+    public static File statsFile(int tableid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile)) {
+            return null;
+        }
+        File dat = ((HeapFile) file).getFile().getAbsoluteFile();
+        String name = dat.getName();
+        if (name.endsWith(".dat")) {
+            name = name.substring(0, name.length() - ".dat".length());
+        }
+        return new File(dat.getParentFile(), name + ".stats");
+    }
+
+    /**
+     * Saves these statistics next to the table's file, so that later runs
+     * can {@link #load} them instead of scanning the table. Errors are
+     * reported but not thrown, since the statistics can always be computed
+     * again.
+     */
+    public void save() {
+        File f = statsFile(tableId);
+        if (f == null || stampPages < 0) {
+            return;
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        EquiDepthHistogram<?>[] hists = histograms();
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(STATS_FILE_VERSION);
+            out.writeInt(td.numFields());
+            for (int i = 0; i < td.numFields(); i++) {
+                out.writeInt(td.getFieldType(i).ordinal());
+            }
+            out.writeInt(stampPages);
+            out.writeLong(stampModified);
+            out.writeInt(tupleCount);
+            out.writeDouble(sampleRate);
+            out.writeInt(groups.length);
+            for (int g = 0; g < groups.length; g++) {
+                out.writeInt(groups[g].length);
+                for (int field : groups[g]) {
+                    out.writeInt(field);
+                }
+                groupDistinct[g].write(out);
+            }
+            for (EquiDepthHistogram<?> h : hists) {
+                h.write(out);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return;
+        }
         try {
-            scanner.rewind();
-            while (scanner.hasNext()) {
-                Tuple tup = scanner.next();
-                for (int i = 0; i < td.numFields(); i++) {
-                    Field field = tup.getField(i);
-                    switch (td.getFieldType(i)) {
-                        case INT_TYPE:
-                            this.histograms[i].addValue(((IntField) field).getValue());
-                            break;
-                        case STRING_TYPE:
-                            this.histograms[i].addValue(((StringField) field).getValue());
-                            break;
-                    }
+            // replace the old statistics at once, so that they are never
+            // read half written
+            Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Loads the statistics of a table that were saved by {@link #save}. Only
+     * the header of the file is read here; the histograms are read when
+     * they are first used.
+     *
+     * @return the saved statistics, or null if there are none, or if the
+     *         table or its column groups have changed since they were
+     *         computed
+     */
+    public static TableStats load(int tableid, int ioCostPerPage) {
+        File f = statsFile(tableid);
+        if (f == null || !f.exists()) {
+            return null;
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            readHeader(in, file.getTupleDesc());
+            int pages = in.readInt();
+            long modified = in.readLong();
+            if (pages != file.numPages() || modified != file.getFile().lastModified()) {
+                return null;
+            }
+            int tupleCount = in.readInt();
+            double sampleRate = in.readDouble();
+            int[][] groups = new int[in.readInt()][];
+            HyperLogLog[] groupDistinct = new HyperLogLog[groups.length];
+            readGroups(in, groups, groupDistinct);
+            List<int[]> declared = Database.getCatalog().getColumnGroups(tableid);
+            if (!Arrays.deepEquals(groups, declared.toArray(new int[0][]))) {
+                return null;
+            }
+            return new TableStats(tableid, ioCostPerPage, f, tupleCount, sampleRate,
+                    pages, modified, groups, groupDistinct);
+        } catch (IOException e) {
+            // unreadable or from another version of the format
+            return null;
+        }
+    }
+
+    /**
+     * Reads the format version and the schema at the start of a statistics
+     * file.
+     *
+     * @throws IOException
+     *             if the file is of another version of the format, or if
+     *             the schema is not td
+     */
+    private static void readHeader(DataInputStream in, TupleDesc td) throws IOException {
+        if (in.readInt() != STATS_FILE_VERSION || in.readInt() != td.numFields()) {
+            throw new IOException("statistics file does not match the table");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (in.readInt() != td.getFieldType(i).ordinal()) {
+                throw new IOException("statistics file does not match the table");
+            }
+        }
+    }
+
+    /**
+     * Reads the column groups of a statistics file, with their sketches of
+     * distinct combinations, into groups and groupDistinct.
+     */
+    private static void readGroups(DataInputStream in, int[][] groups,
+            HyperLogLog[] groupDistinct) throws IOException {
+        for (int g = 0; g < groups.length; g++) {
+            groups[g] = new int[in.readInt()];
+            for (int i = 0; i < groups[g].length; i++) {
+                groups[g][i] = in.readInt();
+            }
+            groupDistinct[g] = HyperLogLog.read(in);
+        }
+    }
+
+    /**
+     * @return the histograms of the table's fields, reading them from the
+     *         statistics file on first use if the statistics were loaded
+     */
+    private synchronized EquiDepthHistogram<?>[] histograms() {
+        if (histograms == null) {
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+            EquiDepthHistogram<?>[] hists = new EquiDepthHistogram<?>[td.numFields()];
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(statsFile)))) {
+                readHeader(in, td);
+                // page count, modification time, tuple count, sample rate
+                // and column groups
+                in.readInt();
+                in.readLong();
+                in.readInt();
+                in.readDouble();
+                int numGroups = in.readInt();
+                readGroups(in, new int[numGroups][], new HyperLogLog[numGroups]);
+                for (int i = 0; i < hists.length; i++) {
+                    EquiDepthHistogram<?> h = td.getFieldType(i) == Type.INT_TYPE
+                            ? new IntEquiDepthHistogram(NUM_HIST_BINS)
+                            : new StringHistogram(NUM_HIST_BINS);
+                    h.read(in);
+                    hists[i] = h;
                 }
+            } catch (IOException e) {
+                // the file was removed or rewritten since it was loaded
+                e.printStackTrace();
+                hists = new TableStats(tableId, ioCostPerPage).histograms;
+            }
+            histograms = hists;
+        }
+        return histograms;
+    }
+
+    /**
+     * @return the histogram of a field, which takes the Integer or String
+     *         values of the field's type
+     */
+    @SuppressWarnings("unchecked")
+    private Histogram<Object> histogram(int field) {
+        return (Histogram<Object>) histograms()[field];
+    }
+
+    /**
+     * Counts an inserted tuple, and adds it to the histograms if it falls
+     * in the sample.
+     */
+    synchronized void addTuple(Tuple t) {
+        tupleCount++;
+        if (groups.length > 0) {
+            int[] hashes = new int[t.getTupleDesc().numFields()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = hash(t.getField(i));
+            }
+            for (int g = 0; g < groups.length; g++) {
+                groupDistinct[g].add(groupHash(groups[g], hashes));
+            }
+        }
+        if (sampled()) {
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                histogram(i).addValue(value(t.getField(i)));
+            }
+        }
+        checkDrift();
+    }
+
+    /**
+     * Uncounts a deleted tuple, and removes it from the histograms if it
+     * falls in the sample. The sketches of distinct values cannot forget
+     * values, so they keep counting it.
+     */
+    synchronized void removeTuple(Tuple t) {
+        tupleCount--;
+        if (sampled()) {
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                histogram(i).removeValue(value(t.getField(i)));
             }
+        }
+        checkDrift();
+    }
+
+    private boolean sampled() {
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    private static Object value(Field f) {
+        return f.getType() == Type.INT_TYPE
+                ? (Object) ((IntField) f).getValue() : ((StringField) f).getValue();
+    }
+
+    /** @return the hash of a value that the sketches of distinct values count */
+    private static int hash(Field f) {
+        return f.getType() == Type.INT_TYPE
+                ? ((IntField) f).getValue() : ((StringField) f).getValue().hashCode();
+    }
+
+    /**
+     * Combines the hashes of the values of the fields of a group, mixing
+     * each in, so that different combinations rarely collide.
+     */
+    private static int groupHash(int[] group, int[] hashes) {
+        int h = 0;
+        for (int field : group) {
+            h = (h ^ hashes[field]) * 0x9E3779B1;
+            h ^= h >>> 16;
+        }
+        return h;
+    }
+
+    private void checkDrift() {
+        if (Math.abs(tupleCount - plannedTupleCount) > DRIFT_FRACTION * Math.max(plannedTupleCount, 1)) {
+            plannedTupleCount = tupleCount;
+            observed.clear();
+            statsVersion.incrementAndGet();
+        }
+    }
+
+    private static HeapPage readPage(TransactionId tid, HeapPageId pid) {
+        try {
+            return (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
         } catch (DbException | TransactionAbortedException e) {
             e.printStackTrace();
             throw new RuntimeException("Encountered exception while building table stats");
         }
-        scanner.close();
+    }
+
+    /**
+     * Collects the statistics of a part of a table: its number of tuples,
+     * the range of each int field, a sketch of the distinct values of each
+     * field and of each column group, and a Bernoulli sample of its tuples.
+     * Collectors of different parts are merged.
+     */
+    private static class Collector {
+        final TupleDesc td;
+        final double sampleRate;
+        int count;
+        final int[] min;
+        final int[] max;
+        final HyperLogLog[] distinct;
+        final int[][] groups;
+        final HyperLogLog[] groupDistinct;
+        // the hashes of the values of the tuple being added
+        private final int[] hashes;
+        final ArrayList<Tuple> sample = new ArrayList<Tuple>();
+
+        Collector(TupleDesc td, double sampleRate, int[][] groups) {
+            this.td = td;
+            this.sampleRate = sampleRate;
+            this.groups = groups;
+            groupDistinct = new HyperLogLog[groups.length];
+            for (int g = 0; g < groups.length; g++) {
+                groupDistinct[g] = new HyperLogLog(DISTINCT_PRECISION);
+            }
+            hashes = new int[td.numFields()];
+            min = new int[td.numFields()];
+            max = new int[td.numFields()];
+            distinct = new HyperLogLog[td.numFields()];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+            for (int i = 0; i < td.numFields(); i++) {
+                distinct[i] = new HyperLogLog(DISTINCT_PRECISION);
+            }
+        }
+
+        private boolean sampled() {
+            return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        }
+
+        /** Adds the tuples of a page, reading their int fields without building tuples */
+        void add(HeapPage page) {
+            for (int slot = 0; slot < page.numSlots; slot++) {
+                if (!page.isSlotUsed(slot)) {
+                    continue;
+                }
+                count++;
+                for (int i = 0; i < min.length; i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        addInt(i, page.getInt(slot, i));
+                    } else {
+                        addString(i, page.getField(slot, i));
+                    }
+                }
+                addGroups();
+                if (sampled()) {
+                    Tuple t = new Tuple(td);
+                    for (int i = 0; i < min.length; i++) {
+                        t.setField(i, page.getField(slot, i));
+                    }
+                    sample.add(t);
+                }
+            }
+        }
+
+        void add(Tuple t) {
+            count++;
+            for (int i = 0; i < min.length; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    addInt(i, ((IntField) t.getField(i)).getValue());
+                } else {
+                    addString(i, t.getField(i));
+                }
+            }
+            addGroups();
+            if (sampled()) {
+                sample.add(t);
+            }
+        }
+
+        private void addInt(int field, int v) {
+            min[field] = Math.min(min[field], v);
+            max[field] = Math.max(max[field], v);
+            distinct[field].add(v);
+            hashes[field] = v;
+        }
+
+        private void addString(int field, Field f) {
+            hashes[field] = hash(f);
+            distinct[field].add(hashes[field]);
+        }
+
+        private void addGroups() {
+            for (int g = 0; g < groups.length; g++) {
+                groupDistinct[g].add(groupHash(groups[g], hashes));
+            }
+        }
+
+        void merge(Collector other) {
+            count += other.count;
+            for (int i = 0; i < min.length; i++) {
+                min[i] = Math.min(min[i], other.min[i]);
+                max[i] = Math.max(max[i], other.max[i]);
+                distinct[i].merge(other.distinct[i]);
+            }
+            for (int g = 0; g < groups.length; g++) {
+                groupDistinct[g].merge(other.groupDistinct[g]);
+            }
+            sample.addAll(other.sample);
+        }
     }
 
     /**
@@ -174,8 +704,15 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
+        return numPages() * ioCostPerPage;
+    }
+
+    /**
+     * @return The number of pages of the table.
+     */
+    public int numPages() {
         HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-        return file.numPages() * ioCostPerPage;
+        return file.numPages();
     }
 
     /**
@@ -191,6 +728,33 @@ public class TableStats {
         return (int) (tupleCount * selectivityFactor);
     }
 
+    /**
+     * @return An estimate of the number of distinct values of a field, from
+     *         a sketch of all of its values
+     */
+    public int estimateDistinctValues(int field) {
+        return histograms()[field].distinctCount();
+    }
+
+    /**
+     * @return A copy of the sketch of the distinct values of a field, which
+     *         can be merged with the sketches of other fields
+     */
+    public HyperLogLog distinctSketch(int field) {
+        return histograms()[field].distinctSketch();
+    }
+
+    /**
+     * @return true if every value of a field seems to be distinct: its
+     *         estimated number of distinct values is within three standard
+     *         errors of the sketch of the number of tuples
+     */
+    public boolean isUnique(int field) {
+        int n = tupleCount;
+        EquiDepthHistogram<?> h = histograms()[field];
+        return n > 0 && h.distinctCount() >= n * (1 - 3 * h.distinctError());
+    }
+
     /**
      * The average selectivity of the field under op.
      * @param field
@@ -202,8 +766,20 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        double eq = histograms()[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1 - eq;
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN_OR_EQ:
+                return eq + (1 - eq) / 2;
+            default:
+                // on average, half of the other values are on either side
+                return (1 - eq) / 2;
+        }
     }
 
     /**
@@ -219,7 +795,6 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    @SuppressWarnings("unchecked")
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         Object val;
         switch (constant.getType()) {
@@ -232,7 +807,140 @@ public class TableStats {
             default:
                 throw new IllegalArgumentException("Unknown op");
         }
-        return histograms[field].estimateSelectivity(op, val);
+        return histogram(field).estimateSelectivity(op, val);
+    }
+
+    /**
+     * Estimate the selectivity of a conjunction of predicates with constants
+     * on the table.
+     *
+     * @see #estimateConjunctionSelectivity
+     */
+    public double estimateSelectivity(List<Predicate> preds) {
+        Double sel = observedSelectivity(preds);
+        if (sel != null) {
+            return sel;
+        }
+        int[] fields = new int[preds.size()];
+        Predicate.Op[] ops = new Predicate.Op[preds.size()];
+        double[] selectivities = new double[preds.size()];
+        for (int i = 0; i < preds.size(); i++) {
+            Predicate p = preds.get(i);
+            fields[i] = p.getField();
+            ops[i] = p.getOp();
+            selectivities[i] = estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        }
+        return estimateConjunctionSelectivity(fields, ops, selectivities);
+    }
+
+    /**
+     * Records the fraction of the tuples of the table that a conjunction of
+     * predicates with constants selected in a scan of the whole table, which
+     * {@link #estimateSelectivity(List)} returns from then on. If it is off
+     * from the estimate by more than {@link #FEEDBACK_Q_ERROR}, plans made
+     * with the statistics are made again.
+     *
+     * @param preds
+     *            The predicates of the scan
+     * @param selectivity
+     *            The fraction of the tuples of the table that the scan
+     *            returned
+     */
+    public void recordSelectivity(List<Predicate> preds, double selectivity) {
+        if (preds.isEmpty()) {
+            return;
+        }
+        // in tuples, so that two estimates of almost nothing agree
+        double estimated = Math.max(1, estimateSelectivity(preds) * tupleCount);
+        double actual = Math.max(1, selectivity * tupleCount);
+        String key = observedKey(preds);
+        if (observed.size() >= MAX_OBSERVED && !observed.containsKey(key)) {
+            observed.clear();
+        }
+        observed.put(key, selectivity);
+        if (Math.max(estimated / actual, actual / estimated) > FEEDBACK_Q_ERROR) {
+            statsVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return The selectivity of a conjunction of predicates with constants
+     *         recorded by {@link #recordSelectivity}, or null if there is none
+     */
+    public Double observedSelectivity(List<Predicate> preds) {
+        return preds.isEmpty() || observed.isEmpty() ? null : observed.get(observedKey(preds));
+    }
+
+    // the predicates in a canonical order
+    private static String observedKey(List<Predicate> preds) {
+        String[] terms = new String[preds.size()];
+        for (int i = 0; i < terms.length; i++) {
+            Predicate p = preds.get(i);
+            terms[i] = p.getField() + " " + p.getOp() + " " + p.getOperand();
+        }
+        Arrays.sort(terms);
+        return String.join(" AND ", terms);
+    }
+
+    /**
+     * Estimate the selectivity of a conjunction of predicates on the table,
+     * given the selectivity of each one. The predicates are treated as
+     * independent, except for equality predicates on all the fields of a
+     * column group (see {@link Catalog#addColumnGroup}): for those, the
+     * product of their selectivities is scaled up by how many fewer
+     * combinations of values the group has than independent fields would
+     * have, up to the selectivity of the most selective one.
+     *
+     * @param fields
+     *            The field of each predicate
+     * @param ops
+     *            The operator of each predicate
+     * @param selectivities
+     *            The estimated selectivity of each predicate
+     * @return The estimated selectivity of the conjunction
+     */
+    public double estimateConjunctionSelectivity(int[] fields, Predicate.Op[] ops,
+            double[] selectivities) {
+        boolean[] used = new boolean[fields.length];
+        double sel = 1.0;
+        // larger groups first, as they capture more of the correlation
+        Integer[] bySize = new Integer[groups.length];
+        for (int g = 0; g < groups.length; g++) {
+            bySize[g] = g;
+        }
+        Arrays.sort(bySize, (g1, g2) -> Integer.compare(groups[g2].length, groups[g1].length));
+        for (int g : bySize) {
+            int[] group = groups[g];
+            int[] preds = new int[group.length];
+            for (int i = 0; i < group.length; i++) {
+                preds[i] = -1;
+                for (int k = 0; k < fields.length && preds[i] < 0; k++) {
+                    if (!used[k] && fields[k] == group[i] && ops[k] == Predicate.Op.EQUALS) {
+                        preds[i] = k;
+                    }
+                }
+            }
+            if (Arrays.stream(preds).anyMatch(k -> k < 0)) {
+                continue;
+            }
+            double independent = 1.0;
+            double combinations = 1.0;
+            double mostSelective = 1.0;
+            for (int i = 0; i < group.length; i++) {
+                used[preds[i]] = true;
+                independent *= selectivities[preds[i]];
+                mostSelective = Math.min(mostSelective, selectivities[preds[i]]);
+                combinations *= histograms()[group[i]].distinctCount();
+            }
+            double scale = combinations / Math.max(1, groupDistinct[g].estimate());
+            sel *= Math.max(independent, Math.min(mostSelective, independent * scale));
+        }
+        for (int k = 0; k < fields.length; k++) {
+            if (!used[k]) {
+                sel *= selectivities[k];
+            }
+        }
+        return sel;
     }
 
     /**
@@ -248,16 +956,16 @@ public class TableStats {
         Type type1 = td1.getFieldType(fieldIndex1);
         Type type2 = td2.getFieldType(fieldIndex2);
 
-        Histogram h1 = stats1.histograms[fieldIndex1];
-        Histogram h2 = stats2.histograms[fieldIndex2];
+        EquiDepthHistogram<?> h1 = stats1.histograms()[fieldIndex1];
+        EquiDepthHistogram<?> h2 = stats2.histograms()[fieldIndex2];
 
         if (type1 != type2) {
             throw new IllegalArgumentException("Cannot join two different types");
         }
         else if (type1 == Type.INT_TYPE) {
-            return IntHistogram.estimateJoinSelectivity(
-                    (IntHistogram) h1,
-                    (IntHistogram) h2,
+            return EquiDepthHistogram.estimateJoinSelectivity(
+                    (IntEquiDepthHistogram) h1,
+                    (IntEquiDepthHistogram) h2,
                     op
             );
         }
@@ -1,15 +1,22 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Operators that only rearrange the fields of their input, such as projections
+ * and joins, return views ({@link #project}, {@link #concat}) that read the
+ * fields of the input tuples instead of copying them. Views cannot be
+ * modified. Operators that hold on to many tuples, such as sorts and the build
+ * side of hash joins, call {@link #materialize()} so that they do not keep the
+ * input tuples of a view alive.
  */
 public class Tuple implements Serializable {
 
@@ -31,6 +38,14 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Constructor for views, which have no fields of their own.
+     */
+    Tuple(TupleDesc td, RecordId rid) {
+        this.tupleDesc = td;
+        this.recordId = rid;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -80,14 +95,40 @@ public class Tuple implements Serializable {
 
     /** Merge two tuples. */
     public static Tuple merge(Tuple t1, Tuple t2) {
-        Tuple mergedTuple = new Tuple(TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc()));
-        for (int i = 0; i < t1.tupleDesc.numFields(); i++) {
-            mergedTuple.setField(i, t1.getField(i));
-        }
-        for (int i = 0; i < t2.tupleDesc.numFields(); i++) {
-            mergedTuple.setField(i + t1.tupleDesc.numFields(), t2.getField(i));
-        }
-        return mergedTuple;
+        return concat(t1, t2, TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc()));
+    }
+
+    /**
+     * Returns a view of the concatenation of two tuples, without copying
+     * their fields.
+     *
+     * @param td
+     *            the TupleDesc of the result, which is the merge of the
+     *            TupleDescs of t1 and t2
+     */
+    public static Tuple concat(Tuple t1, Tuple t2, TupleDesc td) {
+        return new ConcatTuple(t1, t2, td);
+    }
+
+    /**
+     * Returns a view of some of the fields of a tuple, without copying them.
+     * The view has the RecordId of the tuple.
+     *
+     * @param fields
+     *            the fields of t that make up the view, in order
+     * @param td
+     *            the TupleDesc of the result
+     */
+    public static Tuple project(Tuple t, int[] fields, TupleDesc td) {
+        return new ProjectedTuple(t, fields, td);
+    }
+
+    /**
+     * @return a tuple with the same fields that holds them itself; this
+     *         tuple if it is not a view
+     */
+    public Tuple materialize() {
+        return this;
     }
 
     /**
@@ -95,11 +136,25 @@ public class Tuple implements Serializable {
      */
     public static Tuple truncate(Tuple tup, int i) {
         Tuple newTup = new Tuple(TupleDesc.truncate(tup.getTupleDesc(), i));
-        newTup.fields = Arrays.copyOfRange(tup.fields, 0, i);
+        for (int j = 0; j < i; j++) {
+            newTup.fields[j] = tup.getField(j);
+        }
         newTup.recordId = null;
         return newTup;
     }
 
+    /**
+     * Copies the fields of a view into a new tuple.
+     */
+    static Tuple copyOf(Tuple view) {
+        Tuple t = new Tuple(view.getTupleDesc());
+        for (int i = 0; i < t.fields.length; i++) {
+            t.fields[i] = view.getField(i);
+        }
+        t.recordId = view.getRecordId();
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -109,9 +164,9 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
-        List<String> fieldStrings = Arrays.stream(fields)
-                                          .map(Field::toString)
-                                          .collect(Collectors.toList());
+        List<String> fieldStrings = IntStream.range(0, tupleDesc.numFields())
+                                             .mapToObj(i -> getField(i).toString())
+                                             .collect(Collectors.toList());
         return String.join("\t", fieldStrings);
     }
 
@@ -120,7 +175,9 @@ public class Tuple implements Serializable {
      *        An iterator which iterates over all the fields of this tuple
      * */
     public Iterator<Field> fields() {
-        return Arrays.asList(fields).iterator();
+        return IntStream.range(0, tupleDesc.numFields())
+                        .mapToObj(this::getField)
+                        .iterator();
     }
 
     /**
@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A TupleBatch holds up to {@link #capacity()} rows of a TupleDesc in columnar
+ * form: each int column is an int[], each string column a String[]. Batches
+ * are produced and consumed by {@link BatchOpIterator}s, which process a whole
+ * batch per call instead of one {@link Tuple} at a time.
+ * <p>
+ * Rows are appended with {@link #addRow()} or {@link #addTuple(Tuple)} and
+ * read back column by column, through {@link #getIntColumn(int)} and
+ * {@link #getStringColumn(int)}, or row by row, through
+ * {@link #getField(int, int)} and {@link #getTuple(int)}. Each row also keeps
+ * the RecordId of the tuple it was added from, if any, so that tuples read
+ * back from a batch can still be deleted.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    // exactly one of intColumns[i] and stringColumns[i] is non-null
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    private final RecordId[] recordIds;
+    private int size;
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_CAPACITY} rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the TupleDesc of the rows
+     * @param capacity
+     *            the maximum number of rows in the batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.intColumns = new int[td.numFields()][];
+        this.stringColumns = new String[td.numFields()][];
+        this.recordIds = new RecordId[capacity];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                intColumns[i] = new int[capacity];
+            } else {
+                stringColumns[i] = new String[capacity];
+            }
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int size, int[][] intColumns,
+                       String[][] stringColumns, RecordId[] recordIds) {
+        this.td = td;
+        this.capacity = capacity;
+        this.size = size;
+        this.intColumns = intColumns;
+        this.stringColumns = stringColumns;
+        this.recordIds = recordIds;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the maximum number of rows in the batch
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Removes all rows.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the values of an int column; only the first {@link #size()}
+     *         entries are valid
+     */
+    public int[] getIntColumn(int col) {
+        return intColumns[col];
+    }
+
+    /**
+     * @return the values of a string column; only the first {@link #size()}
+     *         entries are valid
+     */
+    public String[] getStringColumn(int col) {
+        return stringColumns[col];
+    }
+
+    /**
+     * @return the value of a row's field, boxed into a Field
+     */
+    public Field getField(int col, int row) {
+        if (intColumns[col] != null) {
+            return new IntField(intColumns[col][row]);
+        }
+        return new StringField(stringColumns[col][row], Type.STRING_LEN);
+    }
+
+    /**
+     * @return the RecordId of a row, or null if it has none
+     */
+    public RecordId getRecordId(int row) {
+        return recordIds[row];
+    }
+
+    /**
+     * Sets the RecordId of a row.
+     */
+    public void setRecordId(int row, RecordId rid) {
+        recordIds[row] = rid;
+    }
+
+    /**
+     * Sets the value of a row's field.
+     */
+    public void setField(int col, int row, Field f) {
+        if (intColumns[col] != null) {
+            intColumns[col][row] = ((IntField) f).getValue();
+        } else {
+            stringColumns[col][row] = ((StringField) f).getValue();
+        }
+    }
+
+    /**
+     * Copies a field of a row of another batch into a field of a row of this
+     * batch. The two columns must have the same type.
+     */
+    public void copyField(int col, int row, TupleBatch src, int srcCol, int srcRow) {
+        if (intColumns[col] != null) {
+            intColumns[col][row] = src.intColumns[srcCol][srcRow];
+        } else {
+            stringColumns[col][row] = src.stringColumns[srcCol][srcRow];
+        }
+    }
+
+    /**
+     * Appends an empty row, without a RecordId, whose fields must then be
+     * set.
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        recordIds[size] = null;
+        return size++;
+    }
+
+    /**
+     * Appends the fields and the RecordId of a tuple as a new row.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        recordIds[row] = t.getRecordId();
+        for (int col = 0; col < intColumns.length; col++) {
+            setField(col, row, t.getField(col));
+        }
+    }
+
+    /**
+     * @return a new Tuple holding the fields and the RecordId of a row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(recordIds[row]);
+        for (int col = 0; col < intColumns.length; col++) {
+            t.setField(col, getField(col, row));
+        }
+        return t;
+    }
+
+    /**
+     * Keeps only the given rows, moving them to the front of the batch.
+     *
+     * @param rows
+     *            the indices of the rows to keep, in increasing order
+     * @param n
+     *            the number of entries of rows to use
+     */
+    public void compact(int[] rows, int n) {
+        for (int col = 0; col < intColumns.length; col++) {
+            if (intColumns[col] != null) {
+                int[] values = intColumns[col];
+                for (int i = 0; i < n; i++) {
+                    values[i] = values[rows[i]];
+                }
+            } else {
+                String[] values = stringColumns[col];
+                for (int i = 0; i < n; i++) {
+                    values[i] = values[rows[i]];
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            recordIds[i] = recordIds[rows[i]];
+        }
+        size = n;
+    }
+
+    /**
+     * Returns a batch with a subset of the columns of this batch, in the
+     * given order. The new batch shares the column arrays and the RecordIds
+     * of this batch, except for columns that are selected more than once,
+     * which are copied.
+     *
+     * @param cols
+     *            the indices of the columns to keep
+     * @param td
+     *            the TupleDesc of the new batch
+     */
+    public TupleBatch project(int[] cols, TupleDesc td) {
+        int[][] ints = new int[cols.length][];
+        String[][] strings = new String[cols.length][];
+        boolean[] used = new boolean[intColumns.length];
+        for (int i = 0; i < cols.length; i++) {
+            int col = cols[i];
+            if (intColumns[col] != null) {
+                ints[i] = used[col] ? Arrays.copyOf(intColumns[col], capacity) : intColumns[col];
+            } else {
+                strings[i] = used[col] ? Arrays.copyOf(stringColumns[col], capacity)
+                        : stringColumns[col];
+            }
+            used[col] = true;
+        }
+        return new TupleBatch(td, capacity, size, ints, strings, recordIds);
+    }
+}
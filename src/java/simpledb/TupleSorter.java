@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TupleSorter sorts tuples on one or more fields, each in ascending or
+ * descending order. It is used by {@link OrderBy}.
+ * <p>
+ * Instead of comparing {@link Field}s through {@link Field#compare} for every
+ * pair of tuples, the sort key of each tuple is extracted once, up front:
+ * <ul>
+ * <li>A single int field is packed together with the tuple's position into a
+ * long, and the longs are sorted as primitives.</li>
+ * <li>Any other key is encoded into a normalized byte string whose unsigned
+ * lexicographic order is the requested order. The first eight bytes are also
+ * kept as a long so that most comparisons are a single unsigned long
+ * comparison.</li>
+ * </ul>
+ * Both sorts are stable: tuples with equal keys keep their input order.
+ */
+public class TupleSorter {
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private final boolean[] isInt;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the TupleDesc of the tuples to sort
+     * @param fields
+     *            the indices of the fields to sort on, most significant first
+     * @param asc
+     *            for every sort field, true if the order is ascending
+     */
+    public TupleSorter(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length) {
+            throw new IllegalArgumentException(
+                    "need one sort direction for each of at least one sort field");
+        }
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.isInt = new boolean[fields.length];
+        for (int k = 0; k < fields.length; k++) {
+            isInt[k] = td.getFieldType(fields[k]) == Type.INT_TYPE;
+        }
+    }
+
+    /**
+     * Sorts the given list in place.
+     */
+    public void sort(List<Tuple> tuples) {
+        if (tuples.size() < 2) {
+            return;
+        }
+        if (fields.length == 1 && isInt[0]) {
+            sortIntKeys(tuples);
+        } else {
+            sortNormalizedKeys(tuples);
+        }
+    }
+
+    /**
+     * @return a comparator implementing the same order as {@link #sort}, for
+     *         tuples that are compared one pair at a time (heaps and merges)
+     */
+    public Comparator<Tuple> comparator() {
+        return (t1, t2) -> {
+            for (int k = 0; k < fields.length; k++) {
+                int f = fields[k];
+                int cmp;
+                if (isInt[k]) {
+                    cmp = Integer.compare(((IntField) t1.getField(f)).getValue(),
+                            ((IntField) t2.getField(f)).getValue());
+                } else {
+                    cmp = ((StringField) t1.getField(f)).getValue().compareTo(
+                            ((StringField) t2.getField(f)).getValue());
+                }
+                if (cmp != 0) {
+                    return asc[k] ? cmp : -cmp;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Sorts on a single int field. The key goes into the upper 32 bits of a
+     * long (complemented for descending order, which reverses the order
+     * without overflowing) and the tuple's position into the lower 32 bits,
+     * which makes every long unique and the sort stable.
+     */
+    private void sortIntKeys(List<Tuple> tuples) {
+        int n = tuples.size();
+        int field = fields[0];
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int v = ((IntField) tuples.get(i).getField(field)).getValue();
+            keys[i] = ((long) (asc[0] ? v : ~v) << 32) | i;
+        }
+        Arrays.sort(keys);
+        Tuple[] input = tuples.toArray(new Tuple[n]);
+        for (int i = 0; i < n; i++) {
+            tuples.set(i, input[(int) keys[i]]);
+        }
+    }
+
+    /**
+     * Sorts on normalized byte keys with a stable merge sort over tuple
+     * positions.
+     */
+    private void sortNormalizedKeys(List<Tuple> tuples) {
+        int n = tuples.size();
+        byte[][] keys = new byte[n][];
+        long[] prefixes = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = normalizedKey(tuples.get(i));
+            prefixes[i] = prefix(keys[i]);
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[n], 0, n, keys, prefixes);
+        Tuple[] input = tuples.toArray(new Tuple[n]);
+        for (int i = 0; i < n; i++) {
+            tuples.set(i, input[order[i]]);
+        }
+    }
+
+    /**
+     * Encodes the sort fields of a tuple so that comparing the encodings as
+     * unsigned bytes gives the sort order. Ints are stored big-endian with
+     * the sign bit flipped; strings as big-endian chars followed by a 0 char,
+     * so that a string sorts before its extensions. Descending fields have
+     * all of their bytes complemented.
+     */
+    private byte[] normalizedKey(Tuple t) {
+        int len = 0;
+        for (int k = 0; k < fields.length; k++) {
+            len += isInt[k] ? 4
+                    : 2 * (((StringField) t.getField(fields[k])).getValue().length() + 1);
+        }
+        byte[] key = new byte[len];
+        int pos = 0;
+        for (int k = 0; k < fields.length; k++) {
+            int start = pos;
+            if (isInt[k]) {
+                int v = ((IntField) t.getField(fields[k])).getValue() ^ Integer.MIN_VALUE;
+                key[pos++] = (byte) (v >>> 24);
+                key[pos++] = (byte) (v >>> 16);
+                key[pos++] = (byte) (v >>> 8);
+                key[pos++] = (byte) v;
+            } else {
+                String s = ((StringField) t.getField(fields[k])).getValue();
+                for (int c = 0; c < s.length(); c++) {
+                    char ch = s.charAt(c);
+                    key[pos++] = (byte) (ch >>> 8);
+                    key[pos++] = (byte) ch;
+                }
+                pos += 2;
+            }
+            if (!asc[k]) {
+                for (int b = start; b < pos; b++) {
+                    key[b] = (byte) ~key[b];
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return the first eight bytes of a key as a long (zero padded)
+     */
+    private static long prefix(byte[] key) {
+        long p = 0;
+        for (int b = 0; b < 8; b++) {
+            p = (p << 8) | (b < key.length ? key[b] & 0xff : 0);
+        }
+        return p;
+    }
+
+    private static int compareKeys(int i, int j, byte[][] keys, long[] prefixes) {
+        int cmp = Long.compareUnsigned(prefixes[i], prefixes[j]);
+        if (cmp != 0) {
+            return cmp;
+        }
+        byte[] k1 = keys[i];
+        byte[] k2 = keys[j];
+        int len = Math.min(k1.length, k2.length);
+        for (int b = 8; b < len; b++) {
+            cmp = (k1[b] & 0xff) - (k2[b] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return k1.length - k2.length;
+    }
+
+    private static void mergeSort(int[] order, int[] tmp, int from, int to,
+                                  byte[][] keys, long[] prefixes) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, tmp, from, mid, keys, prefixes);
+        mergeSort(order, tmp, mid, to, keys, prefixes);
+        if (compareKeys(order[mid - 1], order[mid], keys, prefixes) <= 0) {
+            // already in order
+            return;
+        }
+        System.arraycopy(order, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            order[k++] = compareKeys(tmp[j], tmp[i], keys, prefixes) < 0 ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            order[k++] = tmp[i++];
+        }
+        while (j < to) {
+            order[k++] = tmp[j++];
+        }
+    }
+}
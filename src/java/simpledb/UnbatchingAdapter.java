@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * Presents a {@link BatchOpIterator} as an {@link OpIterator}, by returning
+ * the rows of each batch as tuples.
+ */
+public class UnbatchingAdapter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int row;
+
+    public UnbatchingAdapter(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    protected void doOpen() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (batch == null || row == batch.size()) {
+            batch = child.nextBatch();
+            row = 0;
+            if (batch == null) {
+                return null;
+            }
+        }
+        return batch.getTuple(row++);
+    }
+
+    protected void doRewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+        super.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return child instanceof OpIterator ? new OpIterator[]{(OpIterator) child}
+                : new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = BatchingAdapter.of(children[0]);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+}
@@ -79,7 +79,7 @@ public class JsonInsert extends Operator {
     }
 
     @Override
-    public void rewind() throws DbException, TransactionAbortedException {
+    protected void doRewind() throws DbException, TransactionAbortedException {
         // we don't need to rewind childIter since we don't want to re-insert
     }
 
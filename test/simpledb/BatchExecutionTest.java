@@ -0,0 +1,206 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Checks that every operator with a native nextBatch() returns the same rows
+ * in batch mode as in tuple mode.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+  HeapFile f1;
+  HeapFile f2;
+  TransactionId tid;
+
+  @Before public void createTables() throws Exception {
+    f1 = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null,
+        new ArrayList<ArrayList<Integer>>());
+    // more rows than HashEquiJoin.MAP_SIZE, so the join builds several blocks
+    f2 = SystemTestUtil.createRandomHeapFile(2, HashEquiJoin.MAP_SIZE + 3000, 100, null,
+        new ArrayList<ArrayList<Integer>>());
+    tid = new TransactionId();
+  }
+
+  private static ArrayList<String> batchMode(BatchOpIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    it.open();
+    TupleBatch batch;
+    while ((batch = it.nextBatch()) != null) {
+      assertTrue(batch.size() > 0);
+      assertEquals(it.getTupleDesc(), batch.getTupleDesc());
+      for (int row = 0; row < batch.size(); row++) {
+        rows.add(batch.getTuple(row).toString());
+      }
+    }
+    it.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /** Builds a fresh operator tree for each run */
+  private interface Plan<T extends OpIterator & BatchOpIterator> {
+    T create();
+  }
+
+  private static <T extends OpIterator & BatchOpIterator> void check(Plan<T> plan, int expectedRows)
+      throws Exception {
+    ArrayList<String> expected = TestUtil.rows(plan.create());
+    if (expectedRows >= 0) {
+      assertEquals(expectedRows, expected.size());
+    }
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, batchMode(plan.create()));
+    // and once more after a rewind
+    T op = plan.create();
+    op.open();
+    while (op.nextBatch() != null) {
+    }
+    op.rewind();
+    ArrayList<String> rewound = new ArrayList<String>();
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null) {
+      for (int row = 0; row < batch.size(); row++) {
+        rewound.add(batch.getTuple(row).toString());
+      }
+    }
+    op.close();
+    Collections.sort(rewound);
+    assertEquals(expected, rewound);
+  }
+
+  @Test public void seqScan() throws Exception {
+    check(() -> new SeqScan(tid, f1.getId()), 5000);
+  }
+
+  @Test public void filter() throws Exception {
+    check(() -> new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+        new SeqScan(tid, f1.getId())), -1);
+  }
+
+  @Test public void project() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(2);
+    fields.add(0);
+    fields.add(2);
+    check(() -> new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE },
+        new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50)),
+            new SeqScan(tid, f1.getId()))), -1);
+  }
+
+  @Test public void aggregate() throws Exception {
+    check(() -> new Aggregate(new SeqScan(tid, f1.getId()), 2, 0, Aggregator.Op.SUM), 100);
+  }
+
+  @Test public void hashEquiJoin() throws Exception {
+    check(() -> {
+      HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+          new SeqScan(tid, f2.getId()), new SeqScan(tid, f1.getId()));
+      j.setBuildSideSwapEnabled(false);
+      return j;
+    }, -1);
+  }
+
+  /**
+   * f2 does not fit in one block and f1 does, so the join swaps its build
+   * side in both modes
+   */
+  @Test public void hashEquiJoinSwapped() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    check(() -> new HashEquiJoin(p, new SeqScan(tid, f2.getId()), new SeqScan(tid, f1.getId())), -1);
+
+    HashEquiJoin j = new HashEquiJoin(p, new SeqScan(tid, f2.getId()), new SeqScan(tid, f1.getId()));
+    ArrayList<String> rows = TestUtil.rows(j);
+    assertTrue(j.isBuildSideSwapped());
+    HashEquiJoin b = new HashEquiJoin(p, new SeqScan(tid, f2.getId()), new SeqScan(tid, f1.getId()));
+    assertEquals(rows, batchMode(b));
+    assertTrue(b.isBuildSideSwapped());
+    assertEquals(rows.size(), b.getActualCardinality());
+
+    // neither side fits
+    j = new HashEquiJoin(p, new SeqScan(tid, f2.getId()), new SeqScan(tid, f1.getId()), 1000);
+    assertEquals(rows, TestUtil.rows(j));
+    assertTrue(!j.isBuildSideSwapped());
+  }
+
+  /**
+   * Unit test for the adapters, with a child that has no native batch mode
+   */
+  @Test public void adapters() throws Exception {
+    OpIterator tuples = TestUtil.createTupleList(2,
+        new Object[] { 1, "a", 2, "b", 3, "c", 2, "d" });
+    Filter op = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(2)), tuples);
+    ArrayList<String> expected = TestUtil.rows(op);
+    assertEquals(2, expected.size());
+    tuples.rewind();
+    assertEquals(expected, TestUtil.rows(new UnbatchingAdapter(op)));
+    tuples.rewind();
+    assertEquals(expected, batchMode(new BatchingAdapter(op)));
+  }
+
+  /**
+   * Unit test for a query in batch mode, which reads its plan a batch at a
+   * time down to the scan
+   */
+  @Test public void batchModeQuery() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(1);
+    Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30));
+    ArrayList<String> expected = TestUtil.rows(new Project(fields, new Type[] { Type.INT_TYPE },
+        new Filter(p, new SeqScan(tid, f1.getId()))));
+
+    Filter filter = new Filter(p, new SeqScan(tid, f1.getId())) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected Tuple fetchNext() {
+        throw new AssertionError("read a tuple at a time");
+      }
+    };
+    Query q = new Query(new Project(fields, new Type[] { Type.INT_TYPE }, filter), tid);
+    q.setBatchMode(true);
+    ArrayList<String> rows = new ArrayList<String>();
+    q.start();
+    while (q.hasNext()) {
+      rows.add(q.next().toString());
+    }
+    q.close();
+    Collections.sort(rows);
+    assertEquals(expected, rows);
+    assertEquals(expected.size(), filter.getActualCardinality());
+  }
+
+  /**
+   * Tuples read back from batches keep their RecordIds, so a Delete can run
+   * over a batch pipeline
+   */
+  @Test public void deleteOverBatches() throws Exception {
+    Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30));
+    int deleted = TestUtil.rows(new Filter(p, new SeqScan(tid, f1.getId()))).size();
+    UnbatchingAdapter rows = new UnbatchingAdapter(new SeqScan(tid, f1.getId()));
+    rows.setChildren(new OpIterator[] { new Filter(p, new SeqScan(tid, f1.getId())) });
+    Delete delete = new Delete(tid, rows);
+    delete.open();
+    assertEquals(deleted, ((IntField) delete.next().getField(0)).getValue());
+    delete.close();
+    assertEquals(5000 - deleted, TestUtil.rows(new SeqScan(tid, f1.getId())).size());
+    assertEquals(0, TestUtil.rows(new Filter(p, new SeqScan(tid, f1.getId()))).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchExecutionTest.class);
+  }
+}
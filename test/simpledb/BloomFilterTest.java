@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * A Bloom filter has no false negatives and few false positives
+   */
+  @Test public void falsePositives() {
+    BloomFilter f = new BloomFilter(1000);
+    for (int i = 0; i < 1000; i++) {
+      f.add(new IntField(i * 7));
+      f.add(new StringField("s" + i, Type.STRING_LEN));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(f.mightContain(new IntField(i * 7)));
+      assertTrue(f.mightContain(new StringField("s" + i, Type.STRING_LEN)));
+    }
+    int positives = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (f.mightContain(new IntField(-1 - i))) {
+        positives++;
+      }
+    }
+    // sized for 1000 entries but holding 2000
+    assertTrue(positives < 1000);
+  }
+
+  /**
+   * A scan with a runtime filter returns the tuples in the filter, and few
+   * others
+   */
+  @Test public void scanWithRuntimeFilter() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, 1000, null, tuples);
+    BloomFilter filter = new BloomFilter(10);
+    for (int v = 0; v < 10; v++) {
+      filter.add(new IntField(v));
+    }
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(1) < 10) {
+        expected++;
+      }
+    }
+
+    SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "t");
+    scan.open();
+    scan.setRuntimeFilter(1, filter);
+    int matched = 0;
+    int returned = 0;
+    while (scan.hasNext()) {
+      returned++;
+      if (((IntField) scan.next().getField(1)).getValue() < 10) {
+        matched++;
+      }
+    }
+    scan.close();
+    assertEquals(expected, matched);
+    assertTrue(returned < 10000 / 10);
+  }
+
+  /**
+   * A hash join with a selective build side returns the same tuples with
+   * and without pushing its keys into the probe scan, in tuple and in batch
+   * mode
+   */
+  @Test public void hashJoin() throws Exception {
+    HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 50, 5000, null,
+        new ArrayList<ArrayList<Integer>>());
+    HeapFile fact = SystemTestUtil.createRandomHeapFile(3, 2 * HashEquiJoin.MAP_SIZE, 5000, null,
+        new ArrayList<ArrayList<Integer>>());
+    TransactionId tid = new TransactionId();
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+    HashEquiJoin plain = new HashEquiJoin(p, new SeqScan(tid, dim.getId()),
+        new SeqScan(tid, fact.getId()));
+    plain.setRuntimeFilterEnabled(false);
+    ArrayList<String> expected = TestUtil.rows(plain);
+    assertTrue(expected.size() > 0);
+
+    HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, dim.getId()),
+        new Filter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+            new SeqScan(tid, fact.getId())));
+    assertEquals(expected, TestUtil.rows(join));
+
+    join = new HashEquiJoin(p, new SeqScan(tid, dim.getId()), new SeqScan(tid, fact.getId()));
+    ArrayList<String> batched = new ArrayList<String>();
+    join.open();
+    TupleBatch batch;
+    while ((batch = join.nextBatch()) != null) {
+      for (int row = 0; row < batch.size(); row++) {
+        batched.add(batch.getTuple(row).toString());
+      }
+    }
+    join.close();
+    Collections.sort(batched);
+    assertEquals(expected, batched);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static HeapFile keys(int... keys) throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    for (int k : keys) {
+      tuples.add(new ArrayList<Integer>(Arrays.asList(k)));
+    }
+    File temp = File.createTempFile("table", ".dat");
+    temp.deleteOnExit();
+    HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 1);
+    return Utility.openHeapFile(1, temp);
+  }
+
+  /**
+   * A rewound hash join whose probe side is small enough to swap sides
+   * reads all of it again, not only the keys of the last block of the
+   * previous pass
+   */
+  @Test public void rewindSwappedJoin() throws Exception {
+    HeapFile build = keys(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    HeapFile probe = keys(0, 1, 2, 3, 4, 0, 1, 2, 3, 4, 9);
+    TransactionId tid = new TransactionId();
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()), 4);
+    join.open();
+    int first = 0;
+    while (join.hasNext()) {
+      join.next();
+      first++;
+    }
+    assertEquals(11, first);
+    join.rewind();
+    int second = 0;
+    while (join.hasNext()) {
+      join.next();
+      second++;
+    }
+    join.close();
+    assertEquals(first, second);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
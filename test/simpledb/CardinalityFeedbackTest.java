@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CardinalityFeedbackTest extends SimpleDbTestBase {
+
+  HeapFile hf;
+  String tableName;
+  TableStats stats;
+  // a city of every ten zip codes, which the statistics take to be
+  // independent
+  List<Predicate> cityAndZip = Arrays.asList(
+      new Predicate(0, Predicate.Op.EQUALS, new IntField(5)),
+      new Predicate(1, Predicate.Op.EQUALS, new IntField(57)));
+
+  @Before public void createTable() throws Exception {
+    ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < 20000; i++) {
+      ArrayList<Integer> row = new ArrayList<Integer>();
+      row.add(i % 1000 / 10);
+      row.add(i % 1000);
+      rows.add(row);
+    }
+    File temp = File.createTempFile("table", ".dat");
+    temp.deleteOnExit();
+    HeapFileEncoder.convert(rows, temp, BufferPool.getPageSize(), 2);
+    hf = Utility.openHeapFile(2, "c", temp);
+    tableName = SystemTestUtil.getUUID();
+    Database.getCatalog().addTable(hf, tableName);
+    stats = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+    TableStats.setTableStats(tableName, stats);
+  }
+
+  /**
+   * Unit test for the actual cardinalities of the operators of a plan
+   */
+  @Test public void actualCardinalities() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, hf.getId(), "t", null, cityAndZip);
+    scan.setEstimatedCardinality(1);
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5)), scan);
+    Query q = new Query(filter, tid);
+    assertNull(q.getCardinalityFeedback());
+    assertEquals(0, TestUtil.run(q));
+
+    List<CardinalityFeedback.Node> nodes = q.getCardinalityFeedback().getNodes();
+    assertEquals(2, nodes.size());
+    assertEquals(filter, nodes.get(0).op);
+    assertEquals(0, nodes.get(0).actual);
+    assertEquals(scan, nodes.get(1).op);
+    assertEquals(1, nodes.get(1).depth);
+    assertEquals(1, nodes.get(1).estimated);
+    assertEquals(20, nodes.get(1).actual);
+    assertEquals(20.0, nodes.get(1).qError(), 0.0);
+    assertTrue(filter.isExhausted());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for feeding the selectivity a scan observed back into the
+   * statistics of its table
+   */
+  @Test public void recordSelectivity() throws Exception {
+    assertEquals(1.0 / 100 / 1000, stats.estimateSelectivity(cityAndZip), 0.00001);
+    long version = TableStats.getStatsVersion();
+
+    TransactionId tid = new TransactionId();
+    assertEquals(20, TestUtil.run(new Query(new SeqScan(tid, hf.getId(), "t", null, cityAndZip), tid)));
+    Database.getBufferPool().transactionComplete(tid);
+
+    assertEquals(20.0 / 20000, stats.observedSelectivity(cityAndZip), 0.0);
+    // in any order
+    List<Predicate> zipAndCity = Arrays.asList(cityAndZip.get(1), cityAndZip.get(0));
+    assertEquals(20.0 / 20000, stats.estimateSelectivity(zipAndCity), 0.0);
+    // the estimate was off by a factor of 20, so plans are made again
+    assertTrue(TableStats.getStatsVersion() > version);
+
+    // a matching estimate keeps the plans
+    version = TableStats.getStatsVersion();
+    stats.recordSelectivity(cityAndZip, 21.0 / 20000);
+    assertEquals(version, TableStats.getStatsVersion());
+    assertEquals(21.0 / 20000, stats.observedSelectivity(cityAndZip), 0.0);
+  }
+
+  /**
+   * Unit test for scans that did not read their whole table once, whose
+   * selectivity is not recorded
+   */
+  @Test public void partialScans() throws Exception {
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, hf.getId(), "t", null, cityAndZip);
+    Query q = new Query(scan, tid);
+    q.start();
+    q.next();
+    q.close();
+    assertFalse(scan.readWholeTableOnce());
+    assertNull(stats.observedSelectivity(cityAndZip));
+
+    // rewound
+    scan.open();
+    while (scan.hasNext()) {
+      scan.next();
+    }
+    assertTrue(scan.readWholeTableOnce());
+    scan.rewind();
+    while (scan.hasNext()) {
+      scan.next();
+    }
+    assertFalse(scan.readWholeTableOnce());
+    assertEquals(40, scan.getActualCardinality());
+    CardinalityFeedback.collect(scan).apply();
+    assertNull(stats.observedSelectivity(cityAndZip));
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CardinalityFeedbackTest.class);
+  }
+}
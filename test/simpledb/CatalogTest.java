@@ -93,6 +93,29 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that groups of correlated fields are read from a schema file
+     */
+    @Test public void loadSchemaColumnGroups() throws Exception {
+        java.io.File dir = java.nio.file.Files.createTempDirectory("schema").toFile();
+        java.io.File schema = new java.io.File(dir, "schema.txt");
+        java.nio.file.Files.write(schema.toPath(), java.util.Arrays.asList(
+                "grp (a int, b int, c string) group (b, a) group (a, c)"));
+        try {
+            Database.getCatalog().loadSchema(schema.getPath());
+            java.util.List<int[]> groups = Database.getCatalog().getColumnGroups(
+                    Database.getCatalog().getTableId("grp"));
+            assertEquals(2, groups.size());
+            assertEquals("[0, 1]", java.util.Arrays.toString(groups.get(0)));
+            assertEquals("[0, 2]", java.util.Arrays.toString(groups.get(1)));
+        } finally {
+            for (java.io.File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
     /**
      * JUnit suite target
      */
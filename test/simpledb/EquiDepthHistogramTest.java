@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EquiDepthHistogramTest extends SimpleDbTestBase {
+
+  /**
+   * Builds an int histogram over values, with the exact distinct count
+   */
+  private static IntEquiDepthHistogram build(List<Integer> values) {
+    HyperLogLog distinct = new HyperLogLog();
+    for (int v : values) {
+      distinct.add(v);
+    }
+    IntEquiDepthHistogram h = new IntEquiDepthHistogram(100);
+    h.build(new ArrayList<Integer>(values), distinct);
+    return h;
+  }
+
+  /**
+   * A value that makes up half of a column is estimated exactly, and the
+   * rare values around it are not estimated as if they shared its bucket
+   */
+  @Test public void skewed() {
+    List<Integer> values = new ArrayList<Integer>();
+    Random r = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      values.add(i % 2 == 0 ? 500 : r.nextInt(1000));
+    }
+    IntEquiDepthHistogram h = build(values);
+
+    long half = values.stream().filter(v -> v == 500).count();
+    assertEquals((double) half / values.size(), h.estimateSelectivity(Op.EQUALS, 500), 1e-9);
+    assertEquals(1.0 / 2000, h.estimateSelectivity(Op.EQUALS, 501), 1.0 / 2000);
+    long below = values.stream().filter(v -> v < 250).count();
+    assertEquals((double) below / values.size(), h.estimateSelectivity(Op.LESS_THAN, 250), 0.01);
+    assertEquals(1 - (double) half / values.size(),
+        h.estimateSelectivity(Op.NOT_EQUALS, 500), 1e-9);
+  }
+
+  /**
+   * Strings are told apart past their first characters
+   */
+  @Test public void longStrings() {
+    List<String> values = new ArrayList<String>();
+    for (int i = 0; i < 1000; i++) {
+      values.add("customer" + (i % 10));
+    }
+    HyperLogLog distinct = new HyperLogLog();
+    for (String s : values) {
+      distinct.add(s.hashCode());
+    }
+    StringHistogram h = new StringHistogram(100);
+    h.build(values, distinct);
+    assertEquals(0.1, h.estimateSelectivity(Op.EQUALS, "customer3"), 1e-9);
+    assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, "customer"), 1e-9);
+    assertEquals(0.3, h.estimateSelectivity(Op.LESS_THAN, "customer3"), 1e-9);
+  }
+
+  /**
+   * Inserted values are counted, and deleting them again restores the
+   * estimates, across rebuilds from the reservoir
+   */
+  @Test public void addAndRemove() {
+    List<Integer> values = new ArrayList<Integer>();
+    for (int i = 0; i < 5000; i++) {
+      values.add(i % 100);
+    }
+    IntEquiDepthHistogram h = build(values);
+    for (int i = 0; i < 5000; i++) {
+      h.addValue(1000 + i % 50);
+    }
+    assertEquals(0.5, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 1000), 0.02);
+    for (int i = 0; i < 5000; i++) {
+      h.removeValue(1000 + i % 50);
+    }
+    assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 1000), 0.02);
+    assertEquals(0.01, h.estimateSelectivity(Op.EQUALS, 42), 0.005);
+  }
+
+  /**
+   * A written histogram reads back with the same estimates
+   */
+  @Test public void writeRead() throws Exception {
+    List<Integer> values = new ArrayList<Integer>();
+    Random r = new Random(2);
+    for (int i = 0; i < 5000; i++) {
+      values.add((int) Math.pow(r.nextInt(100), 2));
+    }
+    IntEquiDepthHistogram h = build(values);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    h.write(new DataOutputStream(bytes));
+    IntEquiDepthHistogram read = new IntEquiDepthHistogram(100);
+    read.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    for (int v = -1; v < 10001; v += 97) {
+      for (Op op : new Op[] { Op.EQUALS, Op.LESS_THAN, Op.GREATER_THAN_OR_EQ }) {
+        assertEquals(h.estimateSelectivity(op, v), read.estimateSelectivity(op, v), 0.0);
+      }
+    }
+    assertEquals(h.avgSelectivity(), read.avgSelectivity(), 0.0);
+  }
+
+  /**
+   * A sketch of a higher precision is within its standard error, sketches
+   * merge into a sketch of the union, and only sketches of the same
+   * precision merge
+   */
+  @Test public void hyperLogLogPrecision() throws Exception {
+    HyperLogLog low = new HyperLogLog();
+    HyperLogLog high = new HyperLogLog(14);
+    HyperLogLog other = new HyperLogLog(14);
+    for (int i = 0; i < 100000; i++) {
+      low.add(i);
+      high.add(i);
+      other.add(i + 50000);
+    }
+    assertEquals(100000, low.estimate(), 100000 * 3 * low.relativeError());
+    assertEquals(100000, high.estimate(), 100000 * 3 * high.relativeError());
+    assertEquals(14, high.precision());
+
+    HyperLogLog union = high.copy();
+    union.merge(other);
+    assertEquals(150000, union.estimate(), 150000 * 3 * union.relativeError());
+    assertEquals(100000, high.estimate(), 100000 * 3 * high.relativeError());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    union.write(new DataOutputStream(bytes));
+    HyperLogLog read = HyperLogLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(14, read.precision());
+    assertEquals(union.estimate(), read.estimate());
+
+    try {
+      low.merge(high);
+      fail("merged sketches of different precisions");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(EquiDepthHistogramTest.class);
+  }
+}
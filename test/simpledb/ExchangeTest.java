@@ -0,0 +1,202 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  HeapFile f1;
+  HeapFile f2;
+  TransactionId tid;
+
+  @Before public void createTables() throws Exception {
+    f1 = SystemTestUtil.createRandomHeapFile(3, 20000, 500, null,
+        new ArrayList<ArrayList<Integer>>());
+    // more rows than HashEquiJoin.MAP_SIZE per partition, so that the
+    // partitioned joins rewind their probe side
+    f2 = SystemTestUtil.createRandomHeapFile(2, 2 * HashEquiJoin.MAP_SIZE + 5000, 5000, null,
+        new ArrayList<ArrayList<Integer>>());
+    tid = new TransactionId();
+  }
+
+  /**
+   * Reads every output of an exchange on its own thread, as the consumers of
+   * an exchange must not wait for each other.
+   */
+  private static List<ArrayList<String>> rowsOfOutputs(Exchange e) throws Exception {
+    ExecutorService threads = Executors.newFixedThreadPool(e.numOutputs());
+    try {
+      ArrayList<Future<ArrayList<String>>> futures = new ArrayList<Future<ArrayList<String>>>();
+      for (int i = 0; i < e.numOutputs(); i++) {
+        OpIterator out = e.getOutput(i);
+        futures.add(threads.submit(() -> TestUtil.rows(out)));
+      }
+      ArrayList<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
+      for (Future<ArrayList<String>> future : futures) {
+        result.add(future.get());
+      }
+      return result;
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  /**
+   * Unit test for Mode.HASH: the outputs partition the input by value
+   */
+  @Test public void hash() throws Exception {
+    ArrayList<String> expected = TestUtil.rows(new SeqScan(tid, f1.getId()));
+    Exchange e = new Exchange(new OpIterator[] { new SeqScan(tid, f1.getId()) },
+        Exchange.Mode.HASH, 1, 4, false);
+    ArrayList<String> all = new ArrayList<String>();
+    HashSet<String> seen = new HashSet<String>();
+    for (ArrayList<String> partition : rowsOfOutputs(e)) {
+      assertTrue(partition.size() > 0);
+      HashSet<String> values = new HashSet<String>();
+      for (String row : partition) {
+        values.add(row.split("\t")[1]);
+      }
+      for (String v : values) {
+        assertTrue(seen.add(v));
+      }
+      all.addAll(partition);
+    }
+    Collections.sort(all);
+    assertEquals(expected, all);
+  }
+
+  /**
+   * Unit test for Mode.BROADCAST: every output receives the whole input
+   */
+  @Test public void broadcast() throws Exception {
+    ArrayList<String> expected = TestUtil.rows(new SeqScan(tid, f1.getId()));
+    Exchange e = new Exchange(new OpIterator[] { new SeqScan(tid, f1.getId()) },
+        Exchange.Mode.BROADCAST, -1, 3, false);
+    for (ArrayList<String> output : rowsOfOutputs(e)) {
+      assertEquals(expected, output);
+    }
+  }
+
+  /**
+   * Unit test for Mode.GATHER with several inputs
+   */
+  @Test public void gather() throws Exception {
+    ArrayList<String> expected = new ArrayList<String>();
+    expected.addAll(TestUtil.rows(new SeqScan(tid, f1.getId())));
+    expected.addAll(TestUtil.rows(new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+        new SeqScan(tid, f1.getId()))));
+    Collections.sort(expected);
+    Exchange e = Exchange.gather(new SeqScan(tid, f1.getId()),
+        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+            new SeqScan(tid, f1.getId())));
+    assertEquals(expected, TestUtil.rows(e.getOutput(0)));
+  }
+
+  /**
+   * Closing one output early must not block the others
+   */
+  @Test public void closeOneOutput() throws Exception {
+    Exchange e = new Exchange(new OpIterator[] { new SeqScan(tid, f1.getId()) },
+        Exchange.Mode.BROADCAST, -1, 2, false);
+    Exchange.Output first = e.getOutput(0);
+    first.open();
+    assertTrue(first.hasNext());
+    first.close();
+    assertEquals(20000, TestUtil.rows(e.getOutput(1)).size());
+  }
+
+  /**
+   * Closing the last output stops the producers before it returns, so that
+   * the inputs lock no pages after the transaction completes
+   */
+  @Test public void closeStopsProducers() throws Exception {
+    TransactionId t = new TransactionId();
+    SeqScan scan = new SeqScan(t, f1.getId());
+    Exchange.Output out = Exchange.gather(scan).getOutput(0);
+    out.open();
+    assertTrue(out.hasNext());
+    out.close();
+    long read = scan.getActualCardinality();
+    assertTrue(read < 20000);
+    Database.getBufferPool().transactionComplete(t);
+    Thread.sleep(50);
+    assertEquals(read, scan.getActualCardinality());
+    for (int pgNo = 0; pgNo < f1.numPages(); pgNo++) {
+      assertTrue(!Database.getBufferPool().holdsLock(t, new HeapPageId(f1.getId(), pgNo)));
+    }
+  }
+
+  /**
+   * Unit test for a materializing output, which can be rewound
+   */
+  @Test public void rewind() throws Exception {
+    Exchange e = new Exchange(new OpIterator[] { new SeqScan(tid, f1.getId()) },
+        Exchange.Mode.GATHER, -1, 1, true);
+    Exchange.Output out = e.getOutput(0);
+    out.open();
+    int count = 0;
+    while (out.hasNext()) {
+      out.next();
+      count++;
+    }
+    out.rewind();
+    while (out.hasNext()) {
+      out.next();
+      count++;
+    }
+    out.close();
+    assertEquals(40000, count);
+  }
+
+  /**
+   * Unit test for Exchange.partitionedHashJoin()
+   */
+  @Test public void partitionedHashJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    ArrayList<String> expected = TestUtil.rows(new HashEquiJoin(p, new SeqScan(tid, f2.getId()),
+        new SeqScan(tid, f1.getId())));
+    assertTrue(expected.size() > 0);
+    OpIterator join = Exchange.partitionedHashJoin(p, new SeqScan(tid, f2.getId()),
+        new SeqScan(tid, f1.getId()), 2);
+    assertEquals(TupleDesc.merge(f2.getTupleDesc(), f1.getTupleDesc()).numFields(),
+        join.getTupleDesc().numFields());
+    assertEquals(expected, TestUtil.rows(join));
+  }
+
+  /**
+   * Unit test for Exchange.partitionedAggregate()
+   */
+  @Test public void partitionedAggregate() throws Exception {
+    ArrayList<String> expected = TestUtil.rows(new Aggregate(new SeqScan(tid, f1.getId()), 2, 0,
+        Aggregator.Op.AVG));
+    assertEquals(500, expected.size());
+    assertEquals(expected, TestUtil.rows(Exchange.partitionedAggregate(new SeqScan(tid, f1.getId()),
+        2, 0, Aggregator.Op.AVG, 4)));
+    assertEquals(TestUtil.rows(new Aggregate(new SeqScan(tid, f1.getId()), 2,
+        Aggregator.NO_GROUPING, Aggregator.Op.SUM)),
+        TestUtil.rows(Exchange.partitionedAggregate(new SeqScan(tid, f1.getId()), 2,
+            Aggregator.NO_GROUPING, Aggregator.Op.SUM, 4)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
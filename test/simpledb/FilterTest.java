@@ -120,6 +120,20 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() using a conjunction of predicates
+   */
+  @Test public void filterConjunction() throws Exception {
+    Filter op = new Filter(java.util.Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+        new Predicate(1, Predicate.Op.LESS_THAN, TestUtil.getField(3))), scan);
+    assertEquals(2, op.getPredicates().size());
+    TestUtil.MockScan expectedOut = new TestUtil.MockScan(-2, 3, testWidth);
+    op.open();
+    TestUtil.compareDbIterators(op, expectedOut);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -1,8 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.HashMap;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -126,6 +129,53 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator.mergeTupleIntoGroup() with groups spilled to disk
+   * once fewer groups fit into memory than there are in the input
+   */
+  @Test public void mergeSpilled() throws Exception {
+    Random rand = new Random(6830);
+    int numTuples = 20000;
+    int[] data = new int[numTuples * width1];
+    HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+    HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+    for (int i = 0; i < numTuples; i++) {
+      int group = rand.nextInt(5000);
+      int value = rand.nextInt(100);
+      data[i * width1] = group;
+      data[i * width1 + 1] = value;
+      sums.merge(group, value, Integer::sum);
+      counts.merge(group, 1, Integer::sum);
+    }
+
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    agg.setMaxGroups(100);
+    OpIterator input = TestUtil.createTupleList(width1, data);
+    input.open();
+    while (input.hasNext()) {
+      agg.mergeTupleIntoGroup(input.next());
+    }
+    assertTrue(agg.numSpilledPartitions() > 0);
+
+    OpIterator it = agg.iterator();
+    it.open();
+    for (int pass = 0; pass < 2; pass++) {
+      HashMap<Integer, Integer> seen = new HashMap<Integer, Integer>();
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        int group = ((IntField) t.getField(0)).getValue();
+        assertEquals(null, seen.put(group, ((IntField) t.getField(1)).getValue()));
+      }
+      assertEquals(sums.size(), seen.size());
+      for (Integer group : sums.keySet()) {
+        assertEquals(sums.get(group) / counts.get(group), (int) seen.get(group));
+      }
+      it.rewind();
+    }
+    it.close();
+    agg.clear();
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
@@ -621,4 +621,274 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Returns a table of rows tuples with a column of values below
+     * maxValue0 and a column of values below maxValue1, and adds it to
+     * the catalog and stats under name
+     */
+    private HeapFile addTable(String name, int rows, int maxValue0, int maxValue1,
+            ArrayList<ArrayList<Integer>> tuples, HashMap<String, TableStats> stats)
+            throws IOException {
+        java.util.Random r = new java.util.Random(name.hashCode());
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(r.nextInt(maxValue0));
+            t.add(r.nextInt(maxValue1));
+            tuples.add(t);
+        }
+        HeapFile f = createDuplicateHeapFile(tuples, 2, "c");
+        Database.getCatalog().addTable(f, name);
+        stats.put(name, new TableStats(f.getId(), 100));
+        TableStats.setTableStats(name, stats.get(name));
+        return f;
+    }
+
+    /**
+     * Two small tables that each select a few tuples of a larger table,
+     * where the larger tables join on a column with few values: joining
+     * each pair first and then the results (a bushy plan) keeps the
+     * intermediate results small, and the plan returns the right tuples
+     */
+    @Test
+    public void bushyOrderJoinsTest() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> b = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> sa = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> sb = new ArrayList<ArrayList<Integer>>();
+        addTable("ba", 2000, 10, 2000, a, stats);
+        addTable("bb", 2000, 10, 2000, b, stats);
+        addTable("bsa", 10, 2000, 2000, sa, stats);
+        addTable("bsb", 10, 2000, 2000, sb, stats);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT ba.c0 FROM ba, bb, bsa, bsb WHERE ba.c0 = bb.c0 "
+                + "AND ba.c1 = bsa.c0 AND bb.c1 = bsb.c0;");
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("ba", "bb", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("ba", "bsa", "c1", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("bb", "bsb", "c1", "c0", Predicate.Op.EQUALS));
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        for (String t : stats.keySet()) {
+            filterSelectivities.put(t, 1.0);
+        }
+        Vector<LogicalJoinNode> result = new JoinOptimizer(lp, nodes).orderJoins(stats,
+                filterSelectivities, false);
+        Assert.assertEquals(nodes.size(), result.size());
+        // the last join is the join of the larger tables
+        LogicalJoinNode last = result.get(result.size() - 1);
+        Assert.assertTrue(last.equals(nodes.get(0)));
+
+        int expected = 0;
+        for (ArrayList<Integer> ta : a) {
+            for (ArrayList<Integer> tb : b) {
+                if (!ta.get(0).equals(tb.get(0))) {
+                    continue;
+                }
+                int na = 0;
+                int nb = 0;
+                for (ArrayList<Integer> t : sa) {
+                    na += t.get(0).equals(ta.get(1)) ? 1 : 0;
+                }
+                for (ArrayList<Integer> t : sb) {
+                    nb += t.get(0).equals(tb.get(1)) ? 1 : 0;
+                }
+                expected += na * nb;
+            }
+        }
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Assert.assertEquals(expected, count);
+    }
+
+    /**
+     * Every join of a join graph with a cycle is in the order and is
+     * applied by the plan, which returns the right tuples
+     */
+    @Test
+    public void cyclicOrderJoinsTest() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> b = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> c = new ArrayList<ArrayList<Integer>>();
+        addTable("cya", 200, 20, 20, a, stats);
+        addTable("cyb", 200, 20, 20, b, stats);
+        addTable("cyc", 200, 20, 20, c, stats);
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT cya.c0 FROM cya, cyb, cyc WHERE cya.c0 = cyb.c0 "
+                + "AND cyb.c1 = cyc.c1 AND cyc.c0 = cya.c1;");
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(new LogicalJoinNode("cya", "cyb", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("cyb", "cyc", "c1", "c1", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("cyc", "cya", "c0", "c1", Predicate.Op.EQUALS));
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        for (String t : stats.keySet()) {
+            filterSelectivities.put(t, 1.0);
+        }
+        Vector<LogicalJoinNode> result = new JoinOptimizer(lp, nodes).orderJoins(stats,
+                filterSelectivities, false);
+        Assert.assertEquals(nodes.size(), result.size());
+
+        int expected = 0;
+        for (ArrayList<Integer> ta : a) {
+            for (ArrayList<Integer> tb : b) {
+                for (ArrayList<Integer> tc : c) {
+                    if (ta.get(0).equals(tb.get(0)) && tb.get(1).equals(tc.get(1))
+                            && tc.get(0).equals(ta.get(1))) {
+                        expected++;
+                    }
+                }
+            }
+        }
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Assert.assertEquals(expected, count);
+    }
+
+    /**
+     * A join of a table with 19 others is ordered quickly, with every join
+     */
+    @Test
+    public void starOrderJoinsTest() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(19, 1000, 100, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(fact, "sf");
+        stats.put("sf", new TableStats(fact.getId(), 100));
+        filterSelectivities.put("sf", 1.0);
+        StringBuilder query = new StringBuilder("SELECT sf.c0 FROM sf");
+        StringBuilder where = new StringBuilder();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        for (int i = 0; i < 19; i++) {
+            String name = "sd" + i;
+            HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 10 + 20 * i, 100, null,
+                    new ArrayList<ArrayList<Integer>>(), "c");
+            Database.getCatalog().addTable(dim, name);
+            stats.put(name, new TableStats(dim.getId(), 100));
+            filterSelectivities.put(name, 0.5);
+            query.append(", ").append(name);
+            where.append(i == 0 ? " WHERE " : " AND ").append("sf.c" + i + " = " + name + ".c0");
+            nodes.add(new LogicalJoinNode("sf", name, "c" + i, "c0", Predicate.Op.EQUALS));
+        }
+        Collections.shuffle(nodes);
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(),
+                query.append(where).append(";").toString());
+
+        long start = System.nanoTime();
+        Vector<LogicalJoinNode> result = new JoinOptimizer(lp, nodes).orderJoins(stats,
+                filterSelectivities, false);
+        long millis = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("ordering took " + millis + " ms", millis < 2000);
+        Assert.assertEquals(nodes.size(), result.size());
+        for (LogicalJoinNode j : nodes) {
+            Assert.assertTrue(result.contains(j));
+        }
+    }
+
+    /**
+     * With little memory, an equality join of a small and a large table is
+     * a hash join that builds its hash table on the small table, and it
+     * returns the right tuples; a range join is not a hash join
+     */
+    @Test
+    public void joinAlgorithmTest() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        ArrayList<ArrayList<Integer>> big = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+        addTable("hbig", 5000, 100, 100, big, stats);
+        addTable("hsmall", 200, 100, 100, small, stats);
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put("hbig", 1.0);
+        filterSelectivities.put("hsmall", 1.0);
+
+        JoinOptimizer.setMemoryPages(1);
+        try {
+            TransactionId tid = new TransactionId();
+            LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                    "SELECT hbig.c1 FROM hbig, hsmall WHERE hbig.c0 = hsmall.c0;");
+            Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+            nodes.add(new LogicalJoinNode("hbig", "hsmall", "c0", "c0", Predicate.Op.EQUALS));
+            Vector<LogicalJoinNode> result = new JoinOptimizer(lp, nodes).orderJoins(stats,
+                    filterSelectivities, false);
+            Assert.assertEquals(JoinOptimizer.JoinAlgorithm.HASH, result.get(0).algorithm);
+            Assert.assertEquals("hsmall", result.get(0).t1Alias);
+
+            OpIterator plan = lp.physicalPlan(tid, stats, false);
+            int expected = 0;
+            for (ArrayList<Integer> tb : big) {
+                for (ArrayList<Integer> ts : small) {
+                    expected += tb.get(0).equals(ts.get(0)) ? 1 : 0;
+                }
+            }
+            plan.open();
+            int count = 0;
+            while (plan.hasNext()) {
+                plan.next();
+                count++;
+            }
+            plan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            Assert.assertEquals(expected, count);
+
+            nodes.set(0, new LogicalJoinNode("hbig", "hsmall", "c0", "c0",
+                    Predicate.Op.LESS_THAN));
+            result = new JoinOptimizer(lp, nodes).orderJoins(stats, filterSelectivities, false);
+            Assert.assertTrue(result.get(0).algorithm != JoinOptimizer.JoinAlgorithm.HASH);
+        } finally {
+            JoinOptimizer.setMemoryPages(JoinOptimizer.DEFAULT_MEMORY_PAGES);
+        }
+    }
+
+    /**
+     * Block nested-loops and hash joins of a large outer input cost less
+     * with more memory, and a tuple-at-a-time nested-loops join never costs
+     * less than a block nested-loops join
+     */
+    @Test
+    public void memoryJoinCostTest() throws ParsingException {
+        JoinOptimizer jo = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                + " t2 WHERE t1.c1 = t2.c2;"), new Vector<LogicalJoinNode>());
+        LogicalJoinNode j = new LogicalJoinNode(tableName1, tableName2, "c1", "c2",
+                Predicate.Op.EQUALS);
+        LogicalJoinNode nl = j.withAlgorithm(JoinOptimizer.JoinAlgorithm.NESTED_LOOP);
+        LogicalJoinNode bnl = j.withAlgorithm(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP);
+        LogicalJoinNode hash = j.withAlgorithm(JoinOptimizer.JoinAlgorithm.HASH);
+        try {
+            JoinOptimizer.setMemoryPages(1);
+            double bnlSmall = jo.estimateJoinCost(bnl, 100000, 1000, 5000, 500, false, false, 40, 500);
+            double hashSmall = jo.estimateJoinCost(hash, 100000, 1000, 5000, 500, false, false, 40, 500);
+            Assert.assertTrue(jo.estimateJoinCost(nl, 100000, 1000, 5000, 500, false, false, 40, 500)
+                    >= bnlSmall);
+            JoinOptimizer.setMemoryPages(100);
+            Assert.assertTrue(jo.estimateJoinCost(bnl, 100000, 1000, 5000, 500, false, false, 40, 500)
+                    < bnlSmall);
+            Assert.assertTrue(jo.estimateJoinCost(hash, 100000, 1000, 5000, 500, false, false, 40, 500)
+                    < hashSmall);
+            // rescanning a cached inner input is cheaper
+            Assert.assertTrue(jo.estimateJoinCost(bnl, 100000, 1000, 5000, 500, false, false, 40, 5)
+                    < jo.estimateJoinCost(bnl, 100000, 1000, 5000, 500, false, false, 40, 500));
+        } finally {
+            JoinOptimizer.setMemoryPages(JoinOptimizer.DEFAULT_MEMORY_PAGES);
+        }
+    }
 }
@@ -0,0 +1,158 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  int testWidth = 3;
+  CountingScan scan;
+
+  /**
+   * A MockScan that counts the tuples pulled from it and whether it is open
+   */
+  static class CountingScan extends TestUtil.MockScan {
+    private static final long serialVersionUID = 1L;
+
+    int pulled;
+    boolean open;
+
+    CountingScan(int low, int high, int width) {
+      super(low, high, width);
+    }
+
+    public void open() {
+      super.open();
+      open = true;
+    }
+
+    public void close() {
+      super.close();
+      open = false;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException {
+      pulled++;
+      return super.next();
+    }
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() {
+    this.scan = new CountingScan(-5, 5, testWidth);
+  }
+
+  /**
+   * Unit test for Limit.getNext(): returns the first tuples of the child
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(scan, 3);
+    assertEquals(Utility.getTupleDesc(testWidth), op.getTupleDesc());
+    op.open();
+    for (int i = -5; i < -2; i++) {
+      assertTrue(op.hasNext());
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, testWidth), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * The child is closed as soon as the limit is reached, and no more tuples
+   * are pulled from it
+   */
+  @Test public void closesChildEarly() throws Exception {
+    Limit op = new Limit(scan, 2);
+    op.open();
+    op.next();
+    assertTrue(scan.open);
+    op.next();
+    assertFalse(scan.open);
+    assertFalse(op.hasNext());
+    assertEquals(2, scan.pulled);
+    op.close();
+
+    // LIMIT 0 never opens the child
+    op = new Limit(scan, 0);
+    op.open();
+    assertFalse(op.hasNext());
+    op.close();
+    assertEquals(2, scan.pulled);
+  }
+
+  /**
+   * Unit test for Limit.rewind() after the child was closed
+   */
+  @Test public void rewind() throws Exception {
+    Limit op = new Limit(scan, 4);
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    op.rewind();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(-5, testWidth), op.next()));
+    op.close();
+  }
+
+  /**
+   * LIMIT is parsed, and combined with ORDER BY into a top-N sort
+   */
+  @Test public void parseLimit() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "T");
+    TableStats.setTableStats("T", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM T t LIMIT 7;");
+    assertEquals(7, lp.getLimit());
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(plan instanceof Limit);
+    int count = 0;
+    plan.open();
+    while (plan.hasNext()) {
+      plan.next();
+      count++;
+    }
+    plan.close();
+    assertEquals(7, count);
+
+    lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c0 FROM T t ORDER BY t.c0 DESC limit 5;");
+    plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    OrderBy sort = (OrderBy) ((Operator) plan).getChildren()[0];
+    assertEquals(5, sort.getLimit());
+    OpIterator expected = new Limit(new OrderBy(0, false, new SeqScan(tid, f.getId())), 5);
+    expected.open();
+    plan.open();
+    for (int i = 0; i < 5; i++) {
+      assertEquals(expected.next().getField(0), plan.next().getField(0));
+    }
+    assertFalse(plan.hasNext());
+    plan.close();
+    expected.close();
+
+    assertEquals(OrderBy.NO_LIMIT,
+        new Parser().generateLogicalPlan(tid, "SELECT * FROM T t;").getLimit());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
@@ -0,0 +1,203 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 2, 4,
+                    1, 1, 6,
+                    3, 1, 2,
+                    3, 1, -4,
+                    3, 2, 6,
+                    5, 1, 7 });
+    this.scan2 = TestUtil.createTupleList(2,
+        new Object[] { 1, "a",
+                    1, "b",
+                    3, "c" });
+  }
+
+  /**
+   * Unit test for MultiAggregate.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    MultiAggregate op = new MultiAggregate(scan1, new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.COUNT }, new int[] { 0, 1 });
+    TupleDesc expected = Utility.getTupleDesc(4);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for several aggregates without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    MultiAggregate op = new MultiAggregate(scan1, new int[] { 2, 2, 2, 2, 0 },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+            Aggregator.Op.AVG, Aggregator.Op.COUNT }, new int[0]);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(5,
+        new int[] { -4, 7, 23, 3, 7 }), op);
+  }
+
+  /**
+   * Unit test for aggregates grouped by two columns, and rewind()
+   */
+  @Test public void compositeGroupBy() throws Exception {
+    MultiAggregate op = new MultiAggregate(scan1, new int[] { 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.AVG }, new int[] { 0, 1 });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 1, 6, 4,
+                    1, 2, 4, 4,
+                    3, 1, 2, -1,
+                    3, 2, 6, 6,
+                    5, 1, 7, 7 });
+    op.open();
+    expected.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(5, count);
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for a count over a string field, which is the only aggregate
+   * supported on strings
+   */
+  @Test public void countString() throws Exception {
+    MultiAggregate op = new MultiAggregate(scan2, new int[] { 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT }, new int[] { 0 });
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 1 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void sumString() {
+    new MultiAggregate(scan2, new int[] { 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM }, new int[] { 0 });
+  }
+
+  /**
+   * Unit test for approximate distinct counts, of ints and strings, next to
+   * the exact aggregates
+   */
+  @Test public void countDistinct() throws Exception {
+    MultiAggregate op = new MultiAggregate(scan1, new int[] { 2, 1, 2 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT_DISTINCT, Aggregator.Op.COUNT_DISTINCT,
+            Aggregator.Op.COUNT }, new int[] { 0 });
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+        new int[] { 1, 3, 2, 3,
+                    3, 3, 2, 3,
+                    5, 1, 1, 1 }), op);
+    op.close();
+
+    op = new MultiAggregate(scan2, new int[] { 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT_DISTINCT }, new int[0]);
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 3 }), op);
+  }
+
+  /**
+   * Checks that COUNT(DISTINCT) is parsed into an approximate distinct
+   * count, within the standard error of its sketch
+   */
+  @Test public void parsedCountDistinct() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, tuples, "c");
+    Database.getCatalog().addTable(f, "T");
+    TableStats.setTableStats("T", new TableStats(f.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT COUNT(DISTINCT t.c1) FROM T t;");
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    HashSet<Integer> all = new HashSet<Integer>();
+    for (ArrayList<Integer> t : tuples) {
+      all.add(t.get(1));
+    }
+    double error = new HyperLogLog(
+        AggregateOpAccumulator.AggregateCountDistinctAccumulator.PRECISION).relativeError();
+    plan.open();
+    assertTrue(plan.hasNext());
+    assertEquals(all.size(), ((IntField) plan.next().getField(0)).getValue(),
+        all.size() * 3 * error);
+    assertTrue(!plan.hasNext());
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Checks that a query with several aggregates and GROUP BY fields is
+   * planned as a single MultiAggregate and returns the right groups
+   */
+  @Test public void parsedQuery() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, 4, null, tuples, "c");
+    Database.getCatalog().addTable(f, "T");
+    TableStats.setTableStats("T", new TableStats(f.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c1, MIN(t.c2), t.c0, MAX(t.c2), COUNT(t.c2) FROM T t GROUP BY t.c0, t.c1;");
+    OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof MultiAggregate);
+
+    HashMap<List<Integer>, int[]> expected = new HashMap<List<Integer>, int[]>();
+    for (ArrayList<Integer> t : tuples) {
+      int[] agg = expected.computeIfAbsent(Arrays.asList(t.get(1), t.get(0)),
+          k -> new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE, 0 });
+      agg[0] = Math.min(agg[0], t.get(2));
+      agg[1] = Math.max(agg[1], t.get(2));
+      agg[2]++;
+    }
+
+    plan.open();
+    int count = 0;
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      int[] agg = expected.get(Arrays.asList(((IntField) t.getField(0)).getValue(),
+          ((IntField) t.getField(2)).getValue()));
+      assertEquals(agg[0], ((IntField) t.getField(1)).getValue());
+      assertEquals(agg[1], ((IntField) t.getField(3)).getValue());
+      assertEquals(agg[2], ((IntField) t.getField(4)).getValue());
+      count++;
+    }
+    assertEquals(expected.size(), count);
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MultiAggregateTest.class);
+  }
+}
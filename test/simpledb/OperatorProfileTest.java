@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OperatorProfileTest extends SimpleDbTestBase {
+
+  HeapFile f;
+  TransactionId tid;
+
+  @Before public void createTable() throws Exception {
+    f = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "tp");
+    TableStats.setTableStats("tp", new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    tid = new TransactionId();
+  }
+
+  /**
+   * Unit test for the time and pages attributed to each operator
+   */
+  @Test public void profile() throws Exception {
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    SeqScan scan = new SeqScan(tid, f.getId(), "tp");
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)), scan);
+    assertNull(filter.getProfile());
+
+    OperatorProfile.attach(filter);
+    int rows;
+    try {
+      assertTrue(OperatorProfile.counters() != null);
+      rows = TestUtil.run(new Query(filter, tid));
+    } finally {
+      OperatorProfile.finish();
+    }
+    assertNull(OperatorProfile.counters());
+
+    OperatorProfile fp = filter.getProfile();
+    OperatorProfile sp = scan.getProfile();
+    assertEquals(rows, filter.getActualCardinality());
+    assertEquals(3000, scan.getActualCardinality());
+    // every page is read by the scan, once
+    assertEquals(f.numPages(), sp.getPageMisses());
+    assertEquals(0, sp.getPageHits());
+    assertEquals(sp.getPageMisses(), fp.getPageMisses());
+    assertEquals(0, fp.getExclusivePageMisses());
+    assertTrue(sp.getNanos() > 0);
+    assertEquals(sp.getNanos(), sp.getExclusiveNanos());
+    assertEquals(fp.getNanos() - sp.getNanos(), fp.getExclusiveNanos());
+    assertTrue(fp.getExclusiveNanos() > 0);
+    assertTrue(fp.getLockWaitNanos() >= sp.getLockWaitNanos());
+
+    // the pages are cached the second time
+    OperatorProfile.attach(filter);
+    try {
+      assertEquals(rows, TestUtil.run(new Query(filter, tid)));
+    } finally {
+      OperatorProfile.finish();
+    }
+    assertEquals(f.numPages(), scan.getProfile().getPageHits());
+    assertEquals(0, scan.getProfile().getPageMisses());
+
+    String tree = new QueryPlanVisualizer().getQueryPlanTree(filter);
+    assertTrue(tree, tree.contains("rows:" + rows + ",time:"));
+    assertTrue(tree, tree.contains("rows:3000,time:"));
+    assertTrue(tree, tree.contains("hit:" + f.numPages() + ",read:0"));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for batch mode, where the time is spent in nextBatch()
+   */
+  @Test public void batches() throws Exception {
+    SeqScan scan = new SeqScan(tid, f.getId(), "tp");
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)), scan);
+    OperatorProfile.attach(filter);
+    long rows = 0;
+    try {
+      filter.open();
+      TupleBatch batch;
+      while ((batch = filter.nextBatch()) != null) {
+        rows += batch.size();
+      }
+      filter.close();
+    } finally {
+      OperatorProfile.finish();
+    }
+    assertEquals(rows, filter.getActualCardinality());
+    assertTrue(scan.getProfile().getNanos() > 0);
+    assertEquals(filter.getProfile().getNanos() - scan.getProfile().getNanos(),
+        filter.getProfile().getExclusiveNanos());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for a blocking operator, whose sort in open() is charged to it
+   */
+  @Test public void open() throws Exception {
+    SeqScan scan = new SeqScan(tid, f.getId(), "tp");
+    OrderBy orderBy = new OrderBy(1, true, scan);
+    OperatorProfile.attach(orderBy);
+    try {
+      orderBy.open();
+      // the whole input is read and sorted before the first tuple
+      assertEquals(3000, scan.getActualCardinality());
+      OperatorProfile op = orderBy.getProfile();
+      assertTrue(scan.getProfile().getNanos() > 0);
+      assertTrue(op.getExclusiveNanos() > 0);
+      assertEquals(op.getNanos() - scan.getProfile().getNanos(), op.getExclusiveNanos());
+      assertEquals(f.numPages(), op.getPageHits() + op.getPageMisses());
+      assertEquals(0, op.getExclusivePageHits() + op.getExclusivePageMisses());
+
+      long opened = op.getNanos();
+      orderBy.rewind();
+      assertTrue(op.getNanos() > opened);
+      orderBy.close();
+    } finally {
+      OperatorProfile.finish();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for EXPLAIN ANALYZE in the parser
+   */
+  @Test public void explainAnalyze() throws Exception {
+    PrintStream out = System.out;
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(buf, true, "UTF-8"));
+    try {
+      new Parser().processNextStatement("EXPLAIN ANALYZE SELECT tp.c0 FROM tp WHERE tp.c1 < 50;");
+    } finally {
+      System.setOut(out);
+    }
+    String printed = buf.toString("UTF-8");
+    // the scan and the projection
+    assertEquals(2, printed.split(",rows:", -1).length - 1);
+    assertTrue(printed, printed.contains(" rows in "));
+    assertTrue(printed, !printed.contains("tp.c0\t\n"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OperatorProfileTest.class);
+  }
+}
@@ -0,0 +1,181 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int width = 2;
+  // enough tuples to overflow a 3 page memory budget several times
+  int numTuples = 10000;
+  int[] data;
+  int[] sortedKeys;
+
+  /**
+   * Initialize each unit test with random keys in the first column and the
+   * tuple's position in the second.
+   */
+  @Before public void createData() {
+    Random rand = new Random(830);
+    data = new int[numTuples * width];
+    sortedKeys = new int[numTuples];
+    for (int i = 0; i < numTuples; i++) {
+      data[i * width] = rand.nextInt(1000);
+      data[i * width + 1] = i;
+      sortedKeys[i] = data[i * width];
+    }
+    Arrays.sort(sortedKeys);
+  }
+
+  /**
+   * Checks that op returns the first n sorted keys, with equal keys in the
+   * order they appeared in the input.
+   */
+  private void checkSorted(OpIterator op, boolean asc, int n) throws Exception {
+    int count = 0;
+    int lastKey = asc ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+    int lastPos = -1;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int expectedKey = asc ? sortedKeys[count] : sortedKeys[numTuples - 1 - count];
+      assertEquals(expectedKey, key);
+      int pos = ((IntField) t.getField(1)).getValue();
+      if (key == lastKey) {
+        assertTrue(pos > lastPos);
+      }
+      lastKey = key;
+      lastPos = pos;
+      count++;
+    }
+    assertEquals(n, count);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() when everything fits into memory
+   */
+  @Test public void inMemorySort() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data));
+    op.open();
+    assertEquals(0, op.numSpilledRuns());
+    checkSorted(op, true, numTuples);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() with sorted runs spilled to disk and
+   * merged in several passes
+   */
+  @Test public void externalSort() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data));
+    op.setMemoryBudget(3);
+    op.open();
+    assertTrue(op.numSpilledRuns() > 0);
+    checkSorted(op, true, numTuples);
+    op.rewind();
+    checkSorted(op, true, numTuples);
+    op.close();
+  }
+
+  /**
+   * Unit test for a descending external sort
+   */
+  @Test public void externalSortDescending() throws Exception {
+    OrderBy op = new OrderBy(0, false, TestUtil.createTupleList(width, data));
+    op.setMemoryBudget(3);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertEquals(sortedKeys[numTuples - 1 - count],
+          ((IntField) op.next().getField(0)).getValue());
+      count++;
+    }
+    assertEquals(numTuples, count);
+  }
+
+  /**
+   * Unit test for a top-N sort
+   */
+  @Test public void topN() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data), 10);
+    op.setMemoryBudget(3);
+    op.open();
+    assertEquals(0, op.numSpilledRuns());
+    int count = 0;
+    while (op.hasNext()) {
+      assertEquals(sortedKeys[count], ((IntField) op.next().getField(0)).getValue());
+      count++;
+    }
+    assertEquals(10, count);
+    op.rewind();
+    assertTrue(op.hasNext());
+    assertEquals(sortedKeys[0], ((IntField) op.next().getField(0)).getValue());
+  }
+
+  /**
+   * Unit test for a limit that is larger than the memory budget
+   */
+  @Test public void externalTopN() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(width, data), 5000);
+    op.setMemoryBudget(3);
+    op.open();
+    assertTrue(op.numSpilledRuns() > 0);
+    checkSorted(op, true, 5000);
+  }
+
+  /**
+   * Unit test for a multi-column sort over an int and a string field, with
+   * mixed sort directions, in memory and spilled to disk
+   */
+  @Test public void multiColumnSort() throws Exception {
+    Random rand = new Random(6830);
+    String[] words = { "", "a", "ab", "abc", "b", "ba", "zz" };
+    Object[] tupdata = new Object[3 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      tupdata[3 * i] = rand.nextInt(20) - 10;
+      tupdata[3 * i + 1] = words[rand.nextInt(words.length)];
+      tupdata[3 * i + 2] = i;
+    }
+    Comparator<Tuple> expectedOrder = Comparator
+        .comparing((Tuple t) -> ((IntField) t.getField(0)).getValue())
+        .thenComparing((Tuple t) -> ((StringField) t.getField(1)).getValue(),
+            Comparator.reverseOrder())
+        .thenComparing((Tuple t) -> ((IntField) t.getField(2)).getValue());
+
+    for (int budget : new int[] { OrderBy.DEFAULT_MEMORY_PAGES, 3 }) {
+      ArrayList<Tuple> expected = new ArrayList<Tuple>();
+      OpIterator input = TestUtil.createTupleList(3, tupdata);
+      while (input.hasNext()) {
+        expected.add(input.next());
+      }
+      expected.sort(expectedOrder);
+
+      input.rewind();
+      OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false }, input);
+      op.setMemoryBudget(budget);
+      op.open();
+      for (Tuple t : expected) {
+        assertTrue(op.hasNext());
+        assertTrue(TestUtil.compareTuples(t, op.next()));
+      }
+      assertTrue(TestUtil.checkExhausted(op));
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+
+  HeapFile f;
+  TransactionId tid;
+
+  @Before public void createTable() throws Exception {
+    f = SystemTestUtil.createRandomHeapFile(3, 30000, 100, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "T");
+    assertTrue(f.numPages() >= LogicalPlan.PARALLEL_SCAN_MIN_PAGES);
+    tid = new TransactionId();
+  }
+
+  /**
+   * Unit test for ParallelSeqScan without predicates
+   */
+  @Test public void scanAll() throws Exception {
+    ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 4,
+        new ArrayList<Predicate>());
+    assertEquals(new SeqScan(tid, f.getId(), "t").getTupleDesc(), scan.getTupleDesc());
+    assertEquals(TestUtil.rows(new SeqScan(tid, f.getId(), "t")), TestUtil.rows(scan));
+  }
+
+  /**
+   * Unit test for ParallelSeqScan with predicates evaluated by the workers
+   */
+  @Test public void scanFiltered() throws Exception {
+    Predicate p1 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50));
+    Predicate p2 = new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20));
+    ArrayList<String> expected = TestUtil.rows(new Filter(p2, new Filter(p1, new SeqScan(tid, f.getId()))));
+    assertTrue(expected.size() > 0);
+    for (int dop : new int[] { 1, 2, 8 }) {
+      assertEquals(expected, TestUtil.rows(new ParallelSeqScan(tid, f.getId(), "T", dop,
+          Arrays.asList(p1, p2))));
+    }
+  }
+
+  /**
+   * Unit test for ParallelSeqScan.rewind() and for closing before the end
+   */
+  @Test public void rewindAndClose() throws Exception {
+    ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", 4,
+        new ArrayList<Predicate>());
+    scan.open();
+    for (int i = 0; i < 100; i++) {
+      assertTrue(scan.hasNext());
+      scan.next();
+    }
+    scan.rewind();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    assertEquals(30000, count);
+    scan.close();
+
+    // the workers must stop even though nobody drains the queue
+    scan.open();
+    assertTrue(scan.hasNext());
+    scan.close();
+  }
+
+  /**
+   * Closing a scan early waits for its workers, so that none of them locks
+   * a page after the transaction completes
+   */
+  @Test public void closeReleasesLocks() throws Exception {
+    for (int trial = 0; trial < 5; trial++) {
+      TransactionId t = new TransactionId();
+      ParallelSeqScan scan = new ParallelSeqScan(t, f.getId(), "t", 4,
+          new ArrayList<Predicate>());
+      scan.open();
+      assertTrue(scan.hasNext());
+      scan.next();
+      scan.close();
+      Database.getBufferPool().transactionComplete(t);
+      Thread.sleep(50);
+      for (int pgNo = 0; pgNo < f.numPages(); pgNo++) {
+        assertFalse(Database.getBufferPool().holdsLock(t, new HeapPageId(f.getId(), pgNo)));
+      }
+    }
+  }
+
+  /**
+   * The planner uses a parallel scan for a large table only if the
+   * degree of parallelism is greater than one
+   */
+  @Test public void physicalPlan() throws Exception {
+    TableStats.setTableStats("T", new TableStats(f.getId(), 1));
+    String sql = "SELECT t.c0, t.c1 FROM T t WHERE t.c0 < 50 AND t.c2 >= 20;";
+
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    OpIterator serial = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertFalse(((Operator) serial).getChildren()[0] instanceof ParallelSeqScan);
+
+    lp = new Parser().generateLogicalPlan(tid, sql);
+    lp.setDegreeOfParallelism(4);
+    OpIterator parallel = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    Operator child = (Operator) ((Operator) parallel).getChildren()[0];
+    assertTrue(child instanceof ParallelSeqScan);
+    assertEquals(2, ((ParallelSeqScan) child).getPredicates().size());
+    assertEquals(4, ((ParallelSeqScan) child).getDegreeOfParallelism());
+
+    assertEquals(TestUtil.rows(serial), TestUtil.rows(parallel));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelSeqScanTest.class);
+  }
+}
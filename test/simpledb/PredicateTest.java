@@ -1,8 +1,12 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -55,6 +59,41 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for CompiledPredicate.test(), against Predicate.filter()
+   */
+  @Test public void compiled() {
+    Tuple[] tuples = new Tuple[3];
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    String[] strings = { "ab", "abc", "b" };
+    for (int i = 0; i < tuples.length; i++) {
+      tuples[i] = new Tuple(td);
+      tuples[i].setField(0, new IntField(i - 1));
+      tuples[i].setField(1, new StringField(strings[i], Type.STRING_LEN));
+    }
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i = 0; i < tuples.length; i++) {
+        Predicate[] preds = {
+            new Predicate(0, op, new IntField(i - 1)),
+            new Predicate(1, op, new StringField(strings[i], Type.STRING_LEN)) };
+        for (Predicate p : preds) {
+          CompiledPredicate c = CompiledPredicate.compile(p);
+          for (Tuple t : tuples) {
+            assertEquals(p.toString(), p.filter(t), c.test(t));
+          }
+        }
+        CompiledPredicate both = CompiledPredicate.compile(Arrays.asList(preds));
+        CompiledPredicate twice = CompiledPredicate.compile(
+            Arrays.asList(preds[0], preds[1], preds[0]));
+        for (Tuple t : tuples) {
+          assertEquals(preds[0].filter(t) && preds[1].filter(t), both.test(t));
+          assertEquals(both.test(t), twice.test(t));
+        }
+      }
+    }
+    assertTrue(CompiledPredicate.compile(new ArrayList<Predicate>()).test(tuples[0]));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PreparedStatementTest extends SimpleDbTestBase {
+
+  ArrayList<ArrayList<Integer>> rowsA = new ArrayList<ArrayList<Integer>>();
+  ArrayList<ArrayList<Integer>> rowsB = new ArrayList<ArrayList<Integer>>();
+
+  @Before public void createTables() throws Exception {
+    HeapFile a = SystemTestUtil.createRandomHeapFile(2, 300, 20, null, rowsA, "c");
+    HeapFile b = SystemTestUtil.createRandomHeapFile(2, 200, 20, null, rowsB, "c");
+    Database.getCatalog().addTable(a, "pa");
+    Database.getCatalog().addTable(b, "pb");
+    TableStats.setTableStats("pa", new TableStats(a.getId(), 1));
+    TableStats.setTableStats("pb", new TableStats(b.getId(), 1));
+  }
+
+  private static int count(Query q) throws Exception {
+    int n = 0;
+    while (q.hasNext()) {
+      q.next();
+      n++;
+    }
+    q.close();
+    return n;
+  }
+
+  /**
+   * Runs a prepared statement that returns a count, in its own transaction
+   */
+  private static int run(PreparedStatement ps, Field... values) throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    Query q = ps.execute(t.getId(), values);
+    int n = ((IntField) q.next().getField(0)).getValue();
+    q.close();
+    t.commit();
+    return n;
+  }
+
+  /**
+   * A Filter sees the operand bound to its predicate when it is opened
+   * again
+   */
+  @Test public void filterRebinds() throws Exception {
+    TransactionId tid = new TransactionId();
+    Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5));
+    Filter f = new Filter(pred, new SeqScan(tid, Database.getCatalog().getTableId("pa")));
+    int[] expected = new int[2];
+    for (ArrayList<Integer> row : rowsA) {
+      expected[0] += row.get(0) < 5 ? 1 : 0;
+      expected[1] += row.get(0) < 15 ? 1 : 0;
+    }
+    Query q = new Query(f, tid);
+    q.start();
+    assertEquals(expected[0], count(q));
+    pred.setOperand(new IntField(15));
+    q.start();
+    assertEquals(expected[1], count(q));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A prepared join returns the same tuples as the query with constants,
+   * in later transactions, for every binding of its parameters
+   */
+  @Test public void select() throws Exception {
+    Parser p = new Parser();
+    PreparedStatement ps = p.prepare(new TransactionId(),
+        "SELECT pa.c0, pb.c1 FROM pa, pb WHERE pa.c1 = pb.c0 AND pa.c0 < ? AND pb.c1 <> ?;");
+    assertEquals(2, ps.getParameterCount());
+    assertEquals(Type.INT_TYPE, ps.getParameterType(1));
+    TupleDesc td = ps.getTupleDesc();
+
+    for (int bound : new int[] { 5, 15, 0, 5 }) {
+      int expected = 0;
+      for (ArrayList<Integer> ta : rowsA) {
+        for (ArrayList<Integer> tb : rowsB) {
+          if (ta.get(1).equals(tb.get(0)) && ta.get(0) < bound && tb.get(1) != 7) {
+            expected++;
+          }
+        }
+      }
+      Transaction t = new Transaction();
+      t.start();
+      Query q = ps.execute(t.getId(), new IntField(bound), new IntField(7));
+      assertSame(td, ps.getTupleDesc());
+      assertEquals(expected, count(q));
+      t.commit();
+    }
+  }
+
+  /**
+   * Prepared INSERTs and DELETEs change the table on every execution
+   */
+  @Test public void modify() throws Exception {
+    Parser p = new Parser();
+    TransactionId tid = new TransactionId();
+    PreparedStatement insert = p.prepare(tid, "INSERT INTO pb VALUES (?, 99);");
+    PreparedStatement delete = p.prepare(tid, "DELETE FROM pb WHERE pb.c0 = ?;");
+    PreparedStatement select = p.prepare(tid, "SELECT pb.c0 FROM pb WHERE pb.c1 = 99;");
+    Database.getBufferPool().transactionComplete(tid);
+
+    assertEquals(1, run(insert, new IntField(100)));
+    assertEquals(1, run(insert, new IntField(101)));
+    assertEquals(1, run(insert, new IntField(101)));
+    Transaction t = new Transaction();
+    t.start();
+    assertEquals(3, count(select.execute(t.getId())));
+    t.commit();
+
+    assertEquals(2, run(delete, new IntField(101)));
+    assertEquals(0, run(delete, new IntField(101)));
+    t = new Transaction();
+    t.start();
+    assertEquals(1, count(select.execute(t.getId())));
+    t.commit();
+  }
+
+  /**
+   * Values must match the parameters in number and type
+   */
+  @Test public void badValues() throws Exception {
+    PreparedStatement ps = new Parser().prepare(new TransactionId(),
+        "SELECT pa.c0 FROM pa WHERE pa.c1 = ?;");
+    TransactionId tid = new TransactionId();
+    try {
+      ps.execute(tid);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      ps.execute(tid, new StringField("x", Type.STRING_LEN));
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new Parser().prepare(tid, "SELECT pa.c0 FROM pa, pb WHERE pa.c1 = pb.c1 AND ? = ?;");
+      fail("expected ParsingException");
+    } catch (ParsingException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PreparedStatementTest.class);
+  }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryPlanCacheTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+
+  @Before public void createTables() throws Exception {
+    for (String name : new String[] { "ta", "tb", "tc" }) {
+      HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (name.charAt(1) - 'a' + 1),
+          50, null, new ArrayList<ArrayList<Integer>>(), "c");
+      Database.getCatalog().addTable(f, name);
+      TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+    }
+    tid = new TransactionId();
+  }
+
+  private static String query(int constant) {
+    return "SELECT ta.c0 FROM ta, tb, tc WHERE ta.c0 = tb.c0 AND tb.c1 = tc.c1 AND tc.c0 < "
+        + constant + ";";
+  }
+
+  private String plan(String sql) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    return new QueryPlanVisualizer().getQueryPlanTree(
+        lp.physicalPlan(tid, TableStats.getStatsMap(), false));
+  }
+
+  /**
+   * Unit test for QueryPlanCache.normalize()
+   */
+  @Test public void normalize() {
+    assertEquals("SELECT t1.c0 FROM T t1 WHERE t1.c0 < ? AND t1.c1 = ?",
+        QueryPlanCache.normalize("SELECT t1.c0  FROM T t1\n WHERE t1.c0 < 42 AND t1.c1 = 'x y';"));
+    assertEquals(QueryPlanCache.normalize(query(1)), QueryPlanCache.normalize(query(20)));
+  }
+
+  /**
+   * Running a query again, with other constants, reuses its join order
+   */
+  @Test public void reuse() throws Exception {
+    QueryPlanCache cache = Database.getPlanCache();
+    String first = plan(query(10));
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.size());
+    String second = plan(query(30));
+    assertEquals(1, cache.getHits());
+    assertEquals(first.replace("10", "30"), second);
+  }
+
+  /**
+   * Adding a table or changing statistics invalidates cached plans
+   */
+  @Test public void invalidate() throws Exception {
+    QueryPlanCache cache = Database.getPlanCache();
+    String key = QueryPlanCache.normalize(new Parser().generateLogicalPlan(tid, query(10))
+        .getQuery());
+    plan(query(10));
+    assertNotNull(cache.getJoinOrder(key));
+
+    TableStats.setTableStats("ta", TableStats.getTableStats("ta"));
+    assertNull(cache.getJoinOrder(key));
+
+    plan(query(10));
+    assertNotNull(cache.getJoinOrder(key));
+    Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(1, 1, null,
+        new ArrayList<ArrayList<Integer>>()), "td");
+    assertNull(cache.getJoinOrder(key));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(QueryPlanCacheTest.class);
+  }
+}
@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class StringAggregatorTest extends SimpleDbTestBase {
@@ -53,6 +54,44 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator.mergeTupleIntoGroup() with string groups spilled to
+   * disk
+   */
+  @Test public void mergeSpilled() throws Exception {
+    Random rand = new Random(6830);
+    int numTuples = 5000;
+    Object[] data = new Object[numTuples * width1];
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    for (int i = 0; i < numTuples; i++) {
+      String group = "g" + rand.nextInt(1000);
+      data[i * width1] = group;
+      data[i * width1 + 1] = "v" + i;
+      counts.merge(group, 1, Integer::sum);
+    }
+
+    StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    agg.setMaxGroups(10);
+    OpIterator input = TestUtil.createTupleList(width1, data);
+    input.open();
+    while (input.hasNext()) {
+      agg.mergeTupleIntoGroup(input.next());
+    }
+    assertTrue(agg.numSpilledPartitions() > 0);
+
+    OpIterator it = agg.iterator();
+    it.open();
+    HashMap<String, Integer> seen = new HashMap<String, Integer>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      String group = ((StringField) t.getField(0)).getValue();
+      assertEquals(null, seen.put(group, ((IntField) t.getField(1)).getValue()));
+    }
+    assertEquals(counts, seen);
+    it.close();
+    agg.clear();
+  }
+
   /**
    * Test StringAggregator.iterator() for OpIterator behaviour
    */
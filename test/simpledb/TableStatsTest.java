@@ -151,4 +151,194 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that statistics of a table larger than the sample are close to
+	 * those of the whole table, with its exact number of tuples
+	 */
+	@Test public void sampledStatsTest() throws Exception {
+		final int rows = 3 * TableStats.SAMPLE_SIZE;
+		HeapFile big = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null,
+				new ArrayList<ArrayList<Integer>>());
+		TableStats s = new TableStats(big.getId(), IO_COST);
+
+		Assert.assertEquals(rows, s.totalTuples());
+		Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(500)), 0.02);
+		Assert.assertEquals(0.25, s.estimateSelectivity(1, Predicate.Op.GREATER_THAN, new IntField(750)), 0.02);
+		Assert.assertEquals(1.0 / 1000, s.avgSelectivity(1, Predicate.Op.EQUALS), 0.0002);
+	}
+
+	/**
+	 * Verify that saved statistics are loaded with the same estimates, and
+	 * that they are not loaded once the table has changed
+	 */
+	@Test public void persistedStatsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		s.save();
+		java.io.File statsFile = TableStats.statsFile(this.tableId);
+		try {
+			Assert.assertTrue(statsFile.exists());
+			TableStats loaded = TableStats.load(this.tableId, IO_COST);
+			Assert.assertNotNull(loaded);
+			Assert.assertEquals(s.totalTuples(), loaded.totalTuples());
+			Assert.assertEquals(s.estimateScanCost(), loaded.estimateScanCost(), 0.0);
+			for (int col = 0; col < 10; col++) {
+				for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+					Assert.assertEquals(s.estimateSelectivity(col, op, new IntField(10)),
+							loaded.estimateSelectivity(col, op, new IntField(10)), 0.0);
+				}
+				Assert.assertEquals(s.avgSelectivity(col, Predicate.Op.EQUALS),
+						loaded.avgSelectivity(col, Predicate.Op.EQUALS), 0.0);
+			}
+
+			// a new page makes the saved statistics stale
+			f.writePage(new HeapPage(new HeapPageId(this.tableId, f.numPages()),
+					HeapPage.createEmptyPageData()));
+			Assert.assertNull(TableStats.load(this.tableId, IO_COST));
+		} finally {
+			statsFile.delete();
+		}
+	}
+
+	/**
+	 * Verify that inserted and deleted tuples update the statistics of a
+	 * table, and that plans are invalidated once its size has drifted
+	 */
+	@Test public void incrementalStatsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(this.tableName, s);
+		long version = TableStats.getStatsVersion();
+		TransactionId tid = new TransactionId();
+
+		// values above the range of every column
+		ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+		for (int i = 0; i < 2000; i++) {
+			Tuple t = new Tuple(f.getTupleDesc());
+			for (int col = 0; col < 10; col++) {
+				t.setField(col, new IntField(100 + i % 100));
+			}
+			Database.getBufferPool().insertTuple(tid, this.tableId, t);
+			inserted.add(t);
+		}
+		Assert.assertEquals(12200, s.totalTuples());
+		Assert.assertTrue(TableStats.getStatsVersion() > version);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(2000.0 / 12200,
+					s.estimateSelectivity(col, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)), 0.02);
+			Assert.assertEquals(1.0 / 12200 * 20,
+					s.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(150)), 0.001);
+		}
+
+		for (Tuple t : inserted) {
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10200, s.totalTuples());
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(0.0,
+					s.estimateSelectivity(col, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)), 0.02);
+		}
+	}
+
+	/**
+	 * Verify that an empty table has statistics
+	 */
+	@Test public void emptyTableTest() throws Exception {
+		HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, 10, null,
+				new ArrayList<ArrayList<Integer>>());
+		TableStats s = new TableStats(empty.getId(), IO_COST);
+		Assert.assertEquals(0, s.estimateTableCardinality(1.0));
+	}
+
+	/**
+	 * Verify the distinct counts of the columns, and that a column of
+	 * distinct values is detected as unique
+	 */
+	@Test public void distinctValuesTest() throws Exception {
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 20000; i++) {
+			ArrayList<Integer> row = new ArrayList<Integer>();
+			row.add(i);
+			row.add(i % 1000);
+			rows.add(row);
+		}
+		java.io.File temp = java.io.File.createTempFile("table", ".dat");
+		temp.deleteOnExit();
+		HeapFileEncoder.convert(rows, temp, BufferPool.getPageSize(), 2);
+		HeapFile hf = Utility.openHeapFile(2, "c", temp);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+
+		double error = s.distinctSketch(0).relativeError();
+		Assert.assertEquals(TableStats.DISTINCT_PRECISION, s.distinctSketch(0).precision());
+		Assert.assertEquals(20000, s.estimateDistinctValues(0), 20000 * 3 * error);
+		Assert.assertEquals(1000, s.estimateDistinctValues(1), 1000 * 3 * error);
+		Assert.assertTrue(s.isUnique(0));
+		Assert.assertFalse(s.isUnique(1));
+
+		// the sketches of two columns merge into a sketch of their union
+		HyperLogLog union = s.distinctSketch(0);
+		union.merge(s.distinctSketch(1));
+		Assert.assertEquals(20000, union.estimate(), 20000 * 3 * error);
+	}
+
+	/**
+	 * Verify that equality predicates on a declared group of correlated
+	 * columns are not treated as independent, that other predicates still
+	 * are, and that saved statistics keep the group
+	 */
+	@Test public void columnGroupTest() throws Exception {
+		// a city of every ten zip codes, and an unrelated column
+		java.util.Random r = new java.util.Random(7);
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 20000; i++) {
+			ArrayList<Integer> row = new ArrayList<Integer>();
+			row.add(i % 1000 / 10);
+			row.add(i % 1000);
+			row.add(r.nextInt(1000));
+			rows.add(row);
+		}
+		java.io.File temp = java.io.File.createTempFile("table", ".dat");
+		temp.deleteOnExit();
+		HeapFileEncoder.convert(rows, temp, BufferPool.getPageSize(), 3);
+		HeapFile hf = Utility.openHeapFile(3, "c", temp);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+		java.util.List<Predicate> cityAndZip = java.util.Arrays.asList(
+				new Predicate(0, Predicate.Op.EQUALS, new IntField(5)),
+				new Predicate(1, Predicate.Op.EQUALS, new IntField(57)));
+		java.util.List<Predicate> cityAndOther = java.util.Arrays.asList(
+				new Predicate(0, Predicate.Op.EQUALS, new IntField(5)),
+				new Predicate(2, Predicate.Op.EQUALS, new IntField(7)));
+		TableStats independent = new TableStats(hf.getId(), IO_COST);
+		Assert.assertEquals(1.0 / 100 / 1000, independent.estimateSelectivity(cityAndZip), 0.00001);
+
+		Database.getCatalog().addColumnGroup(hf.getId(), "c0", "c1");
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		Assert.assertEquals(1.0 / 1000, s.estimateSelectivity(cityAndZip), 0.0002);
+		Assert.assertEquals(independent.estimateSelectivity(cityAndOther),
+				s.estimateSelectivity(cityAndOther), 0.0);
+		// range predicates are treated as independent
+		Assert.assertEquals(s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(5))
+				* s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(57)),
+				s.estimateConjunctionSelectivity(new int[] { 0, 1 },
+						new Predicate.Op[] { Predicate.Op.LESS_THAN, Predicate.Op.EQUALS },
+						new double[] { s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(5)),
+								s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(57)) }),
+				0.0);
+
+		s.save();
+		java.io.File statsFile = TableStats.statsFile(hf.getId());
+		try {
+			TableStats loaded = TableStats.load(hf.getId(), IO_COST);
+			Assert.assertNotNull(loaded);
+			Assert.assertEquals(s.estimateSelectivity(cityAndZip),
+					loaded.estimateSelectivity(cityAndZip), 0.0);
+			// statistics without a newly declared group are not loaded
+			Database.getCatalog().addColumnGroup(hf.getId(), "c1", "c2");
+			Assert.assertNull(TableStats.load(hf.getId(), IO_COST));
+		} finally {
+			statsFile.delete();
+		}
+	}
 }
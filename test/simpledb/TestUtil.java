@@ -166,6 +166,39 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Opens the OpIterator, reads all of its tuples and closes it.
+     * @return the tuples, as strings, in sorted order, so that the output
+     *   of plans that return the same tuples in any order compares equal
+     */
+    public static ArrayList<String> rows(OpIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * Runs the query to completion without printing its tuples.
+     * @return the number of tuples it returned
+     */
+    public static int run(Query q)
+            throws IOException, DbException, TransactionAbortedException {
+        int count = 0;
+        q.start();
+        while (q.hasNext()) {
+            q.next();
+            count++;
+        }
+        q.close();
+        return count;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
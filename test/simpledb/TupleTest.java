@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +59,40 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for the views returned by Tuple.concat() and Tuple.project()
+     */
+    @Test public void views() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        RecordId rid = new RecordId(new HeapPageId(0, 0), 7);
+        right.setRecordId(rid);
+
+        TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        Tuple joined = Tuple.concat(left, right, td);
+        assertEquals(td, joined.getTupleDesc());
+        assertEquals("1\t2\t3\t4\t5", joined.toString());
+
+        Tuple projected = Tuple.project(right, new int[] { 2, 0 }, Utility.getTupleDesc(2));
+        assertEquals(new IntField(5), projected.getField(0));
+        assertEquals(new IntField(3), projected.getField(1));
+        assertEquals(rid, projected.getRecordId());
+
+        // views read through to their input, copies do not
+        Tuple copy = joined.materialize();
+        right.setField(0, new IntField(30));
+        assertEquals(new IntField(30), joined.getField(2));
+        assertEquals(new IntField(30), projected.getField(1));
+        assertEquals(new IntField(3), copy.getField(2));
+        assertSame(copy, copy.materialize());
+        try {
+            joined.setField(0, new IntField(0));
+            fail("views cannot be modified");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,70 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Runs a scan-filter-aggregate plan,
+ * SELECT c0, SUM(c2) FROM t WHERE c1 &lt; 500 GROUP BY c0,
+ * in tuple-at-a-time mode (hasNext/next) and in batch mode (nextBatch).
+ * The buffer pool is made large enough to hold the whole table, so both
+ * modes measure CPU rather than I/O.
+ * <p>
+ * Usage: BatchBenchmark [numTuples] (default 2,000,000)
+ */
+public class BatchBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, numTuples, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        Database.resetBufferPool(table.numPages() + 10);
+        TransactionId tid = new TransactionId();
+        System.out.println("scan-filter-aggregate over " + numTuples + " tuples, best of "
+                + ROUNDS + " rounds");
+
+        long tupleBest = Long.MAX_VALUE;
+        long batchBest = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Aggregate plan = plan(tid, table);
+            long start = System.nanoTime();
+            plan.open();
+            int groups = 0;
+            while (plan.hasNext()) {
+                plan.next();
+                groups++;
+            }
+            plan.close();
+            tupleBest = Math.min(tupleBest, System.nanoTime() - start);
+
+            plan = plan(tid, table);
+            start = System.nanoTime();
+            plan.open();
+            int batchGroups = 0;
+            TupleBatch batch;
+            while ((batch = plan.nextBatch()) != null) {
+                batchGroups += batch.size();
+            }
+            plan.close();
+            batchBest = Math.min(batchBest, System.nanoTime() - start);
+            if (groups != batchGroups) {
+                throw new IllegalStateException("modes disagree: " + groups + " vs " + batchGroups);
+            }
+        }
+        System.out.printf("%-20s %8.1f ms%n", "tuple at a time", tupleBest / 1e6);
+        System.out.printf("%-20s %8.1f ms%n", "batches", batchBest / 1e6);
+        System.out.printf("speedup %.2fx%n", (double) tupleBest / batchBest);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Aggregate plan(TransactionId tid, HeapFile table) {
+        return new Aggregate(
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                        new SeqScan(tid, table.getId())),
+                2, 0, Aggregator.Op.SUM);
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how a hash-partitioned join and a hash-partitioned aggregation
+ * scale with the number of partitions, from 1 up to the number of cores:
+ * <pre>
+ * SELECT * FROM a, b WHERE a.c0 = b.c0
+ * SELECT c0, AVG(c1) FROM b GROUP BY c0
+ * </pre>
+ * The buffer pool holds both tables, so the timings are CPU bound.
+ * <p>
+ * Usage: ExchangeBenchmark [numTuples] [maxThreads] (defaults 500,000 and the
+ * number of available processors)
+ */
+public class ExchangeBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private interface Plan {
+        OpIterator create(int n);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, numTuples / 10, numTuples, null,
+                new ArrayList<ArrayList<Integer>>());
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, numTuples, numTuples, null,
+                new ArrayList<ArrayList<Integer>>());
+        Database.resetBufferPool(a.numPages() + b.numPages() + 10);
+        TransactionId tid = new TransactionId();
+        System.out.println(numTuples + " tuples, best of " + ROUNDS + " rounds");
+
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        run("hash join", maxThreads, n -> n == 1
+                ? new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()))
+                : Exchange.partitionedHashJoin(p, new SeqScan(tid, a.getId()),
+                        new SeqScan(tid, b.getId()), n));
+        run("aggregate", maxThreads, n -> n == 1
+                ? new Aggregate(new SeqScan(tid, b.getId()), 1, 0, Aggregator.Op.AVG)
+                : Exchange.partitionedAggregate(new SeqScan(tid, b.getId()), 1, 0,
+                        Aggregator.Op.AVG, n));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static void run(String name, int maxThreads, Plan plan) throws Exception {
+        long serial = 0;
+        for (int n = 1; n <= maxThreads; n *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                OpIterator it = plan.create(n);
+                long start = System.nanoTime();
+                it.open();
+                while (it.hasNext()) {
+                    it.next();
+                }
+                it.close();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (n == 1) {
+                serial = best;
+            }
+            System.out.printf("%-10s %3d threads %8.1f ms  speedup %.2fx%n", name, n,
+                    best / 1e6, (double) serial / best);
+        }
+    }
+}
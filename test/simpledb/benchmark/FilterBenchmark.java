@@ -0,0 +1,89 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares interpreted predicate evaluation ({@link Predicate#filter}, which
+ * goes through {@link Field#compare}) with {@link CompiledPredicate}s, for
+ * WHERE c1 &lt; x and for WHERE c1 &lt; x AND c2 &gt;= y, at a range of
+ * selectivities. Tuples are read into memory first, so only predicate
+ * evaluation is timed.
+ * <p>
+ * Usage: FilterBenchmark [numTuples] (default 2,000,000)
+ */
+public class FilterBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int MAX_VALUE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, numTuples, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>());
+        Database.resetBufferPool(table.numPages() + 10);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(numTuples);
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            tuples.add(scan.next());
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        System.out.println(numTuples + " tuples, best of " + ROUNDS + " rounds");
+        System.out.printf("%-12s %6s %14s %14s %8s%n", "predicates", "sel", "interpreted",
+                "compiled", "speedup");
+        for (double sel : new double[] { 0.01, 0.1, 0.5, 0.9, 1.0 }) {
+            int bound = (int) (sel * MAX_VALUE);
+            Predicate lt = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(bound));
+            Predicate ge = new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+            run("1", sel, tuples, Arrays.asList(lt));
+            run("2 (AND)", sel, tuples, Arrays.asList(lt, ge));
+        }
+    }
+
+    private static void run(String name, double sel, List<Tuple> tuples, List<Predicate> preds) {
+        CompiledPredicate compiled = CompiledPredicate.compile(preds);
+        long interpretedBest = Long.MAX_VALUE;
+        long compiledBest = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int interpretedCount = 0;
+            for (Tuple t : tuples) {
+                boolean pass = true;
+                for (Predicate p : preds) {
+                    if (!p.filter(t)) {
+                        pass = false;
+                        break;
+                    }
+                }
+                if (pass) {
+                    interpretedCount++;
+                }
+            }
+            interpretedBest = Math.min(interpretedBest, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            int compiledCount = 0;
+            for (Tuple t : tuples) {
+                if (compiled.test(t)) {
+                    compiledCount++;
+                }
+            }
+            compiledBest = Math.min(compiledBest, System.nanoTime() - start);
+            if (interpretedCount != compiledCount) {
+                throw new IllegalStateException("evaluators disagree: " + interpretedCount
+                        + " vs " + compiledCount);
+            }
+        }
+        System.out.printf("%-12s %6.2f %11.1f ms %11.1f ms %7.2fx%n", name, sel,
+                interpretedBest / 1e6, compiledBest / 1e6,
+                (double) interpretedBest / compiledBest);
+    }
+}
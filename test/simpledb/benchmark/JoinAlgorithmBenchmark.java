@@ -0,0 +1,97 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import simpledb.*;
+import simpledb.JoinOptimizer.JoinAlgorithm;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times an equality join of a small and a large table with each join
+ * algorithm, with either table held in memory, and marks the one
+ * {@link JoinOptimizer#orderJoins} chooses. "Join, 100" is the nested-loops
+ * join with blocks of 100 outer tuples that used to evaluate every join
+ * other than sort-merge joins.
+ * <p>
+ * Usage: JoinAlgorithmBenchmark [smallTuples] [largeTuples] [memoryPages]
+ * (default 2,000 and 50,000 tuples, 256 pages)
+ */
+public class JoinAlgorithmBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int MAX_VALUE = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int smallTuples = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int largeTuples = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int memoryPages = args.length > 2 ? Integer.parseInt(args[2])
+                : JoinOptimizer.DEFAULT_MEMORY_PAGES;
+        JoinOptimizer.setMemoryPages(memoryPages);
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(4, smallTuples, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile large = SystemTestUtil.createRandomHeapFile(4, largeTuples, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(small, "s");
+        Database.getCatalog().addTable(large, "l");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(small.getId(), "s");
+        lp.addScan(large.getId(), "l");
+        for (String name : new String[] { "s", "l" }) {
+            stats.put(name, new TableStats(lp.getTableId(name), 1000));
+            selectivities.put(name, 1.0);
+        }
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("s", "l", "c0", "c0", Predicate.Op.EQUALS));
+        LogicalJoinNode chosen = new JoinOptimizer(lp, joins).orderJoins(stats, selectivities,
+                false).get(0);
+
+        System.out.println(smallTuples + " x " + largeTuples + " tuples, " + memoryPages
+                + " pages of memory, best of " + ROUNDS + " rounds");
+        System.out.printf("%-20s %-8s %12s %10s%n", "algorithm", "memory", "time", "tuples");
+        for (JoinAlgorithm algorithm : JoinAlgorithm.values()) {
+            for (String outer : new String[] { "s", "l" }) {
+                LogicalJoinNode j = new LogicalJoinNode(outer, outer.equals("s") ? "l" : "s",
+                        "c0", "c0", Predicate.Op.EQUALS).withAlgorithm(algorithm);
+                if (algorithm == JoinAlgorithm.NESTED_LOOP && outer.equals("l")) {
+                    // a scan of the small table for every tuple of the large one
+                    continue;
+                }
+                boolean isChosen = chosen.algorithm == algorithm && chosen.t1Alias.equals(outer);
+                report(algorithm + (isChosen ? " *" : ""), outer, j, null);
+            }
+        }
+        for (String outer : new String[] { "s", "l" }) {
+            report("Join, 100", outer, null, outer);
+        }
+    }
+
+    private static void report(String name, String outer, LogicalJoinNode j, String oldOuter)
+            throws Exception {
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            TransactionId tid = new TransactionId();
+            String inner = outer.equals("s") ? "l" : "s";
+            OpIterator plan1 = new SeqScan(tid, Database.getCatalog().getTableId(outer), outer);
+            OpIterator plan2 = new SeqScan(tid, Database.getCatalog().getTableId(inner), inner);
+            OpIterator join = j != null ? JoinOptimizer.instantiateJoin(j, plan1, plan2)
+                    : new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0), plan1, plan2);
+            long start = System.nanoTime();
+            count = 0;
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+                count++;
+            }
+            join.close();
+            best = Math.min(best, System.nanoTime() - start);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        System.out.printf("%-20s %-8s %9.1f ms %10d%n", name, outer, best / 1e6, count);
+    }
+}
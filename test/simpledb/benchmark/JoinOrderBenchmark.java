@@ -0,0 +1,81 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times {@link JoinOptimizer#orderJoins} on star joins, where one fact table
+ * is joined with every other table, and on chain joins, where each table is
+ * joined with the next, of a growing number of tables.
+ * <p>
+ * Usage: JoinOrderBenchmark [maxTables] (default 20)
+ */
+public class JoinOrderBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int maxTables = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        // a fact table with a column for each other table, and tables of
+        // different sizes to join it with
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        LogicalPlan lp = new LogicalPlan();
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(maxTables - 1, 5000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(fact, "f");
+        add(lp, stats, selectivities, fact, "f");
+        for (int i = 0; i < maxTables; i++) {
+            HeapFile t = SystemTestUtil.createRandomHeapFile(2, 100 + 200 * i, 1000, null,
+                    new ArrayList<ArrayList<Integer>>(), "c");
+            Database.getCatalog().addTable(t, "t" + i);
+            add(lp, stats, selectivities, t, "t" + i);
+        }
+
+        System.out.println("orderJoins, median of " + ROUNDS + " rounds");
+        System.out.printf("%-8s %12s %12s%n", "tables", "star", "chain");
+        for (int n = 4; n <= maxTables; n += 2) {
+            Vector<LogicalJoinNode> star = new Vector<LogicalJoinNode>();
+            for (int i = 0; i < n - 1; i++) {
+                star.add(new LogicalJoinNode("f", "t" + i, "c" + i, "c0", Predicate.Op.EQUALS));
+            }
+            Vector<LogicalJoinNode> chain = new Vector<LogicalJoinNode>();
+            for (int i = 0; i < n - 1; i++) {
+                chain.add(new LogicalJoinNode("t" + i, "t" + (i + 1), "c1", "c0",
+                        Predicate.Op.EQUALS));
+            }
+            System.out.printf("%-8d %9.2f ms %9.2f ms%n", n,
+                    time(lp, star, stats, selectivities) / 1e6,
+                    time(lp, chain, stats, selectivities) / 1e6);
+        }
+    }
+
+    private static void add(LogicalPlan lp, HashMap<String, TableStats> stats,
+            HashMap<String, Double> selectivities, HeapFile f, String name) {
+        lp.addScan(f.getId(), name);
+        stats.put(name, new TableStats(f.getId(), 1000));
+        selectivities.put(name, 1.0);
+    }
+
+    private static long time(LogicalPlan lp, Vector<LogicalJoinNode> joins,
+            HashMap<String, TableStats> stats, HashMap<String, Double> selectivities)
+            throws ParsingException {
+        long[] times = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            Vector<LogicalJoinNode> plan = new JoinOptimizer(lp, joins).orderJoins(stats,
+                    selectivities, false);
+            times[round] = System.nanoTime() - start;
+            if (plan.size() != joins.size()) {
+                throw new IllegalStateException("plan lost joins: " + plan);
+            }
+        }
+        java.util.Arrays.sort(times);
+        return times[ROUNDS / 2];
+    }
+}
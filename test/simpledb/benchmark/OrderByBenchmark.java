@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares sorting tuples with a comparator that goes through
+ * {@link Field#compare} (the way OrderBy used to sort) against
+ * {@link TupleSorter}, for a single int key and for a two-column key.
+ * <p>
+ * Usage: OrderByBenchmark [numTuples] (default 10,000,000). Sorting ten
+ * million tuples needs a large heap, e.g. -Xmx4g.
+ */
+public class OrderByBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    /** Compares the way the original OrderBy comparator did */
+    private static class FieldCompareComparator implements Comparator<Tuple> {
+        private final int field;
+
+        FieldCompareComparator(int field) {
+            this.field = field;
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            Field t1 = o1.getField(field);
+            Field t2 = o2.getField(field);
+            if (t1.compare(Predicate.Op.EQUALS, t2))
+                return 0;
+            return t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        TupleDesc td = Utility.getTupleDesc(2);
+        Random rand = new Random(6830);
+        ArrayList<Tuple> input = new ArrayList<Tuple>(numTuples);
+        for (int i = 0; i < numTuples; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(rand.nextInt()));
+            t.setField(1, new IntField(rand.nextInt(1000)));
+            input.add(t);
+        }
+        System.out.println("sorting " + numTuples + " tuples, best of " + ROUNDS + " rounds");
+
+        Comparator<Tuple> fieldCompare = new FieldCompareComparator(0);
+        TupleSorter intSorter = new TupleSorter(td, new int[] { 0 }, new boolean[] { true });
+        TupleSorter twoColumnSorter = new TupleSorter(td, new int[] { 1, 0 },
+                new boolean[] { true, false });
+
+        report("Field.compare comparator, 1 int key", bestOf(input,
+                tuples -> Collections.sort(tuples, fieldCompare)));
+        report("TupleSorter, 1 int key", bestOf(input, intSorter::sort));
+        report("TupleSorter comparator, 2 int keys", bestOf(input,
+                tuples -> Collections.sort(tuples, twoColumnSorter.comparator())));
+        report("TupleSorter, 2 int keys", bestOf(input, twoColumnSorter::sort));
+    }
+
+    private interface Sort {
+        void sort(ArrayList<Tuple> tuples);
+    }
+
+    private static long bestOf(ArrayList<Tuple> input, Sort sort) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>(input);
+            long start = System.nanoTime();
+            sort.sort(tuples);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.printf("%-40s %8.1f ms%n", name, nanos / 1e6);
+    }
+}
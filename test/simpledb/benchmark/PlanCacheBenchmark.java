@@ -0,0 +1,66 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures how long it takes to plan a chain join of n tables, with constants
+ * that change from run to run, without and with the query plan cache. Only
+ * planning is timed; the plans are not run.
+ * <p>
+ * Usage: PlanCacheBenchmark [numTables] (default 5)
+ */
+public class PlanCacheBenchmark {
+
+    private static final int RUNS = 50;
+
+    public static void main(String[] args) throws Exception {
+        int numTables = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < numTables; i++) {
+            String name = "t" + i;
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (i + 1), 1000, null,
+                    new ArrayList<ArrayList<Integer>>(), "c");
+            Database.getCatalog().addTable(f, name);
+            TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+            from.append(i == 0 ? "" : ", ").append(name);
+            if (i > 0) {
+                where.append("t").append(i - 1).append(".c1 = ").append(name).append(".c0 AND ");
+            }
+        }
+        String query = "SELECT t0.c0 FROM " + from + " WHERE " + where + "t0.c1 < ";
+
+        // drop the parser's progress messages
+        java.io.PrintStream out = System.out;
+        System.setOut(new java.io.PrintStream(new java.io.ByteArrayOutputStream()));
+        long uncached = plan(query, false);
+        long cached = plan(query, true);
+        System.setOut(out);
+
+        QueryPlanCache cache = Database.getPlanCache();
+        System.out.println(numTables + " tables, " + RUNS + " runs");
+        System.out.printf("%-10s %11.2f ms/query%n", "no cache", uncached / 1e6 / RUNS);
+        System.out.printf("%-10s %11.2f ms/query%n", "cache", cached / 1e6 / RUNS);
+        System.out.printf("hits %d, misses %d, join ordering time saved %.1f ms%n",
+                cache.getHits(), cache.getMisses(), cache.getPlanningNanosSaved() / 1e6);
+    }
+
+    private static long plan(String query, boolean useCache) throws Exception {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        long total = 0;
+        for (int run = 0; run < RUNS; run++) {
+            if (!useCache) {
+                Database.getPlanCache().clear();
+            }
+            long start = System.nanoTime();
+            LogicalPlan lp = p.generateLogicalPlan(tid, query + (run * 7 % 1000) + ";");
+            lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+            total += System.nanoTime() - start;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares running single-row INSERTs and point SELECTs by parsing and
+ * planning every statement with running them through a
+ * {@link PreparedStatement}. All statements run in one transaction, so that
+ * only statement handling is measured.
+ * <p>
+ * Usage: PreparedStatementBenchmark [numStatements] (default 5,000)
+ */
+public class PreparedStatementBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // drop the parser's progress messages
+        java.io.PrintStream out = System.out;
+        System.setOut(new java.io.PrintStream(new java.io.ByteArrayOutputStream()));
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            run(p.prepare(tid, "INSERT INTO t VALUES (" + i + ", 1);"), tid);
+        }
+        long insertParsed = System.nanoTime() - start;
+        PreparedStatement insert = p.prepare(tid, "INSERT INTO t VALUES (?, 1);");
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            run(insert, tid, new IntField(i));
+        }
+        long insertPrepared = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            run(p.prepare(tid, "SELECT t.c1 FROM t WHERE t.c0 = " + (i % 1000) + ";"), tid);
+        }
+        long selectParsed = System.nanoTime() - start;
+        PreparedStatement select = p.prepare(tid, "SELECT t.c1 FROM t WHERE t.c0 = ?;");
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            run(select, tid, new IntField(i % 1000));
+        }
+        long selectPrepared = System.nanoTime() - start;
+        System.setOut(out);
+
+        System.out.println(n + " statements of each kind");
+        System.out.printf("%-8s %12s %12s %8s%n", "", "parsed", "prepared", "speedup");
+        System.out.printf("%-8s %9.1f us %9.1f us %7.2fx%n", "INSERT", insertParsed / 1e3 / n,
+                insertPrepared / 1e3 / n, (double) insertParsed / insertPrepared);
+        System.out.printf("%-8s %9.1f us %9.1f us %7.2fx%n", "SELECT", selectParsed / 1e3 / n,
+                selectPrepared / 1e3 / n, (double) selectParsed / selectPrepared);
+    }
+
+    private static void run(PreparedStatement ps, TransactionId tid, Field... values)
+            throws Exception {
+        Query q = ps.execute(tid, values);
+        while (q.hasNext()) {
+            q.next();
+        }
+        q.close();
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares a SeqScan under a Filter and a Project with a SeqScan that has the
+ * predicate and the columns pushed into it, for
+ * <pre>
+ * SELECT c0 FROM t WHERE c1 &lt; x
+ * </pre>
+ * on a table of 8 int columns, at a range of selectivities. The buffer pool
+ * is reset before every scan, so each scan starts from undecoded pages.
+ * <p>
+ * Usage: ScanBenchmark [numTuples] (default 500,000)
+ */
+public class ScanBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int MAX_VALUE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        HeapFile table = SystemTestUtil.createRandomHeapFile(8, numTuples, MAX_VALUE, null,
+                new ArrayList<ArrayList<Integer>>());
+        System.out.println(numTuples + " tuples, best of " + ROUNDS + " rounds");
+        System.out.printf("%6s %14s %14s %8s%n", "sel", "filter", "pushdown", "speedup");
+        for (double sel : new double[] { 0.01, 0.1, 0.5, 1.0 }) {
+            List<Predicate> preds = Arrays.asList(new Predicate(1, Predicate.Op.LESS_THAN,
+                    new IntField((int) (sel * MAX_VALUE))));
+            long filterBest = Long.MAX_VALUE;
+            long pushdownBest = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                TransactionId tid = new TransactionId();
+                ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(0));
+                ArrayList<Type> types = new ArrayList<Type>(Arrays.asList(Type.INT_TYPE));
+                filterBest = Math.min(filterBest, time(new Project(fields, types,
+                        new Filter(preds.get(0), new SeqScan(tid, table.getId())))));
+                pushdownBest = Math.min(pushdownBest, time(new SeqScan(tid, table.getId(),
+                        "t", new int[] { 0 }, preds)));
+            }
+            System.out.printf("%6.2f %11.1f ms %11.1f ms %7.2fx%n", sel, filterBest / 1e6,
+                    pushdownBest / 1e6, (double) filterBest / pushdownBest);
+        }
+    }
+
+    private static long time(OpIterator it) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long start = System.nanoTime();
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the selectivity estimates of a fixed-width {@link IntHistogram}
+ * fed every value of a column with those of {@link TableStats}, on a column
+ * whose values follow a Zipfian distribution. The error of an estimate is its
+ * q-error, max(estimate / actual, actual / estimate), with both counted in
+ * tuples and at least one tuple.
+ * <p>
+ * Usage: SkewedStatsBenchmark [numTuples] [numValues] [skew] (default
+ * 200,000 tuples of 10,000 values, skew 1.1)
+ */
+public class SkewedStatsBenchmark {
+
+    private static final int QUERIES = 200;
+    private static final int TOP_VALUES = 20;
+
+    public static void main(String[] args) throws Exception {
+        int numTuples = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int numValues = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        double skew = args.length > 2 ? Double.parseDouble(args[2]) : 1.1;
+
+        // the value of rank k is scattered over the domain, so that the
+        // common values are not all at one end
+        Random r = new Random(42);
+        double[] cdf = new double[numValues];
+        double sum = 0;
+        for (int k = 0; k < numValues; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cdf[k] = sum;
+        }
+        int[] valueOfRank = new int[numValues];
+        for (int k = 0; k < numValues; k++) {
+            valueOfRank[k] = (int) ((long) k * 7919 % numValues);
+        }
+        int[] counts = new int[numValues];
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>(numTuples);
+        for (int i = 0; i < numTuples; i++) {
+            int k = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+            int v = valueOfRank[k < 0 ? -k - 1 : k];
+            counts[v]++;
+            tuples.add(new ArrayList<Integer>(Arrays.asList(v)));
+        }
+
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 1);
+        HeapFile f = Utility.openHeapFile(1, "c", temp);
+        Database.getCatalog().addTable(f, "zipf");
+        TableStats stats = new TableStats(f.getId(), 1);
+
+        IntHistogram fixed = new IntHistogram(100, 0, numValues - 1);
+        for (ArrayList<Integer> t : tuples) {
+            fixed.addValue(t.get(0));
+        }
+
+        System.out.println(numTuples + " tuples of " + numValues + " values, skew " + skew
+                + ", " + QUERIES + " random values");
+        System.out.printf("%-22s %22s %22s%n", "", "fixed-width (med/max)", "equi-depth+MCV (med/max)");
+
+        int[] frequent = new int[Math.min(TOP_VALUES, numValues)];
+        for (int k = 0; k < frequent.length; k++) {
+            frequent[k] = valueOfRank[k];
+        }
+        compare("= " + TOP_VALUES + " most common", fixed, stats, Predicate.Op.EQUALS, frequent, counts, numTuples);
+
+        int[] random = new int[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            random[q] = r.nextInt(numValues);
+        }
+        compare("= random values", fixed, stats, Predicate.Op.EQUALS, random, counts, numTuples);
+        compare("< random values", fixed, stats, Predicate.Op.LESS_THAN, random, counts, numTuples);
+
+        // self-join on the column
+        double joined = 0;
+        for (int c : counts) {
+            joined += (double) c * c;
+        }
+        double fixedJoin = IntHistogram.estimateJoinSelectivity(fixed, fixed, Predicate.Op.EQUALS)
+                * numTuples * numTuples;
+        double statsJoin = TableStats.estimateJoinSelectivity(stats, "c0", stats, "c0",
+                Predicate.Op.EQUALS) * numTuples * numTuples;
+        System.out.printf("%-22s %22.2f %22.2f%n", "self equi-join",
+                qError(fixedJoin, joined), qError(statsJoin, joined));
+    }
+
+    private static void compare(String name, IntHistogram fixed, TableStats stats,
+            Predicate.Op op, int[] values, int[] counts, int numTuples) {
+        double[] fixedErrors = new double[values.length];
+        double[] statsErrors = new double[values.length];
+        for (int q = 0; q < values.length; q++) {
+            int v = values[q];
+            long actual = 0;
+            for (int w = 0; w < counts.length; w++) {
+                if (op == Predicate.Op.EQUALS ? w == v : w < v) {
+                    actual += counts[w];
+                }
+            }
+            fixedErrors[q] = qError(fixed.estimateSelectivity(op, v) * numTuples, actual);
+            statsErrors[q] = qError(
+                    stats.estimateSelectivity(0, op, new IntField(v)) * numTuples, actual);
+        }
+        Arrays.sort(fixedErrors);
+        Arrays.sort(statsErrors);
+        System.out.printf("%-22s %10.2f/%-11.2f %10.2f/%-11.2f%n", name,
+                fixedErrors[values.length / 2], fixedErrors[values.length - 1],
+                statsErrors[values.length / 2], statsErrors[values.length - 1]);
+    }
+
+    private static double qError(double estimate, double actual) {
+        estimate = Math.max(estimate, 1);
+        actual = Math.max(actual, 1);
+        return Math.max(estimate / actual, actual / estimate);
+    }
+}
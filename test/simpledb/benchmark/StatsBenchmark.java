@@ -0,0 +1,114 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares {@link TableStats#computeStatistics} with building the same
+ * histograms the way TableStats used to: a serial scan of each table to find
+ * the range of every field, then a second scan to fill the histograms.
+ * Also times computeStatistics when the statistics it saved can be loaded,
+ * including reading the histograms on first use, as at a restart.
+ * <p>
+ * Usage: StatsBenchmark [numTables] [numTuples] (default 4 tables of
+ * 500,000 tuples of 4 int fields)
+ */
+public class StatsBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int numTables = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int numTuples = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+        ArrayList<Integer> tableIds = new ArrayList<Integer>();
+        for (int i = 0; i < numTables; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(4, numTuples, 100000, null,
+                    new ArrayList<ArrayList<Integer>>());
+            Database.getCatalog().addTable(f, "t" + i);
+            tableIds.add(f.getId());
+        }
+        System.out.println(numTables + " tables of " + numTuples + " tuples, "
+                + Runtime.getRuntime().availableProcessors() + " cores, best of " + ROUNDS
+                + " rounds");
+
+        long twoPass = Long.MAX_VALUE;
+        long onePass = Long.MAX_VALUE;
+        long loaded = Long.MAX_VALUE;
+        java.io.PrintStream out = System.out;
+        for (int round = 0; round < ROUNDS; round++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            long start = System.nanoTime();
+            for (int tableId : tableIds) {
+                twoPass(tableId);
+            }
+            twoPass = Math.min(twoPass, System.nanoTime() - start);
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            deleteSavedStats();
+            System.setOut(new java.io.PrintStream(new java.io.ByteArrayOutputStream()));
+            start = System.nanoTime();
+            TableStats.computeStatistics();
+            onePass = Math.min(onePass, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            TableStats.computeStatistics();
+            for (int i = 0; i < numTables; i++) {
+                TableStats.getTableStats("t" + i).avgSelectivity(0, Predicate.Op.EQUALS);
+            }
+            loaded = Math.min(loaded, System.nanoTime() - start);
+            System.setOut(out);
+        }
+        deleteSavedStats();
+
+        System.out.printf("two serial passes %10.1f ms%n", twoPass / 1e6);
+        System.out.printf("computeStatistics %10.1f ms  (%.2fx)%n", onePass / 1e6,
+                (double) twoPass / onePass);
+        System.out.printf("saved statistics  %10.1f ms  (%.2fx)%n", loaded / 1e6,
+                (double) twoPass / loaded);
+    }
+
+    private static void deleteSavedStats() {
+        java.util.Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            java.io.File f = TableStats.statsFile(it.next());
+            if (f != null) {
+                f.delete();
+            }
+        }
+    }
+
+    private static IntHistogram[] twoPass(int tableId) throws Exception {
+        TransactionId tid = new TransactionId();
+        int numFields = Database.getCatalog().getTupleDesc(tableId).numFields();
+        int[] min = new int[numFields];
+        int[] max = new int[numFields];
+        java.util.Arrays.fill(min, Integer.MAX_VALUE);
+        java.util.Arrays.fill(max, Integer.MIN_VALUE);
+        SeqScan scan = new SeqScan(tid, tableId);
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            for (int i = 0; i < numFields; i++) {
+                int v = ((IntField) t.getField(i)).getValue();
+                min[i] = Math.min(min[i], v);
+                max[i] = Math.max(max[i], v);
+            }
+        }
+        IntHistogram[] hists = new IntHistogram[numFields];
+        for (int i = 0; i < numFields; i++) {
+            hists[i] = new IntHistogram(100, min[i], max[i]);
+        }
+        scan.rewind();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            for (int i = 0; i < numFields; i++) {
+                hists[i].addValue(((IntField) t.getField(i)).getValue());
+            }
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return hists;
+    }
+}
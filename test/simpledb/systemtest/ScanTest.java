@@ -7,6 +7,8 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -67,6 +69,51 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Returns the given columns of the tuples that pass c0 < 500 AND c2 >= 200. */
+    private static ArrayList<ArrayList<Integer>> selectProject(
+            ArrayList<ArrayList<Integer>> tuples, int[] columns) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 500 && t.get(2) >= 200) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                for (int c : columns) {
+                    row.add(t.get(c));
+                }
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    /** Test a SeqScan with pushed-down predicates and columns, on pages that
+     * are still encoded and on pages that have been modified. */
+    @Test public void testPushdown() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 5000, 1000, null, tuples);
+        List<Predicate> preds = Arrays.asList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(200)));
+        int[] columns = new int[]{3, 0};
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", columns, preds);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t." + f.getTupleDesc().getFieldName(3),
+                scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, selectProject(tuples, columns));
+
+        // decode some pages by inserting into them
+        Tuple t = new Tuple(f.getTupleDesc());
+        for (int i = 0; i < 4; i++) {
+            t.setField(i, new IntField(i * 100));
+        }
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        tuples.add(SystemTestUtil.tupleToList(t));
+        scan = new SeqScan(tid, f.getId(), "t", columns, preds);
+        SystemTestUtil.matchTuples(scan, selectProject(tuples, columns));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */